@@ -0,0 +1,298 @@
+package jhs.lc.data;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Box-Least-Squares transit search (Kovacs, Zucker and Mazeh, 2002). For each trial period
+ * the light curve is folded into phase bins, and prefix sums over the bins give the signal
+ * residue of every box in constant time. Trial periods are spread across a fork-join pool.
+ */
+public class BoxLeastSquares {
+	private static final int PERIODS_PER_TASK = 8;
+
+	private final double minPeriod;
+	private final double maxPeriod;
+	private final int numPeriods;
+	private final int numBins;
+	private double minDurationFraction = 0.005;
+	private double maxDurationFraction = 0.1;
+
+	public BoxLeastSquares(double minPeriod, double maxPeriod, int numPeriods, int numBins) {
+		if(minPeriod <= 0 || maxPeriod < minPeriod) {
+			throw new IllegalArgumentException("Invalid period range: [" + minPeriod + ", " + maxPeriod + "].");
+		}
+		if(numPeriods < 1 || numBins < 2) {
+			throw new IllegalArgumentException("Invalid grid: numPeriods=" + numPeriods + ", numBins=" + numBins + ".");
+		}
+		this.minPeriod = minPeriod;
+		this.maxPeriod = maxPeriod;
+		this.numPeriods = numPeriods;
+		this.numBins = numBins;
+	}
+
+	public final double getMinDurationFraction() {
+		return minDurationFraction;
+	}
+
+	/**
+	 * Sets the shortest transit duration searched, as a fraction of the period.
+	 */
+	public final void setMinDurationFraction(double minDurationFraction) {
+		this.minDurationFraction = minDurationFraction;
+	}
+
+	public final double getMaxDurationFraction() {
+		return maxDurationFraction;
+	}
+
+	/**
+	 * Sets the longest transit duration searched, as a fraction of the period.
+	 */
+	public final void setMaxDurationFraction(double maxDurationFraction) {
+		this.maxDurationFraction = maxDurationFraction;
+	}
+
+	/**
+	 * Gets trial periods, evenly spaced in frequency.
+	 */
+	public double[] periodGrid() {
+		int n = this.numPeriods;
+		double[] periods = new double[n];
+		if(n == 1) {
+			periods[0] = this.minPeriod;
+			return periods;
+		}
+		double minFrequency = 1.0 / this.maxPeriod;
+		double maxFrequency = 1.0 / this.minPeriod;
+		for(int i = 0; i < n; i++) {
+			double frequency = maxFrequency - (maxFrequency - minFrequency) * i / (n - 1);
+			periods[i] = 1.0 / frequency;
+		}
+		return periods;
+	}
+
+	public Result search(LightCurve lightCurve) {
+		return this.search(lightCurve, ForkJoinPool.commonPool());
+	}
+
+	public Result search(LightCurve lightCurve, ForkJoinPool pool) {
+		int n = lightCurve.size();
+		if(n < 2) {
+			throw new IllegalArgumentException("Light curve is too short for a transit search.");
+		}
+		double[] timestamps = lightCurve.getTimestamps();
+		double[] normWeights = new double[n];
+		double weightSum = 0;
+		for(int i = 0; i < n; i++) {
+			normWeights[i] = lightCurve.getWeight(i);
+			weightSum += normWeights[i];
+		}
+		double meanFlux = 0;
+		for(int i = 0; i < n; i++) {
+			normWeights[i] /= weightSum;
+			meanFlux += normWeights[i] * lightCurve.getFlux(i);
+		}
+		double[] deviations = new double[n];
+		for(int i = 0; i < n; i++) {
+			deviations[i] = normWeights[i] * (lightCurve.getFlux(i) - meanFlux);
+		}
+		double[] periods = this.periodGrid();
+		double[] powers = new double[periods.length];
+		int[] bestStarts = new int[periods.length];
+		int[] bestDurations = new int[periods.length];
+		double[] bestSums = new double[periods.length];
+		double[] bestFractions = new double[periods.length];
+		SearchData data = new SearchData(timestamps, normWeights, deviations, periods, powers, bestStarts, bestDurations, bestSums, bestFractions);
+		pool.invoke(new PeriodRangeTask(data, 0, periods.length));
+		int best = 0;
+		for(int p = 1; p < periods.length; p++) {
+			if(powers[p] > powers[best]) {
+				best = p;
+			}
+		}
+		double period = periods[best];
+		double binWidth = period / this.numBins;
+		double duration = bestDurations[best] * binWidth;
+		// The box may wrap around phase zero, which would put its midpoint a period too late.
+		double midPhase = bestStarts[best] * binWidth + duration / 2;
+		double epoch = timestamps[0] + (midPhase >= period ? midPhase - period : midPhase);
+		double r = bestFractions[best];
+		double depth = r <= 0 || r >= 1 ? 0 : -bestSums[best] / (r * (1 - r));
+		return new Result(period, epoch, duration, depth, powers[best], periods, powers);
+	}
+
+	private void searchPeriod(SearchData data, int p, double[] binWeights, double[] binSums, double[] prefixWeights, double[] prefixSums) {
+		int numBins = this.numBins;
+		double period = data.periods[p];
+		double[] timestamps = data.timestamps;
+		double[] normWeights = data.normWeights;
+		double[] deviations = data.deviations;
+		double t0 = timestamps[0];
+		Arrays.fill(binWeights, 0);
+		Arrays.fill(binSums, 0);
+		int n = timestamps.length;
+		for(int i = 0; i < n; i++) {
+			double phase = (timestamps[i] - t0) / period;
+			phase -= Math.floor(phase);
+			int b = (int) (phase * numBins);
+			if(b >= numBins) {
+				b = numBins - 1;
+			}
+			binWeights[b] += normWeights[i];
+			binSums[b] += deviations[i];
+		}
+		// Prefix sums over two copies of the bins so boxes can wrap around phase zero.
+		prefixWeights[0] = 0;
+		prefixSums[0] = 0;
+		for(int k = 0; k < 2 * numBins; k++) {
+			int b = k < numBins ? k : k - numBins;
+			prefixWeights[k + 1] = prefixWeights[k] + binWeights[b];
+			prefixSums[k + 1] = prefixSums[k] + binSums[b];
+		}
+		int minDuration = Math.max(1, (int) Math.round(this.minDurationFraction * numBins));
+		int maxDuration = Math.min(numBins - 1, Math.max(minDuration, (int) Math.round(this.maxDurationFraction * numBins)));
+		double bestPower = 0;
+		int bestStart = 0, bestDuration = minDuration;
+		double bestSum = 0, bestFraction = 0;
+		for(int start = 0; start < numBins; start++) {
+			double w0 = prefixWeights[start];
+			double s0 = prefixSums[start];
+			for(int q = minDuration; q <= maxDuration; q++) {
+				double r = prefixWeights[start + q] - w0;
+				double s = prefixSums[start + q] - s0;
+				if(s >= 0 || r <= 0 || r >= 1) {
+					continue;
+				}
+				double power = s * s / (r * (1 - r));
+				if(power > bestPower) {
+					bestPower = power;
+					bestStart = start;
+					bestDuration = q;
+					bestSum = s;
+					bestFraction = r;
+				}
+			}
+		}
+		data.powers[p] = bestPower;
+		data.bestStarts[p] = bestStart;
+		data.bestDurations[p] = bestDuration;
+		data.bestSums[p] = bestSum;
+		data.bestFractions[p] = bestFraction;
+	}
+
+	private static final class SearchData {
+		private final double[] timestamps;
+		private final double[] normWeights;
+		private final double[] deviations;
+		private final double[] periods;
+		private final double[] powers;
+		private final int[] bestStarts;
+		private final int[] bestDurations;
+		private final double[] bestSums;
+		private final double[] bestFractions;
+
+		public SearchData(double[] timestamps, double[] normWeights, double[] deviations, double[] periods, double[] powers,
+				int[] bestStarts, int[] bestDurations, double[] bestSums, double[] bestFractions) {
+			this.timestamps = timestamps;
+			this.normWeights = normWeights;
+			this.deviations = deviations;
+			this.periods = periods;
+			this.powers = powers;
+			this.bestStarts = bestStarts;
+			this.bestDurations = bestDurations;
+			this.bestSums = bestSums;
+			this.bestFractions = bestFractions;
+		}
+	}
+
+	private final class PeriodRangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final SearchData data;
+		private final int fromIndex, toIndex;
+
+		public PeriodRangeTask(SearchData data, int fromIndex, int toIndex) {
+			this.data = data;
+			this.fromIndex = fromIndex;
+			this.toIndex = toIndex;
+		}
+
+		@Override
+		protected void compute() {
+			if(this.toIndex - this.fromIndex <= PERIODS_PER_TASK) {
+				int numBins = BoxLeastSquares.this.numBins;
+				double[] binWeights = new double[numBins];
+				double[] binSums = new double[numBins];
+				double[] prefixWeights = new double[2 * numBins + 1];
+				double[] prefixSums = new double[2 * numBins + 1];
+				for(int p = this.fromIndex; p < this.toIndex; p++) {
+					searchPeriod(this.data, p, binWeights, binSums, prefixWeights, prefixSums);
+				}
+			}
+			else {
+				int mid = (this.fromIndex + this.toIndex) >>> 1;
+				invokeAll(new PeriodRangeTask(this.data, this.fromIndex, mid), new PeriodRangeTask(this.data, mid, this.toIndex));
+			}
+		}
+	}
+
+	public static final class Result {
+		private final double period;
+		private final double epoch;
+		private final double duration;
+		private final double depth;
+		private final double power;
+		private final double[] periods;
+		private final double[] powers;
+
+		public Result(double period, double epoch, double duration, double depth, double power, double[] periods, double[] powers) {
+			this.period = period;
+			this.epoch = epoch;
+			this.duration = duration;
+			this.depth = depth;
+			this.power = power;
+			this.periods = periods;
+			this.powers = powers;
+		}
+
+		public final double getPeriod() {
+			return period;
+		}
+
+		/**
+		 * Gets the timestamp of the midpoint of the first transit in the light curve.
+		 */
+		public final double getEpoch() {
+			return epoch;
+		}
+
+		public final double getDuration() {
+			return duration;
+		}
+
+		public final double getDepth() {
+			return depth;
+		}
+
+		/**
+		 * Gets the signal residue of the best box.
+		 */
+		public final double getPower() {
+			return power;
+		}
+
+		public final double[] getPeriods() {
+			return periods;
+		}
+
+		public final double[] getPowers() {
+			return powers;
+		}
+
+		@Override
+		public String toString() {
+			return "BLS[period=" + period + ", epoch=" + epoch + ", duration=" + duration + ", depth=" + depth + ", power=" + power + "]";
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package jhs.lc.data;
+
+import java.util.Arrays;
+
+/**
+ * Bins a dense light curve adaptively: fine bins across the transit window, located via
+ * trend change detection, and coarse bins elsewhere. Each bin is placed at the mean timestamp
+ * and mean flux of its points, and its weight is the sum of the weights of those points.
+ */
+public class CadenceBinner {
+	private static final int MIN_TREND_WINDOW_LENGTH = 7;
+	private static final double TREND_WINDOW_FRACTION = 0.01;
+
+	private final double fineBinWidth;
+	private final double coarseBinWidth;
+	private double windowMarginFraction = 0.5;
+	private int trendWindowLength = 0;
+
+	/**
+	 * @param fineBinWidth Bin width within the transit window. Zero keeps those points as they are.
+	 * @param coarseBinWidth Bin width outside the transit window.
+	 */
+	public CadenceBinner(double fineBinWidth, double coarseBinWidth) {
+		if(fineBinWidth < 0 || coarseBinWidth <= 0) {
+			throw new IllegalArgumentException("Invalid bin widths: fine=" + fineBinWidth + ", coarse=" + coarseBinWidth + ".");
+		}
+		this.fineBinWidth = fineBinWidth;
+		this.coarseBinWidth = coarseBinWidth;
+	}
+
+	public final double getWindowMarginFraction() {
+		return windowMarginFraction;
+	}
+
+	/**
+	 * Sets the fraction of the detected transit duration that is added on either side of the fine window.
+	 */
+	public final void setWindowMarginFraction(double windowMarginFraction) {
+		this.windowMarginFraction = windowMarginFraction;
+	}
+
+	public final int getTrendWindowLength() {
+		return trendWindowLength;
+	}
+
+	/**
+	 * Sets the window length used to compute the trend change profile. Zero means it's derived from the light curve size.
+	 */
+	public final void setTrendWindowLength(int trendWindowLength) {
+		this.trendWindowLength = trendWindowLength;
+	}
+
+	/**
+	 * Gets the timestamp range [from, to] where fine bins are used.
+	 */
+	public double[] fineWindow(LightCurve lightCurve) {
+		double[] timestamps = lightCurve.getTimestamps();
+		double[] fluxArray = lightCurve.getFluxArray();
+		int wl = this.trendWindowLength;
+		if(wl <= 0) {
+			wl = Math.max(MIN_TREND_WINDOW_LENGTH, (int) Math.round(fluxArray.length * TREND_WINDOW_FRACTION));
+		}
+		double[] trendChangeProfile = LightCurve.trendChangeProfile(fluxArray, wl);
+		int[] transitRange = LightCurve.transitIndexRange(fluxArray, trendChangeProfile);
+		double fromTimestamp = timestamps[transitRange[0]];
+		double toTimestamp = timestamps[transitRange[1]];
+		double margin = (toTimestamp - fromTimestamp) * this.windowMarginFraction;
+		return new double[] { fromTimestamp - margin, toTimestamp + margin };
+	}
+
+	public LightCurve bin(LightCurve lightCurve) {
+		double[] window = this.fineWindow(lightCurve);
+		return this.bin(lightCurve, window[0], window[1]);
+	}
+
+	public LightCurve bin(LightCurve lightCurve, double fineFromTimestamp, double fineToTimestamp) {
+		int n = lightCurve.size();
+		int fineFrom = lightCurve.lowerIndex(fineFromTimestamp);
+		int fineTo = Math.max(fineFrom, lightCurve.lowerIndex(fineToTimestamp));
+		double[] timestamps = new double[n];
+		double[] fluxArray = new double[n];
+		double[] weights = new double[n];
+		int size = binRange(lightCurve, 0, fineFrom, this.coarseBinWidth, timestamps, fluxArray, weights, 0);
+		size = binRange(lightCurve, fineFrom, fineTo, this.fineBinWidth, timestamps, fluxArray, weights, size);
+		size = binRange(lightCurve, fineTo, n, this.coarseBinWidth, timestamps, fluxArray, weights, size);
+		return LightCurve.create(Arrays.copyOf(timestamps, size), Arrays.copyOf(fluxArray, size), Arrays.copyOf(weights, size));
+	}
+
+	private static int binRange(LightCurve lightCurve, int fromIndex, int toIndex, double binWidth, double[] timestamps, double[] fluxArray, double[] weights, int size) {
+		int i = fromIndex;
+		while(i < toIndex) {
+			double binEnd = lightCurve.getTimestamp(i) + binWidth;
+			double sumWeight = 0, sumTimestamp = 0, sumFlux = 0;
+			do {
+				double weight = lightCurve.getWeight(i);
+				sumWeight += weight;
+				sumTimestamp += lightCurve.getTimestamp(i) * weight;
+				sumFlux += lightCurve.getFlux(i) * weight;
+				i++;
+			} while(i < toIndex && lightCurve.getTimestamp(i) < binEnd);
+			if(sumWeight > 0) {
+				timestamps[size] = sumTimestamp / sumWeight;
+				fluxArray[size] = sumFlux / sumWeight;
+				weights[size] = sumWeight;
+				size++;
+			}
+		}
+		return size;
+	}
+}
@@ -0,0 +1,115 @@
+package jhs.lc.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import jhs.math.util.ArrayUtil;
+
+/**
+ * Compact binary light curve file. A 32-byte little-endian header is followed by
+ * all timestamps and then all flux values, each column stored as contiguous doubles.
+ * Files are read through a memory-mapped buffer.
+ */
+public class ColumnarLightCurveFile {
+	public static final String EXTENSION = ".lcb";
+	private static final int MAGIC = 0x3142434C; // "LCB1"
+	private static final int VERSION = 1;
+	private static final int FLAG_SORTED = 1;
+	private static final int HEADER_LENGTH = 32;
+
+	private final double[] timestamps;
+	private final double[] fluxArray;
+	private final boolean sorted;
+
+	private ColumnarLightCurveFile(double[] timestamps, double[] fluxArray, boolean sorted) {
+		this.timestamps = timestamps;
+		this.fluxArray = fluxArray;
+		this.sorted = sorted;
+	}
+
+	public final double[] getTimestamps() {
+		return timestamps;
+	}
+
+	public final double[] getFluxArray() {
+		return fluxArray;
+	}
+
+	public final boolean isSorted() {
+		return sorted;
+	}
+
+	public static boolean isColumnarFile(File file) throws IOException {
+		if(file.length() < HEADER_LENGTH) {
+			return false;
+		}
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			raf.getChannel().read(header, 0);
+			header.flip();
+			return header.getInt() == MAGIC;
+		}
+	}
+
+	public static ColumnarLightCurveFile read(File file) throws IOException {
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+			long fileLength = channel.size();
+			if(fileLength < HEADER_LENGTH) {
+				throw new IOException("File " + file + " is too short to be a columnar light curve file.");
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if(buffer.getInt(0) != MAGIC) {
+				throw new IOException("File " + file + " is not a columnar light curve file.");
+			}
+			int version = buffer.getInt(4);
+			if(version != VERSION) {
+				throw new IOException("Unsupported columnar light curve file version: " + version + ".");
+			}
+			int flags = buffer.getInt(8);
+			long numPoints = buffer.getLong(16);
+			if(numPoints < 0 || numPoints > Integer.MAX_VALUE || HEADER_LENGTH + numPoints * 16 != fileLength) {
+				throw new IOException("Columnar light curve file " + file + " is truncated or corrupt: numPoints=" + numPoints + ", length=" + fileLength + ".");
+			}
+			int n = (int) numPoints;
+			buffer.position(HEADER_LENGTH);
+			DoubleBuffer columns = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			double[] timestamps = new double[n];
+			double[] fluxArray = new double[n];
+			columns.get(timestamps);
+			columns.get(fluxArray);
+			return new ColumnarLightCurveFile(timestamps, fluxArray, (flags & FLAG_SORTED) != 0);
+		}
+	}
+
+	public static void write(File file, double[] timestamps, double[] fluxArray) throws IOException {
+		int n = timestamps.length;
+		if(fluxArray.length != n) {
+			throw new IllegalArgumentException("Timestamp and flux arrays have different lengths.");
+		}
+		long fileLength = HEADER_LENGTH + (long) n * 16;
+		try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileLength);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(ArrayUtil.isSorted(timestamps) ? FLAG_SORTED : 0);
+			buffer.putInt(0);
+			buffer.putLong(n);
+			buffer.putLong(0);
+			DoubleBuffer columns = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			columns.put(timestamps);
+			columns.put(fluxArray);
+			buffer.force();
+		}
+	}
+}
@@ -4,20 +4,47 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.Map;
 
-import jhs.math.util.ArrayUtil;
-
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 
 public class DataSet {
-	public static LightCurvePoint[] load(File csvFile) throws IOException {
-		List<LightCurvePoint> pointList = new ArrayList<>();
+	private static final int INITIAL_CAPACITY = 1024;
+
+	public static LightCurve load(File file) throws IOException {
+		if(ColumnarLightCurveFile.isColumnarFile(file)) {
+			return loadColumnar(file);
+		}
+		if(FitsTableReader.isFitsFile(file)) {
+			return loadFits(file);
+		}
+		return loadCsv(file);
+	}
+
+	public static LightCurve loadColumnar(File file) throws IOException {
+		ColumnarLightCurveFile columnarFile = ColumnarLightCurveFile.read(file);
+		if(columnarFile.isSorted()) {
+			// The writer checked the order, so the light curve does not need to check it again.
+			return LightCurve.createSorted(columnarFile.getTimestamps(), columnarFile.getFluxArray());
+		}
+		return LightCurve.create(columnarFile.getTimestamps(), columnarFile.getFluxArray());
+	}
+
+	public static LightCurve loadFits(File file) throws IOException {
+		return new FitsTableReader().read(file);
+	}
+
+	public static void writeColumnar(File file, LightCurve lightCurve) throws IOException {
+		ColumnarLightCurveFile.write(file, lightCurve.getTimestamps(), lightCurve.getFluxArray());
+	}
+
+	public static LightCurve loadCsv(File csvFile) throws IOException {
+		double[] timestamps = new double[INITIAL_CAPACITY];
+		double[] fluxArray = new double[INITIAL_CAPACITY];
+		int size = 0;
 		Reader reader = new FileReader(csvFile);
 		CSVParser parser = new CSVParser(reader, CSVFormat.EXCEL.withHeader());
 		try {
@@ -42,16 +69,18 @@ public class DataSet {
 			for(CSVRecord record : parser) {
 				String tsText = record.get(timestampIdx);
 				String fluxText = record.get(fluxIdx);
-				double timestamp = Double.parseDouble(tsText);
-				double flux = Double.parseDouble(fluxText);
-				pointList.add(new LightCurvePoint(timestamp, flux));
+				if(size == timestamps.length) {
+					timestamps = Arrays.copyOf(timestamps, size * 2);
+					fluxArray = Arrays.copyOf(fluxArray, size * 2);
+				}
+				timestamps[size] = Double.parseDouble(tsText);
+				fluxArray[size] = Double.parseDouble(fluxText);
+				size++;
 			}
 		} finally {
 			parser.close();
 			reader.close();
 		}
-		LightCurvePoint[] points = ArrayUtil.fromCollection(pointList, LightCurvePoint.class);
-		Arrays.sort(points);
-		return points;
+		return LightCurve.create(Arrays.copyOf(timestamps, size), Arrays.copyOf(fluxArray, size));
 	}
 }
@@ -0,0 +1,362 @@
+package jhs.lc.data;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import jhs.math.util.MathUtil;
+
+/**
+ * Reads Kepler/TESS light curves from the first FITS binary table extension
+ * that has the configured time and flux columns. Rows are streamed through a
+ * big-endian buffer. Cadences with NaN values or a quality flag in the mask
+ * are dropped, and flux is divided by its median.
+ */
+public class FitsTableReader {
+	private static final int BLOCK_LENGTH = 2880;
+	private static final int CARD_LENGTH = 80;
+	private static final int ROW_BUFFER_LENGTH = 1 << 16;
+	private static final byte[] SIMPLE_KEYWORD = "SIMPLE  =".getBytes(StandardCharsets.US_ASCII);
+
+	private String timeColumn = "TIME";
+	private String fluxColumn = "PDCSAP_FLUX";
+	private String[] qualityColumns = { "QUALITY", "SAP_QUALITY" };
+	private int qualityMask = -1;
+	private boolean normalize = true;
+
+	public final String getTimeColumn() {
+		return timeColumn;
+	}
+
+	public final void setTimeColumn(String timeColumn) {
+		this.timeColumn = timeColumn;
+	}
+
+	public final String getFluxColumn() {
+		return fluxColumn;
+	}
+
+	public final void setFluxColumn(String fluxColumn) {
+		this.fluxColumn = fluxColumn;
+	}
+
+	public final String[] getQualityColumns() {
+		return qualityColumns;
+	}
+
+	public final void setQualityColumns(String[] qualityColumns) {
+		this.qualityColumns = qualityColumns;
+	}
+
+	public final int getQualityMask() {
+		return qualityMask;
+	}
+
+	/**
+	 * Sets the quality bits that cause a cadence to be dropped. The default drops any flagged cadence.
+	 */
+	public final void setQualityMask(int qualityMask) {
+		this.qualityMask = qualityMask;
+	}
+
+	public final boolean isNormalize() {
+		return normalize;
+	}
+
+	public final void setNormalize(boolean normalize) {
+		this.normalize = normalize;
+	}
+
+	public static boolean isFitsFile(File file) throws IOException {
+		if(file.length() < BLOCK_LENGTH) {
+			return false;
+		}
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			byte[] prefix = new byte[SIMPLE_KEYWORD.length];
+			raf.readFully(prefix);
+			return Arrays.equals(prefix, SIMPLE_KEYWORD);
+		}
+	}
+
+	public LightCurve read(File file) throws IOException {
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+			long fileLength = channel.size();
+			long position = 0;
+			boolean primary = true;
+			while(position < fileLength) {
+				Map<String,String> header = new HashMap<>();
+				position = readHeader(channel, position, header);
+				long dataLength = dataLength(header, primary);
+				if(!primary && "BINTABLE".equals(header.get("XTENSION"))) {
+					TableLayout layout = this.tableLayout(header);
+					if(layout != null) {
+						return this.readTable(channel, position, layout, file);
+					}
+				}
+				position += paddedLength(dataLength);
+				primary = false;
+			}
+			throw new IOException("FITS file " + file + " has no binary table with columns " + this.timeColumn + " and " + this.fluxColumn + ".");
+		}
+	}
+
+	private LightCurve readTable(FileChannel channel, long position, TableLayout layout, File file) throws IOException {
+		int rowLength = layout.rowLength;
+		long numRows = layout.numRows;
+		int rowsPerChunk = Math.max(1, ROW_BUFFER_LENGTH / rowLength);
+		ByteBuffer buffer = ByteBuffer.allocate(rowsPerChunk * rowLength).order(ByteOrder.BIG_ENDIAN);
+		if(numRows > Integer.MAX_VALUE - 8) {
+			throw new IOException("FITS table in " + file + " has too many rows: " + numRows + ".");
+		}
+		double[] timestamps = new double[(int) numRows];
+		double[] fluxArray = new double[(int) numRows];
+		int size = 0;
+		int qualityMask = this.qualityMask;
+		long rowIndex = 0;
+		while(rowIndex < numRows) {
+			int chunkRows = (int) Math.min(rowsPerChunk, numRows - rowIndex);
+			buffer.clear();
+			buffer.limit(chunkRows * rowLength);
+			readFully(channel, buffer, position + rowIndex * rowLength);
+			for(int r = 0; r < chunkRows; r++) {
+				int rowOffset = r * rowLength;
+				if(layout.qualityColumn != null && (layout.qualityColumn.readInt(buffer, rowOffset) & qualityMask) != 0) {
+					continue;
+				}
+				double timestamp = layout.timeColumn.readDouble(buffer, rowOffset);
+				double flux = layout.fluxColumn.readDouble(buffer, rowOffset);
+				if(Double.isNaN(timestamp) || Double.isNaN(flux)) {
+					continue;
+				}
+				timestamps[size] = timestamp;
+				fluxArray[size] = flux;
+				size++;
+			}
+			rowIndex += chunkRows;
+		}
+		if(size == 0) {
+			throw new IOException("FITS file " + file + " has no valid cadences.");
+		}
+		timestamps = Arrays.copyOf(timestamps, size);
+		fluxArray = Arrays.copyOf(fluxArray, size);
+		if(this.normalize) {
+			double median = MathUtil.median(fluxArray, 0, size);
+			if(median != 0) {
+				for(int i = 0; i < size; i++) {
+					fluxArray[i] /= median;
+				}
+			}
+		}
+		return LightCurve.create(timestamps, fluxArray);
+	}
+
+	private TableLayout tableLayout(Map<String,String> header) throws IOException {
+		int numFields = intValue(header, "TFIELDS", 0);
+		Column timeColumn = null, fluxColumn = null, qualityColumn = null;
+		int qualityPriority = Integer.MAX_VALUE;
+		int offset = 0;
+		for(int f = 1; f <= numFields; f++) {
+			String type = header.get("TTYPE" + f);
+			String form = header.get("TFORM" + f);
+			if(form == null) {
+				throw new IOException("Missing TFORM" + f + " in FITS table header.");
+			}
+			Column column = Column.parse(form, offset);
+			if(type != null) {
+				if(type.equals(this.timeColumn)) {
+					timeColumn = column;
+				}
+				else if(type.equals(this.fluxColumn)) {
+					fluxColumn = column;
+				}
+				else {
+					for(int q = 0; q < this.qualityColumns.length && q < qualityPriority; q++) {
+						if(type.equals(this.qualityColumns[q])) {
+							qualityColumn = column;
+							qualityPriority = q;
+						}
+					}
+				}
+			}
+			offset += column.length;
+		}
+		if(timeColumn == null || fluxColumn == null) {
+			return null;
+		}
+		int rowLength = intValue(header, "NAXIS1", -1);
+		long numRows = longValue(header, "NAXIS2", -1);
+		if(rowLength < offset || numRows < 0) {
+			throw new IOException("Invalid FITS table dimensions: NAXIS1=" + rowLength + ", NAXIS2=" + numRows + ".");
+		}
+		return new TableLayout(rowLength, numRows, timeColumn, fluxColumn, qualityColumn);
+	}
+
+	private static long readHeader(FileChannel channel, long position, Map<String,String> header) throws IOException {
+		ByteBuffer block = ByteBuffer.allocate(BLOCK_LENGTH);
+		byte[] card = new byte[CARD_LENGTH];
+		for(;;) {
+			block.clear();
+			readFully(channel, block, position);
+			position += BLOCK_LENGTH;
+			block.flip();
+			while(block.remaining() >= CARD_LENGTH) {
+				block.get(card);
+				String text = new String(card, StandardCharsets.US_ASCII);
+				String keyword = text.substring(0, 8).trim();
+				if(keyword.equals("END")) {
+					return position;
+				}
+				if(text.startsWith("= ", 8)) {
+					header.put(keyword, cardValue(text.substring(10)));
+				}
+			}
+		}
+	}
+
+	private static String cardValue(String valueText) {
+		String trimmed = valueText.trim();
+		if(trimmed.startsWith("'")) {
+			int end = trimmed.indexOf('\'', 1);
+			while(end != -1 && end + 1 < trimmed.length() && trimmed.charAt(end + 1) == '\'') {
+				end = trimmed.indexOf('\'', end + 2);
+			}
+			String quoted = end == -1 ? trimmed.substring(1) : trimmed.substring(1, end);
+			return quoted.replace("''", "'").trim();
+		}
+		int slash = trimmed.indexOf('/');
+		return (slash == -1 ? trimmed : trimmed.substring(0, slash)).trim();
+	}
+
+	private static long dataLength(Map<String,String> header, boolean primary) throws IOException {
+		int bitpix = intValue(header, "BITPIX", 8);
+		int naxis = intValue(header, "NAXIS", 0);
+		if(naxis == 0) {
+			return 0;
+		}
+		long numElements = 1;
+		for(int a = 1; a <= naxis; a++) {
+			numElements *= longValue(header, "NAXIS" + a, 0);
+		}
+		if(!primary) {
+			numElements = longValue(header, "GCOUNT", 1) * (longValue(header, "PCOUNT", 0) + numElements);
+		}
+		return Math.abs(bitpix) / 8 * numElements;
+	}
+
+	private static long paddedLength(long length) {
+		return (length + BLOCK_LENGTH - 1) / BLOCK_LENGTH * BLOCK_LENGTH;
+	}
+
+	private static int intValue(Map<String,String> header, String keyword, int defaultValue) throws IOException {
+		return (int) longValue(header, keyword, defaultValue);
+	}
+
+	private static long longValue(Map<String,String> header, String keyword, long defaultValue) throws IOException {
+		String text = header.get(keyword);
+		if(text == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(text);
+		} catch(NumberFormatException nfe) {
+			throw new IOException("Invalid value for FITS keyword " + keyword + ": " + text);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			int n = channel.read(buffer, position);
+			if(n < 0) {
+				throw new EOFException("Unexpected end of FITS file.");
+			}
+			position += n;
+		}
+	}
+
+	private static final class TableLayout {
+		private final int rowLength;
+		private final long numRows;
+		private final Column timeColumn;
+		private final Column fluxColumn;
+		private final Column qualityColumn;
+
+		public TableLayout(int rowLength, long numRows, Column timeColumn, Column fluxColumn, Column qualityColumn) {
+			this.rowLength = rowLength;
+			this.numRows = numRows;
+			this.timeColumn = timeColumn;
+			this.fluxColumn = fluxColumn;
+			this.qualityColumn = qualityColumn;
+		}
+	}
+
+	private static final class Column {
+		private final char type;
+		private final int offset;
+		private final int length;
+
+		private Column(char type, int offset, int length) {
+			this.type = type;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		static Column parse(String form, int offset) throws IOException {
+			int i = 0;
+			while(i < form.length() && Character.isDigit(form.charAt(i))) {
+				i++;
+			}
+			if(i == form.length()) {
+				throw new IOException("Invalid TFORM value: " + form);
+			}
+			int repeat = i == 0 ? 1 : Integer.parseInt(form.substring(0, i));
+			char type = form.charAt(i);
+			int elementLength;
+			switch(type) {
+			case 'L': case 'B': case 'A': elementLength = 1; break;
+			case 'I': elementLength = 2; break;
+			case 'J': case 'E': elementLength = 4; break;
+			case 'K': case 'D': case 'C': case 'P': elementLength = 8; break;
+			case 'M': case 'Q': elementLength = 16; break;
+			case 'X': return new Column(type, offset, (repeat + 7) / 8);
+			default:
+				throw new IOException("Unsupported TFORM value: " + form);
+			}
+			return new Column(type, offset, repeat * elementLength);
+		}
+
+		double readDouble(ByteBuffer buffer, int rowOffset) throws IOException {
+			int p = rowOffset + this.offset;
+			switch(this.type) {
+			case 'D': return buffer.getDouble(p);
+			case 'E': return buffer.getFloat(p);
+			case 'J': return buffer.getInt(p);
+			case 'I': return buffer.getShort(p);
+			case 'K': return buffer.getLong(p);
+			case 'B': return buffer.get(p) & 0xFF;
+			default:
+				throw new IOException("FITS column type " + this.type + " is not numeric.");
+			}
+		}
+
+		int readInt(ByteBuffer buffer, int rowOffset) throws IOException {
+			int p = rowOffset + this.offset;
+			switch(this.type) {
+			case 'J': return buffer.getInt(p);
+			case 'I': return buffer.getShort(p);
+			case 'K': return (int) buffer.getLong(p);
+			case 'B': return buffer.get(p) & 0xFF;
+			default:
+				throw new IOException("FITS column type " + this.type + " is not an integer.");
+			}
+		}
+	}
+}
@@ -3,34 +3,199 @@ package jhs.lc.data;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Arrays;
 
 import jhs.math.regression.linear.WeightedLinearRegression;
+import jhs.math.util.ArrayUtil;
+import jhs.math.util.MathUtil;
 
+/**
+ * Immutable light curve backed by primitive timestamp and flux columns, sorted by timestamp.
+ * An optional weight column holds per-sample weights, e.g. the number of cadences in a bin.
+ * Slices share the columns of the light curve they were taken from. Column getters return
+ * copies, and per-sample getters read the columns without copying.
+ */
+public final class LightCurve {
+	private final double[] timestamps;
+	private final double[] fluxArray;
+	private final double[] weights;
+	private final int fromIndex;
+	private final int toIndex;
 
-public class LightCurve {
-	private final LightCurvePoint[] points;
+	private LightCurve(double[] timestamps, double[] fluxArray, double[] weights, int fromIndex, int toIndex) {
+		this.timestamps = timestamps;
+		this.fluxArray = fluxArray;
+		this.weights = weights;
+		this.fromIndex = fromIndex;
+		this.toIndex = toIndex;
+	}
+
+	/**
+	 * Creates a light curve that takes ownership of the given arrays, which are sorted in place if necessary.
+	 */
+	public static LightCurve create(double[] timestamps, double[] fluxArray) {
+		return create(timestamps, fluxArray, null);
+	}
+
+	/**
+	 * Creates a weighted light curve. A null weights array means all samples have unit weight.
+	 */
+	public static LightCurve create(double[] timestamps, double[] fluxArray, double[] weights) {
+		if(timestamps.length != fluxArray.length) {
+			throw new IllegalArgumentException("Timestamp and flux arrays have different lengths.");
+		}
+		if(weights != null && weights.length != timestamps.length) {
+			throw new IllegalArgumentException("Timestamp and weight arrays have different lengths.");
+		}
+		if(!ArrayUtil.isSorted(timestamps)) {
+			int[] sortIndexes = ArrayUtil.sortIndexes(timestamps);
+			ArrayUtil.reorder(timestamps, sortIndexes);
+			ArrayUtil.reorder(fluxArray, sortIndexes);
+			if(weights != null) {
+				ArrayUtil.reorder(weights, sortIndexes);
+			}
+		}
+		return new LightCurve(timestamps, fluxArray, weights, 0, timestamps.length);
+	}
+
+	/**
+	 * Creates a light curve that takes ownership of arrays whose timestamps are already known to be sorted.
+	 */
+	static LightCurve createSorted(double[] timestamps, double[] fluxArray) {
+		if(timestamps.length != fluxArray.length) {
+			throw new IllegalArgumentException("Timestamp and flux arrays have different lengths.");
+		}
+		return new LightCurve(timestamps, fluxArray, null, 0, timestamps.length);
+	}
+
+	public static LightCurve fromPoints(LightCurvePoint[] points) {
+		return create(LightCurvePoint.timestamps(points), LightCurvePoint.fluxArray(points));
+	}
+
+	public final int size() {
+		return this.toIndex - this.fromIndex;
+	}
+
+	public final double getTimestamp(int index) {
+		return this.timestamps[this.fromIndex + index];
+	}
+
+	public final double getFlux(int index) {
+		return this.fluxArray[this.fromIndex + index];
+	}
+
+	public final double getWeight(int index) {
+		return this.weights == null ? 1.0 : this.weights[this.fromIndex + index];
+	}
+
+	public final boolean isWeighted() {
+		return this.weights != null;
+	}
+
+	public final double getStartTimestamp() {
+		return this.timestamps[this.fromIndex];
+	}
+
+	public final double getEndTimestamp() {
+		return this.timestamps[this.toIndex - 1];
+	}
+
+	/**
+	 * Gets a copy of the timestamp column.
+	 */
+	public final double[] getTimestamps() {
+		return Arrays.copyOfRange(this.timestamps, this.fromIndex, this.toIndex);
+	}
+
+	/**
+	 * Gets a copy of the flux column.
+	 */
+	public final double[] getFluxArray() {
+		return Arrays.copyOfRange(this.fluxArray, this.fromIndex, this.toIndex);
+	}
+
+	/**
+	 * Gets a copy of the weight column, or null if the light curve is unweighted.
+	 */
+	public final double[] getWeights() {
+		return this.weights == null ? null : Arrays.copyOfRange(this.weights, this.fromIndex, this.toIndex);
+	}
+
+	public final LightCurve slice(int fromIndex, int toIndex) {
+		if(fromIndex < 0 || toIndex > this.size() || fromIndex > toIndex) {
+			throw new IndexOutOfBoundsException("Slice [" + fromIndex + ", " + toIndex + ") of light curve with " + this.size() + " points.");
+		}
+		return new LightCurve(this.timestamps, this.fluxArray, this.weights, this.fromIndex + fromIndex, this.fromIndex + toIndex);
+	}
 
-	public LightCurve(LightCurvePoint[] points) {
-		super();
-		this.points = points;
+	/**
+	 * Gets the points with timestamps in the range [fromTimestamp, toTimestamp).
+	 */
+	public final LightCurve window(double fromTimestamp, double toTimestamp) {
+		return this.slice(this.lowerIndex(fromTimestamp), this.lowerIndex(toTimestamp));
 	}
 
-	public final LightCurvePoint[] getPoints() {
-		return points;
+	/**
+	 * Gets the index of the first point whose timestamp is not less than the one given.
+	 */
+	public final int lowerIndex(double timestamp) {
+		int low = this.fromIndex;
+		int high = this.toIndex;
+		double[] timestamps = this.timestamps;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(timestamps[mid] < timestamp) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low - this.fromIndex;
 	}
-	
+
 	public void write(File outFile) throws IOException {
 		PrintWriter out = new PrintWriter(outFile);
 		try {
 			out.println("Timestamp,Flux"); 
-			for(LightCurvePoint point : this.points) {
-				out.println(point.getTimestamp() + "," + point.getFlux());
+			for(int i = this.fromIndex; i < this.toIndex; i++) {
+				out.println(this.timestamps[i] + "," + this.fluxArray[i]);
 			}
 		} finally {
 			out.close();
 		}
 	}
 
+	/**
+	 * Gets the index range [from, to] of the transit around the flux minimum, delimited by the
+	 * nearest points on either side where the trend change profile turns negative.
+	 */
+	public static int[] transitIndexRange(double[] fluxArray, double[] trendChangeProfile) {
+		int minFluxIndex = MathUtil.minIndex(fluxArray);
+		if(trendChangeProfile[minFluxIndex] <= 0) {
+			throw new IllegalStateException("Expected trend change to be positive at transit peak.");
+		}
+		int idx1 = indexOfFirstNegative(trendChangeProfile, minFluxIndex, -1);
+		int idx2 = indexOfFirstNegative(trendChangeProfile, minFluxIndex, +1);
+		if(idx1 == -1 || idx2 == -1) {
+			throw new IllegalStateException("Light curve does not contain negative flux trend changes both before and after transit peak.");
+		}
+		return new int[] { idx1, idx2 };
+	}
+
+	private static int indexOfFirstNegative(double[] trendChangeProfile, int startIndex, int increment) {
+		int index = startIndex;
+		for(;;) {
+			if(index < 0 || index >= trendChangeProfile.length) {
+				return -1;
+			}
+			if(trendChangeProfile[index] < 0) {
+				return index;
+			}
+			index += increment;
+		}
+	}
+
 	public static double massDeviationAsFraction(double[] fluxArray, double centerOfMass) {
 		double mdev = massDeviation(fluxArray, centerOfMass);
 		return mdev / fluxArray.length;
@@ -61,6 +226,29 @@ public class LightCurve {
 		return com / (fluxArray.length - 1);
 	}
 
+	/**
+	 * Gets the center of mass of the flux deficit as a fraction of the time span. Positions are
+	 * timestamps and each sample's deficit is multiplied by its weight, so that the result does
+	 * not depend on the cadence, e.g. after adaptive binning.
+	 */
+	public final double centerOfMassAsFraction() {
+		int length = this.size();
+		double startTimestamp = this.getStartTimestamp();
+		double sumPos = 0;
+		double sumWeight = 0;
+		for(int i = 0; i < length; i++) {
+			double weight = 1.0 - this.getFlux(i);
+			if(weight < 0) {
+				weight = 0;
+			}
+			weight *= this.getWeight(i);
+			sumWeight += weight;
+			sumPos += (this.getTimestamp(i) - startTimestamp) * weight;
+		}
+		double timeSpan = this.getEndTimestamp() - startTimestamp;
+		return sumWeight == 0 || timeSpan == 0 ? 0.5 : sumPos / sumWeight / timeSpan;
+	}
+
 	public static double centerOfMass(double[] fluxArray) {
 		int length = fluxArray.length;
 		double sumPos = 0;
@@ -90,13 +278,22 @@ public class LightCurve {
 	}
 
 	public static double[] trendProfile(double[] series, int windowLength) {
+		return trendProfile(null, series, windowLength);
+	}
+
+	/**
+	 * Gets the slope of the series in a window of samples around each element, with respect to
+	 * the given positions, e.g. timestamps, so that non-uniform cadences are handled. The window
+	 * spans a fixed number of samples. Null positions means element indexes are used.
+	 */
+	public static double[] trendProfile(double[] positions, double[] series, int windowLength) {
 		int length = series.length;
 		int hwl = windowLength / 2;
 		int start = hwl;
 		int end = length - hwl;
 		double[] trends = new double[length];
 		for(int i = start; i < end; i++) {
-			trends[i] = trend(series, i - hwl, i + hwl);
+			trends[i] = trend(positions, series, i - hwl, i + hwl, i);
 		}
 		return trends;		
 	}
@@ -106,10 +303,11 @@ public class LightCurve {
 		return trendProfile(trends, windowLength);
 	}
 		
-	private static double trend(double[] series, int firstIndex, int lastIndex) {
+	private static double trend(double[] positions, double[] series, int firstIndex, int lastIndex, int centerIndex) {
 		WeightedLinearRegression regression = new WeightedLinearRegression();
 		for(int x = firstIndex; x <= lastIndex; x++) {
-			regression.addData(1.0, x, series[x]);
+			// Positions are taken relative to the window center, since the regression works with raw sums.
+			regression.addData(1.0, positions == null ? x : positions[x] - positions[centerIndex], series[x]);
 		}
 		return regression.getSlope();
 	}
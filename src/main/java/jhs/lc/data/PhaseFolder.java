@@ -0,0 +1,134 @@
+package jhs.lc.data;
+
+import java.util.Arrays;
+
+/**
+ * Folds a multi-transit light curve on a known period and stacks all epochs onto a single
+ * binned phase grid centered at the epoch timestamp. Each bin holds the mean flux of its points
+ * and is weighted by the inverse variance of that mean.
+ */
+public class PhaseFolder {
+	/**
+	 * Largest orbital angle the flux sources support over a light curve.
+	 */
+	public static final double MAX_WINDOW_ANGLE = 0.245;
+	private static final double DEFAULT_WINDOW_ANGLE_FRACTION = 0.9;
+
+	private final double period;
+	private final double epoch;
+	private final double windowWidth;
+	private final int numBins;
+
+	/**
+	 * @param period Orbit period.
+	 * @param epoch Timestamp of the midpoint of any one transit.
+	 * @param windowWidth Width of the folded window around the transit midpoint, in timestamp units.
+	 * @param numBins Number of phase bins in the window.
+	 */
+	public PhaseFolder(double period, double epoch, double windowWidth, int numBins) {
+		if(period <= 0) {
+			throw new IllegalArgumentException("Invalid period: " + period);
+		}
+		if(numBins < 2) {
+			throw new IllegalArgumentException("Invalid number of bins: " + numBins);
+		}
+		double windowAngle = 2 * Math.PI * windowWidth / period;
+		if(windowWidth <= 0 || windowAngle > MAX_WINDOW_ANGLE) {
+			throw new IllegalArgumentException("Fold window width must be positive and at most " + maxWindowWidth(period) + " for period " + period + ": " + windowWidth);
+		}
+		this.period = period;
+		this.epoch = epoch;
+		this.windowWidth = windowWidth;
+		this.numBins = numBins;
+	}
+
+	public static double maxWindowWidth(double period) {
+		return period * MAX_WINDOW_ANGLE / (2 * Math.PI);
+	}
+
+	public static double defaultWindowWidth(double period) {
+		return maxWindowWidth(period) * DEFAULT_WINDOW_ANGLE_FRACTION;
+	}
+
+	public final double getPeriod() {
+		return period;
+	}
+
+	public final double getEpoch() {
+		return epoch;
+	}
+
+	public final double getWindowWidth() {
+		return windowWidth;
+	}
+
+	public final int getNumBins() {
+		return numBins;
+	}
+
+	public LightCurve fold(LightCurve lightCurve) {
+		int numBins = this.numBins;
+		double period = this.period;
+		double halfWidth = this.windowWidth / 2;
+		double binWidth = this.windowWidth / numBins;
+		double[] weightSums = new double[numBins];
+		double[] fluxSums = new double[numBins];
+		double[] fluxSqSums = new double[numBins];
+		int[] counts = new int[numBins];
+		int n = lightCurve.size();
+		for(int i = 0; i < n; i++) {
+			double offset = lightCurve.getTimestamp(i) - this.epoch;
+			offset -= period * Math.floor(offset / period + 0.5);
+			if(offset < -halfWidth || offset >= halfWidth) {
+				continue;
+			}
+			int b = (int) ((offset + halfWidth) / binWidth);
+			if(b >= numBins) {
+				b = numBins - 1;
+			}
+			double weight = lightCurve.getWeight(i);
+			double flux = lightCurve.getFlux(i);
+			weightSums[b] += weight;
+			fluxSums[b] += flux * weight;
+			fluxSqSums[b] += flux * flux * weight;
+			counts[b]++;
+		}
+		double pooledVariance = pooledVariance(weightSums, fluxSums, fluxSqSums, counts);
+		double[] timestamps = new double[numBins];
+		double[] fluxArray = new double[numBins];
+		double[] weights = new double[numBins];
+		int size = 0;
+		for(int b = 0; b < numBins; b++) {
+			double weightSum = weightSums[b];
+			if(counts[b] == 0 || weightSum <= 0) {
+				continue;
+			}
+			double mean = fluxSums[b] / weightSum;
+			double variance = counts[b] < 2 ? 0 : fluxSqSums[b] / weightSum - mean * mean;
+			if(variance <= 0) {
+				variance = pooledVariance;
+			}
+			timestamps[size] = this.epoch - halfWidth + (b + 0.5) * binWidth;
+			fluxArray[size] = mean;
+			weights[size] = variance <= 0 ? weightSum : weightSum / variance;
+			size++;
+		}
+		if(size < 2) {
+			throw new IllegalStateException("Folded light curve has only " + size + " non-empty bins. Check the fold period, epoch and window.");
+		}
+		return LightCurve.create(Arrays.copyOf(timestamps, size), Arrays.copyOf(fluxArray, size), Arrays.copyOf(weights, size));
+	}
+
+	private static double pooledVariance(double[] weightSums, double[] fluxSums, double[] fluxSqSums, int[] counts) {
+		double sumSqDev = 0;
+		double sumWeight = 0;
+		for(int b = 0; b < counts.length; b++) {
+			if(counts[b] >= 2) {
+				double mean = fluxSums[b] / weightSums[b];
+				sumSqDev += Math.max(0, fluxSqSums[b] - mean * mean * weightSums[b]);
+				sumWeight += weightSums[b];
+			}
+		}
+		return sumWeight == 0 ? 0 : sumSqDev / sumWeight;
+	}
+}
@@ -5,31 +5,72 @@ import java.util.Arrays;
 import org.apache.commons.math.FunctionEvaluationException;
 import org.apache.commons.math.analysis.MultivariateRealFunction;
 
+import jhs.lc.data.LightCurve;
 import jhs.lc.sims.SimulatedFlux;
 
-public abstract class AbstractLossFunction implements MultivariateRealFunction, ClusteredEvaluator {
+public abstract class AbstractLossFunction implements MultivariateRealFunction, ClusteredEvaluator, IncrementalFunction<Solution> {
 	private final SolutionSampler sampler;
 	private final double extraErrorFactor;
+	private final LightCurve lightCurve;
 	//private final double tcCosd, tcWidth;
 
-	public AbstractLossFunction(SolutionSampler sampler, double extraErrorFactor, double[] targetFluxArray) {
+	public AbstractLossFunction(SolutionSampler sampler, double extraErrorFactor, LightCurve lightCurve) {
 		this.sampler = sampler;
 		this.extraErrorFactor = extraErrorFactor;
+		this.lightCurve = lightCurve;
 		//double[] trendChangeArray = PrimaryLossFunction.trendChangeProfile(targetFluxArray);
 		//this.tcCosd = SeriesUtil.centerOfSquaredDev(trendChangeArray, 0);
 		//this.tcWidth = SeriesUtil.seriesWidth(trendChangeArray, 0, this.tcCosd);
 	}
 	
+	/**
+	 * Gets the observed light curve that modeled fluxes are compared against.
+	 */
+	public final LightCurve getLightCurve() {
+		return lightCurve;
+	}
+
 	protected abstract double baseLoss(double[] testFluxArray);
+
+	/**
+	 * Computes the base loss, or any lower bound of it that is at least the threshold.
+	 */
+	protected double baseLoss(double[] testFluxArray, double threshold) {
+		return this.baseLoss(testFluxArray);
+	}
 	
 	@Override
 	public ClusteredParamEvaluation evaluate(double[] params) throws FunctionEvaluationException, IllegalArgumentException {
-		Solution solution = this.sampler.parametersAsSolution(params);
+		return this.evaluateBounded(params, Double.POSITIVE_INFINITY);
+	}
+
+	@Override
+	public ClusteredParamEvaluation evaluateBounded(double[] params, double threshold) throws FunctionEvaluationException, IllegalArgumentException {
+		return this.evaluate(params, this.sampler.parametersAsSolution(params), threshold);
+	}
+
+	@Override
+	public Solution createBase(double[] params) {
+		return this.sampler.getFluxSource().isIncremental() ? this.sampler.parametersAsBase(params) : null;
+	}
+
+	@Override
+	public double value(double[] params, Solution base) throws FunctionEvaluationException {
+		return this.evaluate(params, this.sampler.parametersAsSolution(params, base), Double.POSITIVE_INFINITY).getError();
+	}
+
+	@Override
+	public double baseValue(double[] params, Solution base) throws FunctionEvaluationException {
+		return this.evaluate(params, base, Double.POSITIVE_INFINITY).getError();
+	}
+
+	private ClusteredParamEvaluation evaluate(double[] params, Solution solution, double threshold) {
 		SimulatedFlux sf = solution.produceModeledFlux();
 		double[] modeledFlux = sf.getFluxArray();
-		double baseError = this.baseLoss(modeledFlux);
 		double extraError = this.sampler.getExtraParamError(params) + solution.getExtraOptimizerError();
-		double error = baseError + extraError * this.extraErrorFactor;
+		double weightedExtraError = extraError * this.extraErrorFactor;
+		double baseError = this.baseLoss(modeledFlux, threshold - weightedExtraError);
+		double error = baseError + weightedExtraError;
 		if(Double.isNaN(error)) {
 			throw new IllegalStateException("Loss is " + error + "; baseError=" + baseError + "; extraError=" + extraError + "; params=" + Arrays.toString(params) + "; modeledFlux=" + Arrays.toString(modeledFlux));
 		}
@@ -0,0 +1,118 @@
+package jhs.lc.opt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.math.MathException;
+
+import jhs.math.util.ArrayUtil;
+
+/**
+ * Draws random subspaces from the parameters that are not frozen. Parameters without effect
+ * are frozen and re-checked every interval iterations. Without a detector, or while no
+ * parameter is frozen, subspaces are drawn from all parameters.
+ */
+final class ActiveSubspace {
+	private static final Logger logger = Logger.getLogger(ActiveSubspace.class.getName());
+
+	private final NoEffectDetector detector;
+	private final int interval;
+	private int[] activeIndexes;
+
+	ActiveSubspace(NoEffectDetector detector, int interval) {
+		if(detector != null && interval < 1) {
+			throw new IllegalArgumentException("interval: " + interval);
+		}
+		this.detector = detector;
+		this.interval = interval;
+	}
+
+	/**
+	 * Re-checks which parameters have no effect at the point, if the iteration is due.
+	 * Returns the number of evaluations the check took.
+	 */
+	int update(int iteration, double[] point) throws MathException {
+		if(this.detector == null || iteration % this.interval != 0) {
+			return 0;
+		}
+		NoEffectDetector.Detection detection = this.detector.detect(point);
+		boolean[] noEffect = detection.getNoEffect();
+		int[] active = new int[noEffect.length];
+		int numActive = 0;
+		for(int i = 0; i < noEffect.length; i++) {
+			if(!noEffect[i]) {
+				active[numActive++] = i;
+			}
+		}
+		// If nothing has an effect, the point is on a plateau and every direction is worth sampling.
+		this.activeIndexes = numActive == 0 || numActive == noEffect.length ? null : Arrays.copyOf(active, numActive);
+		if(logger.isLoggable(Level.INFO)) {
+			logger.info("Iteration " + iteration + ": " + this.getNumFrozen(noEffect.length) + " of " + noEffect.length + " parameters frozen.");
+		}
+		return detection.getNumEvaluations();
+	}
+
+	void writeState(DataOutput out) throws IOException {
+		int[] active = this.activeIndexes;
+		out.writeInt(active == null ? -1 : active.length);
+		if(active != null) {
+			for(int index : active) {
+				out.writeInt(index);
+			}
+		}
+	}
+
+	void readState(DataInput in) throws IOException {
+		int length = in.readInt();
+		int[] active = null;
+		if(length >= 0) {
+			active = new int[length];
+			for(int k = 0; k < length; k++) {
+				active[k] = in.readInt();
+			}
+		}
+		this.activeIndexes = active;
+	}
+
+	int getNumFrozen(int vectorLength) {
+		return this.activeIndexes == null ? 0 : vectorLength - this.activeIndexes.length;
+	}
+
+	int[] create(int vectorLength, int maxSubspaceSize, Random random) {
+		int[] vars = this.activeIndexes == null ? ArrayUtil.indexIdentity(vectorLength) : this.activeIndexes.clone();
+		if(maxSubspaceSize >= vars.length) {
+			return vars;
+		}
+		ArrayUtil.shuffle(vars, random);
+		return Arrays.copyOf(vars, maxSubspaceSize);
+	}
+
+	/**
+	 * Draws a subspace without replacement, where each parameter is picked with probability
+	 * proportional to its weight. Weights must be positive.
+	 */
+	int[] create(int vectorLength, int maxSubspaceSize, Random random, double[] weights) {
+		int[] vars = this.activeIndexes == null ? ArrayUtil.indexIdentity(vectorLength) : this.activeIndexes.clone();
+		if(maxSubspaceSize >= vars.length) {
+			return vars;
+		}
+		// Efraimidis-Spirakis: the k largest keys u^(1/w) are a weighted sample without replacement.
+		double[] keys = new double[vars.length];
+		Integer[] order = new Integer[vars.length];
+		for(int k = 0; k < vars.length; k++) {
+			keys[k] = Math.log(random.nextDouble()) / weights[vars[k]];
+			order[k] = k;
+		}
+		Arrays.sort(order, (k1, k2) -> Double.compare(keys[k2], keys[k1]));
+		int[] subspace = new int[maxSubspaceSize];
+		for(int k = 0; k < maxSubspaceSize; k++) {
+			subspace[k] = vars[order[k]];
+		}
+		return subspace;
+	}
+}
@@ -1,6 +1,8 @@
 package jhs.lc.opt;
 
-
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Random;
 
@@ -15,6 +17,9 @@ import jhs.math.util.ArrayUtil;
 import jhs.math.util.MathUtil;
 
 public class ApproximateGradientDescentOptimizer {
+	public static final String CHECKPOINT_STAGE = "agd";
+	private static final double SENSITIVITY_ALPHA = 0.3;
+	private static final double EXPLORATION_FLOOR = 0.25;
 	private final Random random;
 	private int maxIterations = 2000;
 	private int maxSearchIterations = 10;
@@ -27,6 +32,13 @@ public class ApproximateGradientDescentOptimizer {
 	private RealConvergenceChecker convergenceChecker = new GradientReductionConvergenceChecker(0.1, 0.003);
 	
 	private int numEvaluations = 0;
+	private Checkpointer checkpointer;
+	private NoEffectDetector noEffectDetector;
+	private int freezeInterval = 20;
+	private ActiveSubspace activeSubspace = new ActiveSubspace(null, 0);
+	private boolean sensitivityWeighted = false;
+	private double[] sensitivities;
+	private IncrementalBase<?> currentBase;
 	
 	public ApproximateGradientDescentOptimizer(Random random) {
 		super();
@@ -109,16 +121,104 @@ public class ApproximateGradientDescentOptimizer {
 		this.numEvaluations = numEvaluations;
 	}
 
+	public final Checkpointer getCheckpointer() {
+		return checkpointer;
+	}
+
+	/**
+	 * Sets the checkpointer that the current point is periodically written to.
+	 * Checkpoints require a CheckpointableRandom.
+	 */
+	public final void setCheckpointer(Checkpointer checkpointer) {
+		this.checkpointer = checkpointer;
+	}
+
+	public final NoEffectDetector getNoEffectDetector() {
+		return noEffectDetector;
+	}
+
+	/**
+	 * Sets the detector of parameters without effect, which are left out of the sampled
+	 * subspaces until they are checked again. Null disables freezing. Checks are made at
+	 * the current point.
+	 */
+	public final void setNoEffectDetector(NoEffectDetector noEffectDetector) {
+		this.noEffectDetector = noEffectDetector;
+	}
+
+	public final int getFreezeInterval() {
+		return freezeInterval;
+	}
+
+	/**
+	 * Sets the number of iterations between checks for parameters without effect.
+	 */
+	public final void setFreezeInterval(int freezeInterval) {
+		this.freezeInterval = freezeInterval;
+	}
+
+	public final boolean isSensitivityWeighted() {
+		return sensitivityWeighted;
+	}
+
+	/**
+	 * Sets whether random subspaces favor parameters whose recent gradient components moved
+	 * the error the most, instead of being drawn uniformly. Every parameter keeps a floor
+	 * probability of being picked.
+	 */
+	public final void setSensitivityWeighted(boolean sensitivityWeighted) {
+		this.sensitivityWeighted = sensitivityWeighted;
+	}
+
 	public RealPointValuePair optimize(MultivariateRealFunction errorFunction, double[] initialPoint, double[] epsilon) throws FunctionEvaluationException {
 		this.numEvaluations = 1;
-		double error = errorFunction.value(initialPoint);
+		this.sensitivities = null;
+		this.activeSubspace = new ActiveSubspace(this.noEffectDetector, this.freezeInterval);
+		this.currentBase = createBase(errorFunction, initialPoint);
+		double error = this.currentBase != null ? this.currentBase.value() : errorFunction.value(initialPoint);
 		RealPointValuePair current = new RealPointValuePair(initialPoint, error);
 		this.informProgress(0, current);
+		return this.iterate(errorFunction, current, 1, this.initialGradientFactor, epsilon);
+	}
+
+	/**
+	 * Continues an optimization from a checkpoint written by this optimizer. The random number
+	 * generator is restored to its state at the time of the checkpoint.
+	 */
+	public RealPointValuePair resume(DataInput checkpointState, MultivariateRealFunction errorFunction) throws FunctionEvaluationException, IOException {
+		int iteration = checkpointState.readInt();
+		double gf = checkpointState.readDouble();
+		this.numEvaluations = checkpointState.readInt();
+		double[] epsilon = Checkpointer.readDoubles(checkpointState);
+		double[] point = Checkpointer.readDoubles(checkpointState);
+		RealPointValuePair current = new RealPointValuePair(point, checkpointState.readDouble(), false);
+		this.sensitivities = checkpointState.readBoolean() ? Checkpointer.readDoubles(checkpointState) : null;
+		this.activeSubspace = new ActiveSubspace(this.noEffectDetector, this.freezeInterval);
+		this.activeSubspace.readState(checkpointState);
+		this.currentBase = null;
+		if(checkpointState.readBoolean()) {
+			double[] firstPoint = Checkpointer.readDoubles(checkpointState);
+			RealPointValuePair firstPointValue = new RealPointValuePair(firstPoint, checkpointState.readDouble(), false);
+			double gradientRunningAverage = checkpointState.readDouble();
+			if(this.convergenceChecker instanceof GradientReductionConvergenceChecker) {
+				((GradientReductionConvergenceChecker) this.convergenceChecker).restore(firstPointValue, gradientRunningAverage);
+			}
+		}
+		Checkpointer.readRandom(checkpointState, this.random);
+		return this.iterate(errorFunction, current, iteration, gf, epsilon);
+	}
+
+	private RealPointValuePair iterate(MultivariateRealFunction errorFunction, RealPointValuePair current, int firstIteration, double gf, double[] epsilon) throws FunctionEvaluationException {
 		int n = this.maxIterations;
 		RealConvergenceChecker cc = this.convergenceChecker;
-		double gf = this.initialGradientFactor;
 		double gfAlpha = this.gfAlpha;
-		for(int i = 1; i <= n; i++) {
+		Checkpointer checkpointer = this.checkpointer;
+		for(int i = firstIteration; i <= n; i++) {
+			try {
+				this.numEvaluations += this.activeSubspace.update(i - 1, current.getPointRef());
+			} catch(MathException me) {
+				throw new IllegalStateException("Unable to check parameters for effect.", me);
+			}
 			AdvanceResults advance = this.advance(errorFunction, current, gf, epsilon);		
 			if(advance != null) {
 				RealPointValuePair nextPoint = advance.pointValue;
@@ -131,9 +231,37 @@ public class ApproximateGradientDescentOptimizer {
 					gf = gfAlpha * advance.recommendedGradientFactor + (1 - gfAlpha) * gf;
 				}
 			}
+			if(checkpointer != null && checkpointer.isDue(i - 1)) {
+				RealPointValuePair checkpointPoint = current;
+				int nextIteration = i + 1;
+				double checkpointGf = gf;
+				checkpointer.write(CHECKPOINT_STAGE, out -> this.writeState(out, nextIteration, checkpointGf, epsilon, checkpointPoint));
+			}
 		}
 		return current;
 	}
+
+	private void writeState(DataOutput out, int iteration, double gf, double[] epsilon, RealPointValuePair current) throws IOException {
+		out.writeInt(iteration);
+		out.writeDouble(gf);
+		out.writeInt(this.numEvaluations);
+		Checkpointer.writeDoubles(out, epsilon);
+		Checkpointer.writeDoubles(out, current.getPointRef());
+		out.writeDouble(current.getValue());
+		out.writeBoolean(this.sensitivities != null);
+		if(this.sensitivities != null) {
+			Checkpointer.writeDoubles(out, this.sensitivities);
+		}
+		this.activeSubspace.writeState(out);
+		RealPointValuePair firstPointValue = this.convergenceChecker instanceof GradientReductionConvergenceChecker ? ((GradientReductionConvergenceChecker) this.convergenceChecker).getFirstPointValue() : null;
+		out.writeBoolean(firstPointValue != null);
+		if(firstPointValue != null) {
+			Checkpointer.writeDoubles(out, firstPointValue.getPointRef());
+			out.writeDouble(firstPointValue.getValue());
+			out.writeDouble(((GradientReductionConvergenceChecker) this.convergenceChecker).getGradientRunningAverage());
+		}
+		Checkpointer.writeRandom(out, this.random);
+	}
 	
 	protected void informProgress(int iteration, RealPointValuePair pointValue) {		
 	}
@@ -150,8 +278,11 @@ public class ApproximateGradientDescentOptimizer {
 	}
 	
 	private AdvanceResults advance(MultivariateRealFunction errorFunction, RealPointValuePair pointValue, double gradientFactor, double[] epsilon) throws FunctionEvaluationException {
-		int[] subspace = this.createSubspace(epsilon.length);
+		int[] subspace = this.createSubspace(epsilon);
 		GradientInfo gradientInfo = this.gradient(pointValue, errorFunction, epsilon, subspace);
+		if(this.sensitivityWeighted) {
+			this.updateSensitivities(gradientInfo.gradient, epsilon, subspace);
+		}
 		AdvanceResults ar = this.searchInGradient(errorFunction, pointValue, gradientInfo.gradient, gradientFactor);
 		if(ar == null || ar.pointValue.getValue() > pointValue.getValue()) {
 			ar = this.selectBest(gradientInfo.testPointValues, gradientFactor);
@@ -163,7 +294,12 @@ public class ApproximateGradientDescentOptimizer {
 		RealPointValuePair minPv = MathUtil.min(pointValues, pv -> pv.getValue());
 		return new AdvanceResults(minPv, gradientFactor);
 	}
-	
+
+	/**
+	 * Searches along the gradient. Probes only matter if they beat the best error so far, so they are
+	 * evaluated with that error as a bound. The base for incremental evaluation is only created once a
+	 * point is accepted, by the gradient of the next iteration.
+	 */
 	private AdvanceResults searchInGradient(MultivariateRealFunction errorFunction, RealPointValuePair pointValue, double[] gradient, double gradientFactor) throws FunctionEvaluationException {
 		double[] basePoint = changeParameters(pointValue.getPointRef(), gradient, gradientFactor);
 		this.numEvaluations++;
@@ -176,7 +312,7 @@ public class ApproximateGradientDescentOptimizer {
 			double newGf = gf * factor;
 			double[] testPoint = changeParameters(pointValue.getPointRef(), gradient, newGf);
 			this.numEvaluations++;
-			double testError = errorFunction.value(testPoint);
+			double testError = boundedValue(errorFunction, testPoint, baseError);
 			if(testError < baseError) {
 				basePoint = testPoint;
 				baseError = testError;
@@ -189,6 +325,15 @@ public class ApproximateGradientDescentOptimizer {
 		return new AdvanceResults(new RealPointValuePair(basePoint, baseError), gf);
 	}
 
+	/**
+	 * Evaluates a point that is only of interest if its error is below the threshold.
+	 */
+	private static double boundedValue(MultivariateRealFunction errorFunction, double[] point, double threshold) throws FunctionEvaluationException {
+		if(errorFunction instanceof ClusteredEvaluator) {
+			return ((ClusteredEvaluator) errorFunction).evaluateBounded(point, threshold).getError();
+		}
+		return errorFunction.value(point);
+	}
 	
 	private static double[] changeParameters(double[] parameters, double[] gradients, double gradientFactor) {
 		int len = parameters.length;
@@ -203,14 +348,33 @@ public class ApproximateGradientDescentOptimizer {
 		int numPoints = (int) Math.ceil(this.numPointsFactor * (1 + Math.sqrt(1 + 8 * subspace.length)) / 2); 
 		RealPointValuePair[] pointValues = new RealPointValuePair[numPoints];
 		pointValues[0] = pointValue;
+		MultivariateRealFunction displacementFunction = errorFunction;
+		IncrementalBase<?> base = this.currentBase;
+		if(base == null || !base.isFor(errorFunction, pointValue.getPointRef())) {
+			base = createBase(errorFunction, pointValue.getPointRef());
+			if(base != null) {
+				this.numEvaluations++;
+				this.currentBase = base;
+			}
+		}
+		if(base != null) {
+			displacementFunction = base.displacementFunction();
+		}
 		for(int i = 1; i < numPoints; i++) {
-			pointValues[i] = this.smallDisplacement(pointValue, errorFunction, epsilon, subspace);
+			pointValues[i] = this.smallDisplacement(pointValue, displacementFunction, epsilon, subspace);
 		}
 		int numParams = epsilon.length;
 		double[] gradient = this.gradient(numParams, pointValues);
 		return new GradientInfo(gradient, pointValues);
 	}
 	
+	/**
+	 * Gets the base for evaluating points close to the given point incrementally, or null if not supported.
+	 */
+	private static IncrementalBase<?> createBase(MultivariateRealFunction errorFunction, double[] point) throws FunctionEvaluationException {
+		return errorFunction instanceof IncrementalFunction ? IncrementalBase.create((IncrementalFunction<?>) errorFunction, point) : null;
+	}
+	
 	private double[] gradient(int numParams, RealPointValuePair[] pointValues) {
 		int count = 0;
 		double[] vectorSum = ArrayUtil.repeat(0.0, numParams);
@@ -254,14 +418,53 @@ public class ApproximateGradientDescentOptimizer {
 		return new RealPointValuePair(newVector, error);
 	}
 
-	private int[] createSubspace(int vectorLength) {
-		int[] vars = ArrayUtil.indexIdentity(vectorLength);
-		int maxSS = this.maxSubspaceSize;
-		if(maxSS >= vectorLength) {
-			return vars;
+	/**
+	 * Draws a subspace where each parameter is picked with probability proportional to a mix of
+	 * its sensitivity and a uniform exploration floor, so insensitive parameters still get probed.
+	 */
+	private int[] createSubspace(double[] epsilon) {
+		int vectorLength = epsilon.length;
+		double[] s = this.sensitivities;
+		if(s == null) {
+			return this.activeSubspace.create(vectorLength, this.maxSubspaceSize, this.random);
+		}
+		double max = 0;
+		double sum = 0;
+		int numMeasured = 0;
+		for(int i = 0; i < vectorLength; i++) {
+			if(!Double.isNaN(s[i])) {
+				max = Math.max(max, s[i]);
+				sum += s[i];
+				numMeasured++;
+			}
+		}
+		// Parameters not yet probed are assumed to be as sensitive as the most sensitive one.
+		sum += max * (vectorLength - numMeasured);
+		double[] weights = new double[vectorLength];
+		for(int i = 0; i < vectorLength; i++) {
+			double si = Double.isNaN(s[i]) ? max : s[i];
+			double share = sum == 0 ? 1.0 / vectorLength : si / sum;
+			weights[i] = (1 - EXPLORATION_FLOOR) * share + EXPLORATION_FLOOR / vectorLength;
+		}
+		return this.activeSubspace.create(vectorLength, this.maxSubspaceSize, this.random, weights);
+	}
+
+	/**
+	 * Updates running averages of the error change that an epsilon step in each parameter of the subspace produces.
+	 */
+	private void updateSensitivities(double[] gradient, double[] epsilon, int[] subspace) {
+		double[] s = this.sensitivities;
+		if(s == null) {
+			s = ArrayUtil.repeat(Double.NaN, epsilon.length);
+			this.sensitivities = s;
+		}
+		for(int i : subspace) {
+			double sensitivity = Math.abs(gradient[i] * epsilon[i]);
+			if(Double.isNaN(sensitivity) || Double.isInfinite(sensitivity)) {
+				continue;
+			}
+			s[i] = Double.isNaN(s[i]) ? sensitivity : SENSITIVITY_ALPHA * sensitivity + (1 - SENSITIVITY_ALPHA) * s[i];
 		}
-		ArrayUtil.shuffle(vars, random);
-		return Arrays.copyOf(vars, maxSS);
 	}
 	
 	private static class AdvanceResults {
@@ -275,6 +478,38 @@ public class ApproximateGradientDescentOptimizer {
 			this.recommendedGradientFactor = recommendedGradientFactor;
 		}
 	}
+
+	/**
+	 * A fully evaluated point together with the state an incremental function keeps for it.
+	 */
+	private static class IncrementalBase<B> {
+		private final IncrementalFunction<B> function;
+		private final double[] point;
+		private final B base;
+
+		private IncrementalBase(IncrementalFunction<B> function, double[] point, B base) {
+			this.function = function;
+			this.point = point;
+			this.base = base;
+		}
+
+		static <B> IncrementalBase<B> create(IncrementalFunction<B> function, double[] point) throws FunctionEvaluationException {
+			B base = function.createBase(point);
+			return base == null ? null : new IncrementalBase<>(function, point, base);
+		}
+
+		boolean isFor(MultivariateRealFunction function, double[] point) {
+			return this.function == function && Arrays.equals(this.point, point);
+		}
+
+		double value() throws FunctionEvaluationException {
+			return this.function.baseValue(this.point, this.base);
+		}
+
+		MultivariateRealFunction displacementFunction() {
+			return p -> this.function.value(p, this.base);
+		}
+	}
 	
 	private static class GradientInfo {
 		private final double[] gradient;
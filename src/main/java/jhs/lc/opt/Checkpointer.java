@@ -0,0 +1,197 @@
+package jhs.lc.opt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jhs.math.util.CheckpointableRandom;
+
+/**
+ * Periodically writes optimizer state to a binary checkpoint file. The file is written
+ * to a temporary file in the same directory and then renamed over the previous checkpoint,
+ * so an interrupted write never leaves a truncated checkpoint behind.
+ */
+public class Checkpointer {
+	private static final Logger logger = Logger.getLogger(Checkpointer.class.getName());
+	private static final int MAGIC = 0x4C43434B;
+	private static final int VERSION = 4;
+
+	private final File file;
+	private final int interval;
+
+	/**
+	 * @param file Checkpoint file.
+	 * @param interval Number of iterations between checkpoints.
+	 */
+	public Checkpointer(File file, int interval) {
+		if(interval < 1) {
+			throw new IllegalArgumentException("Checkpoint interval must be at least 1: " + interval);
+		}
+		this.file = file;
+		this.interval = interval;
+	}
+
+	public final File getFile() {
+		return file;
+	}
+
+	public final int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Tells whether a checkpoint should be written after the given zero-based iteration.
+	 */
+	public boolean isDue(int iteration) {
+		return (iteration + 1) % this.interval == 0;
+	}
+
+	/**
+	 * Writes a checkpoint for the given stage. A failed write is logged and otherwise ignored,
+	 * so that it does not abort the optimization.
+	 */
+	public void write(String stage, StateWriter writer) {
+		File file = this.file;
+		File tempFile = new File(file.getPath() + ".tmp");
+		try {
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 65536))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(stage);
+				writer.write(out);
+			}
+			Path source = tempFile.toPath();
+			Path target = file.toPath();
+			try {
+				Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch(AtomicMoveNotSupportedException amns) {
+				Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch(IOException ioe) {
+			logger.log(Level.WARNING, "Unable to write checkpoint " + file + ".", ioe);
+			return;
+		}
+		if(logger.isLoggable(Level.FINE)) {
+			logger.fine("Wrote " + stage + " checkpoint to " + file + ".");
+		}
+	}
+
+	public static Checkpoint read(File file) throws IOException {
+		try(InputStream fin = new BufferedInputStream(new FileInputStream(file), 65536)) {
+			DataInputStream in = new DataInputStream(fin);
+			if(in.readInt() != MAGIC) {
+				throw new IOException("Not a checkpoint file: " + file);
+			}
+			int version = in.readInt();
+			if(version != VERSION) {
+				throw new IOException("Unsupported checkpoint version " + version + " in " + file);
+			}
+			String stage = in.readUTF();
+			byte[] state = readFully(in);
+			return new Checkpoint(stage, state);
+		}
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte[] chunk = new byte[65536];
+		int n;
+		while((n = in.read(chunk)) != -1) {
+			buffer.write(chunk, 0, n);
+		}
+		return buffer.toByteArray();
+	}
+
+	static void writeRandom(DataOutput out, Random random) throws IOException {
+		checkRandom(random).writeState(out);
+	}
+
+	static void readRandom(DataInput in, Random random) throws IOException {
+		checkRandom(random).readState(in);
+	}
+
+	static void writeSurrogate(DataOutput out, KnnSurrogate surrogate) throws IOException {
+		out.writeBoolean(surrogate != null);
+		if(surrogate != null) {
+			surrogate.writeState(out);
+		}
+	}
+
+	static void readSurrogate(DataInput in, KnnSurrogate surrogate) throws IOException {
+		boolean hasSurrogate = in.readBoolean();
+		if(hasSurrogate != (surrogate != null)) {
+			throw new IllegalStateException(hasSurrogate ? "Checkpoint was written with a surrogate, but none is configured." : "Checkpoint was written without a surrogate, but one is configured.");
+		}
+		if(surrogate != null) {
+			surrogate.readState(in);
+		}
+	}
+
+	private static CheckpointableRandom checkRandom(Random random) {
+		if(!(random instanceof CheckpointableRandom)) {
+			throw new IllegalStateException("Checkpoints require the optimizer's random number generator to be a CheckpointableRandom.");
+		}
+		return (CheckpointableRandom) random;
+	}
+
+	static void writeDoubles(DataOutput out, double[] values) throws IOException {
+		out.writeInt(values.length);
+		for(double value : values) {
+			out.writeDouble(value);
+		}
+	}
+
+	static double[] readDoubles(DataInput in) throws IOException {
+		int length = in.readInt();
+		if(length < 0) {
+			throw new IOException("Invalid array length in checkpoint: " + length);
+		}
+		double[] values = new double[length];
+		for(int i = 0; i < length; i++) {
+			values[i] = in.readDouble();
+		}
+		return values;
+	}
+
+	public interface StateWriter {
+		void write(DataOutput out) throws IOException;
+	}
+
+	public static final class Checkpoint {
+		private final String stage;
+		private final byte[] state;
+
+		public Checkpoint(String stage, byte[] state) {
+			this.stage = stage;
+			this.state = state;
+		}
+
+		/**
+		 * Gets the name of the optimization stage that wrote the checkpoint.
+		 */
+		public final String getStage() {
+			return stage;
+		}
+
+		public DataInput openState() {
+			return new DataInputStream(new ByteArrayInputStream(this.state));
+		}
+	}
+}
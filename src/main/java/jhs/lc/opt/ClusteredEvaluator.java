@@ -5,4 +5,14 @@ import org.apache.commons.math.FunctionEvaluationException;
 public interface ClusteredEvaluator {
 	public ClusteredParamEvaluation evaluate(double[] params) throws FunctionEvaluationException, IllegalArgumentException;
 	public double[] recommendEpsilon(double[] params);
+
+	/**
+	 * Evaluates parameters when only errors below the threshold matter. If the returned error
+	 * is below the threshold, it is the same as the error returned by {@link #evaluate(double[])}.
+	 * Otherwise it may be a lower bound of the error, because the evaluation can be abandoned
+	 * as soon as the error is known to reach the threshold.
+	 */
+	public default ClusteredParamEvaluation evaluateBounded(double[] params, double threshold) throws FunctionEvaluationException, IllegalArgumentException {
+		return this.evaluate(params);
+	}
 }
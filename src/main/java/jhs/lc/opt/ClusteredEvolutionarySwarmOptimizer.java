@@ -1,35 +1,38 @@
 package jhs.lc.opt;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.swing.event.TreeSelectionEvent;
 
-import org.apache.commons.math.FunctionEvaluationException;
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.optimization.RealPointValuePair;
 
-import jhs.math.clustering.KMeansClusteringProducer;
-import jhs.math.clustering.VectorialCluster;
-import jhs.math.clustering.VectorialClusteringResults;
+import jhs.math.clustering.HamerlyKMeans;
+import jhs.math.clustering.KdTree;
 import jhs.math.common.ItemUtil;
 import jhs.math.common.VectorialItem;
 import jhs.math.util.ArrayUtil;
 import jhs.math.util.ComparableValueHolder;
 import jhs.math.util.ListUtil;
 import jhs.math.util.MathUtil;
+import jhs.math.util.SplittableRandomAdapter;
 
 public class ClusteredEvolutionarySwarmOptimizer {
 	private static final Logger logger = Logger.getLogger(ClusteredEvolutionarySwarmOptimizer.class.getName());
+	public static final String CHECKPOINT_STAGE = "ceso";
 	private final Random random;	
 	private final int populationSize;
 	
@@ -55,6 +58,17 @@ public class ClusteredEvolutionarySwarmOptimizer {
 	
 	private double startSD = 1.5;
 	private double omegaWarmup = 0.01;
+
+	private ExecutorService executor;
+	private Checkpointer checkpointer;
+	private KnnSurrogate surrogate;
+	private Migration migration;
+	private NoEffectDetector noEffectDetector;
+	private int freezeInterval = 20;
+	private ActiveSubspace activeSubspace = new ActiveSubspace(null, 0);
+	private double[] initialPoint;
+	private double initialSpread = 0.1;
+	private StopReason stopReason;
 	
 	public ClusteredEvolutionarySwarmOptimizer(Random random, int populationSize) {
 		this.random = random;
@@ -121,6 +135,11 @@ public class ClusteredEvolutionarySwarmOptimizer {
 		return maxSubspaceSize;
 	}
 
+	/**
+	 * Sets the maximum number of variables each new particle changes. Distances between particles
+	 * are measured over the same variables, so the pairwise distance matrix of a generation is only
+	 * computed once when this is at least the number of parameters.
+	 */
 	public final void setMaxSubspaceSize(int maxSubspaceSize) {
 		this.maxSubspaceSize = maxSubspaceSize;
 	}
@@ -161,20 +180,168 @@ public class ClusteredEvolutionarySwarmOptimizer {
 		this.initialPoolSize = initialPoolSize;
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Gets the reason the last optimize() call stopped iterating.
+	 */
+	public final StopReason getStopReason() {
+		return stopReason;
+	}
+
+	public final Checkpointer getCheckpointer() {
+		return checkpointer;
+	}
+
+	/**
+	 * Sets the checkpointer that the working set is periodically written to after the warm-up phase.
+	 * Checkpoints require a CheckpointableRandom.
+	 */
+	public final void setCheckpointer(Checkpointer checkpointer) {
+		this.checkpointer = checkpointer;
+	}
+
+	public final KnnSurrogate getSurrogate() {
+		return surrogate;
+	}
+
+	/**
+	 * Sets a surrogate model that pre-screens the particles produced in each iteration after the
+	 * warm-up phase, so that only the most promising ones are evaluated. The surrogate's archive
+	 * is checkpointed along with the optimizer's state.
+	 */
+	public final void setSurrogate(KnnSurrogate surrogate) {
+		this.surrogate = surrogate;
+	}
+
+	public final ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Sets the executor that particle evaluations are spread across. If null,
+	 * particles are evaluated in the calling thread. Results do not depend on it.
+	 */
+	public final void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public final Migration getMigration() {
+		return migration;
+	}
+
+	/**
+	 * Sets the island model migration that particles are exchanged through after the warm-up
+	 * phase. Results of a run with migration are not reproducible.
+	 */
+	public final void setMigration(Migration migration) {
+		this.migration = migration;
+	}
+
+	public final NoEffectDetector getNoEffectDetector() {
+		return noEffectDetector;
+	}
+
+	/**
+	 * Sets the detector of parameters without effect, which are left out of the sampled
+	 * subspaces until they are checked again. Null disables freezing. Checks are made at
+	 * the best particle after the warm-up phase.
+	 */
+	public final void setNoEffectDetector(NoEffectDetector noEffectDetector) {
+		this.noEffectDetector = noEffectDetector;
+	}
+
+	public final int getFreezeInterval() {
+		return freezeInterval;
+	}
+
+	/**
+	 * Sets the number of iterations between checks for parameters without effect.
+	 */
+	public final void setFreezeInterval(int freezeInterval) {
+		this.freezeInterval = freezeInterval;
+	}
+
+	public final double[] getInitialPoint() {
+		return initialPoint;
+	}
+
+	/**
+	 * Sets a known good point, such as the result of a previous fit, that the initial pool
+	 * is sampled around instead of across the whole start range. Null disables it.
+	 */
+	public final void setInitialPoint(double[] initialPoint) {
+		this.initialPoint = initialPoint;
+	}
+
+	public final double getInitialSpread() {
+		return initialSpread;
+	}
+
+	/**
+	 * Sets the standard deviation of the initial pool around the initial point.
+	 */
+	public final void setInitialSpread(double initialSpread) {
+		this.initialSpread = initialSpread;
+	}
+
 	public RealPointValuePair optimize(int vectorLength, ClusteredEvaluator finalErrorFunction, ClusteredEvaluator ...  alternatingErrorFunctions) throws MathException {
 		int n = this.populationSize;
 		double[] fitnessWeights = this.createGlobalWeights(n, this.fitnessWeightDecayHalfFraction);
 		double[] distanceWeights = this.createGlobalWeights(n, this.distanceWeightDecayHalfFraction);
 		//double[] warmUpDistanceWeights = this.createGlobalWeights(n, this.warmUpDistanceWeightDecayHalfFraction);
 		ClusteredEvaluator errorFunction = alternatingErrorFunctions.length > 0 ? alternatingErrorFunctions[0] : finalErrorFunction;
+		this.activeSubspace = new ActiveSubspace(this.noEffectDetector, this.freezeInterval);
 		List<Particle> workingSet = this.createInitialWorkingSet(n, vectorLength, errorFunction);
 		this.informEndOfWarmUpPhase(ListUtil.map(workingSet, p -> p.getPointValuePair()));
-		Phase phase = Phase.CLUSTERING;
+		this.resetSurrogate(workingSet);
+		return this.iterate(workingSet, Phase.CLUSTERING, 0, 0, -1, errorFunction, fitnessWeights, distanceWeights, finalErrorFunction, alternatingErrorFunctions);
+	}
+
+	/**
+	 * Continues an optimization from a checkpoint written by this optimizer, after its warm-up phase.
+	 * The random number generator is restored to its state at the time of the checkpoint.
+	 */
+	public RealPointValuePair resume(DataInput checkpointState, ClusteredEvaluator finalErrorFunction, ClusteredEvaluator ...  alternatingErrorFunctions) throws MathException, IOException {
+		int n = this.populationSize;
+		double[] fitnessWeights = this.createGlobalWeights(n, this.fitnessWeightDecayHalfFraction);
+		double[] distanceWeights = this.createGlobalWeights(n, this.distanceWeightDecayHalfFraction);
+		Phase phase = Phase.valueOf(checkpointState.readUTF());
+		int iterationCount = checkpointState.readInt();
+		int totalIterations = checkpointState.readInt();
+		int currentAltFunctionIndex = checkpointState.readInt();
+		int errorFunctionIndex = checkpointState.readInt();
+		if(errorFunctionIndex >= alternatingErrorFunctions.length) {
+			throw new IllegalStateException("Checkpoint refers to alternating error function " + errorFunctionIndex + ", but only " + alternatingErrorFunctions.length + " were given.");
+		}
+		ClusteredEvaluator errorFunction = errorFunctionIndex == -1 ? finalErrorFunction : alternatingErrorFunctions[errorFunctionIndex];
+		int size = checkpointState.readInt();
+		if(size != n) {
+			throw new IllegalStateException("Checkpoint has " + size + " particles, but the population size is " + n + ".");
+		}
+		// Particles are recreated in the order they were originally created, so that ties are broken as before.
+		Particle[] particles = new Particle[size];
+		for(int k = 0; k < size; k++) {
+			int index = checkpointState.readInt();
+			double[] parameters = Checkpointer.readDoubles(checkpointState);
+			double[] clusteringPosition = Checkpointer.readDoubles(checkpointState);
+			particles[index] = new Particle(parameters, clusteringPosition, checkpointState.readDouble());
+		}
+		this.activeSubspace = new ActiveSubspace(this.noEffectDetector, this.freezeInterval);
+		this.activeSubspace.readState(checkpointState);
+		Checkpointer.readSurrogate(checkpointState, this.surrogate);
+		Checkpointer.readRandom(checkpointState, this.random);
+		if(logger.isLoggable(Level.INFO)) {
+			logger.info("Resuming " + phase + " phase at iteration " + iterationCount + ".");
+		}
+		return this.iterate(new ArrayList<>(Arrays.asList(particles)), phase, iterationCount, totalIterations, currentAltFunctionIndex, errorFunction, fitnessWeights, distanceWeights, finalErrorFunction, alternatingErrorFunctions);
+	}
+
+	@SuppressWarnings("unchecked")
+	private RealPointValuePair iterate(List<Particle> workingSet, Phase phase, int iterationCount, int totalIterations, int currentAltFunctionIndex, ClusteredEvaluator errorFunction, double[] fitnessWeights, double[] distanceWeights, ClusteredEvaluator finalErrorFunction, ClusteredEvaluator ...  alternatingErrorFunctions) throws MathException {
+		int n = this.populationSize;
 		int maxIterationsWithClustering = this.maxIterationsWithClustering;
 		int maxConsolidationIterations = this.maxConsolidationIterations;
-		int currentAltFunctionIndex = -1;
-		int iterationCount = 0;
+		Checkpointer checkpointer = this.checkpointer;
+		this.stopReason = StopReason.MAX_ITERATIONS;
 		OUTER:
 		for(;;) {
 			switch(phase) {
@@ -189,6 +356,7 @@ public class ClusteredEvolutionarySwarmOptimizer {
 						}
 						errorFunction = finalErrorFunction;
 						workingSet = this.revalidateWorkingSet(workingSet, errorFunction);													
+						this.resetSurrogate(workingSet);
 					}
 				}
 				break;
@@ -201,12 +369,19 @@ public class ClusteredEvolutionarySwarmOptimizer {
 				throw new IllegalStateException();
 			}
 			Collections.sort(workingSet);
+			this.activeSubspace.update(totalIterations, workingSet.get(0).parameters);
 			boolean consolidationPhase = phase == Phase.CONSOLIDATION;
-			List<Particle> newParticles = this.produceNewParticles(workingSet.toArray(new Particle[workingSet.size()]), errorFunction, fitnessWeights, distanceWeights);
+			// In consolidation, a new particle is only kept if it beats the worst one in the working set.
+			double threshold = consolidationPhase ? workingSet.get(workingSet.size() - 1).getValue() : Double.POSITIVE_INFINITY;
+			List<Particle> newParticles = this.produceNewParticles(workingSet.toArray(new Particle[workingSet.size()]), errorFunction, threshold, fitnessWeights, distanceWeights);
 			if(!consolidationPhase) {
 				List<Particle> wsWithoutOutliers = this.removeErrorOutliers(workingSet);
 				//List<Particle> wsWithoutOutliers = this.extractBestWithClustering(n * 3 / 4, workingSet, 1);
 				List<Particle> clusteringSet = ListUtil.concat(wsWithoutOutliers, newParticles);
+				if(clusteringSet.size() < n) {
+					// Only possible when the surrogate screened out particles.
+					clusteringSet = ListUtil.concat(workingSet, newParticles);
+				}
 				workingSet = this.extractBestWithClusteringDistance(n, clusteringSet);
 				//workingSet = this.extractBestWithClustering(n, clusteringSet, this.numParticlesPerCluster);
 			}
@@ -216,9 +391,13 @@ public class ClusteredEvolutionarySwarmOptimizer {
 			if(workingSet.size() != n) {
 				throw new IllegalStateException();
 			}
+			if(this.migration != null && (totalIterations + 1) % this.migration.getInterval() == 0) {
+				workingSet = this.migrate(workingSet, totalIterations, errorFunction);
+			}
 			RealPointValuePair rpvp = this.getBestPoint(workingSet);
 			this.informProgress(phase, iterationCount, rpvp);
 			if(this.converged(workingSet)) {
+				this.stopReason = StopReason.CONVERGED;
 				break;
 			}
 			if(iterationCount != 0 && (iterationCount % 20 == 0) && phase == Phase.CLUSTERING) {
@@ -234,10 +413,21 @@ public class ClusteredEvolutionarySwarmOptimizer {
 						}
 						errorFunction = newErrorFunction;
 						workingSet = this.revalidateWorkingSet(workingSet, errorFunction);							
+						this.resetSurrogate(workingSet);
 					}
 				}				
 			}
 			iterationCount++;
+			if(checkpointer != null && checkpointer.isDue(totalIterations)) {
+				List<Particle> checkpointSet = workingSet;
+				Phase checkpointPhase = phase;
+				int checkpointIterationCount = iterationCount;
+				int checkpointTotalIterations = totalIterations + 1;
+				int checkpointAltFunctionIndex = currentAltFunctionIndex;
+				int errorFunctionIndex = errorFunction == finalErrorFunction ? -1 : Arrays.asList(alternatingErrorFunctions).indexOf(errorFunction);
+				checkpointer.write(CHECKPOINT_STAGE, out -> this.writeState(out, checkpointSet, checkpointPhase, checkpointIterationCount, checkpointTotalIterations, checkpointAltFunctionIndex, errorFunctionIndex));
+			}
+			totalIterations++;
 		}
 		if(errorFunction != finalErrorFunction) {
 			if(logger.isLoggable(Level.INFO)) {
@@ -246,24 +436,116 @@ public class ClusteredEvolutionarySwarmOptimizer {
 			errorFunction = finalErrorFunction;
 			workingSet = this.revalidateWorkingSet(workingSet, errorFunction);													
 		}
+		if(this.surrogate != null && logger.isLoggable(Level.INFO)) {
+			logger.info("Surrogate screened out " + this.surrogate.getNumScreenedOut() + " of " + this.surrogate.getNumCandidates() + " candidates.");
+		}
 		return this.getBestPoint(workingSet);
 	}	
 
+	/**
+	 * Seeds the surrogate's archive with the working set, discarding evaluations made with a previous error function.
+	 */
+	private void resetSurrogate(List<Particle> workingSet) {
+		KnnSurrogate surrogate = this.surrogate;
+		if(surrogate != null) {
+			surrogate.clear();
+			for(Particle particle : workingSet) {
+				surrogate.add(particle.parameters, particle.evaluation);
+			}
+		}
+	}
+
+	private void writeState(DataOutput out, List<Particle> workingSet, Phase phase, int iterationCount, int totalIterations, int currentAltFunctionIndex, int errorFunctionIndex) throws IOException {
+		out.writeUTF(phase.name());
+		out.writeInt(iterationCount);
+		out.writeInt(totalIterations);
+		out.writeInt(currentAltFunctionIndex);
+		out.writeInt(errorFunctionIndex);
+		int size = workingSet.size();
+		Integer[] creationOrder = new Integer[size];
+		for(int k = 0; k < size; k++) {
+			creationOrder[k] = k;
+		}
+		Arrays.sort(creationOrder, (k1, k2) -> Long.compare(workingSet.get(k1).getId(), workingSet.get(k2).getId()));
+		out.writeInt(size);
+		for(int index : creationOrder) {
+			Particle particle = workingSet.get(index);
+			out.writeInt(index);
+			Checkpointer.writeDoubles(out, particle.parameters);
+			Checkpointer.writeDoubles(out, particle.clusteringPosition);
+			out.writeDouble(particle.evaluation);
+		}
+		this.activeSubspace.writeState(out);
+		Checkpointer.writeSurrogate(out, this.surrogate);
+		Checkpointer.writeRandom(out, this.random);
+	}
+
+	/**
+	 * Sends the best particles to other islands, and replaces the worst ones with better immigrants.
+	 */
+	private List<Particle> migrate(List<Particle> workingSet, int iteration, ClusteredEvaluator errorFunction) throws MathException {
+		List<Particle> sortedSet = new ArrayList<>(workingSet);
+		Collections.sort(sortedSet);
+		int size = sortedSet.size();
+		int numMigrants = Math.min(this.migration.getNumMigrants(), size);
+		List<RealPointValuePair> emigrants = new ArrayList<>(numMigrants);
+		for(int k = 0; k < numMigrants; k++) {
+			emigrants.add(sortedSet.get(k).getPointValuePair());
+		}
+		List<double[]> immigrants;
+		try {
+			immigrants = this.migration.exchange(iteration, emigrants);
+		} catch(IOException ioe) {
+			throw new IllegalStateException("Unable to exchange migrants.", ioe);
+		}
+		int numImmigrants = Math.min(immigrants.size(), numMigrants);
+		List<ClusteredParamEvaluation> evaluations = ParallelTasks.map(this.executor, numImmigrants, k -> errorFunction.evaluate(immigrants.get(k)));
+		int replaced = 0;
+		for(int k = 0; k < numImmigrants; k++) {
+			ClusteredParamEvaluation eval = evaluations.get(k);
+			if(this.surrogate != null) {
+				this.surrogate.add(immigrants.get(k), eval.getError());
+			}
+			int worstIndex = size - 1 - replaced;
+			if(eval.getError() < sortedSet.get(worstIndex).getValue()) {
+				sortedSet.set(worstIndex, new Particle(immigrants.get(k), eval.getClusteringPosition(), eval.getError()));
+				replaced++;
+			}
+		}
+		if(logger.isLoggable(Level.FINE)) {
+			logger.fine("Iteration " + iteration + ": " + replaced + " of " + numImmigrants + " immigrants replaced particles.");
+		}
+		return sortedSet;
+	}
+
 	protected void informEndOfWarmUpPhase(List<RealPointValuePair> pointValues) {
 	}
 
 	protected void informEndOfClusteringPhase(List<RealPointValuePair> pointValues) {
 	}
 
-	private List<Particle> revalidateWorkingSet(List<Particle> particles, ClusteredEvaluator errorFunction) throws FunctionEvaluationException {
+	private List<Particle> revalidateWorkingSet(List<Particle> particles, ClusteredEvaluator errorFunction) throws MathException {
+		List<ClusteredParamEvaluation> evaluations = ParallelTasks.map(this.executor, particles.size(), i -> errorFunction.evaluate(particles.get(i).parameters));
 		List<Particle> result = new ArrayList<>();
-		for(Particle p : particles) {
-			double[] parameters = p.parameters;
-			ClusteredParamEvaluation eval = errorFunction.evaluate(parameters);
-			result.add(new Particle(parameters, eval.getClusteringPosition(), eval.getError()));
+		for(int i = 0; i < evaluations.size(); i++) {
+			ClusteredParamEvaluation eval = evaluations.get(i);
+			result.add(new Particle(particles.get(i).parameters, eval.getClusteringPosition(), eval.getError()));
 		}
 		return result;
 	}
+
+	/**
+	 * Splits one random stream per task off a seed drawn from the optimizer's random source,
+	 * so each task draws the same numbers regardless of which thread runs it.
+	 */
+	private Random[] splitStreams(int numTasks) {
+		SplittableRandom base = new SplittableRandom(this.random.nextLong());
+		Random[] streams = new Random[numTasks];
+		for(int i = 0; i < numTasks; i++) {
+			streams[i] = new SplittableRandomAdapter(base.split());
+		}
+		return streams;
+	}
 	
 	private boolean converged(List<Particle> workingSet) {
 		double[] meanPosition = ItemUtil.meanPosition(workingSet, Particle::getParameters);
@@ -315,12 +597,22 @@ public class ClusteredEvolutionarySwarmOptimizer {
 		if(numClusters < 1) {
 			numClusters = 1;
 		}
-		KMeansClusteringProducer<Particle> clusterEngine = new KMeansClusteringProducer<>(this.random, numClusters, this.maxClusterAlgoSteps);
-		VectorialClusteringResults<Particle> clusterResults = clusterEngine.produceClustering(particles);		
+		int size = particles.size();
+		int dimension = particles.get(0).getPosition().length;
+		double[] positions = new double[size * dimension];
+		for(int i = 0; i < size; i++) {
+			System.arraycopy(particles.get(i).getPosition(), 0, positions, i * dimension, dimension);
+		}
+		HamerlyKMeans clusterEngine = new HamerlyKMeans(this.random, numClusters, this.maxClusterAlgoSteps);
+		clusterEngine.setExecutor(this.executor);
+		HamerlyKMeans.Result clusterResults = clusterEngine.cluster(positions, dimension);
 		List<Particle> result = new ArrayList<>();
-		for(VectorialCluster<Particle> cluster : clusterResults.getClusters()) {
-			List<Particle> cp = this.extractBest(nppc, cluster.getItems());
-			result.addAll(cp);
+		for(int[] members : clusterResults.getMembers()) {
+			List<Particle> clusterItems = new ArrayList<>(members.length);
+			for(int m : members) {
+				clusterItems.add(particles.get(m));
+			}
+			result.addAll(this.extractBest(nppc, clusterItems));
 		}
 		Set<Particle> origResultSet = new HashSet<>(result);
 		if(result.size() < n) {
@@ -345,54 +637,48 @@ public class ClusteredEvolutionarySwarmOptimizer {
 			throw new IllegalArgumentException("Cannot extract " + n + " particles out of " + particles.size());
 		}
 		int numEliminatePerPass = (int) Math.ceil((double) size / n) - 1;
-		TreeSet<Particle> sourcePool = new TreeSet<>(particles);
-		List<Particle> discarded = new ArrayList<>();
+		Particle[] sortedParticles = particles.toArray(new Particle[size]);
+		Arrays.sort(sortedParticles);
+		int dimension = sortedParticles[0].clusteringPosition.length;
+		double[] positions = new double[size * dimension];
+		for(int i = 0; i < size; i++) {
+			System.arraycopy(sortedParticles[i].clusteringPosition, 0, positions, i * dimension, dimension);
+		}
+		KdTree sourcePool = new KdTree(positions, dimension);
+		int[] discarded = new int[size];
+		int numDiscarded = 0;
+		int nextIndex = 0;
 		List<Particle> result = new ArrayList<>();
 		while(result.size() < n) {
-			if(sourcePool.isEmpty()) {
-				sourcePool.addAll(discarded);
-				discarded.clear();
-				if(sourcePool.isEmpty()) {
+			if(sourcePool.getNumPresent() == 0) {
+				for(int d = 0; d < numDiscarded; d++) {
+					sourcePool.restore(discarded[d]);
+				}
+				numDiscarded = 0;
+				nextIndex = 0;
+				if(sourcePool.getNumPresent() == 0) {
 					throw new IllegalStateException();
 				}
 			}
-			Particle first = sourcePool.first();
-			if(!sourcePool.remove(first)) {
-				throw new IllegalStateException();
+			while(sourcePool.isRemoved(nextIndex)) {
+				nextIndex++;
 			}
+			Particle first = sortedParticles[nextIndex];
+			sourcePool.remove(nextIndex);
 			result.add(first);
 			INNER:
 			for(int i = 0; i < numEliminatePerPass; i++) {
-				if(sourcePool.isEmpty()) {
+				int closest = sourcePool.nearest(first.clusteringPosition);
+				if(closest == -1) {
 					break INNER;
 				}
-				Particle closest = this.closestClusteringPosition(first, sourcePool);
-				if(!sourcePool.remove(closest)) {
-					throw new IllegalStateException();				
-				}
-				discarded.add(closest);
+				sourcePool.remove(closest);
+				discarded[numDiscarded++] = closest;
 			}
 		}
 		return result;
 	}
 	
-	private Particle closestClusteringPosition(Particle pivot, Collection<Particle> others) {
-		Particle closest = null;
-		double minDistance = Double.POSITIVE_INFINITY;
-		double[] pivotPosition = pivot.clusteringPosition;
-		for(Particle p : others) {
-			double d = MathUtil.euclideanDistanceSquared(pivotPosition, p.clusteringPosition);
-			if(d < minDistance) {
-				minDistance = d;
-				closest = p;
-			}
-		}
-		if(closest == null) {
-			throw new IllegalArgumentException();
-		}
-		return closest;
-	}
-
 	private List<Particle> removeErrorOutliers(List<Particle> particles) {
 		double[] errors = ArrayUtil.doubleValueVector(particles, Particle::getValue);
 		double errorMedian = MathUtil.median(errors, true);
@@ -403,18 +689,37 @@ public class ClusteredEvolutionarySwarmOptimizer {
 		return result;
 	}
 	 
-	private List<Particle> produceNewParticles(Particle[] sortedWorkingSet, ClusteredEvaluator errorFunction, double[] fitnessWeights, double[] distanceWeights) throws MathException {
-		List<Particle> result = new ArrayList<>();
-		for(Particle particle1 : sortedWorkingSet) {
-			Particle p = this.newParticle(particle1, sortedWorkingSet, fitnessWeights, distanceWeights, errorFunction);
-			result.add(p);
+	private List<Particle> produceNewParticles(Particle[] sortedWorkingSet, ClusteredEvaluator errorFunction, double threshold, double[] fitnessWeights, double[] distanceWeights) throws MathException {
+		double[][] points = new double[sortedWorkingSet.length][];
+		for(int i = 0; i < points.length; i++) {
+			points[i] = sortedWorkingSet[i].parameters;
 		}
-		return result;
+		ParticleDistances distances = new ParticleDistances(points, this.maxSubspaceSize);
+		int n = sortedWorkingSet.length;
+		Random[] streams = this.splitStreams(n);
+		List<double[]> newParams = ParallelTasks.map(this.executor, n, 
+				index1 -> this.newParticleParams(index1, sortedWorkingSet, distances, fitnessWeights, distanceWeights, streams[index1]));
+		double[][] candidates = newParams.toArray(new double[n][]);
+		KnnSurrogate surrogate = this.surrogate;
+		int[] evaluated = surrogate == null ? ArrayUtil.indexIdentity(n) : surrogate.select(candidates, 0, n);
+		List<ClusteredParamEvaluation> evaluations = ParallelTasks.map(this.executor, evaluated.length, k -> errorFunction.evaluateBounded(candidates[evaluated[k]], threshold));
+		List<Particle> particles = new ArrayList<>(evaluated.length);
+		for(int k = 0; k < evaluated.length; k++) {
+			double[] params = candidates[evaluated[k]];
+			ClusteredParamEvaluation evaluation = evaluations.get(k);
+			if(surrogate != null) {
+				// A bounded evaluation may only be a lower bound, but it still marks a poor region.
+				surrogate.add(params, evaluation.getError());
+			}
+			particles.add(new Candidate(params, evaluation, 0).toParticle());
+		}
+		return particles;
 	}
 
-	private Particle newParticle(Particle particle1, Particle[] sortedParticles, double[] fitnessWeights, double[] distanceWeights, ClusteredEvaluator errorFunction) throws MathException {
-		int[] subspace = this.createSubspace(particle1.parameters.length);
-		double[] weights = this.getParticleWeights(particle1, sortedParticles, fitnessWeights, distanceWeights, subspace);
+	private double[] newParticleParams(int index1, Particle[] sortedParticles, ParticleDistances distances, double[] fitnessWeights, double[] distanceWeights, Random random) {
+		Particle particle1 = sortedParticles[index1];
+		int[] subspace = this.createSubspace(particle1.parameters.length, random);
+		double[] weights = this.getParticleWeights(index1, sortedParticles, distances, fitnessWeights, distanceWeights, subspace);
 		if(sortedParticles.length != weights.length) {
 			throw new IllegalStateException();
 		}
@@ -422,17 +727,15 @@ public class ClusteredEvolutionarySwarmOptimizer {
 		int index3 = ArrayUtil.randomIndex(weights, random);
 		Particle particle2 = sortedParticles[index2];
 		Particle particle3 = sortedParticles[index3];
-		return this.newParticle(errorFunction, subspace, particle1, particle2, particle3);		
+		return this.newParticleParams(subspace, particle1, particle2, particle3, random);		
 	}
 	
-	private double[] getParticleWeights(Particle particle, Particle[] particles, double[] fitnessWeights, double[] distanceWeights, int[] subspace) {
-		double[] pivotPoint = particle.parameters;
-		int[] ranks = ArrayUtil.ranks(particles, p -> distanceMetric(p.parameters, pivotPoint, subspace));
+	private double[] getParticleWeights(int index, Particle[] particles, ParticleDistances distances, double[] fitnessWeights, double[] distanceWeights, int[] subspace) {
+		int[] ranks = distances.ranks(index, subspace);
 		int length = fitnessWeights.length;
 		double[] weights = new double[length];
 		for(int i = 0; i < length; i++) {
-			Particle p = particles[i];
-			if(p != particle) {
+			if(i != index) {
 				weights[i] = fitnessWeights[i] * distanceWeights[ranks[i]];
 			}
 		}
@@ -449,8 +752,7 @@ public class ClusteredEvolutionarySwarmOptimizer {
 		return sum;
 	}
 
-	private Particle newParticle(ClusteredEvaluator errorFunction, int[] subspace, Particle particle1, Particle particle2, Particle particle3) throws MathException {
-		Random r = this.random;
+	private double[] newParticleParams(int[] subspace, Particle particle1, Particle particle2, Particle particle3, Random r) {
 		double phi = this.phi;
 		double omega = this.omega;
 		double[] point1 = particle1.parameters;
@@ -466,8 +768,7 @@ public class ClusteredEvolutionarySwarmOptimizer {
 			double f = r.nextDouble();
 			newParams[i] =  x + direction * (point2[i] - x) * f * phi;
 		}
-		ClusteredParamEvaluation eval = errorFunction.evaluate(newParams);
-		return new Particle(newParams, eval.getClusteringPosition(), eval.getError());
+		return newParams;
 	}
 
 	private double[] createGlobalWeights(int n, double decayHalfFraction) {
@@ -479,14 +780,8 @@ public class ClusteredEvolutionarySwarmOptimizer {
 		return weights;
 	}
 
-	private int[] createSubspace(int vectorLength) {
-		int[] vars = ArrayUtil.indexIdentity(vectorLength);
-		int maxSS = this.maxSubspaceSize;
-		if(maxSS >= vectorLength) {
-			return vars;
-		}
-		ArrayUtil.shuffle(vars, random);
-		return Arrays.copyOf(vars, maxSS);
+	private int[] createSubspace(int vectorLength, Random random) {
+		return this.activeSubspace.create(vectorLength, this.maxSubspaceSize, random);
 	}
 
 	private List<Particle> createInitialWorkingSet(int n, int vectorLength, ClusteredEvaluator errorFunction) throws MathException {
@@ -501,30 +796,33 @@ public class ClusteredEvolutionarySwarmOptimizer {
 		return ListUtil.map(workingSet, ParticleStart::getParticle);
 	}
 
-	private List<ParticleStart> updateInitialWorkingSet(int n, int vectorLength, List<ParticleStart> workingSet, ClusteredEvaluator errorFunction) throws FunctionEvaluationException {
+	private List<ParticleStart> updateInitialWorkingSet(int n, int vectorLength, List<ParticleStart> workingSet, ClusteredEvaluator errorFunction) throws MathException {
 		ParticleStart[] workingSetArray = workingSet.toArray(new ParticleStart[workingSet.size()]);
 		double meanSeparationMetric = MathUtil.mean(ArrayUtil.doubleValueVector(workingSetArray, ps -> ps.separationMetric));
 		double separationThreshold = meanSeparationMetric * 5.0;
+		Random[] streams = this.splitStreams(n);
+		List<Candidate> candidates = ParallelTasks.map(this.executor, n, 
+				j -> this.newCandidateStart(vectorLength, workingSetArray[j], j, workingSetArray, errorFunction, separationThreshold, streams[j]));
 		for(int j = 0; j < n; j++) {
 			ParticleStart currentStart = workingSet.get(j);
-			ParticleStart candidateStart  = this.newCandidateStart(vectorLength, currentStart, j, workingSetArray, errorFunction, separationThreshold);
-			if(candidateStart != null && candidateStart.getValue() < currentStart.getValue()) {
-				workingSet.set(j, candidateStart);
+			Candidate candidate = candidates.get(j);
+			if(candidate != null && candidate.evaluation.getError() < currentStart.getValue()) {
+				workingSet.set(j, new ParticleStart(candidate.separationMetric, candidate.toParticle()));
 			}
 		}
 		return workingSet;		
 	}
 	
-	private ParticleStart newCandidateStart(int vectorLength, ParticleStart oldStart, int oldStartIndex, ParticleStart[] workingSet, ClusteredEvaluator errorFunction, double separationThreshold) throws FunctionEvaluationException {
+	private Candidate newCandidateStart(int vectorLength, ParticleStart oldStart, int oldStartIndex, ParticleStart[] workingSet, ClusteredEvaluator errorFunction, double separationThreshold, Random random) throws MathException {
 		//TODO: Accept separation metric threshold as OK
 		double oldSm = oldStart.separationMetric;
 		Particle oldParticle = oldStart.particle;
 		for(int t = 0; t < 100; t++) {
 			double factor = 1.0 + t * 0.3;
-			double[] testParams = this.newRandomStartParams(vectorLength, oldStart, oldStartIndex, workingSet, factor);
+			double[] testParams = this.newRandomStartParams(vectorLength, oldStart, oldStartIndex, workingSet, factor, random);
 			double sm = this.separationMetric(testParams, oldParticle, workingSet);
 			if(sm >= oldSm || sm >= separationThreshold) {
-				return this.createStartParticle(testParams, sm, oldStart, workingSet, errorFunction);
+				return new Candidate(testParams, errorFunction.evaluateBounded(testParams, oldStart.getValue()), sm);
 			}
 		}
 		if(logger.isLoggable(Level.INFO)) {
@@ -533,12 +831,6 @@ public class ClusteredEvolutionarySwarmOptimizer {
 		return null;
 	}
 
-	private ParticleStart createStartParticle(double[] parameters, double separationMetric, ParticleStart except, ParticleStart[] workingSet, ClusteredEvaluator errorFunction) throws FunctionEvaluationException {
-		ClusteredParamEvaluation evaluation = errorFunction.evaluate(parameters);
-		Particle particle = new Particle(parameters, evaluation.getClusteringPosition(), evaluation.getError());
-		return new ParticleStart(separationMetric, particle);
-	}
-
 	/*
 	private double[] newRandomStartParams(int vectorLength, ParticleStart oldStart, int oldStartIndex, ParticleStart[] workingSet) throws FunctionEvaluationException {
 		int[] subspace = this.createSubspace(vectorLength);
@@ -559,10 +851,9 @@ public class ClusteredEvolutionarySwarmOptimizer {
 	}
 	*/
 
-	private double[] newRandomStartParams(int vectorLength, ParticleStart oldStart, int oldStartIndex, ParticleStart[] workingSet, double factor) throws FunctionEvaluationException {
-		int[] subspace = this.createSubspace(vectorLength);
+	private double[] newRandomStartParams(int vectorLength, ParticleStart oldStart, int oldStartIndex, ParticleStart[] workingSet, double factor, Random r) {
+		int[] subspace = this.createSubspace(vectorLength, r);
 		Particle particle1 = oldStart.particle;
-		Random r = this.random;
 		double omega = this.omegaWarmup;
 		double startSD = this.startSD;
 		double[] point1 = particle1.parameters;
@@ -706,11 +997,24 @@ public class ClusteredEvolutionarySwarmOptimizer {
 			logger.info("Creating initial pool of " + poolSize + " particles.");
 		}
 		double ssd = this.startSD;
+		double[][] poolParams = new double[poolSize][];
+		double[] initialPoint = this.initialPoint;
+		if(initialPoint != null && initialPoint.length != vectorLength) {
+			throw new IllegalStateException("Initial point has " + initialPoint.length + " parameters, but the vector length is " + vectorLength + ".");
+		}
+		for(int i = 0; i < poolSize; i++) {
+			if(initialPoint == null) {
+				poolParams[i] = MathUtil.sampleUniformSymmetric(r, ssd, vectorLength);
+			}
+			else {
+				poolParams[i] = i == 0 ? initialPoint.clone() : MathUtil.add(initialPoint, MathUtil.sampleGaussian(r, this.initialSpread, vectorLength));
+			}
+		}
+		List<ClusteredParamEvaluation> evaluations = ParallelTasks.map(this.executor, poolSize, i -> errorFunction.evaluate(poolParams[i]));
 		List<Particle> pool = new ArrayList<>();		
 		for(int i = 0; i < poolSize; i++) {
-			double[] params = MathUtil.sampleUniformSymmetric(r, ssd, vectorLength);
-			ClusteredParamEvaluation eval = errorFunction.evaluate(params);
-			pool.add(new Particle(params, eval.getClusteringPosition(), eval.getError()));
+			ClusteredParamEvaluation eval = evaluations.get(i);
+			pool.add(new Particle(poolParams[i], eval.getClusteringPosition(), eval.getError()));
 		}
 		return this.extractBestWithClustering(n, pool, 1);
 	}
@@ -718,6 +1022,27 @@ public class ClusteredEvolutionarySwarmOptimizer {
 	protected void informProgress(Phase phase, int iteration, RealPointValuePair pointValue) {		
 	}
 	
+	/**
+	 * An evaluated parameter vector produced by a parallel task. Particles are created from
+	 * candidates in the calling thread, in index order, so that their tie-breaking ids are
+	 * deterministic.
+	 */
+	private static class Candidate {
+		private final double[] parameters;
+		private final ClusteredParamEvaluation evaluation;
+		private final double separationMetric;
+
+		public Candidate(double[] parameters, ClusteredParamEvaluation evaluation, double separationMetric) {
+			this.parameters = parameters;
+			this.evaluation = evaluation;
+			this.separationMetric = separationMetric;
+		}
+
+		public Particle toParticle() {
+			return new Particle(this.parameters, this.evaluation.getClusteringPosition(), this.evaluation.getError());
+		}
+	}
+	
 	private static class ParticleStart extends ComparableValueHolder<ParticleStart> {
 		private final double separationMetric;
 		private final Particle particle;
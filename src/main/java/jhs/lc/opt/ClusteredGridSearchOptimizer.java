@@ -1,14 +1,17 @@
 package jhs.lc.opt;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,9 +22,7 @@ import org.apache.commons.math.MathException;
 import org.apache.commons.math.analysis.MultivariateRealFunction;
 import org.apache.commons.math.optimization.RealPointValuePair;
 
-import jhs.math.clustering.KMeansClusteringProducer;
-import jhs.math.clustering.VectorialCluster;
-import jhs.math.clustering.VectorialClusteringResults;
+import jhs.math.clustering.HamerlyKMeans;
 import jhs.math.common.ItemUtil;
 import jhs.math.common.VectorialItem;
 import jhs.math.util.ArrayUtil;
@@ -31,6 +32,7 @@ import jhs.math.util.MathUtil;
 
 public class ClusteredGridSearchOptimizer {
 	private static final Logger logger = Logger.getLogger(ClusteredGridSearchOptimizer.class.getName());
+	public static final String CHECKPOINT_STAGE = "cgso";
 	private final Random random;	
 	private final int numClusters, numParticlesPerCluster;
 	
@@ -47,6 +49,24 @@ public class ClusteredGridSearchOptimizer {
 	private int maxSubspaceSize = 4;
 	
 	private int maxAgdIterations = 7;
+
+	private int stallWindow = 0;
+	private double stallTolerance = 1E-4;
+	private double minBoundsSd = 0;
+	private long maxEvaluations = 0;
+	private double maxSeconds = 0;
+
+	private ExecutorService executor;
+	private Checkpointer checkpointer;
+	private KnnSurrogate surrogate;
+	private Migration migration;
+	private NoEffectDetector noEffectDetector;
+	private int freezeInterval = 20;
+	private ActiveSubspace activeSubspace = new ActiveSubspace(null, 0);
+	private double[] initialPoint;
+	private double initialSpread = 0.1;
+	private StopReason stopReason;
+	private long numEvaluations;
 	
 	public ClusteredGridSearchOptimizer(Random random, int numClusters, int numParticlesPerCluster) {
 		this.random = random;
@@ -78,33 +98,357 @@ public class ClusteredGridSearchOptimizer {
 		this.maxIterations = maxIterations;
 	}
 
+	public final int getStallWindow() {
+		return stallWindow;
+	}
+
+	/**
+	 * Sets the number of iterations over which the best loss must improve by a relative
+	 * amount of at least the stall tolerance. Zero disables stall detection.
+	 */
+	public final void setStallWindow(int stallWindow) {
+		this.stallWindow = stallWindow;
+	}
+
+	public final double getStallTolerance() {
+		return stallTolerance;
+	}
+
+	public final void setStallTolerance(double stallTolerance) {
+		this.stallTolerance = stallTolerance;
+	}
+
+	public final double getMinBoundsSd() {
+		return minBoundsSd;
+	}
+
+	/**
+	 * Sets the sampling SD below which iteration stops. Zero disables the floor.
+	 */
+	public final void setMinBoundsSd(double minBoundsSd) {
+		this.minBoundsSd = minBoundsSd;
+	}
+
+	public final long getMaxEvaluations() {
+		return maxEvaluations;
+	}
+
+	/**
+	 * Sets the maximum number of loss evaluations, not counting the final gradient descent 
+	 * pushes. Zero means unlimited. An iteration is not started if it would exceed the limit.
+	 */
+	public final void setMaxEvaluations(long maxEvaluations) {
+		this.maxEvaluations = maxEvaluations;
+	}
+
+	public final double getMaxSeconds() {
+		return maxSeconds;
+	}
+
+	/**
+	 * Sets the wall-clock budget of the clustering iterations in seconds. Zero means unlimited.
+	 */
+	public final void setMaxSeconds(double maxSeconds) {
+		this.maxSeconds = maxSeconds;
+	}
+
+	/**
+	 * Gets the reason the last optimize() call stopped iterating.
+	 */
+	public final StopReason getStopReason() {
+		return stopReason;
+	}
+
+	/**
+	 * Gets the number of loss evaluations made by the clustering iterations of the last optimize() call.
+	 */
+	public final long getNumEvaluations() {
+		return numEvaluations;
+	}
+
+	public final Checkpointer getCheckpointer() {
+		return checkpointer;
+	}
+
+	/**
+	 * Sets the checkpointer that clustering state is periodically written to. 
+	 * Checkpoints require a CheckpointableRandom.
+	 */
+	public final void setCheckpointer(Checkpointer checkpointer) {
+		this.checkpointer = checkpointer;
+	}
+
+	public final KnnSurrogate getSurrogate() {
+		return surrogate;
+	}
+
+	/**
+	 * Sets a surrogate model that pre-screens the candidates generated around each cluster,
+	 * so that only the most promising ones are evaluated. The surrogate's archive is
+	 * checkpointed along with the optimizer's state.
+	 */
+	public final void setSurrogate(KnnSurrogate surrogate) {
+		this.surrogate = surrogate;
+	}
+
+	public final ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Sets the executor that particle evaluations are spread across. If null,
+	 * particles are evaluated in the calling thread.
+	 */
+	public final void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public final Migration getMigration() {
+		return migration;
+	}
+
+	/**
+	 * Sets the island model migration that cluster particles are exchanged through. 
+	 * Results of a run with migration are not reproducible.
+	 */
+	public final void setMigration(Migration migration) {
+		this.migration = migration;
+	}
+
+	public final NoEffectDetector getNoEffectDetector() {
+		return noEffectDetector;
+	}
+
+	/**
+	 * Sets the detector of parameters without effect, which are left out of the sampled
+	 * subspaces until they are checked again. Null disables freezing. Checks are made at
+	 * the best cluster particle.
+	 */
+	public final void setNoEffectDetector(NoEffectDetector noEffectDetector) {
+		this.noEffectDetector = noEffectDetector;
+	}
+
+	public final int getFreezeInterval() {
+		return freezeInterval;
+	}
+
+	/**
+	 * Sets the number of iterations between checks for parameters without effect.
+	 */
+	public final void setFreezeInterval(int freezeInterval) {
+		this.freezeInterval = freezeInterval;
+	}
+
+	public final double[] getInitialPoint() {
+		return initialPoint;
+	}
+
+	/**
+	 * Sets a known good point, such as the result of a previous fit, that initial clusters
+	 * are sampled around instead of across the whole start range. Null disables it.
+	 */
+	public final void setInitialPoint(double[] initialPoint) {
+		this.initialPoint = initialPoint;
+	}
+
+	public final double getInitialSpread() {
+		return initialSpread;
+	}
+
+	/**
+	 * Sets the standard deviation of initial cluster samples around the initial point, which
+	 * also caps the initial sampling standard deviation around clusters.
+	 */
+	public final void setInitialSpread(double initialSpread) {
+		this.initialSpread = initialSpread;
+	}
+
 	public RealPointValuePair optimize(int vectorLength, ClusteredEvaluator errorFunction) throws MathException {
 		int nc = this.numClusters;
-		int nppc = this.numParticlesPerCluster;
-		int n = nc * nppc;
-		int maxI = this.maxIterations;
-		double factor = this.boundsIterativeFactor;
+		long startTime = System.nanoTime();
+		this.activeSubspace = new ActiveSubspace(this.noEffectDetector, this.freezeInterval);
 		List<Particle> clusterParticles = this.createInitialClusterParticles(nc, vectorLength, errorFunction);
 		if(clusterParticles.size() != nc) {
 			throw new IllegalStateException("Expected an initial cluster of size " + nc + " but got " + clusterParticles.size() + ".");
 		}
-		double boundsSd = this.initialSamplingSD;
-		for(int i = 0; i < maxI; i++) {
+		long numEvaluations = (long) nc * this.numInitialTestPoints;
+		double boundsSd = this.initialPoint == null ? this.initialSamplingSD : Math.min(this.initialSamplingSD, this.initialSpread);
+		SearchState state = new SearchState(vectorLength, clusterParticles, 0, boundsSd, numEvaluations, new double[0]);
+		return this.iterate(state, errorFunction, startTime);
+	}	
+
+	/**
+	 * Continues an optimization from a checkpoint written by this optimizer. The random number
+	 * generator is restored to its state at the time of the checkpoint.
+	 */
+	public RealPointValuePair resume(DataInput checkpointState, ClusteredEvaluator errorFunction) throws MathException, IOException {
+		int vectorLength = checkpointState.readInt();
+		int iteration = checkpointState.readInt();
+		double boundsSd = checkpointState.readDouble();
+		long numEvaluations = checkpointState.readLong();
+		long elapsedNanos = checkpointState.readLong();
+		double[] bestHistory = Checkpointer.readDoubles(checkpointState);
+		int numParticles = checkpointState.readInt();
+		if(numParticles != this.numClusters) {
+			throw new IllegalStateException("Checkpoint has " + numParticles + " clusters, but the optimizer is configured with " + this.numClusters + ".");
+		}
+		// Particles are recreated in the order they were originally created, so that ties are broken as before.
+		Particle[] particles = new Particle[numParticles];
+		for(int k = 0; k < numParticles; k++) {
+			int index = checkpointState.readInt();
+			double[] parameters = Checkpointer.readDoubles(checkpointState);
+			double evaluation = checkpointState.readDouble();
+			particles[index] = new Particle(parameters, parameters, evaluation);
+		}
+		this.activeSubspace = new ActiveSubspace(this.noEffectDetector, this.freezeInterval);
+		this.activeSubspace.readState(checkpointState);
+		Checkpointer.readSurrogate(checkpointState, this.surrogate);
+		Checkpointer.readRandom(checkpointState, this.random);
+		if(logger.isLoggable(Level.INFO)) {
+			logger.info("Resuming clustering at iteration " + iteration + ".");
+		}
+		SearchState state = new SearchState(vectorLength, Arrays.asList(particles), iteration, boundsSd, numEvaluations, bestHistory);
+		return this.iterate(state, errorFunction, System.nanoTime() - elapsedNanos);
+	}
+
+	private RealPointValuePair iterate(SearchState state, ClusteredEvaluator errorFunction, long startTime) throws MathException {
+		int nc = this.numClusters;
+		int nppc = this.numParticlesPerCluster;
+		int n = nc * nppc;
+		int maxI = this.maxIterations;
+		double factor = this.boundsIterativeFactor;
+		int vectorLength = state.vectorLength;
+		List<Particle> clusterParticles = state.clusterParticles;
+		long numEvaluations = state.numEvaluations;
+		long evaluationsPerIteration = (long) nc * (nppc - 1);
+		int stallWindow = this.stallWindow;
+		double[] bestHistory = Arrays.copyOf(state.bestHistory, Math.max(maxI, state.bestHistory.length));
+		StopReason stopReason = StopReason.MAX_ITERATIONS;
+		double boundsSd = state.boundsSd;
+		Checkpointer checkpointer = this.checkpointer;
+		for(int i = state.iteration; i < maxI; i++) {
+			if(this.maxEvaluations > 0 && numEvaluations + evaluationsPerIteration > this.maxEvaluations) {
+				stopReason = StopReason.MAX_EVALUATIONS;
+				break;
+			}
+			if(this.maxSeconds > 0 && (System.nanoTime() - startTime) / 1E9 >= this.maxSeconds) {
+				stopReason = StopReason.TIME_LIMIT;
+				break;
+			}
+			if(boundsSd < this.minBoundsSd) {
+				stopReason = StopReason.BOUNDS_FLOOR;
+				break;
+			}
+			numEvaluations += this.activeSubspace.update(i, this.getBestParticle(clusterParticles).parameters);
 			List<Particle> particles = this.populateParticlesAroundClusters(clusterParticles, nppc - 1, boundsSd, vectorLength, errorFunction);
-			if(particles.size() != n) {
-				throw new IllegalStateException("Expected " + n + " particles, but got " + particles.size() + ".");
+			if(particles.size() > n || particles.size() < 2 * nc) {
+				throw new IllegalStateException("Expected between " + (2 * nc) + " and " + n + " particles, but got " + particles.size() + ".");
 			}
 			clusterParticles = this.extractBestWithClustering(clusterParticles, particles);
 			if(clusterParticles.size() != nc) {
 				throw new IllegalStateException("Expected " + nc + " clusters, but got " + clusterParticles.size() + ". Number of particles:  " + particles.size() + ".");
 			}
+			if(this.migration != null && (i + 1) % this.migration.getInterval() == 0) {
+				clusterParticles = new ArrayList<>(clusterParticles);
+				numEvaluations += this.migrate(clusterParticles, i, errorFunction);
+			}
 			RealPointValuePair bestPv = this.getBestPoint(clusterParticles);
 			this.informProgress(Phase.CLUSTERING, i, bestPv);
+			numEvaluations += particles.size() - nc;
+			bestHistory[i] = bestPv.getValue();
+			if(stallWindow > 0 && i >= stallWindow && relativeImprovement(bestHistory[i - stallWindow], bestHistory[i]) < this.stallTolerance) {
+				stopReason = StopReason.STALLED;
+				break;
+			}
 			boundsSd *= factor;
+			if(checkpointer != null && checkpointer.isDue(i)) {
+				SearchState checkpointState = new SearchState(vectorLength, clusterParticles, i + 1, boundsSd, numEvaluations, Arrays.copyOf(bestHistory, i + 1));
+				long elapsedNanos = System.nanoTime() - startTime;
+				checkpointer.write(CHECKPOINT_STAGE, out -> this.writeState(out, checkpointState, elapsedNanos));
+			}
 		}		
+		this.stopReason = stopReason;
+		this.numEvaluations = numEvaluations;
+		if(logger.isLoggable(Level.INFO)) {
+			logger.info("Clustering stopped: " + stopReason + " after " + numEvaluations + " evaluations.");
+			if(this.surrogate != null) {
+				logger.info("Surrogate screened out " + this.surrogate.getNumScreenedOut() + " of " + this.surrogate.getNumCandidates() + " candidates.");
+			}
+		}
 		return this.selectBestResult(clusterParticles, errorFunction, vectorLength);
-	}	
+	}
+
+	private void writeState(DataOutput out, SearchState state, long elapsedNanos) throws IOException {
+		out.writeInt(state.vectorLength);
+		out.writeInt(state.iteration);
+		out.writeDouble(state.boundsSd);
+		out.writeLong(state.numEvaluations);
+		out.writeLong(elapsedNanos);
+		Checkpointer.writeDoubles(out, state.bestHistory);
+		List<Particle> particles = state.clusterParticles;
+		int size = particles.size();
+		Integer[] creationOrder = new Integer[size];
+		for(int k = 0; k < size; k++) {
+			creationOrder[k] = k;
+		}
+		Arrays.sort(creationOrder, (k1, k2) -> Long.compare(particles.get(k1).getId(), particles.get(k2).getId()));
+		out.writeInt(size);
+		for(int index : creationOrder) {
+			Particle particle = particles.get(index);
+			out.writeInt(index);
+			Checkpointer.writeDoubles(out, particle.parameters);
+			out.writeDouble(particle.evaluation);
+		}
+		this.activeSubspace.writeState(out);
+		Checkpointer.writeSurrogate(out, this.surrogate);
+		Checkpointer.writeRandom(out, this.random);
+	}
 	
+	/**
+	 * Sends the best cluster particles to other islands, and replaces the worst ones with
+	 * better immigrants. Returns the number of immigrants evaluated.
+	 */
+	private int migrate(List<Particle> clusterParticles, int iteration, ClusteredEvaluator errorFunction) throws MathException {
+		int size = clusterParticles.size();
+		Integer[] order = new Integer[size];
+		for(int k = 0; k < size; k++) {
+			order[k] = k;
+		}
+		Arrays.sort(order, (k1, k2) -> Double.compare(clusterParticles.get(k1).evaluation, clusterParticles.get(k2).evaluation));
+		int numMigrants = Math.min(this.migration.getNumMigrants(), size);
+		List<RealPointValuePair> emigrants = new ArrayList<>(numMigrants);
+		for(int k = 0; k < numMigrants; k++) {
+			emigrants.add(clusterParticles.get(order[k]).getPointValuePair());
+		}
+		List<double[]> immigrants;
+		try {
+			immigrants = this.migration.exchange(iteration, emigrants);
+		} catch(IOException ioe) {
+			throw new IllegalStateException("Unable to exchange migrants.", ioe);
+		}
+		int numImmigrants = Math.min(immigrants.size(), numMigrants);
+		List<ClusteredParamEvaluation> evaluations = ParallelTasks.map(this.executor, numImmigrants, k -> errorFunction.evaluate(immigrants.get(k)));
+		int replaced = 0;
+		for(int k = 0; k < numImmigrants; k++) {
+			double[] params = immigrants.get(k);
+			double error = evaluations.get(k).getError();
+			this.archive(params, error);
+			int worstIndex = order[size - 1 - replaced];
+			if(error < clusterParticles.get(worstIndex).evaluation) {
+				clusterParticles.set(worstIndex, new Particle(params, params, error));
+				replaced++;
+			}
+		}
+		if(logger.isLoggable(Level.FINE)) {
+			logger.fine("Iteration " + iteration + ": " + replaced + " of " + numImmigrants + " immigrants replaced cluster particles.");
+		}
+		return numImmigrants;
+	}
+
+	private static double relativeImprovement(double oldValue, double newValue) {
+		return (oldValue - newValue) / Math.max(Math.abs(oldValue), Double.MIN_NORMAL);
+	}
+
 	private RealPointValuePair selectBestResult(List<Particle> particles, ClusteredEvaluator errorFunction, int vectorLength) throws FunctionEvaluationException {
 		double minError = Double.POSITIVE_INFINITY;
 		RealPointValuePair bestPv = null;
@@ -136,69 +480,150 @@ public class ClusteredGridSearchOptimizer {
 	
 	private List<Particle> extractBestWithClustering(List<Particle> clusterParticles, List<Particle> allParticles) {
 		int numClusters = clusterParticles.size();
-		KMeansClusteringProducer<Particle> clusterEngine = new KMeansClusteringProducer<>(this.random, numClusters, this.maxClusterAlgoSteps);
-		VectorialClusteringResults<Particle> clusterResults = clusterEngine.produceClustering(allParticles, clusterParticles);
-		VectorialCluster<Particle>[] clusters = clusterResults.getClusters();
-		List<VectorialCluster<Particle>> clusterList = this.ensureClusterCount(clusters, numClusters);
+		int dimension = clusterParticles.get(0).getPosition().length;
+		HamerlyKMeans clusterEngine = new HamerlyKMeans(this.random, numClusters, this.maxClusterAlgoSteps);
+		clusterEngine.setExecutor(this.executor);
+		HamerlyKMeans.Result clusterResults = clusterEngine.cluster(flatPositions(allParticles, dimension), dimension, flatPositions(clusterParticles, dimension));
+		List<int[]> clusterList = this.ensureClusterCount(clusterResults.getMembers(), numClusters);
 		if(clusterList.size() != numClusters) {
 			throw new IllegalStateException();
 		}
 		List<Particle> result = new ArrayList<>();
-		for(VectorialCluster<Particle> cluster : clusterList) {
-			List<Particle> cp = this.extractBest(1, cluster.getItems());
-			if(cp.isEmpty()) {
+		for(int[] members : clusterList) {
+			if(members.length == 0) {
 				throw new IllegalStateException("Did not expect cluster of size zero.");
 			}
-			result.addAll(cp);
+			Particle best = allParticles.get(members[0]);
+			for(int m = 1; m < members.length; m++) {
+				Particle particle = allParticles.get(members[m]);
+				if(particle.compareTo(best) < 0) {
+					best = particle;
+				}
+			}
+			result.add(best);
 		}
 		return result;
 	}
 	
-	private List<VectorialCluster<Particle>> ensureClusterCount(VectorialCluster<Particle>[] clusters, int numClusters) {
-		List<VectorialCluster<Particle>> result = new ArrayList<>(Arrays.asList(clusters));
+	private static double[] flatPositions(List<Particle> particles, int dimension) {
+		int size = particles.size();
+		double[] positions = new double[size * dimension];
+		for(int i = 0; i < size; i++) {
+			System.arraycopy(particles.get(i).getPosition(), 0, positions, i * dimension, dimension);
+		}
+		return positions;
+	}
+	
+	private List<int[]> ensureClusterCount(int[][] clusters, int numClusters) {
+		List<int[]> result = new ArrayList<>();
+		for(int[] members : clusters) {
+			if(members.length != 0) {
+				result.add(members);
+			}
+		}
 		while(result.size() < numClusters) {
-			int maxIdx = ListUtil.maxIndex(result, c -> (double) c.size());
-			VectorialCluster<Particle> biggestCluster = result.remove(maxIdx);
-			List<Particle> items = biggestCluster.getItems();
-			int size = items.size();
+			int maxIdx = ListUtil.maxIndex(result, c -> (double) c.length);
+			int[] biggestCluster = result.remove(maxIdx);
+			int size = biggestCluster.length;
 			if(size < 2) {
 				throw new IllegalStateException();
 			}
-			List<Particle> items1 = items.subList(0, size / 2);
-			List<Particle> items2 = items.subList(size / 2, size);
-			result.add(VectorialCluster.build(items1));
-			result.add(VectorialCluster.build(items2));
+			result.add(Arrays.copyOfRange(biggestCluster, 0, size / 2));
+			result.add(Arrays.copyOfRange(biggestCluster, size / 2, size));
 		}
 		return result;
 	}
 	
-	private List<Particle> populateParticlesAroundClusters(List<Particle> clusterParticles, int numExtraPerCluster, double sd, int vectorLength, ClusteredEvaluator errorFunction) throws FunctionEvaluationException {
+	private List<Particle> populateParticlesAroundClusters(List<Particle> clusterParticles, int numExtraPerCluster, double sd, int vectorLength, ClusteredEvaluator errorFunction) throws MathException {
+		// Parameters are sampled serially so the random sequence does not depend on the executor.
+		int numClusters = clusterParticles.size();
+		double[][] extraParams = new double[numClusters * numExtraPerCluster][];
+		for(int c = 0; c < numClusters; c++) {
+			double[] refParams = clusterParticles.get(c).parameters;
+			for(int i = 0; i < numExtraPerCluster; i++) {
+				extraParams[c * numExtraPerCluster + i] = this.newRandomParams(refParams, sd, vectorLength);
+			}
+		}
+		int[][] selected = new int[numClusters][];
+		int numSelected = 0;
+		for(int c = 0; c < numClusters; c++) {
+			int from = c * numExtraPerCluster;
+			selected[c] = this.surrogate == null ? indexRange(from, from + numExtraPerCluster) : this.surrogate.select(extraParams, from, from + numExtraPerCluster);
+			numSelected += selected[c].length;
+		}
+		int[] evaluated = new int[numSelected];
+		int offset = 0;
+		for(int[] clusterSelection : selected) {
+			System.arraycopy(clusterSelection, 0, evaluated, offset, clusterSelection.length);
+			offset += clusterSelection.length;
+		}
+		List<ClusteredParamEvaluation> evaluations = ParallelTasks.map(this.executor, evaluated.length, k -> errorFunction.evaluate(extraParams[evaluated[k]]));
 		List<Particle> pool = new ArrayList<>();		
-		for(Particle clusterParticle : clusterParticles) {
-			pool.add(clusterParticle);
-			this.populateRandomParticles(pool, clusterParticle, sd, numExtraPerCluster, vectorLength, errorFunction);
+		int k = 0;
+		for(int c = 0; c < numClusters; c++) {
+			pool.add(clusterParticles.get(c));
+			for(int i = 0; i < selected[c].length; i++, k++) {
+				double[] params = extraParams[evaluated[k]];
+				double[] clusteringPosition = params; // eval.getClusteringPosition()
+				double error = evaluations.get(k).getError();
+				pool.add(new Particle(params, clusteringPosition, error));
+				this.archive(params, error);
+			}
 		}
 		return pool;		
 	}
+
+	private static int[] indexRange(int from, int to) {
+		int[] indexes = new int[to - from];
+		for(int i = 0; i < indexes.length; i++) {
+			indexes[i] = from + i;
+		}
+		return indexes;
+	}
+
+	private void archive(double[] params, double error) {
+		if(this.surrogate != null) {
+			this.surrogate.add(params, error);
+		}
+	}
 	
-	private List<Particle> createInitialClusterParticles(int numClusters, int vectorLength, ClusteredEvaluator errorFunction) throws FunctionEvaluationException {
+	private List<Particle> createInitialClusterParticles(int numClusters, int vectorLength, ClusteredEvaluator errorFunction) throws MathException {
 		Random r = this.random;
 		double ssd = this.startRange;
 		int numTrials = this.numInitialTestPoints;
+		double[][] trialParams = new double[numClusters * numTrials][];
+		double[] initialPoint = this.initialPoint;
+		if(initialPoint != null) {
+			if(initialPoint.length != vectorLength) {
+				throw new IllegalStateException("Initial point has " + initialPoint.length + " parameters, but the vector length is " + vectorLength + ".");
+			}
+			// The initial point itself is the first trial, so the best cluster is at least as good.
+			for(int t = 0; t < trialParams.length; t++) {
+				trialParams[t] = t == 0 ? initialPoint.clone() : MathUtil.add(initialPoint, MathUtil.sampleGaussian(r, this.initialSpread, vectorLength));
+			}
+		}
+		else {
+			for(int c = 0; c < numClusters; c++) {
+				double[] direction = MathUtil.sampleUniformSymmetric(r, ssd, vectorLength);
+				for(int i = 0; i < numTrials; i++) {
+					trialParams[c * numTrials + i] = MathUtil.multiply(direction, r.nextDouble());
+				}
+			}
+		}
+		List<ClusteredParamEvaluation> evaluations = ParallelTasks.map(this.executor, trialParams.length, i -> errorFunction.evaluate(trialParams[i]));
 		List<Particle> pool = new ArrayList<>();		
-		for(int i = 0; i < numClusters; i++) {
-			double[] direction = MathUtil.sampleUniformSymmetric(r, ssd, vectorLength);
-			pool.add(this.selectInitialParticle(direction, errorFunction, numTrials));
+		for(int c = 0; c < numClusters; c++) {
+			pool.add(this.selectInitialParticle(trialParams, evaluations, c * numTrials, numTrials));
 		}
 		return pool;
 	}
 	
-	private Particle selectInitialParticle(double[] direction, ClusteredEvaluator errorFunction, int numTrials) throws FunctionEvaluationException {
-		Random r = this.random;
+	private Particle selectInitialParticle(double[][] trialParams, List<ClusteredParamEvaluation> evaluations, int fromIndex, int numTrials) {
 		Particle result = null;
-		for(int i = 0; i < numTrials; i++) {
-			double[] params = MathUtil.multiply(direction, r.nextDouble());
-			ClusteredParamEvaluation eval = errorFunction.evaluate(params);
+		for(int i = fromIndex; i < fromIndex + numTrials; i++) {
+			double[] params = trialParams[i];
+			ClusteredParamEvaluation eval = evaluations.get(i);
+			this.archive(params, eval.getError());
 			if(result == null || eval.getError() < result.getValue()) {
 				double[] clusteringPosition = params; // eval.getClusteringPosition()
 				result = new Particle(params, clusteringPosition, eval.getError());
@@ -210,16 +635,6 @@ public class ClusteredGridSearchOptimizer {
 		return result;
 	}
 	
-	private void populateRandomParticles(List<Particle> pool, Particle refParticle, double sd, int n, int vectorLength, ClusteredEvaluator errorFunction) throws FunctionEvaluationException {
-		double[] refParams = refParticle.parameters;
-		for(int i = 0; i < n; i++) {
-			double[] params = this.newRandomParams(refParams, sd, vectorLength);
-			ClusteredParamEvaluation eval = errorFunction.evaluate(params);
-			double[] clusteringPosition = params; // eval.getClusteringPosition()
-			pool.add(new Particle(params, clusteringPosition, eval.getError()));
-		}		
-	}
-	
 	private double[] newRandomParams(double[] refParams, double sd, int vectorLength) {
 		Random r = this.random;
 		int[] subspace = this.createSubspace(vectorLength);
@@ -231,13 +646,7 @@ public class ClusteredGridSearchOptimizer {
 	}
 
 	private int[] createSubspace(int vectorLength) {
-		int[] vars = ArrayUtil.indexIdentity(vectorLength);
-		int maxSS = this.maxSubspaceSize;
-		if(maxSS >= vectorLength) {
-			return vars;
-		}
-		ArrayUtil.shuffle(vars, random);
-		return Arrays.copyOf(vars, maxSS);
+		return this.activeSubspace.create(vectorLength, this.maxSubspaceSize, this.random);
 	}
 
 	private RealPointValuePair getBestPoint(List<Particle> workingSet) {
@@ -257,14 +666,25 @@ public class ClusteredGridSearchOptimizer {
 		return bestParticle;
 	}
 
-	private List<Particle> extractBest(int n, List<Particle> particles) {
-		List<Particle> sortedParticles = new ArrayList<>(particles);
-		Collections.sort(sortedParticles);
-		int top = Math.min(n, sortedParticles.size());
-		return sortedParticles.subList(0, top);
+	protected void informProgress(Phase phase, int iteration, RealPointValuePair pointValue) {		
 	}
 	
-	protected void informProgress(Phase phase, int iteration, RealPointValuePair pointValue) {		
+	private static class SearchState {
+		private final int vectorLength;
+		private final List<Particle> clusterParticles;
+		private final int iteration;
+		private final double boundsSd;
+		private final long numEvaluations;
+		private final double[] bestHistory;
+
+		public SearchState(int vectorLength, List<Particle> clusterParticles, int iteration, double boundsSd, long numEvaluations, double[] bestHistory) {
+			this.vectorLength = vectorLength;
+			this.clusterParticles = clusterParticles;
+			this.iteration = iteration;
+			this.boundsSd = boundsSd;
+			this.numEvaluations = numEvaluations;
+			this.bestHistory = bestHistory;
+		}
 	}
 	
 	private static class Particle extends ComparableValueHolder<Particle> implements VectorialItem {
@@ -0,0 +1,518 @@
+package jhs.lc.opt;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.linear.Array2DRowRealMatrix;
+import org.apache.commons.math.linear.EigenDecomposition;
+import org.apache.commons.math.linear.EigenDecompositionImpl;
+import org.apache.commons.math.linear.RealMatrix;
+import org.apache.commons.math.optimization.RealPointValuePair;
+import org.apache.commons.math.util.MathUtils;
+
+import jhs.math.util.MathUtil;
+
+/**
+ * Covariance matrix adaptation evolution strategy (CMA-ES), with optional IPOP or BIPOP restarts.
+ * Offspring are sampled in the calling thread and evaluated on the executor, so results
+ * do not depend on the number of threads.
+ */
+public class CmaEsOptimizer {
+	private static final Logger logger = Logger.getLogger(CmaEsOptimizer.class.getName());
+	private static final double MAX_CONDITION = 1E14;
+
+	private final Random random;
+
+	private int populationSize = 0;
+	private double initialSigma = 0.5;
+	private double initialMeanSd = 1.0;
+	private double[] initialMean;
+	private double initialMeanSigma = 0.1;
+	private int maxIterations = 1000;
+	private long maxEvaluations = 0;
+	private RestartStrategy restartStrategy = RestartStrategy.NONE;
+	private int maxRestarts = 9;
+	private double functionTolerance = 1E-12;
+	private double parameterTolerance = 1E-11;
+
+	private ExecutorService executor;
+	private StopReason stopReason;
+	private long numEvaluations;
+
+	public CmaEsOptimizer(Random random) {
+		this.random = random;
+	}
+
+	public final int getPopulationSize() {
+		return populationSize;
+	}
+
+	/**
+	 * Sets the number of offspring per generation of the first run. If zero, it is 4 + 3 ln(n).
+	 * Otherwise it must be at least 2, since generations recombine several offspring.
+	 */
+	public final void setPopulationSize(int populationSize) {
+		if(populationSize != 0 && populationSize < 2) {
+			throw new IllegalArgumentException("populationSize: " + populationSize);
+		}
+		this.populationSize = populationSize;
+	}
+
+	public final double getInitialSigma() {
+		return initialSigma;
+	}
+
+	public final void setInitialSigma(double initialSigma) {
+		this.initialSigma = initialSigma;
+	}
+
+	public final double getInitialMeanSd() {
+		return initialMeanSd;
+	}
+
+	/**
+	 * Sets the standard deviation of the uniform distribution the mean of each run starts from.
+	 */
+	public final void setInitialMeanSd(double initialMeanSd) {
+		this.initialMeanSd = initialMeanSd;
+	}
+
+	public final double[] getInitialMean() {
+		return initialMean;
+	}
+
+	/**
+	 * Sets a known good point, such as the result of a previous fit, that the first run starts
+	 * from with step size initialMeanSigma. Restarts sample their means as usual. Null disables it.
+	 */
+	public final void setInitialMean(double[] initialMean) {
+		this.initialMean = initialMean;
+	}
+
+	public final double getInitialMeanSigma() {
+		return initialMeanSigma;
+	}
+
+	public final void setInitialMeanSigma(double initialMeanSigma) {
+		this.initialMeanSigma = initialMeanSigma;
+	}
+
+	public final int getMaxIterations() {
+		return maxIterations;
+	}
+
+	/**
+	 * Sets the maximum number of generations, across all restarts.
+	 */
+	public final void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	public final long getMaxEvaluations() {
+		return maxEvaluations;
+	}
+
+	/**
+	 * Sets the maximum number of loss evaluations, across all restarts. Zero means unlimited.
+	 */
+	public final void setMaxEvaluations(long maxEvaluations) {
+		this.maxEvaluations = maxEvaluations;
+	}
+
+	public final RestartStrategy getRestartStrategy() {
+		return restartStrategy;
+	}
+
+	public final void setRestartStrategy(RestartStrategy restartStrategy) {
+		this.restartStrategy = restartStrategy;
+	}
+
+	public final int getMaxRestarts() {
+		return maxRestarts;
+	}
+
+	public final void setMaxRestarts(int maxRestarts) {
+		this.maxRestarts = maxRestarts;
+	}
+
+	public final double getFunctionTolerance() {
+		return functionTolerance;
+	}
+
+	public final void setFunctionTolerance(double functionTolerance) {
+		this.functionTolerance = functionTolerance;
+	}
+
+	public final double getParameterTolerance() {
+		return parameterTolerance;
+	}
+
+	public final void setParameterTolerance(double parameterTolerance) {
+		this.parameterTolerance = parameterTolerance;
+	}
+
+	public final ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Sets the executor that offspring evaluations are spread across. If null,
+	 * offspring are evaluated in the calling thread.
+	 */
+	public final void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Gets the reason the last optimize() call stopped iterating.
+	 */
+	public final StopReason getStopReason() {
+		return stopReason;
+	}
+
+	public final long getNumEvaluations() {
+		return numEvaluations;
+	}
+
+	public static int defaultPopulationSize(int vectorLength) {
+		return 4 + (int) Math.floor(3 * Math.log(vectorLength));
+	}
+
+	public RealPointValuePair optimize(int vectorLength, ClusteredEvaluator errorFunction) throws MathException {
+		int baseLambda = this.populationSize > 0 ? this.populationSize : defaultPopulationSize(vectorLength);
+		RestartStrategy restartStrategy = this.restartStrategy;
+		Random r = this.random;
+		this.numEvaluations = 0;
+		RunState state = new RunState();
+		int largeRuns = 0;
+		long largeRegimeEvaluations = 0, smallRegimeEvaluations = 0;
+		for(int run = 0; ; run++) {
+			int lambda = baseLambda;
+			double sigma = this.initialSigma;
+			boolean smallRegime = false;
+			if(run > 0) {
+				if(restartStrategy == RestartStrategy.BIPOP && smallRegimeEvaluations < largeRegimeEvaluations) {
+					// Small regime: a population no larger than the last large one, and a smaller step size.
+					int largeLambda = baseLambda << largeRuns;
+					double u = r.nextDouble();
+					lambda = Math.max(baseLambda, (int) Math.floor(baseLambda * Math.pow(0.5 * largeLambda / baseLambda, u * u)));
+					sigma = this.initialSigma * Math.pow(10, -2 * r.nextDouble());
+					smallRegime = true;
+				}
+				else {
+					largeRuns++;
+					lambda = baseLambda << largeRuns;
+				}
+			}
+			double[] mean;
+			if(run == 0 && this.initialMean != null) {
+				if(this.initialMean.length != vectorLength) {
+					throw new IllegalStateException("Initial mean has " + this.initialMean.length + " parameters, but the vector length is " + vectorLength + ".");
+				}
+				mean = this.initialMean;
+				sigma = this.initialMeanSigma;
+			}
+			else {
+				mean = MathUtil.sampleUniformSymmetric(r, this.initialMeanSd, vectorLength);
+			}
+			if(logger.isLoggable(Level.INFO)) {
+				logger.info("Starting CMA-ES run " + run + " with population " + lambda + " and sigma " + sigma + ".");
+			}
+			long evaluationsBefore = this.numEvaluations;
+			StopReason runStopReason = this.runStrategy(new Distribution(mean, sigma, lambda), errorFunction, state);
+			if(smallRegime) {
+				smallRegimeEvaluations += this.numEvaluations - evaluationsBefore;
+			}
+			else {
+				largeRegimeEvaluations += this.numEvaluations - evaluationsBefore;
+			}
+			if(runStopReason != StopReason.CONVERGED || restartStrategy == RestartStrategy.NONE || run >= this.maxRestarts) {
+				this.stopReason = runStopReason;
+				break;
+			}
+		}
+		if(state.best == null) {
+			throw new IllegalStateException("No iterations.");
+		}
+		return state.best;
+	}
+
+	private StopReason runStrategy(Distribution distribution, ClusteredEvaluator errorFunction, RunState state) throws MathException {
+		int lambda = distribution.lambda;
+		int n = distribution.mean.length;
+		int historyLength = 10 + (int) Math.ceil(30.0 * n / lambda);
+		double[] bestHistory = new double[historyLength];
+		long maxEvaluations = this.maxEvaluations;
+		for(int generation = 0; ; generation++) {
+			if(state.iteration >= this.maxIterations) {
+				return StopReason.MAX_ITERATIONS;
+			}
+			if(maxEvaluations > 0 && this.numEvaluations + lambda > maxEvaluations) {
+				return StopReason.MAX_EVALUATIONS;
+			}
+			double[][] z = new double[lambda][];
+			double[][] points = new double[lambda][];
+			for(int k = 0; k < lambda; k++) {
+				z[k] = MathUtil.sampleGaussian(this.random, 1.0, n);
+				points[k] = distribution.point(z[k]);
+			}
+			List<ClusteredParamEvaluation> evaluations = ParallelTasks.map(this.executor, lambda, k -> errorFunction.evaluate(points[k]));
+			this.numEvaluations += lambda;
+			double[] values = new double[lambda];
+			for(int k = 0; k < lambda; k++) {
+				values[k] = evaluations.get(k).getError();
+			}
+			Integer[] ranking = new Integer[lambda];
+			for(int k = 0; k < lambda; k++) {
+				ranking[k] = k;
+			}
+			Arrays.sort(ranking, (k1, k2) -> Double.compare(values[k1], values[k2]));
+			int bestIndex = ranking[0];
+			if(state.best == null || values[bestIndex] < state.best.getValue()) {
+				state.best = new RealPointValuePair(points[bestIndex], values[bestIndex]);
+			}
+			distribution.update(z, ranking, generation + 1);
+			this.informProgress(state.iteration, state.best);
+			state.iteration++;
+
+			bestHistory[generation % historyLength] = values[bestIndex];
+			if(generation + 1 >= historyLength) {
+				double range = Math.max(MathUtil.max(bestHistory), values[ranking[lambda - 1]]) - MathUtil.min(bestHistory);
+				if(range < this.functionTolerance) {
+					return this.converged("flat fitness", state.iteration);
+				}
+			}
+			if(distribution.maxStandardDeviation() < this.parameterTolerance) {
+				return this.converged("small step size", state.iteration);
+			}
+			if(distribution.condition() > MAX_CONDITION) {
+				return this.converged("ill-conditioned covariance", state.iteration);
+			}
+		}
+	}
+
+	private StopReason converged(String criterion, int iteration) {
+		if(logger.isLoggable(Level.INFO)) {
+			logger.info("CMA-ES run converged (" + criterion + ") at iteration " + iteration + ".");
+		}
+		return StopReason.CONVERGED;
+	}
+
+	protected void informProgress(int iteration, RealPointValuePair pointValue) {
+	}
+
+	public enum RestartStrategy {
+		/**
+		 * A single run.
+		 */
+		NONE,
+
+		/**
+		 * Restarts with a doubled population after each converged run.
+		 */
+		IPOP,
+
+		/**
+		 * Alternates between IPOP restarts and runs with small populations and step sizes,
+		 * whichever regime has used fewer evaluations so far.
+		 */
+		BIPOP;
+
+		public static RestartStrategy parse(String name) {
+			try {
+				return RestartStrategy.valueOf(name.trim().toUpperCase());
+			} catch(IllegalArgumentException iae) {
+				throw new IllegalArgumentException("Unknown restart strategy: " + name);
+			}
+		}
+	}
+
+	private static final class RunState {
+		private RealPointValuePair best;
+		private int iteration;
+	}
+
+	/**
+	 * Search distribution of one run: mean, step size and covariance, with the
+	 * default strategy parameters of Hansen's tutorial.
+	 */
+	private static final class Distribution {
+		private final int lambda;
+		private final int mu;
+		private final double[] weights;
+		private final double mueff;
+		private final double cc, cs, c1, cmu, damps, chiN;
+		private final int eigenInterval;
+
+		private final double[] mean;
+		private double sigma;
+		private final double[] pc;
+		private final double[] ps;
+		private final double[][] c;
+		private final double[][] b;
+		private final double[] d;
+		private int lastEigenGeneration = 0;
+
+		public Distribution(double[] mean, double sigma, int lambda) {
+			int n = mean.length;
+			this.lambda = lambda;
+			this.mu = lambda / 2;
+			double[] weights = new double[this.mu];
+			double sum = 0;
+			for(int i = 0; i < this.mu; i++) {
+				weights[i] = Math.log(this.mu + 0.5) - Math.log(i + 1);
+				sum += weights[i];
+			}
+			double sumSq = 0;
+			for(int i = 0; i < this.mu; i++) {
+				weights[i] /= sum;
+				sumSq += weights[i] * weights[i];
+			}
+			this.weights = weights;
+			double mueff = 1.0 / sumSq;
+			this.mueff = mueff;
+			this.cc = (4 + mueff / n) / (n + 4 + 2 * mueff / n);
+			this.cs = (mueff + 2) / (n + mueff + 5);
+			this.c1 = 2 / ((n + 1.3) * (n + 1.3) + mueff);
+			this.cmu = Math.min(1 - this.c1, 2 * (mueff - 2 + 1 / mueff) / ((n + 2) * (n + 2) + mueff));
+			this.damps = 1 + 2 * Math.max(0, Math.sqrt((mueff - 1) / (n + 1)) - 1) + this.cs;
+			this.chiN = Math.sqrt(n) * (1 - 1.0 / (4 * n) + 1.0 / (21.0 * n * n));
+			this.eigenInterval = Math.max(1, (int) (1 / ((this.c1 + this.cmu) * n * 10)));
+			this.mean = mean.clone();
+			this.sigma = sigma;
+			this.pc = new double[n];
+			this.ps = new double[n];
+			this.c = new double[n][n];
+			this.b = new double[n][n];
+			this.d = new double[n];
+			for(int i = 0; i < n; i++) {
+				this.c[i][i] = 1;
+				this.b[i][i] = 1;
+				this.d[i] = 1;
+			}
+		}
+
+		/**
+		 * Maps a standard normal sample to a point: mean + sigma * B * D * z.
+		 */
+		public double[] point(double[] z) {
+			int n = this.mean.length;
+			double[] bdz = this.bd(z);
+			double[] point = new double[n];
+			for(int i = 0; i < n; i++) {
+				point[i] = this.mean[i] + this.sigma * bdz[i];
+			}
+			return point;
+		}
+
+		private double[] bd(double[] z) {
+			int n = z.length;
+			double[] result = new double[n];
+			for(int i = 0; i < n; i++) {
+				double[] bRow = this.b[i];
+				double sum = 0;
+				for(int j = 0; j < n; j++) {
+					sum += bRow[j] * this.d[j] * z[j];
+				}
+				result[i] = sum;
+			}
+			return result;
+		}
+
+		public void update(double[][] z, Integer[] ranking, int generation) {
+			int n = this.mean.length;
+			int mu = this.mu;
+			double[] weights = this.weights;
+			double[][] y = new double[mu][];
+			double[] zw = new double[n];
+			double[] yw = new double[n];
+			for(int i = 0; i < mu; i++) {
+				double[] zi = z[ranking[i]];
+				y[i] = this.bd(zi);
+				double w = weights[i];
+				for(int j = 0; j < n; j++) {
+					zw[j] += w * zi[j];
+					yw[j] += w * y[i][j];
+				}
+			}
+			for(int j = 0; j < n; j++) {
+				this.mean[j] += this.sigma * yw[j];
+			}
+
+			// C^(-1/2) * yw is B * zw.
+			double csFactor = Math.sqrt(this.cs * (2 - this.cs) * this.mueff);
+			double psNormSq = 0;
+			for(int i = 0; i < n; i++) {
+				double[] bRow = this.b[i];
+				double sum = 0;
+				for(int j = 0; j < n; j++) {
+					sum += bRow[j] * zw[j];
+				}
+				this.ps[i] = (1 - this.cs) * this.ps[i] + csFactor * sum;
+				psNormSq += this.ps[i] * this.ps[i];
+			}
+			double psNorm = Math.sqrt(psNormSq);
+			boolean hsig = psNorm / Math.sqrt(1 - Math.pow(1 - this.cs, 2.0 * generation)) / this.chiN < 1.4 + 2.0 / (n + 1);
+			double ccFactor = Math.sqrt(this.cc * (2 - this.cc) * this.mueff);
+			for(int i = 0; i < n; i++) {
+				this.pc[i] = (1 - this.cc) * this.pc[i] + (hsig ? ccFactor * yw[i] : 0);
+			}
+
+			double c1 = this.c1, cmu = this.cmu;
+			double lostVariance = hsig ? 0 : this.cc * (2 - this.cc);
+			for(int i = 0; i < n; i++) {
+				for(int j = 0; j <= i; j++) {
+					double rankMu = 0;
+					for(int k = 0; k < mu; k++) {
+						rankMu += weights[k] * y[k][i] * y[k][j];
+					}
+					double value = (1 - c1 - cmu) * this.c[i][j] + c1 * (this.pc[i] * this.pc[j] + lostVariance * this.c[i][j]) + cmu * rankMu;
+					this.c[i][j] = value;
+					this.c[j][i] = value;
+				}
+			}
+			this.sigma *= Math.exp((this.cs / this.damps) * (psNorm / this.chiN - 1));
+
+			if(generation - this.lastEigenGeneration >= this.eigenInterval) {
+				this.lastEigenGeneration = generation;
+				this.decompose();
+			}
+		}
+
+		private void decompose() {
+			int n = this.mean.length;
+			EigenDecomposition eigen = new EigenDecompositionImpl(new Array2DRowRealMatrix(this.c, true), MathUtils.SAFE_MIN);
+			double[] eigenvalues = eigen.getRealEigenvalues();
+			RealMatrix v = eigen.getV();
+			for(int j = 0; j < n; j++) {
+				this.d[j] = Math.sqrt(Math.max(eigenvalues[j], 0));
+				for(int i = 0; i < n; i++) {
+					this.b[i][j] = v.getEntry(i, j);
+				}
+			}
+		}
+
+		public double maxStandardDeviation() {
+			int n = this.mean.length;
+			double max = 0;
+			for(int i = 0; i < n; i++) {
+				double sd = this.sigma * Math.max(Math.abs(this.pc[i]), Math.sqrt(this.c[i][i]));
+				if(sd > max) {
+					max = sd;
+				}
+			}
+			return max;
+		}
+
+		public double condition() {
+			double max = MathUtil.max(this.d);
+			double min = MathUtil.min(this.d);
+			return min == 0 ? Double.POSITIVE_INFINITY : (max * max) / (min * min);
+		}
+	}
+}
@@ -2,12 +2,17 @@ package jhs.lc.opt;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.commons.math.FunctionEvaluationException;
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.optimization.RealPointValuePair;
 
@@ -17,9 +22,11 @@ import jhs.math.util.ArrayUtil;
 import jhs.math.util.ComparableValueHolder;
 import jhs.math.util.ListUtil;
 import jhs.math.util.MathUtil;
+import jhs.math.util.SplittableRandomAdapter;
 
 public class DiversifiedParticleSwarmOptimizer {
 	private static final Logger logger = Logger.getLogger(DiversifiedParticleSwarmOptimizer.class.getName());
+	private static final Comparator<Particle> BEST_POSITION_ORDER = (p1, p2) -> Double.compare(p1.bestPosition.evaluation, p2.bestPosition.evaluation);
 	private final Random random;	
 	private final int populationSize;
 	
@@ -31,6 +38,10 @@ public class DiversifiedParticleSwarmOptimizer {
 	
 	private double weightDecayHalfFraction = 0.10;
  	private double initialVelocitySd = 2.0;
+
+	private ExecutorService executor;
+	private boolean asynchronous = false;
+	private StopReason stopReason;
 	
 	public DiversifiedParticleSwarmOptimizer(Random random, int populationSize) {
 		this.random = random;
@@ -89,17 +100,56 @@ public class DiversifiedParticleSwarmOptimizer {
 		this.initialVelocitySd = initialVelocitySd;
 	}
 
+	/**
+	 * Gets the reason the last optimize() call stopped iterating.
+	 */
+	public final StopReason getStopReason() {
+		return stopReason;
+	}
+
+	public final ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Sets the executor that particle evaluations are spread across. If null,
+	 * particles are evaluated in the calling thread.
+	 */
+	public final void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public final boolean isAsynchronous() {
+		return asynchronous;
+	}
+
+	/**
+	 * Sets whether particles are moved as soon as their own evaluation completes, using the
+	 * best positions known at that time, rather than in lockstep iterations. This keeps every
+	 * thread busy when evaluation times vary, but results are no longer reproducible.
+	 * It only applies when an executor is set.
+	 */
+	public final void setAsynchronous(boolean asynchronous) {
+		this.asynchronous = asynchronous;
+	}
+
 	public RealPointValuePair optimize(int vectorLength, ClusteredEvaluator errorFunction) throws MathException {
 		int n = this.populationSize;
 		double[] weights = this.createGlobalWeights(n);
 		List<Particle> workingSet = this.createSwarm(n, vectorLength, errorFunction);
+		this.stopReason = StopReason.MAX_ITERATIONS;
+		if(this.asynchronous && this.executor != null) {
+			return this.optimizeAsynchronously(workingSet, weights, errorFunction);
+		}
 		int maxIterations = this.maxIterations;
 		Position bestPosition = null;
 		int i;
 		for(i = 0; i < maxIterations; i++) {
-			Collections.sort(workingSet, (p1, p2) -> Double.compare(p1.bestPosition.evaluation, p2.bestPosition.evaluation));
-			this.updateVelocities(workingSet, weights);
-			this.updatePositions(workingSet, errorFunction);
+			Collections.sort(workingSet, BEST_POSITION_ORDER);
+			List<Move> moves = ParallelTasks.map(this.executor, n, index -> this.newMove(workingSet.get(index), workingSet, weights, errorFunction));
+			for(Move move : moves) {
+				this.applyMove(move);
+			}
 			bestPosition = this.getBestPositionInSwarm(workingSet);			
 			
 			this.informProgress(i, bestPosition.getPointValuePair());
@@ -107,6 +157,7 @@ public class DiversifiedParticleSwarmOptimizer {
 				if(logger.isLoggable(Level.INFO)) {
 					logger.info("Converged at iteration " + i);
 				}
+				this.stopReason = StopReason.CONVERGED;
 				break;
 			}
 		}		
@@ -116,6 +167,57 @@ public class DiversifiedParticleSwarmOptimizer {
 		return bestPosition.getPointValuePair();
 	}	
 
+	private RealPointValuePair optimizeAsynchronously(List<Particle> workingSet, double[] weights, ClusteredEvaluator errorFunction) throws MathException {
+		int n = workingSet.size();
+		long maxEvaluations = (long) this.maxIterations * n;
+		List<Particle> rankedSet = new ArrayList<>(workingSet);
+		Collections.sort(rankedSet, BEST_POSITION_ORDER);
+		CompletionService<Move> completionService = new ExecutorCompletionService<>(this.executor);
+		long numSubmitted = 0, numCompleted = 0;
+		for(Particle particle : rankedSet) {
+			this.submitMove(completionService, particle, rankedSet, weights, errorFunction);
+			numSubmitted++;
+		}
+		boolean converged = false;
+		while(numCompleted < numSubmitted) {
+			Future<Move> future;
+			try {
+				future = completionService.take();
+			} catch(InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for particle evaluation.", ie);
+			}
+			Move move = ParallelTasks.getResult(future);
+			numCompleted++;
+			this.applyMove(move);
+			// The list stays nearly sorted, so this is close to linear.
+			Collections.sort(rankedSet, BEST_POSITION_ORDER);
+			if(numCompleted % n == 0) {
+				int iteration = (int) (numCompleted / n) - 1;
+				this.informProgress(iteration, this.getBestPositionInSwarm(rankedSet).getPointValuePair());
+				if(!converged && this.convergedSwarm(rankedSet)) {
+					if(logger.isLoggable(Level.INFO)) {
+						logger.info("Converged at iteration " + iteration);
+					}
+					converged = true;
+					this.stopReason = StopReason.CONVERGED;
+				}
+			}
+			if(!converged && numSubmitted < maxEvaluations) {
+				this.submitMove(completionService, move.particle, rankedSet, weights, errorFunction);
+				numSubmitted++;
+			}
+		}
+		return this.getBestPositionInSwarm(rankedSet).getPointValuePair();
+	}
+
+	private void submitMove(CompletionService<Move> completionService, Particle particle, List<Particle> rankedSet, double[] weights, ClusteredEvaluator errorFunction) {
+		// The new position is computed in the calling thread, which owns all particle state.
+		double[] newVelocity = this.newVelocity(particle, rankedSet, weights);
+		double[] newParams = MathUtil.add(particle.currentPosition.parameters, newVelocity);
+		completionService.submit(() -> new Move(particle, newVelocity, newParams, errorFunction.evaluate(newParams)));
+	}
+
 	private double[] createGlobalWeights(int n) {
 		double[] weights = new double[n];
 		double halfFraction = this.weightDecayHalfFraction;
@@ -126,25 +228,32 @@ public class DiversifiedParticleSwarmOptimizer {
 		return weights;
 	}
 
-	private void updatePositions(List<Particle> particles, ClusteredEvaluator errorFunction) throws FunctionEvaluationException {
-		for(Particle particle : particles) {
-			double[] newParams = MathUtil.add(particle.currentPosition.parameters, particle.velocity);
-			ClusteredParamEvaluation eval = errorFunction.evaluate(newParams);
-			double error = eval.getError();
-			particle.currentPosition = new Position(newParams, eval.getClusteringPosition(), error);
-			if(error < particle.bestPosition.evaluation) {
-				particle.bestPosition = particle.currentPosition;
-			}
-		}
+	/**
+	 * Computes and evaluates the next position of a particle. It does not modify any particle,
+	 * so the moves of all particles can be computed concurrently.
+	 */
+	private Move newMove(Particle particle, List<Particle> particles, double[] globalWeights, ClusteredEvaluator errorFunction) throws MathException {
+		double[] newVelocity = this.newVelocity(particle, particles, globalWeights);
+		double[] newParams = MathUtil.add(particle.currentPosition.parameters, newVelocity);
+		return new Move(particle, newVelocity, newParams, errorFunction.evaluate(newParams));
 	}
-	
-	private void updateVelocities(List<Particle> particles, double[] globalWeights) {
-		for(Particle particle : particles) {
-			double[] weights = this.getParticleWeights(particle, particles, globalWeights);
-			this.updateVelocity(particle, particles, weights);
+
+	private void applyMove(Move move) {
+		Particle particle = move.particle;
+		ClusteredParamEvaluation eval = move.evaluation;
+		double error = eval.getError();
+		particle.velocity = move.velocity;
+		particle.currentPosition = new Position(move.parameters, eval.getClusteringPosition(), error);
+		if(error < particle.bestPosition.evaluation) {
+			particle.bestPosition = particle.currentPosition;
 		}
 	}
 
+	private double[] newVelocity(Particle particle, List<Particle> particles, double[] globalWeights) {
+		double[] weights = this.getParticleWeights(particle, particles, globalWeights);
+		return this.newVelocity(particle, particles, weights, particle.random);
+	}
+
 	private double[] getParticleWeights(Particle particle, List<Particle> particles, double[] globalWeights) {
 		return globalWeights;
 		/*
@@ -168,11 +277,10 @@ public class DiversifiedParticleSwarmOptimizer {
 		*/
 	}
 
-	private void updateVelocity(Particle particle, List<Particle> particles, double[] weights) {
-		Random r = this.random;
+	private double[] newVelocity(Particle particle, List<Particle> particles, double[] weights, Random r) {
 		double omega = this.omega;
 		double phi = this.phi;
-		Particle suitablePeer = this.pickParticle(particles, weights);
+		Particle suitablePeer = this.pickParticle(particles, weights, r);
 		double[] suitableDirection = MathUtil.subtract(suitablePeer.bestPosition.parameters, particle.currentPosition.parameters);
 		double dirSign = suitablePeer.bestPosition.getValue() < particle.currentPosition.getValue() ? +1 : -1;
 		double[] oldVelocity = particle.velocity;
@@ -181,11 +289,11 @@ public class DiversifiedParticleSwarmOptimizer {
 			double rp = r.nextDouble();
 			newVelocity[d] = omega * oldVelocity[d] + phi * rp * suitableDirection[d] * dirSign;
 		}
-		particle.velocity = newVelocity;
+		return newVelocity;
 	}
 	
-	private Particle pickParticle(List<Particle> particles, double[] weights) {
-		int index = ArrayUtil.randomIndex(weights, random);
+	private Particle pickParticle(List<Particle> particles, double[] weights, Random r) {
+		int index = ArrayUtil.randomIndex(weights, r);
 		return particles.get(index);
 	}
 	
@@ -229,16 +337,25 @@ public class DiversifiedParticleSwarmOptimizer {
 		}
 		double ivsd = this.initialVelocitySd;
 		double psd = ivsd / 2;
-		List<Particle> pool = new ArrayList<>();		
 		//double[][] initParams = createInitialParams(r, n, psd, vectorLength);
+		double[][] initParams = new double[n][];
+		double[][] initVelocities = new double[n][];
 		for(int i = 0; i < n; i++) {
-			double[] params = sampleParams(r, psd, vectorLength);
-			ClusteredParamEvaluation eval = errorFunction.evaluate(params);
-			Position position = new Position(params, eval.getClusteringPosition(), eval.getError());
+			initParams[i] = sampleParams(r, psd, vectorLength);
+			initVelocities[i] = MathUtil.sampleUniformSymmetric(r, ivsd, vectorLength);
+		}
+		List<ClusteredParamEvaluation> evaluations = ParallelTasks.map(this.executor, n, i -> errorFunction.evaluate(initParams[i]));
+		// Each particle draws from its own stream, so moves do not depend on evaluation order.
+		SplittableRandom streamSource = new SplittableRandom(r.nextLong());
+		List<Particle> pool = new ArrayList<>();		
+		for(int i = 0; i < n; i++) {
+			ClusteredParamEvaluation eval = evaluations.get(i);
+			Position position = new Position(initParams[i], eval.getClusteringPosition(), eval.getError());
 			Particle particle = new Particle();
 			particle.bestPosition = position;
 			particle.currentPosition = position;
-			particle.velocity = MathUtil.sampleUniformSymmetric(r, ivsd, vectorLength);
+			particle.velocity = initVelocities[i];
+			particle.random = new SplittableRandomAdapter(streamSource.split());
 			pool.add(particle);
 		}
 		return pool;
@@ -271,10 +388,25 @@ public class DiversifiedParticleSwarmOptimizer {
 	protected void informProgress(int iteration, RealPointValuePair pointValue) {		
 	}
 	
+	private static class Move {
+		private final Particle particle;
+		private final double[] velocity;
+		private final double[] parameters;
+		private final ClusteredParamEvaluation evaluation;
+
+		public Move(Particle particle, double[] velocity, double[] parameters, ClusteredParamEvaluation evaluation) {
+			this.particle = particle;
+			this.velocity = velocity;
+			this.parameters = parameters;
+			this.evaluation = evaluation;
+		}
+	}
+	
 	private static class Particle {
 		private Position bestPosition;
 		private Position currentPosition;
 		private double[] velocity;
+		private Random random;
 
 		public final Position getBestPosition() {
 			return bestPosition;
@@ -0,0 +1,198 @@
+package jhs.lc.opt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.math.MathException;
+
+import jhs.lc.data.LightCurve;
+
+/**
+ * Runs independent fits of the same light curve concurrently, typically with different seeds,
+ * and keeps the best solution. Fits should share one evaluation executor. Every check interval
+ * iterations of a stage, each fit's error is compared with the errors other fits reported at
+ * the same stage and iteration, and fits that are behind the leader by more than the relative
+ * margin are cancelled.
+ */
+public class FitterPortfolio {
+	private static final Logger logger = Logger.getLogger(FitterPortfolio.class.getName());
+
+	private final List<LightCurveFitter> fitters;
+	private final double cancelMargin;
+	private final int checkInterval;
+	private final Map<String, Map<Integer, Double>> checkErrors = new HashMap<>();
+	private final double[] bestReportedErrors;
+	private List<SeedResult> results = Collections.emptyList();
+
+	/**
+	 * @param fitters Fitters configured identically except for their random number generators.
+	 * @param cancelMargin Relative error margin behind the leader at which a fit is cancelled, or infinity to never cancel.
+	 * @param checkInterval Number of iterations between comparisons.
+	 */
+	public FitterPortfolio(List<LightCurveFitter> fitters, double cancelMargin, int checkInterval) {
+		if(fitters.isEmpty()) {
+			throw new IllegalArgumentException("No fitters.");
+		}
+		if(!(cancelMargin >= 0)) {
+			throw new IllegalArgumentException("cancelMargin: " + cancelMargin);
+		}
+		if(checkInterval < 1) {
+			throw new IllegalArgumentException("checkInterval: " + checkInterval);
+		}
+		this.fitters = fitters;
+		this.cancelMargin = cancelMargin;
+		this.checkInterval = checkInterval;
+		this.bestReportedErrors = new double[fitters.size()];
+		for(int i = 0; i < fitters.size(); i++) {
+			this.bestReportedErrors[i] = Double.POSITIVE_INFINITY;
+			fitters.get(i).joinPortfolio(this, i);
+		}
+	}
+
+	/**
+	 * Gets per-fit results of the last optimization, in fitter order.
+	 */
+	public final List<SeedResult> getResults() {
+		return results;
+	}
+
+	/**
+	 * Gets the fitter that produced the best solution of the last optimization.
+	 */
+	public final LightCurveFitter getBestFitter() {
+		SeedResult best = null;
+		for(SeedResult result : this.results) {
+			if(result.solution != null && (best == null || result.loss < best.loss)) {
+				best = result;
+			}
+		}
+		return best == null ? null : this.fitters.get(best.index);
+	}
+
+	/**
+	 * Runs all fits, each on its own thread, and returns the solution with the lowest final loss.
+	 */
+	public Solution optimize(LightCurve lightCurve) throws MathException {
+		List<LightCurveFitter> fitters = this.fitters;
+		int n = fitters.size();
+		ExecutorService fitExecutor = Executors.newFixedThreadPool(n);
+		List<SeedResult> results = new ArrayList<>(n);
+		try {
+			List<Future<SeedResult>> futures = new ArrayList<>(n);
+			for(int i = 0; i < n; i++) {
+				int index = i;
+				futures.add(fitExecutor.submit(() -> this.runFit(index, lightCurve)));
+			}
+			for(Future<SeedResult> future : futures) {
+				results.add(ParallelTasks.getResult(future));
+			}
+		} finally {
+			fitExecutor.shutdownNow();
+		}
+		this.results = results;
+		LightCurveFitter bestFitter = this.getBestFitter();
+		if(bestFitter == null) {
+			throw new IllegalStateException("All fits were cancelled.");
+		}
+		return results.get(fitters.indexOf(bestFitter)).solution;
+	}
+
+	private SeedResult runFit(int index, LightCurve lightCurve) throws MathException {
+		LightCurveFitter fitter = this.fitters.get(index);
+		long time1 = System.currentTimeMillis();
+		try {
+			Solution solution = fitter.optimize(lightCurve);
+			double loss = fitter.finalLoss(lightCurve, solution);
+			return new SeedResult(index, solution, loss, fitter.getStopReason(), (System.currentTimeMillis() - time1) / 1000.0);
+		} catch(CancellationException ce) {
+			if(logger.isLoggable(Level.INFO)) {
+				logger.info("Fit " + index + ": " + ce.getMessage());
+			}
+			return new SeedResult(index, null, this.getBestReportedError(index), StopReason.CANCELLED, (System.currentTimeMillis() - time1) / 1000.0);
+		}
+	}
+
+	private synchronized double getBestReportedError(int index) {
+		return this.bestReportedErrors[index];
+	}
+
+	synchronized void informProgress(int index, String stage, int iteration, double error) {
+		if(error < this.bestReportedErrors[index]) {
+			this.bestReportedErrors[index] = error;
+		}
+		if(iteration == 0 || iteration % this.checkInterval != 0) {
+			return;
+		}
+		Map<Integer, Double> errors = this.checkErrors.computeIfAbsent(stage + ":" + iteration, k -> new HashMap<>());
+		errors.put(index, error);
+		List<LightCurveFitter> fitters = this.fitters;
+		double leaderError = Double.POSITIVE_INFINITY;
+		for(Map.Entry<Integer, Double> entry : errors.entrySet()) {
+			// Cancelled fits no longer lead, or every fit could end up cancelled.
+			if(!fitters.get(entry.getKey()).isCancelled() && entry.getValue() < leaderError) {
+				leaderError = entry.getValue();
+			}
+		}
+		double threshold = leaderError + Math.abs(leaderError) * this.cancelMargin;
+		for(Map.Entry<Integer, Double> entry : errors.entrySet()) {
+			LightCurveFitter fitter = fitters.get(entry.getKey());
+			if(!fitter.isCancelled() && entry.getValue() > threshold) {
+				if(logger.isLoggable(Level.INFO)) {
+					logger.info("Cancelling fit " + entry.getKey() + ": error " + entry.getValue() + " at iteration " + iteration + " of stage " + stage + " is behind the leader's " + leaderError + ".");
+				}
+				fitter.cancel();
+			}
+		}
+	}
+
+	public static final class SeedResult {
+		private final int index;
+		private final Solution solution;
+		private final double loss;
+		private final StopReason stopReason;
+		private final double elapsedSeconds;
+
+		public SeedResult(int index, Solution solution, double loss, StopReason stopReason, double elapsedSeconds) {
+			this.index = index;
+			this.solution = solution;
+			this.loss = loss;
+			this.stopReason = stopReason;
+			this.elapsedSeconds = elapsedSeconds;
+		}
+
+		public final int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Gets the solution of the fit, or null if it was cancelled.
+		 */
+		public final Solution getSolution() {
+			return solution;
+		}
+
+		/**
+		 * Gets the final loss of the solution, or the best error reported before the fit was cancelled.
+		 */
+		public final double getLoss() {
+			return loss;
+		}
+
+		public final StopReason getStopReason() {
+			return stopReason;
+		}
+
+		public final double getElapsedSeconds() {
+			return elapsedSeconds;
+		}
+	}
+}
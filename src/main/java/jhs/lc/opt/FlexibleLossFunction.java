@@ -1,5 +1,7 @@
 package jhs.lc.opt;
 
+import java.util.Arrays;
+
 import jhs.lc.data.LightCurve;
 import jhs.math.util.MathUtil;
 
@@ -17,26 +19,43 @@ public class FlexibleLossFunction extends AbstractLossFunction {
 	private final double fluxCenterOfMass;
 	private final double fluxMassDeviation;
 	
+	private final double[] positions;
 	private final double[] targetFluxArray;
+	private final double[] sampleWeights;
+	private final double sampleWeightSum;
+	private final int[] inTransitIndexes;
 	private final double[] targetTrendChangeArray;
 	private final double fluxVariance;
 	private final double trendChangeVariance;
 
-	public FlexibleLossFunction(SolutionSampler sampler, double[] targetFluxArray, double trendChangeWeight, double flexibleMatchWeight) {
-		super(sampler, 1.0, targetFluxArray);
+	/**
+	 * Creates a loss function where positions in the light curve are times, so that it is
+	 * not distorted by a non-uniform cadence, e.g. after adaptive binning. The light curve's
+	 * weights, e.g. the number of cadences in a bin, weigh the squared errors and the flux mass
+	 * used to align series.
+	 */
+	public FlexibleLossFunction(SolutionSampler sampler, LightCurve lightCurve, double trendChangeWeight, double flexibleMatchWeight) {
+		super(sampler, 1.0, lightCurve);
+		double[] positions = relativeTimestamps(lightCurve);
+		double[] targetFluxArray = lightCurve.getFluxArray();
+		double[] sampleWeights = lightCurve.getWeights();
+		this.sampleWeights = sampleWeights;
+		this.sampleWeightSum = sampleWeights == null ? targetFluxArray.length : MathUtil.sum(sampleWeights);
 		this.fluxVariance = MathUtil.variance(targetFluxArray);
 		if(this.fluxVariance == 0) {
 			throw new IllegalArgumentException("Flux series has zero variance.");
 		}
 		double fluxStdDev = Math.sqrt(this.fluxVariance);
 		this.maxIgnoreError = fluxStdDev * MAX_IGNORE_ERROR_FRACTION;
-		this.fluxCenterOfMass = SeriesUtil.centerOfMass(targetFluxArray, this.maxIgnoreError, BASELINE_FLUX);
-		this.fluxMassDeviation = SeriesUtil.massDeviation(targetFluxArray, this.maxIgnoreError, BASELINE_FLUX, this.fluxCenterOfMass);
+		this.positions = positions;
+		this.fluxCenterOfMass = SeriesUtil.centerOfMass(positions, sampleWeights, targetFluxArray, this.maxIgnoreError, BASELINE_FLUX);
+		this.fluxMassDeviation = SeriesUtil.massDeviation(positions, sampleWeights, targetFluxArray, this.maxIgnoreError, BASELINE_FLUX, this.fluxCenterOfMass);
+		this.inTransitIndexes = inTransitIndexes(targetFluxArray, this.maxIgnoreError);
 		this.trendChangeWeight = trendChangeWeight;
 		this.flexibleMatchWeight = flexibleMatchWeight;
 		this.targetFluxArray = targetFluxArray;
-		double[] targetTrendArray = trendProfile(targetFluxArray);
-		this.targetTrendChangeArray = trendProfile(targetTrendArray);
+		double[] targetTrendArray = trendProfile(positions, targetFluxArray);
+		this.targetTrendChangeArray = trendProfile(positions, targetTrendArray);
 		this.trendChangeVariance = MathUtil.variance(this.targetTrendChangeArray);
 		if(this.trendChangeVariance == 0) {
 			throw new IllegalArgumentException("Flux trend change series has zero variance.");			
@@ -48,44 +67,115 @@ public class FlexibleLossFunction extends AbstractLossFunction {
 	}
 
 	public static double[] trendProfile(double[] fluxArray) {
+		return trendProfile(null, fluxArray);
+	}
+
+	private static double[] trendProfile(double[] positions, double[] fluxArray) {
 		int wl = (int) Math.round(WLF * fluxArray.length);
 		if(wl < 3) {
 			wl = 3;
 		}
-		return LightCurve.trendProfile(fluxArray, wl);
+		return LightCurve.trendProfile(positions, fluxArray, wl);
+	}
+
+	/**
+	 * Gets timestamps relative to the first one, which keeps the products in centers of mass and trends small.
+	 */
+	private static double[] relativeTimestamps(LightCurve lightCurve) {
+		int length = lightCurve.size();
+		double startTimestamp = lightCurve.getStartTimestamp();
+		double[] positions = new double[length];
+		for(int i = 0; i < length; i++) {
+			positions[i] = lightCurve.getTimestamp(i) - startTimestamp;
+		}
+		return positions;
+	}
+	
+	private static int[] inTransitIndexes(double[] targetFluxArray, double maxIgnoreError) {
+		int length = targetFluxArray.length;
+		int[] indexes = new int[length];
+		int count = 0;
+		for(int i = 0; i < length; i++) {
+			if(Math.abs(targetFluxArray[i] - BASELINE_FLUX) > maxIgnoreError) {
+				indexes[count++] = i;
+			}
+		}
+		return Arrays.copyOf(indexes, count);
 	}
 	
 	@Override
 	protected final double baseLoss(double[] testFluxArray) {
-		double[] testTrendArray = trendProfile(testFluxArray);
-		double[] testTrendChangeArray = trendProfile(testTrendArray);
+		return this.baseLoss(testFluxArray, Double.POSITIVE_INFINITY);
+	}
 
+	/**
+	 * Each stage adds non-negative terms of the combined MSE, so the loss of the terms seen so far
+	 * is a lower bound. The in-transit flux error is checked first, and the trend profiles, which
+	 * are the most expensive part, are computed last.
+	 */
+	@Override
+	protected final double baseLoss(double[] testFluxArray, double threshold) {
 		double fmw = this.flexibleMatchWeight;
-		double nonFlexibleMse = fmw == 1 ? 0 : this.nonFlexibleMse(testFluxArray, testTrendChangeArray);
-		double flexibleMse = fmw == 0 ? 0 : this.flexibleMse(testFluxArray, testTrendChangeArray);
+		double tcw = this.trendChangeWeight;
+		double mseThreshold = Math.expm1(threshold) / MSE_FACTOR;
+		
+		double nonFlexibleFluxMse = 0;
+		if(fmw != 1) {
+			if(threshold != Double.POSITIVE_INFINITY) {
+				double inTransitBound = (1 - fmw) * (1 - tcw) * this.inTransitSquaredErrorSum(testFluxArray) / this.sampleWeightSum / this.fluxVariance;
+				if(inTransitBound >= mseThreshold) {
+					return Math.log1p(MSE_FACTOR * inTransitBound);
+				}
+			}
+			nonFlexibleFluxMse = this.mse(testFluxArray, this.targetFluxArray) / this.fluxVariance;
+		}
+		double indexFactor = 1, indexOffset = 0;
+		double flexibleFluxMse = 0;
+		if(fmw != 0) {
+			double testCom = SeriesUtil.centerOfMass(this.positions, this.sampleWeights, testFluxArray, this.maxIgnoreError, BASELINE_FLUX);
+			double testMassDeviation = SeriesUtil.massDeviation(this.positions, this.sampleWeights, testFluxArray, this.maxIgnoreError, BASELINE_FLUX, testCom);
+			indexFactor = SeriesUtil.getIndexFactor(this.fluxMassDeviation, testMassDeviation);
+			indexOffset = SeriesUtil.getIndexOffset(indexFactor, this.fluxCenterOfMass, testCom);
+			double[] stretchedTestFluxArray = SeriesUtil.stretchSeries(this.positions, testFluxArray, BASELINE_FLUX, indexFactor, indexOffset);
+			flexibleFluxMse = this.mse(stretchedTestFluxArray, this.targetFluxArray) / this.fluxVariance;
+		}
+		double fluxBound = (fmw * flexibleFluxMse + (1 - fmw) * nonFlexibleFluxMse) * (1 - tcw);
+		if(fluxBound >= mseThreshold) {
+			return Math.log1p(MSE_FACTOR * fluxBound);
+		}
+
+		double[] testTrendArray = trendProfile(this.positions, testFluxArray);
+		double[] testTrendChangeArray = trendProfile(this.positions, testTrendArray);
+		double nonFlexibleMse = 0;
+		if(fmw != 1) {
+			double stcMse = this.mse(testTrendChangeArray, this.targetTrendChangeArray) / this.trendChangeVariance;
+			nonFlexibleMse = nonFlexibleFluxMse * (1 - tcw) + stcMse * tcw;
+		}
+		double flexibleMse = 0;
+		if(fmw != 0) {
+			double[] stretchedTestTrendChangeArray = SeriesUtil.stretchSeries(this.positions, testTrendChangeArray, BASELINE_TREND_CHANGE, indexFactor, indexOffset);
+			double stcMse = this.mse(stretchedTestTrendChangeArray, this.targetTrendChangeArray) / this.trendChangeVariance;
+			flexibleMse = flexibleFluxMse * (1 - tcw) + stcMse * tcw;
+		}
 		
 		double combinedMse = fmw * flexibleMse + (1 - fmw) * nonFlexibleMse;
 		
 		return Math.log1p(MSE_FACTOR * combinedMse);
-	}	
-	
-	private double nonFlexibleMse(double[] testFluxArray, double[] testTrendChangeArray) {
-		double sMse = MathUtil.mse(testFluxArray, this.targetFluxArray) / this.fluxVariance;
-		double stcMse = MathUtil.mse(testTrendChangeArray, this.targetTrendChangeArray) / this.trendChangeVariance;
-		double tcw = this.trendChangeWeight;
-		return sMse * (1 - tcw) + stcMse * tcw;
 	}
-	
-	private double flexibleMse(double[] testFluxArray, double[] testTrendChangeArray) {
-		double testCom = SeriesUtil.centerOfMass(testFluxArray, this.maxIgnoreError, BASELINE_FLUX);
-		double testMassDeviation = SeriesUtil.massDeviation(testFluxArray, this.maxIgnoreError, BASELINE_FLUX, testCom);
-		double indexFactor = SeriesUtil.getIndexFactor(this.fluxMassDeviation, testMassDeviation);
-		double indexOffset = SeriesUtil.getIndexOffset(indexFactor, this.fluxCenterOfMass, testCom);
-		double[] stretchedTestFluxArray = SeriesUtil.stretchSeries(testFluxArray, BASELINE_FLUX, indexFactor, indexOffset);
-		double[] stretchedTestTrendChangeArray = SeriesUtil.stretchSeries(testTrendChangeArray, BASELINE_TREND_CHANGE, indexFactor, indexOffset);
-		double sMse = MathUtil.mse(stretchedTestFluxArray, this.targetFluxArray) / this.fluxVariance;
-		double stcMse = MathUtil.mse(stretchedTestTrendChangeArray, this.targetTrendChangeArray) / this.trendChangeVariance;
-		double tcw = this.trendChangeWeight;
-		return sMse * (1 - tcw) + stcMse * tcw;
+
+	private double inTransitSquaredErrorSum(double[] testFluxArray) {
+		double[] targetFluxArray = this.targetFluxArray;
+		double[] sampleWeights = this.sampleWeights;
+		double sum = 0;
+		for(int i : this.inTransitIndexes) {
+			double diff = testFluxArray[i] - targetFluxArray[i];
+			sum += sampleWeights == null ? diff * diff : diff * diff * sampleWeights[i];
+		}
+		return sum;
+	}
+
+	private double mse(double[] testArray, double[] targetArray) {
+		double[] sampleWeights = this.sampleWeights;
+		return sampleWeights == null ? MathUtil.mse(testArray, targetArray) : MathUtil.weightedMse(testArray, targetArray, sampleWeights);
 	}
 }
@@ -0,0 +1,27 @@
+package jhs.lc.opt;
+
+import org.apache.commons.math.FunctionEvaluationException;
+import org.apache.commons.math.analysis.MultivariateRealFunction;
+
+/**
+ * A function that can evaluate points close to a base point faster by reusing work done at the base point.
+ * @param <B> Type of the state kept for a base point.
+ */
+public interface IncrementalFunction<B> extends MultivariateRealFunction {
+	/**
+	 * Gets the state for a base point, or null if incremental evaluation is not supported.
+	 */
+	public B createBase(double[] point) throws FunctionEvaluationException;
+
+	/**
+	 * Evaluates a point expected to be close to the base point. The result is the same as
+	 * that of {@link #value(double[])} up to rounding.
+	 */
+	public double value(double[] point, B base) throws FunctionEvaluationException;
+
+	/**
+	 * Evaluates the point a base was created for, reusing the work done to create it. The result
+	 * is the same as that of {@link #value(double[])}.
+	 */
+	public double baseValue(double[] point, B base) throws FunctionEvaluationException;
+}
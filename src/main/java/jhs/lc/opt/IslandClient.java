@@ -0,0 +1,93 @@
+package jhs.lc.opt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.optimization.RealPointValuePair;
+
+import jhs.lc.data.LightCurve;
+
+/**
+ * Migration of one island, which exchanges particles with an {@link IslandHub} on the local host.
+ */
+public class IslandClient implements Migration, Closeable {
+	private final Socket socket;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private final int interval;
+	private final int numMigrants;
+
+	private IslandClient(Socket socket, int interval, int numMigrants) throws IOException {
+		this.socket = socket;
+		this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		this.interval = interval;
+		this.numMigrants = numMigrants;
+	}
+
+	public static IslandClient connect(int port, int index, int interval, int numMigrants) throws IOException {
+		if(interval < 1) {
+			throw new IllegalArgumentException("interval: " + interval);
+		}
+		if(numMigrants < 0) {
+			throw new IllegalArgumentException("numMigrants: " + numMigrants);
+		}
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		IslandClient client = new IslandClient(socket, interval, numMigrants);
+		client.out.writeInt(IslandProtocol.MAGIC);
+		client.out.writeInt(index);
+		client.out.flush();
+		return client;
+	}
+
+	@Override
+	public final int getInterval() {
+		return interval;
+	}
+
+	@Override
+	public final int getNumMigrants() {
+		return numMigrants;
+	}
+
+	@Override
+	public List<double[]> exchange(int iteration, List<RealPointValuePair> emigrants) throws IOException {
+		this.out.writeInt(IslandProtocol.EXCHANGE);
+		this.out.writeInt(iteration);
+		IslandProtocol.writePoints(this.out, emigrants);
+		this.out.flush();
+		List<RealPointValuePair> immigrants = IslandProtocol.readPoints(this.in);
+		List<double[]> result = new ArrayList<>(immigrants.size());
+		for(RealPointValuePair immigrant : immigrants) {
+			result.add(immigrant.getPointRef());
+		}
+		return result;
+	}
+
+	/**
+	 * Reports the solution of the island's fit, along with its final loss, so the hub can compare islands.
+	 */
+	public void sendResult(LightCurveFitter fitter, LightCurve lightCurve, Solution solution) throws IOException, MathException {
+		double loss = fitter.finalLoss(lightCurve, solution);
+		StopReason stopReason = fitter.getStopReason();
+		this.out.writeInt(IslandProtocol.RESULT);
+		this.out.writeDouble(loss);
+		this.out.writeUTF(stopReason == null ? "" : stopReason.name());
+		Checkpointer.writeDoubles(this.out, fitter.getSampler().solutionAsParameters(solution));
+		this.out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.socket.close();
+	}
+}
@@ -0,0 +1,199 @@
+package jhs.lc.opt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.math.optimization.RealPointValuePair;
+
+/**
+ * Coordinates an island model over loopback sockets. Each {@link IslandClient} sends its
+ * emigrants and receives the latest emigrants of the previous island in a ring. Islands
+ * run asynchronously, so an island may receive the same immigrants more than once or none
+ * at all. Final results of the islands are collected for the caller to pick from.
+ */
+public class IslandHub implements Closeable {
+	private static final Logger logger = Logger.getLogger(IslandHub.class.getName());
+
+	private final int numIslands;
+	private final ServerSocket serverSocket;
+	private final List<List<RealPointValuePair>> emigrants;
+	private final IslandResult[] results;
+	private final boolean[] connected;
+	private final boolean[] finished;
+
+	public IslandHub(int numIslands) throws IOException {
+		if(numIslands < 1) {
+			throw new IllegalArgumentException("numIslands: " + numIslands);
+		}
+		this.numIslands = numIslands;
+		this.serverSocket = new ServerSocket(0, numIslands, InetAddress.getLoopbackAddress());
+		this.emigrants = new ArrayList<>(Collections.nCopies(numIslands, Collections.emptyList()));
+		this.results = new IslandResult[numIslands];
+		this.connected = new boolean[numIslands];
+		this.finished = new boolean[numIslands];
+		Thread acceptThread = new Thread(this::acceptConnections, "island-hub");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	public final int getPort() {
+		return this.serverSocket.getLocalPort();
+	}
+
+	public final int getNumIslands() {
+		return numIslands;
+	}
+
+	private void acceptConnections() {
+		try {
+			for(;;) {
+				Socket socket = this.serverSocket.accept();
+				Thread connectionThread = new Thread(() -> this.serve(socket), "island-connection");
+				connectionThread.setDaemon(true);
+				connectionThread.start();
+			}
+		} catch(IOException ioe) {
+			// Server socket closed.
+		}
+	}
+
+	private void serve(Socket socket) {
+		int index = -1;
+		try(Socket s = socket) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+			if(in.readInt() != IslandProtocol.MAGIC) {
+				throw new IOException("Connection is not from an island client.");
+			}
+			index = this.connect(in.readInt());
+			for(;;) {
+				int type;
+				try {
+					type = in.readInt();
+				} catch(EOFException eof) {
+					break;
+				}
+				switch(type) {
+				case IslandProtocol.EXCHANGE:
+					int iteration = in.readInt();
+					List<RealPointValuePair> immigrants = this.exchange(index, IslandProtocol.readPoints(in));
+					if(logger.isLoggable(Level.FINE)) {
+						logger.fine("Island " + index + " sent emigrants at iteration " + iteration + " and received " + immigrants.size() + " immigrants.");
+					}
+					IslandProtocol.writePoints(out, immigrants);
+					out.flush();
+					break;
+				case IslandProtocol.RESULT:
+					double loss = in.readDouble();
+					String stopReasonText = in.readUTF();
+					double[] parameters = Checkpointer.readDoubles(in);
+					StopReason stopReason = stopReasonText.isEmpty() ? null : StopReason.valueOf(stopReasonText);
+					this.setResult(new IslandResult(index, loss, parameters, stopReason));
+					break;
+				default:
+					throw new IOException("Unknown message type: " + type);
+				}
+			}
+		} catch(IOException | IllegalArgumentException e) {
+			logger.warning("Island " + index + ": " + e);
+		} finally {
+			if(index >= 0) {
+				this.finish(index);
+			}
+		}
+	}
+
+	private synchronized int connect(int index) throws IOException {
+		if(index < 0 || index >= this.numIslands || this.connected[index]) {
+			throw new IOException("Invalid or duplicate island index: " + index);
+		}
+		this.connected[index] = true;
+		return index;
+	}
+
+	private synchronized List<RealPointValuePair> exchange(int index, List<RealPointValuePair> points) {
+		this.emigrants.set(index, points);
+		return this.emigrants.get((index + this.numIslands - 1) % this.numIslands);
+	}
+
+	private synchronized void setResult(IslandResult result) {
+		this.results[result.index] = result;
+	}
+
+	private synchronized void finish(int index) {
+		this.finished[index] = true;
+		this.notifyAll();
+	}
+
+	/**
+	 * Waits until every island that connected has closed its connection, and returns results
+	 * in island order. Islands that did not report a result have null elements.
+	 */
+	public synchronized List<IslandResult> awaitResults(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		for(;;) {
+			boolean pending = false;
+			for(int i = 0; i < this.numIslands; i++) {
+				pending |= this.connected[i] && !this.finished[i];
+			}
+			long remaining = deadline - System.currentTimeMillis();
+			if(!pending || remaining <= 0) {
+				break;
+			}
+			this.wait(remaining);
+		}
+		return Arrays.asList(this.results.clone());
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.serverSocket.close();
+	}
+
+	public static final class IslandResult {
+		private final int index;
+		private final double loss;
+		private final double[] parameters;
+		private final StopReason stopReason;
+
+		public IslandResult(int index, double loss, double[] parameters, StopReason stopReason) {
+			this.index = index;
+			this.loss = loss;
+			this.parameters = parameters;
+			this.stopReason = stopReason;
+		}
+
+		public final int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Gets the loss of the island's solution, as minimized by the final gradient descent stage.
+		 */
+		public final double getLoss() {
+			return loss;
+		}
+
+		public final double[] getParameters() {
+			return parameters;
+		}
+
+		public final StopReason getStopReason() {
+			return stopReason;
+		}
+	}
+}
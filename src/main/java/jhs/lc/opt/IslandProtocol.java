@@ -0,0 +1,41 @@
+package jhs.lc.opt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.math.optimization.RealPointValuePair;
+
+/**
+ * Binary messages exchanged between an {@link IslandHub} and its {@link IslandClient}s.
+ * A client opens with its magic number and island index, then sends exchange messages,
+ * each answered with immigrants, and finally a result message.
+ */
+final class IslandProtocol {
+	static final int MAGIC = 0x4C43494C;
+	static final int EXCHANGE = 1;
+	static final int RESULT = 2;
+
+	private IslandProtocol() {
+	}
+
+	static void writePoints(DataOutput out, List<RealPointValuePair> points) throws IOException {
+		out.writeInt(points.size());
+		for(RealPointValuePair point : points) {
+			out.writeDouble(point.getValue());
+			Checkpointer.writeDoubles(out, point.getPointRef());
+		}
+	}
+
+	static List<RealPointValuePair> readPoints(DataInput in) throws IOException {
+		int size = in.readInt();
+		List<RealPointValuePair> points = new ArrayList<>(size);
+		for(int k = 0; k < size; k++) {
+			double value = in.readDouble();
+			points.add(new RealPointValuePair(Checkpointer.readDoubles(in), value, false));
+		}
+		return points;
+	}
+}
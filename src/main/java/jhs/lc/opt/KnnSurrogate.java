@@ -0,0 +1,210 @@
+package jhs.lc.opt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Predicts loss with inverse-distance weighted k-nearest-neighbor regression over an archive
+ * of evaluated parameter vectors. Optimizers use it to give a true evaluation only to the
+ * candidates with the lowest predicted loss. The archive keeps the most recent evaluations.
+ */
+public class KnnSurrogate {
+	private static final double DISTANCE_EPSILON = 1E-12;
+
+	private final int numNeighbors;
+	private final int capacity;
+	private final double evaluationFraction;
+	private final double[][] points;
+	private final double[] values;
+	private int size = 0;
+	private int next = 0;
+	private long numCandidates = 0;
+	private long numScreenedOut = 0;
+
+	/**
+	 * @param numNeighbors Number of archived evaluations each prediction is based on.
+	 * @param capacity Maximum number of archived evaluations.
+	 * @param evaluationFraction Fraction of candidates that get a true evaluation, in (0, 1].
+	 */
+	public KnnSurrogate(int numNeighbors, int capacity, double evaluationFraction) {
+		if(numNeighbors < 1) {
+			throw new IllegalArgumentException("numNeighbors: " + numNeighbors);
+		}
+		if(capacity < numNeighbors) {
+			throw new IllegalArgumentException("capacity: " + capacity);
+		}
+		if(!(evaluationFraction > 0 && evaluationFraction <= 1)) {
+			throw new IllegalArgumentException("evaluationFraction: " + evaluationFraction);
+		}
+		this.numNeighbors = numNeighbors;
+		this.capacity = capacity;
+		this.evaluationFraction = evaluationFraction;
+		this.points = new double[capacity][];
+		this.values = new double[capacity];
+	}
+
+	public final int getNumNeighbors() {
+		return numNeighbors;
+	}
+
+	public final double getEvaluationFraction() {
+		return evaluationFraction;
+	}
+
+	public final int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of candidates that were screened.
+	 */
+	public final long getNumCandidates() {
+		return numCandidates;
+	}
+
+	/**
+	 * Gets the number of screened candidates that did not get a true evaluation.
+	 */
+	public final long getNumScreenedOut() {
+		return numScreenedOut;
+	}
+
+	/**
+	 * Tells whether the archive is large enough for predictions to be used.
+	 */
+	public boolean isReady() {
+		return this.size >= this.numNeighbors * 4;
+	}
+
+	/**
+	 * Archives a true evaluation. Non-finite values are ignored.
+	 */
+	public void add(double[] point, double value) {
+		if(Double.isNaN(value) || Double.isInfinite(value)) {
+			return;
+		}
+		this.points[this.next] = point;
+		this.values[this.next] = value;
+		this.next = (this.next + 1) % this.capacity;
+		if(this.size < this.capacity) {
+			this.size++;
+		}
+	}
+
+	/**
+	 * Empties the archive, for example when the loss function changes. Screening counts are kept.
+	 */
+	public void clear() {
+		Arrays.fill(this.points, null);
+		this.size = 0;
+		this.next = 0;
+	}
+
+	/**
+	 * Writes the archive and screening counts, so that a resumed optimizer screens as before.
+	 */
+	void writeState(DataOutput out) throws IOException {
+		out.writeInt(this.size);
+		out.writeInt(this.next);
+		out.writeLong(this.numCandidates);
+		out.writeLong(this.numScreenedOut);
+		for(int i = 0; i < this.size; i++) {
+			Checkpointer.writeDoubles(out, this.points[i]);
+			out.writeDouble(this.values[i]);
+		}
+	}
+
+	void readState(DataInput in) throws IOException {
+		int size = in.readInt();
+		if(size > this.capacity) {
+			throw new IllegalStateException("Checkpoint has a surrogate archive of size " + size + ", but the capacity is " + this.capacity + ".");
+		}
+		this.clear();
+		this.size = size;
+		this.next = in.readInt();
+		this.numCandidates = in.readLong();
+		this.numScreenedOut = in.readLong();
+		for(int i = 0; i < size; i++) {
+			this.points[i] = Checkpointer.readDoubles(in);
+			this.values[i] = in.readDouble();
+		}
+	}
+
+	public double predict(double[] point) {
+		int size = this.size;
+		if(size == 0) {
+			throw new IllegalStateException("Archive is empty.");
+		}
+		int k = Math.min(this.numNeighbors, size);
+		// Insertion into the k nearest so far; k is small.
+		double[] nearestDistances = new double[k];
+		double[] nearestValues = new double[k];
+		Arrays.fill(nearestDistances, Double.POSITIVE_INFINITY);
+		for(int i = 0; i < size; i++) {
+			double dSq = distanceSquared(point, this.points[i], nearestDistances[k - 1]);
+			if(dSq < nearestDistances[k - 1]) {
+				int j = k - 1;
+				while(j > 0 && nearestDistances[j - 1] > dSq) {
+					nearestDistances[j] = nearestDistances[j - 1];
+					nearestValues[j] = nearestValues[j - 1];
+					j--;
+				}
+				nearestDistances[j] = dSq;
+				nearestValues[j] = this.values[i];
+			}
+		}
+		double weightedSum = 0, weightSum = 0;
+		for(int j = 0; j < k; j++) {
+			double weight = 1.0 / (nearestDistances[j] + DISTANCE_EPSILON);
+			weightedSum += weight * nearestValues[j];
+			weightSum += weight;
+		}
+		return weightedSum / weightSum;
+	}
+
+	private static double distanceSquared(double[] p1, double[] p2, double bound) {
+		double sum = 0;
+		for(int i = 0; i < p1.length; i++) {
+			double diff = p1[i] - p2[i];
+			sum += diff * diff;
+			if(sum >= bound) {
+				return sum;
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Selects the candidates in [from, to) that should get a true evaluation: the evaluation fraction
+	 * with the lowest predicted loss, and at least one. While the archive is not ready, every candidate
+	 * is selected. Indexes are returned in increasing order.
+	 */
+	public int[] select(double[][] candidates, int from, int to) {
+		int count = to - from;
+		int numSelected = this.isReady() ? Math.max(1, (int) Math.ceil(count * this.evaluationFraction)) : count;
+		this.numCandidates += count;
+		this.numScreenedOut += count - numSelected;
+		if(numSelected >= count) {
+			int[] all = new int[count];
+			for(int i = 0; i < count; i++) {
+				all[i] = from + i;
+			}
+			return all;
+		}
+		double[] predictions = new double[count];
+		Integer[] order = new Integer[count];
+		for(int i = 0; i < count; i++) {
+			predictions[i] = this.predict(candidates[from + i]);
+			order[i] = i;
+		}
+		Arrays.sort(order, (i1, i2) -> Double.compare(predictions[i1], predictions[i2]));
+		int[] selected = new int[numSelected];
+		for(int s = 0; s < numSelected; s++) {
+			selected[s] = from + order[s];
+		}
+		Arrays.sort(selected);
+		return selected;
+	}
+}
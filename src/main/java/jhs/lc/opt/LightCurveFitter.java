@@ -1,19 +1,23 @@
 package jhs.lc.opt;
 
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.analysis.MultivariateRealFunction;
 import org.apache.commons.math.optimization.RealPointValuePair;
 
 import jhs.lc.data.LightCurve;
-import jhs.lc.data.LightCurvePoint;
-import jhs.lc.opt.ClusteredGridSearchOptimizer.Phase;
 import jhs.math.util.MathUtil;
 
 public class LightCurveFitter {	
 	//private static final Logger logger = Logger.getLogger(CSLightCurveFitter.class.getName());
+	private static final int SURROGATE_CAPACITY = 4096;
 	private final SolutionSampler sampler;
 	private final int numClusters;
 	private final int numParticlesPerCluster;
@@ -23,6 +27,37 @@ public class LightCurveFitter {
 	
 	private double epsilonFactor = 3.0;
 
+	private OptimizerType optimizerType = OptimizerType.CGSO;
+	private ExecutorService executor;
+	private int populationSize = 0;
+	private Double phi;
+	private Double omega;
+	private int maxConsolidationIterations = 50;
+	private boolean asynchronousSwarm = false;
+	private CmaEsOptimizer.RestartStrategy restartStrategy = CmaEsOptimizer.RestartStrategy.IPOP;
+	private double initialSigma = 0.5;
+
+	private int stallWindow = 0;
+	private double stallTolerance = 1E-4;
+	private double minBoundsSd = 0;
+	private long maxEvaluations = 0;
+	private double maxSeconds = 0;
+	private StopReason stopReason;
+	private Checkpointer checkpointer;
+	private Checkpointer.Checkpoint resumeFrom;
+	private List<SolutionSampler> coarseSamplers = Collections.emptyList();
+	private double surrogateFraction = 0;
+	private int surrogateNeighbors = 8;
+	private KnnSurrogate surrogate;
+	private Migration migration;
+	private double[] initialParameters;
+	private double initialSpread = 0.1;
+	private int freezeInterval = 0;
+	private boolean sensitivityWeighted = false;
+	private volatile boolean cancelled = false;
+	private FitterPortfolio portfolio;
+	private int portfolioIndex;
+
 	public LightCurveFitter(SolutionSampler sampler, int numClusters, int numParticlesPerCluster) {
 		this.sampler = sampler;
 		this.numClusters = numClusters;
@@ -53,6 +88,282 @@ public class LightCurveFitter {
 		this.maxClusteringIterations = maxClusteringIterations;
 	}
 
+	public final OptimizerType getOptimizerType() {
+		return optimizerType;
+	}
+
+	public final void setOptimizerType(OptimizerType optimizerType) {
+		this.optimizerType = optimizerType;
+	}
+
+	public final ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Sets the executor that the global optimizer spreads loss evaluations across, and that the 
+	 * per-parameter minimal change searches run on before gradient descent. If null, 
+	 * evaluations run in the calling thread.
+	 */
+	public final void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Gets the population size of the CESO and DPSO optimizers. If zero, it is the number of clusters
+	 * times the number of particles per cluster. It is also the number of offspring per generation
+	 * of the first CMA-ES run, which defaults to 4 + 3 ln(n) when zero.
+	 */
+	public final int getPopulationSize() {
+		return populationSize;
+	}
+
+	public final void setPopulationSize(int populationSize) {
+		this.populationSize = populationSize;
+	}
+
+	public final Double getPhi() {
+		return phi;
+	}
+
+	/**
+	 * Sets the attraction factor of the CESO and DPSO optimizers. If null, each optimizer's default is used.
+	 */
+	public final void setPhi(Double phi) {
+		this.phi = phi;
+	}
+
+	public final Double getOmega() {
+		return omega;
+	}
+
+	/**
+	 * Sets the inertia factor of the CESO and DPSO optimizers. If null, each optimizer's default is used.
+	 */
+	public final void setOmega(Double omega) {
+		this.omega = omega;
+	}
+
+	public final int getMaxConsolidationIterations() {
+		return maxConsolidationIterations;
+	}
+
+	public final void setMaxConsolidationIterations(int maxConsolidationIterations) {
+		this.maxConsolidationIterations = maxConsolidationIterations;
+	}
+
+	public final boolean isAsynchronousSwarm() {
+		return asynchronousSwarm;
+	}
+
+	/**
+	 * Sets whether the DPSO optimizer moves each particle as soon as its evaluation completes.
+	 */
+	public final void setAsynchronousSwarm(boolean asynchronousSwarm) {
+		this.asynchronousSwarm = asynchronousSwarm;
+	}
+
+	public final CmaEsOptimizer.RestartStrategy getRestartStrategy() {
+		return restartStrategy;
+	}
+
+	/**
+	 * Sets the restart strategy of the CMA-ES optimizer.
+	 */
+	public final void setRestartStrategy(CmaEsOptimizer.RestartStrategy restartStrategy) {
+		this.restartStrategy = restartStrategy;
+	}
+
+	public final double getInitialSigma() {
+		return initialSigma;
+	}
+
+	/**
+	 * Sets the initial step size of the CMA-ES optimizer.
+	 */
+	public final void setInitialSigma(double initialSigma) {
+		this.initialSigma = initialSigma;
+	}
+
+	public final int getStallWindow() {
+		return stallWindow;
+	}
+
+	/**
+	 * Sets the CGSO stall window. See {@link ClusteredGridSearchOptimizer#setStallWindow(int)}.
+	 */
+	public final void setStallWindow(int stallWindow) {
+		this.stallWindow = stallWindow;
+	}
+
+	public final double getStallTolerance() {
+		return stallTolerance;
+	}
+
+	public final void setStallTolerance(double stallTolerance) {
+		this.stallTolerance = stallTolerance;
+	}
+
+	public final double getMinBoundsSd() {
+		return minBoundsSd;
+	}
+
+	public final void setMinBoundsSd(double minBoundsSd) {
+		this.minBoundsSd = minBoundsSd;
+	}
+
+	public final long getMaxEvaluations() {
+		return maxEvaluations;
+	}
+
+	public final void setMaxEvaluations(long maxEvaluations) {
+		this.maxEvaluations = maxEvaluations;
+	}
+
+	public final double getMaxSeconds() {
+		return maxSeconds;
+	}
+
+	public final void setMaxSeconds(double maxSeconds) {
+		this.maxSeconds = maxSeconds;
+	}
+
+	/**
+	 * Gets the reason the global optimizer of the last fit stopped iterating.
+	 */
+	public final StopReason getStopReason() {
+		return stopReason;
+	}
+
+	public final Checkpointer getCheckpointer() {
+		return checkpointer;
+	}
+
+	/**
+	 * Sets the checkpointer that the global optimizer and the gradient descent stage periodically write
+	 * their state to. DPSO is not checkpointed.
+	 */
+	public final void setCheckpointer(Checkpointer checkpointer) {
+		this.checkpointer = checkpointer;
+	}
+
+	public final Checkpointer.Checkpoint getResumeFrom() {
+		return resumeFrom;
+	}
+
+	/**
+	 * Sets a checkpoint the next fit continues from. If it was written by the gradient descent stage,
+	 * the global optimizer is skipped. Otherwise it must have been written by the configured global optimizer.
+	 */
+	public final void setResumeFrom(Checkpointer.Checkpoint resumeFrom) {
+		this.resumeFrom = resumeFrom;
+	}
+
+	public final List<SolutionSampler> getCoarseSamplers() {
+		return coarseSamplers;
+	}
+
+	/**
+	 * Sets a resolution schedule: samplers whose flux sources are cheaper than the full-resolution one,
+	 * ordered from coarsest to finest. The global optimizer runs with the first one, gradient descent
+	 * continues with each of the others, and the final gradient descent runs at full resolution.
+	 * Parameter vectors carry over between stages unchanged. If empty, every stage runs at full resolution.
+	 */
+	public final void setCoarseSamplers(List<SolutionSampler> coarseSamplers) {
+		this.coarseSamplers = coarseSamplers;
+	}
+
+	public final double getSurrogateFraction() {
+		return surrogateFraction;
+	}
+
+	/**
+	 * Sets the fraction of candidates the CGSO and CESO optimizers evaluate after pre-screening them
+	 * with a k-nearest-neighbor surrogate. Zero or one disables the surrogate.
+	 */
+	public final void setSurrogateFraction(double surrogateFraction) {
+		this.surrogateFraction = surrogateFraction;
+	}
+
+	public final int getSurrogateNeighbors() {
+		return surrogateNeighbors;
+	}
+
+	public final void setSurrogateNeighbors(int surrogateNeighbors) {
+		this.surrogateNeighbors = surrogateNeighbors;
+	}
+
+	/**
+	 * Gets the surrogate used by the global optimizer of the last fit, or null if there was none.
+	 */
+	public final KnnSurrogate getSurrogate() {
+		return surrogate;
+	}
+
+	public final Migration getMigration() {
+		return migration;
+	}
+
+	/**
+	 * Sets the island model migration of the CGSO and CESO optimizers. Other optimizers do not migrate.
+	 */
+	public final void setMigration(Migration migration) {
+		this.migration = migration;
+	}
+
+	public final double[] getInitialParameters() {
+		return initialParameters;
+	}
+
+	/**
+	 * Sets optimizer parameters, such as those of a previous fit, that the CGSO, CESO and CMA-ES
+	 * optimizers start around. If there are no clustering iterations, the global optimizer is
+	 * skipped and gradient descent starts from them. Null disables warm starts.
+	 */
+	public final void setInitialParameters(double[] initialParameters) {
+		this.initialParameters = initialParameters;
+	}
+
+	public final double getInitialSpread() {
+		return initialSpread;
+	}
+
+	/**
+	 * Sets the standard deviation of starting points around the initial parameters.
+	 */
+	public final void setInitialSpread(double initialSpread) {
+		this.initialSpread = initialSpread;
+	}
+
+	public final int getFreezeInterval() {
+		return freezeInterval;
+	}
+
+	/**
+	 * Sets the number of iterations between checks for parameters that have no effect on
+	 * flux at the best point. The CGSO, CESO and gradient descent optimizers leave such
+	 * parameters out of their sampled subspaces until the next check. Zero disables freezing.
+	 */
+	public final void setFreezeInterval(int freezeInterval) {
+		this.freezeInterval = freezeInterval;
+	}
+
+	public final boolean isSensitivityWeighted() {
+		return sensitivityWeighted;
+	}
+
+	/**
+	 * Sets whether gradient descent favors parameters with larger recent gradient components
+	 * when it picks subspaces to probe.
+	 */
+	public final void setSensitivityWeighted(boolean sensitivityWeighted) {
+		this.sensitivityWeighted = sensitivityWeighted;
+	}
+
+	public final SolutionSampler getSampler() {
+		return sampler;
+	}
+
 	public final int getNumClusters() {
 		return numClusters;
 	}
@@ -61,61 +372,337 @@ public class LightCurveFitter {
 		return numParticlesPerCluster;
 	}
 
-	public Solution optimize(LightCurvePoint[] lightCurve) throws MathException {
-		double[] fluxArray = LightCurvePoint.fluxArray(lightCurve);
-		double comf = LightCurve.centerOfMassAsFraction(fluxArray);
+	/**
+	 * Makes a running fit stop at the next progress report of its optimizer.
+	 */
+	public final void cancel() {
+		this.cancelled = true;
+	}
+
+	public final boolean isCancelled() {
+		return cancelled;
+	}
+
+	final void joinPortfolio(FitterPortfolio portfolio, int index) {
+		this.portfolio = portfolio;
+		this.portfolioIndex = index;
+	}
+
+	/**
+	 * @throws CancellationException If the fit is cancelled. The stop reason is then {@link StopReason#CANCELLED}.
+	 */
+	public Solution optimize(LightCurve lightCurve) throws MathException {
+		try {
+			return this.optimizeImpl(lightCurve);
+		} catch(CancellationException ce) {
+			this.stopReason = StopReason.CANCELLED;
+			throw ce;
+		}
+	}
+
+	/**
+	 * Converts parameters found by another fit of the same light curve, such as an island
+	 * worker, into a solution, as if this fitter had found them.
+	 */
+	public final Solution parametersAsSolution(LightCurve lightCurve, double[] parameters) {
+		this.setPeakFraction(lightCurve);
+		return this.sampler.parametersAsSolution(parameters);
+	}
+
+	private void setPeakFraction(LightCurve lightCurve) {
+		double comf = lightCurve.centerOfMassAsFraction();
 		this.sampler.setPeakFraction(comf);
-		Solution solutionStage1 = this.optimizeStandardErrorCS(fluxArray);
-		Solution solutionStage3 = this.optimizeStandardErrorAGD(fluxArray, solutionStage1, this.maxGradientDescentIterations);
+		for(SolutionSampler coarseSampler : this.coarseSamplers) {
+			coarseSampler.setPeakFraction(comf);
+		}
+	}
+
+	private Solution optimizeImpl(LightCurve lightCurve) throws MathException {
+		this.setPeakFraction(lightCurve);
+		List<SolutionSampler> coarseSamplers = this.coarseSamplers;
+		Checkpointer.Checkpoint resumeFrom = this.resumeFrom;
+		Solution solutionStage1 = null;
+		if(resumeFrom == null || !resumeFrom.getStage().equals(ApproximateGradientDescentOptimizer.CHECKPOINT_STAGE)) {
+			SolutionSampler globalSampler = coarseSamplers.isEmpty() ? this.sampler : coarseSamplers.get(0);
+			if(this.initialParameters != null && this.maxClusteringIterations == 0) {
+				solutionStage1 = globalSampler.parametersAsSolution(this.initialParameters);
+				this.stopReason = StopReason.MAX_ITERATIONS;
+			}
+			else {
+				solutionStage1 = this.optimizeStandardErrorCS(globalSampler, lightCurve);
+			}
+			// Intermediate stages are not checkpointed; a resumed fit repeats them.
+			for(int i = 1; i < coarseSamplers.size(); i++) {
+				MultivariateRealFunction errorFunction = new FlexibleLossFunction(coarseSamplers.get(i), lightCurve, 0.10, 0.10);
+				solutionStage1 = this.optimizeAGD(coarseSamplers.get(i), "agd-" + i, false, solutionStage1, errorFunction, this.maxGradientDescentIterations);
+			}
+		}
+		Solution solutionStage3 = this.optimizeStandardErrorAGD(lightCurve, solutionStage1, this.maxGradientDescentIterations);
 		return solutionStage3;
 	}
 
-	public Solution optimizeStandardErrorCS(double[] fluxArray) throws MathException {
-		ClusteredEvaluator lfFinal = new FlexibleLossFunction(sampler, fluxArray, 0.50, 0.50);
-		return this.optimizeCGSO(lfFinal);
+	public Solution optimizeStandardErrorCS(LightCurve lightCurve) throws MathException {
+		return this.optimizeStandardErrorCS(this.sampler, lightCurve);
+	}
+
+	private Solution optimizeStandardErrorCS(SolutionSampler sampler, LightCurve lightCurve) throws MathException {
+		ClusteredEvaluator lfFinal = new FlexibleLossFunction(sampler, lightCurve, 0.50, 0.50);
+		Checkpointer.Checkpoint resumeFrom = this.resumeFrom;
+		if(resumeFrom != null && !resumeFrom.getStage().equals(this.optimizerType.name().toLowerCase())) {
+			throw new IllegalStateException("Checkpoint was written by stage " + resumeFrom.getStage() + ", which does not match optimizer " + this.optimizerType + ".");
+		}
+		switch(this.optimizerType) {
+		case CGSO:
+			return this.optimizeCGSO(sampler, lfFinal);
+		case CESO:
+			return this.optimizeCESO(sampler, lfFinal);
+		case DPSO:
+			return this.optimizeDPSO(sampler, lfFinal);
+		case CMAES:
+			return this.optimizeCMAES(sampler, lfFinal);
+		default:
+			throw new IllegalStateException("Unsupported optimizer: " + this.optimizerType);
+		}
 	}
 	
-	public Solution optimizeStandardErrorAGD(double[] fluxArray, Solution initialSolution, int maxIterations) throws MathException {
-		MultivariateRealFunction errorFunction = new FlexibleLossFunction(sampler, fluxArray, 0.10, 0.10);
-		return this.optimizeAGD(fluxArray, initialSolution, errorFunction, maxIterations);
+	public Solution optimizeStandardErrorAGD(LightCurve lightCurve, Solution initialSolution, int maxIterations) throws MathException {
+		MultivariateRealFunction errorFunction = new FlexibleLossFunction(sampler, lightCurve, 0.10, 0.10);
+		return this.optimizeAGD(initialSolution, errorFunction, maxIterations);
+	}
+
+	public Solution optimizeAGD(Solution initialSolution, MultivariateRealFunction errorFunction, int maxIterations) throws MathException {
+		return this.optimizeAGD(this.sampler, "agd", true, initialSolution, errorFunction, maxIterations);
 	}
 
-	public Solution optimizeAGD(double[] fluxArray, Solution initialSolution, MultivariateRealFunction errorFunction, int maxIterations) throws MathException {
-		SolutionSampler sampler = this.sampler;
+	private Solution optimizeAGD(SolutionSampler sampler, String stage, boolean checkpointed, Solution initialSolution, MultivariateRealFunction errorFunction, int maxIterations) throws MathException {
 		ApproximateGradientDescentOptimizer optimizer = new ApproximateGradientDescentOptimizer(sampler.getRandom()) {
 			@Override
 			protected void informProgress(int iteration, RealPointValuePair pointValue) {
-				LightCurveFitter.this.informProgress("agd", iteration, pointValue.getValue());
+				LightCurveFitter.this.reportProgress(stage, iteration, pointValue.getValue());
 			}			
 		};
 		optimizer.setMaxIterations(maxIterations);
-		double[] initialPoint = sampler.solutionAsParameters(initialSolution);
-		double[] minChangeShift = sampler.minimalChangeThreshold(initialPoint, 0.003);
-		double[] epsilon = MathUtil.multiply(minChangeShift, this.epsilonFactor);
-		RealPointValuePair optPoint = optimizer.optimize(errorFunction, initialPoint, epsilon);
+		optimizer.setNoEffectDetector(this.createNoEffectDetector(sampler));
+		optimizer.setFreezeInterval(this.freezeInterval);
+		optimizer.setSensitivityWeighted(this.sensitivityWeighted);
+		DataInput resumeState = null;
+		if(checkpointed) {
+			optimizer.setCheckpointer(this.checkpointer);
+			resumeState = this.takeResumeState(ApproximateGradientDescentOptimizer.CHECKPOINT_STAGE);
+		}
+		RealPointValuePair optPoint;
+		if(resumeState != null) {
+			try {
+				optPoint = optimizer.resume(resumeState, errorFunction);
+			} catch(IOException ioe) {
+				throw new IllegalStateException("Unable to read checkpoint state.", ioe);
+			}
+		}
+		else {
+			double[] initialPoint = sampler.solutionAsParameters(initialSolution);
+			double[] minChangeShift = sampler.minimalChangeThreshold(initialPoint, 0.003, this.executor);
+			double[] epsilon = MathUtil.multiply(minChangeShift, this.epsilonFactor);
+			optPoint = optimizer.optimize(errorFunction, initialPoint, epsilon);
+		}
 		return sampler.parametersAsSolution(optPoint.getPointRef());
 	}
 
+	private NoEffectDetector createNoEffectDetector(SolutionSampler sampler) {
+		if(this.freezeInterval <= 0) {
+			return null;
+		}
+		return point -> sampler.noEffectParameters(point, 0.003, this.executor);
+	}
+
 	public Solution optimizeCGSO(ClusteredEvaluator finalErrorFunction, ClusteredEvaluator ... alternatingErrorFunctions) throws MathException {
-		SolutionSampler sampler = this.sampler;
+		return this.optimizeCGSO(this.sampler, finalErrorFunction, alternatingErrorFunctions);
+	}
+
+	private Solution optimizeCGSO(SolutionSampler sampler, ClusteredEvaluator finalErrorFunction, ClusteredEvaluator ... alternatingErrorFunctions) throws MathException {
 		Random random = sampler.getRandom();
 		ClusteredGridSearchOptimizer optimizer = new ClusteredGridSearchOptimizer(random, numClusters, numParticlesPerCluster) {
 			@Override
-			protected void informProgress(Phase phase, int iteration, RealPointValuePair pointValue) {
-				LightCurveFitter.this.informProgress("cgso-" + phase.name().toLowerCase(), iteration, pointValue.getValue());
+			protected void informProgress(ClusteredGridSearchOptimizer.Phase phase, int iteration, RealPointValuePair pointValue) {
+				LightCurveFitter.this.reportProgress("cgso-" + phase.name().toLowerCase(), iteration, pointValue.getValue());
 			}			
 		};
 		
 		optimizer.setMaxIterations(this.maxClusteringIterations);
+		optimizer.setStallWindow(this.stallWindow);
+		optimizer.setStallTolerance(this.stallTolerance);
+		optimizer.setMinBoundsSd(this.minBoundsSd);
+		optimizer.setMaxEvaluations(this.maxEvaluations);
+		optimizer.setMaxSeconds(this.maxSeconds);
+		optimizer.setExecutor(this.executor);
+		optimizer.setCheckpointer(this.checkpointer);
+		optimizer.setSurrogate(this.createSurrogate());
+		optimizer.setMigration(this.migration);
+		optimizer.setInitialPoint(this.initialParameters);
+		optimizer.setInitialSpread(this.initialSpread);
+		optimizer.setNoEffectDetector(this.createNoEffectDetector(sampler));
+		optimizer.setFreezeInterval(this.freezeInterval);
 		
 		int vectorLength = sampler.getNumParameters();
-		RealPointValuePair result = optimizer.optimize(vectorLength, finalErrorFunction);
+		DataInput resumeState = this.takeResumeState(ClusteredGridSearchOptimizer.CHECKPOINT_STAGE);
+		RealPointValuePair result;
+		try {
+			result = resumeState != null ? optimizer.resume(resumeState, finalErrorFunction) : optimizer.optimize(vectorLength, finalErrorFunction);
+		} catch(IOException ioe) {
+			throw new IllegalStateException("Unable to read checkpoint state.", ioe);
+		}
+		this.stopReason = optimizer.getStopReason();
 
 		Solution solution = sampler.parametersAsSolution(result.getPointRef());
 
 		return solution;
 	}
 
+	public Solution optimizeCESO(ClusteredEvaluator finalErrorFunction, ClusteredEvaluator ... alternatingErrorFunctions) throws MathException {
+		return this.optimizeCESO(this.sampler, finalErrorFunction, alternatingErrorFunctions);
+	}
+
+	private Solution optimizeCESO(SolutionSampler sampler, ClusteredEvaluator finalErrorFunction, ClusteredEvaluator ... alternatingErrorFunctions) throws MathException {
+		Random random = sampler.getRandom();
+		ClusteredEvolutionarySwarmOptimizer optimizer = new ClusteredEvolutionarySwarmOptimizer(random, this.getEffectivePopulationSize()) {
+			@Override
+			protected void informProgress(ClusteredEvolutionarySwarmOptimizer.Phase phase, int iteration, RealPointValuePair pointValue) {
+				LightCurveFitter.this.reportProgress("ceso-" + phase.name().toLowerCase(), iteration, pointValue.getValue());
+			}
+
+			@Override
+			protected void informEndOfWarmUpPhase(List<RealPointValuePair> pointValues) {
+				LightCurveFitter.this.informEndOfWarmUpPhase(sampler, pointValues);
+			}
+
+			@Override
+			protected void informEndOfClusteringPhase(List<RealPointValuePair> pointValues) {
+				LightCurveFitter.this.informEndOfClusteringPhase(sampler, pointValues);
+			}
+		};
+		
+		optimizer.setMaxIterationsWithClustering(this.maxClusteringIterations);
+		optimizer.setMaxConsolidationIterations(this.maxConsolidationIterations);
+		if(this.phi != null) {
+			optimizer.setPhi(this.phi);
+		}
+		if(this.omega != null) {
+			optimizer.setOmega(this.omega);
+		}
+		optimizer.setExecutor(this.executor);
+		optimizer.setCheckpointer(this.checkpointer);
+		optimizer.setSurrogate(this.createSurrogate());
+		optimizer.setMigration(this.migration);
+		optimizer.setInitialPoint(this.initialParameters);
+		optimizer.setInitialSpread(this.initialSpread);
+		optimizer.setNoEffectDetector(this.createNoEffectDetector(sampler));
+		optimizer.setFreezeInterval(this.freezeInterval);
+		
+		int vectorLength = sampler.getNumParameters();
+		DataInput resumeState = this.takeResumeState(ClusteredEvolutionarySwarmOptimizer.CHECKPOINT_STAGE);
+		RealPointValuePair result;
+		try {
+			result = resumeState != null ? optimizer.resume(resumeState, finalErrorFunction, alternatingErrorFunctions) : optimizer.optimize(vectorLength, finalErrorFunction, alternatingErrorFunctions);
+		} catch(IOException ioe) {
+			throw new IllegalStateException("Unable to read checkpoint state.", ioe);
+		}
+		this.stopReason = optimizer.getStopReason();
+		return sampler.parametersAsSolution(result.getPointRef());
+	}
+
+	public Solution optimizeDPSO(ClusteredEvaluator errorFunction) throws MathException {
+		return this.optimizeDPSO(this.sampler, errorFunction);
+	}
+
+	private Solution optimizeDPSO(SolutionSampler sampler, ClusteredEvaluator errorFunction) throws MathException {
+		Random random = sampler.getRandom();
+		DiversifiedParticleSwarmOptimizer optimizer = new DiversifiedParticleSwarmOptimizer(random, this.getEffectivePopulationSize()) {
+			@Override
+			protected void informProgress(int iteration, RealPointValuePair pointValue) {
+				LightCurveFitter.this.reportProgress("dpso", iteration, pointValue.getValue());
+			}
+		};
+		
+		optimizer.setMaxIterations(this.maxClusteringIterations);
+		if(this.phi != null) {
+			optimizer.setPhi(this.phi);
+		}
+		if(this.omega != null) {
+			optimizer.setOmega(this.omega);
+		}
+		optimizer.setExecutor(this.executor);
+		optimizer.setAsynchronous(this.asynchronousSwarm);
+		
+		int vectorLength = sampler.getNumParameters();
+		RealPointValuePair result = optimizer.optimize(vectorLength, errorFunction);
+		this.stopReason = optimizer.getStopReason();
+		return sampler.parametersAsSolution(result.getPointRef());
+	}
+
+	public Solution optimizeCMAES(ClusteredEvaluator errorFunction) throws MathException {
+		return this.optimizeCMAES(this.sampler, errorFunction);
+	}
+
+	private Solution optimizeCMAES(SolutionSampler sampler, ClusteredEvaluator errorFunction) throws MathException {
+		CmaEsOptimizer optimizer = new CmaEsOptimizer(sampler.getRandom()) {
+			@Override
+			protected void informProgress(int iteration, RealPointValuePair pointValue) {
+				LightCurveFitter.this.reportProgress("cmaes", iteration, pointValue.getValue());
+			}
+		};
+		
+		optimizer.setMaxIterations(this.maxClusteringIterations);
+		optimizer.setMaxEvaluations(this.maxEvaluations);
+		optimizer.setPopulationSize(this.populationSize);
+		optimizer.setInitialSigma(this.initialSigma);
+		optimizer.setRestartStrategy(this.restartStrategy);
+		optimizer.setInitialMean(this.initialParameters);
+		optimizer.setInitialMeanSigma(this.initialSpread);
+		optimizer.setExecutor(this.executor);
+		
+		int vectorLength = sampler.getNumParameters();
+		RealPointValuePair result = optimizer.optimize(vectorLength, errorFunction);
+		this.stopReason = optimizer.getStopReason();
+		return sampler.parametersAsSolution(result.getPointRef());
+	}
+
+	private KnnSurrogate createSurrogate() {
+		double fraction = this.surrogateFraction;
+		this.surrogate = fraction > 0 && fraction < 1 ? new KnnSurrogate(this.surrogateNeighbors, SURROGATE_CAPACITY, fraction) : null;
+		return this.surrogate;
+	}
+
+	private DataInput takeResumeState(String stage) {
+		Checkpointer.Checkpoint resumeFrom = this.resumeFrom;
+		if(resumeFrom == null || !resumeFrom.getStage().equals(stage)) {
+			return null;
+		}
+		this.resumeFrom = null;
+		return resumeFrom.openState();
+	}
+
+	private int getEffectivePopulationSize() {
+		return this.populationSize > 0 ? this.populationSize : this.numClusters * this.numParticlesPerCluster;
+	}
+
+	private void reportProgress(String stage, int iteration, double error) {
+		this.informProgress(stage, iteration, error);
+		FitterPortfolio portfolio = this.portfolio;
+		if(portfolio != null) {
+			portfolio.informProgress(this.portfolioIndex, stage, iteration, error);
+		}
+		if(this.cancelled) {
+			throw new CancellationException("Fit cancelled at iteration " + iteration + " of stage " + stage + ".");
+		}
+	}
+
+	/**
+	 * Gets the loss the final gradient descent stage minimizes, which makes fits comparable.
+	 */
+	final double finalLoss(LightCurve lightCurve, Solution solution) throws MathException {
+		MultivariateRealFunction errorFunction = new FlexibleLossFunction(this.sampler, lightCurve, 0.10, 0.10);
+		return errorFunction.value(this.sampler.solutionAsParameters(solution));
+	}
+
 	protected void informProgress(String stage, int iteration, double error) {		
 	}
 	
@@ -125,9 +712,8 @@ public class LightCurveFitter {
 	protected void informEndOfClusteringPhase(SolutionSampler sampler, List<RealPointValuePair> pointValues) {		
 	}
 
-	public static double meanSquaredError(LightCurvePoint[] lightCurve, double[] weights, Solution solution) {
-		double[] fluxArray = LightCurvePoint.fluxArray(lightCurve);
-		return meanSquaredError(fluxArray, weights, solution);
+	public static double meanSquaredError(LightCurve lightCurve, double[] weights, Solution solution) {
+		return meanSquaredError(lightCurve.getFluxArray(), weights, solution);
 	}
 
 	public static double meanSquaredError(double[] fluxArray, double[] weights, Solution solution) {
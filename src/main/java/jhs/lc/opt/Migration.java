@@ -0,0 +1,23 @@
+package jhs.lc.opt;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.math.optimization.RealPointValuePair;
+
+/**
+ * Connects a population-based optimizer to other optimizers searching the same parameter space,
+ * as one island of an island model. Every interval iterations, the optimizer sends its best
+ * particles and replaces its worst ones with the immigrants it receives, if they are better once
+ * evaluated with its own error function.
+ */
+public interface Migration {
+	int getInterval();
+
+	int getNumMigrants();
+
+	/**
+	 * Sends emigrants and returns the parameters of immigrants, which may be empty.
+	 */
+	List<double[]> exchange(int iteration, List<RealPointValuePair> emigrants) throws IOException;
+}
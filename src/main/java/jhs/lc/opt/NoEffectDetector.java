@@ -0,0 +1,32 @@
+package jhs.lc.opt;
+
+import org.apache.commons.math.MathException;
+
+/**
+ * Finds parameters whose displacement does not change the modeled flux around a point,
+ * so optimizers can leave them out of the subspaces they sample.
+ */
+public interface NoEffectDetector {
+	Detection detect(double[] point) throws MathException;
+
+	final class Detection {
+		private final boolean[] noEffect;
+		private final int numEvaluations;
+
+		public Detection(boolean[] noEffect, int numEvaluations) {
+			this.noEffect = noEffect;
+			this.numEvaluations = numEvaluations;
+		}
+
+		public final boolean[] getNoEffect() {
+			return noEffect;
+		}
+
+		/**
+		 * Gets the number of flux simulations the detection took.
+		 */
+		public final int getNumEvaluations() {
+			return numEvaluations;
+		}
+	}
+}
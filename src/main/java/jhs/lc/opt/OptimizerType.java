@@ -0,0 +1,16 @@
+package jhs.lc.opt;
+
+/**
+ * Global optimizer used in the first stage of a light curve fit, before gradient descent.
+ */
+public enum OptimizerType {
+	CGSO, CESO, DPSO, CMAES;
+
+	public static OptimizerType parse(String name) {
+		try {
+			return OptimizerType.valueOf(name.trim().toUpperCase());
+		} catch(IllegalArgumentException iae) {
+			throw new IllegalArgumentException("Unknown optimizer: " + name);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package jhs.lc.opt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.math.MathException;
+
+/**
+ * Runs indexed tasks on an optional executor and collects their results in index order.
+ */
+final class ParallelTasks {
+	private ParallelTasks() {
+	}
+
+	public static <T> List<T> map(ExecutorService executor, int numTasks, IndexedTask<T> task) throws MathException {
+		List<T> results = new ArrayList<>(numTasks);
+		if(executor == null || numTasks <= 1) {
+			for(int i = 0; i < numTasks; i++) {
+				results.add(task.run(i));
+			}
+			return results;
+		}
+		List<Callable<T>> callables = new ArrayList<>(numTasks);
+		for(int i = 0; i < numTasks; i++) {
+			final int index = i;
+			callables.add(() -> task.run(index));
+		}
+		List<Future<T>> futures;
+		try {
+			futures = executor.invokeAll(callables);
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for parallel tasks.", ie);
+		}
+		for(Future<T> future : futures) {
+			results.add(getResult(future));
+		}
+		return results;
+	}
+
+	static <T> T getResult(Future<T> future) throws MathException {
+		try {
+			return future.get();
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for parallel task.", ie);
+		} catch(ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if(cause instanceof MathException) {
+				throw (MathException) cause;
+			}
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if(cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	public interface IndexedTask<T> {
+		T run(int index) throws MathException;
+	}
+}
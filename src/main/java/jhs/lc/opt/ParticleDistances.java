@@ -0,0 +1,98 @@
+package jhs.lc.opt;
+
+import java.util.Arrays;
+
+/**
+ * Distance ranks of a working set of particles, shared across one generation. When
+ * subspaces hold every variable, the pairwise distance matrix is computed once and
+ * each row is ranked from it. Smaller subspaces need distances over their own
+ * variables, so those are computed for each pivot. Ranks break distance ties by
+ * particle index.
+ */
+class ParticleDistances {
+	private static final int MAX_MATRIX_SIZE = 4096;
+
+	private final double[] points;
+	private final int numPoints;
+	private final int dimension;
+	private final double[] matrix;
+
+	public ParticleDistances(double[][] points, int maxSubspaceSize) {
+		int n = points.length;
+		int dimension = n == 0 ? 0 : points[0].length;
+		double[] flatPoints = new double[n * dimension];
+		for(int i = 0; i < n; i++) {
+			System.arraycopy(points[i], 0, flatPoints, i * dimension, dimension);
+		}
+		this.points = flatPoints;
+		this.numPoints = n;
+		this.dimension = dimension;
+		if(maxSubspaceSize >= dimension && n <= MAX_MATRIX_SIZE) {
+			double[] matrix = new double[n * n];
+			for(int i = 0; i < n; i++) {
+				for(int j = i + 1; j < n; j++) {
+					double d = this.distanceSquared(j, i);
+					matrix[i * n + j] = d;
+					matrix[j * n + i] = d;
+				}
+			}
+			this.matrix = matrix;
+		}
+		else {
+			this.matrix = null;
+		}
+	}
+
+	/**
+	 * Gets the rank of each point's squared distance to the pivot point, over the variables in the subspace.
+	 */
+	public int[] ranks(int pivot, int[] subspace) {
+		int n = this.numPoints;
+		double[] distances = new double[n];
+		if(this.matrix != null && subspace.length == this.dimension) {
+			System.arraycopy(this.matrix, pivot * n, distances, 0, n);
+		}
+		else {
+			double[] points = this.points;
+			int dimension = this.dimension;
+			int pivotOffset = pivot * dimension;
+			for(int i = 0; i < n; i++) {
+				int offset = i * dimension;
+				double sum = 0;
+				for(int si = 0; si < subspace.length; si++) {
+					int v = subspace[si];
+					double diff = points[offset + v] - points[pivotOffset + v];
+					sum += diff * diff;
+				}
+				distances[i] = sum;
+			}
+		}
+		double[] sorted = distances.clone();
+		Arrays.sort(sorted);
+		// Ties take consecutive ranks in index order.
+		int[] numTied = new int[n];
+		int[] ranks = new int[n];
+		for(int i = 0; i < n; i++) {
+			double d = distances[i];
+			int first = Arrays.binarySearch(sorted, d);
+			while(first > 0 && sorted[first - 1] == d) {
+				first--;
+			}
+			ranks[i] = first + numTied[first]++;
+		}
+		return ranks;
+	}
+
+	private double distanceSquared(int i, int j) {
+		double[] points = this.points;
+		int dimension = this.dimension;
+		int offset1 = i * dimension;
+		int offset2 = j * dimension;
+		double sum = 0;
+		for(int v = 0; v < dimension; v++) {
+			double diff = points[offset1 + v] - points[offset2 + v];
+			sum += diff * diff;
+		}
+		return sum;
+	}
+}
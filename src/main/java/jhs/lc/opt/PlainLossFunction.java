@@ -1,5 +1,6 @@
 package jhs.lc.opt;
 
+import jhs.lc.data.LightCurve;
 import jhs.math.util.MathUtil;
 
 public class PlainLossFunction extends AbstractLossFunction {
@@ -7,10 +8,10 @@ public class PlainLossFunction extends AbstractLossFunction {
 	private final double[] targetFluxArray;
 	private final double variance;
 	
-	public PlainLossFunction(SolutionSampler sampler, double[] fluxArray) {
-		super(sampler, 1.0, fluxArray);
-		this.targetFluxArray = fluxArray;
-		this.variance = MathUtil.variance(fluxArray);
+	public PlainLossFunction(SolutionSampler sampler, LightCurve lightCurve) {
+		super(sampler, 1.0, lightCurve);
+		this.targetFluxArray = lightCurve.getFluxArray();
+		this.variance = MathUtil.variance(this.targetFluxArray);
 	}
 	
 	@Override
@@ -15,8 +15,9 @@ public class PrimaryLossFunction extends AbstractLossFunction {
 	private final double trendVariance;
 	private final double trendChangeVariance;
 
-	public PrimaryLossFunction(SolutionSampler sampler, double[] targetFluxArray, double w0, double w1, double w2) {
-		super(sampler, 1.0, targetFluxArray);
+	public PrimaryLossFunction(SolutionSampler sampler, LightCurve lightCurve, double w0, double w1, double w2) {
+		super(sampler, 1.0, lightCurve);
+		double[] targetFluxArray = lightCurve.getFluxArray();
 		this.w0 = w0;
 		this.w1 = w1;
 		this.w2 = w2;
@@ -15,6 +15,28 @@ public class SeriesUtil {
 		return weightSum == 0 ? series.length / 2.0 : sum / weightSum;
 	}
 	
+	/**
+	 * Gets the center of mass of a series whose elements are at the given positions, e.g. timestamps
+	 * of a non-uniform cadence. The mass of each element is multiplied by its sample weight, such as
+	 * the number of cadences in a bin, unless sampleWeights is null.
+	 */
+	public static double centerOfMass(double[] positions, double[] sampleWeights, double[] series, double maxIgnoreError, double meanValue) {
+		double sum = 0;
+		double weightSum = 0;
+		for(int i = 0; i < series.length; i++) {
+			double dev = series[i] - meanValue;
+			double weight = Math.abs(dev);
+			if(weight > maxIgnoreError) {
+				if(sampleWeights != null) {
+					weight *= sampleWeights[i];
+				}
+				weightSum += weight;
+				sum += weight * positions[i];
+			}
+		}
+		return weightSum == 0 ? (positions[0] + positions[series.length - 1]) / 2.0 : sum / weightSum;
+	}
+	
 	public static double massVariance(double[] series, double maxIgnoreError, double meanValue, double centerOfMass) {
 		double sum = 0;
 		double weightSum = 0;
@@ -30,10 +52,32 @@ public class SeriesUtil {
 		return weightSum == 0 ? 0 : sum / weightSum;		
 	}	
 
+	public static double massVariance(double[] positions, double[] sampleWeights, double[] series, double maxIgnoreError, double meanValue, double centerOfMass) {
+		double sum = 0;
+		double weightSum = 0;
+		for(int i = 0; i < series.length; i++) {
+			double dev = series[i] - meanValue;
+			double weight = Math.abs(dev);
+			if(weight > maxIgnoreError) {
+				if(sampleWeights != null) {
+					weight *= sampleWeights[i];
+				}
+				double posDev = positions[i] - centerOfMass;
+				weightSum += weight;
+				sum += weight * (posDev * posDev);
+			}
+		}
+		return weightSum == 0 ? 0 : sum / weightSum;		
+	}	
+
 	public static final double massDeviation(double[] series, double maxIgnoreError, double meanValue, double centerOfMass) {
 		return Math.sqrt(massVariance(series, maxIgnoreError, meanValue, centerOfMass));
 	}
 
+	public static final double massDeviation(double[] positions, double[] sampleWeights, double[] series, double maxIgnoreError, double meanValue, double centerOfMass) {
+		return Math.sqrt(massVariance(positions, sampleWeights, series, maxIgnoreError, meanValue, centerOfMass));
+	}
+
 	public static final double[] stretchToMatch(double[] series, double maxIgnoreError, double meanValue, double expectedCenterOfMass, double expectedDeviation) {
 		if(expectedDeviation == 0) {
 			throw new IllegalArgumentException("expectedDeviation: " + expectedDeviation);
@@ -76,4 +120,32 @@ public class SeriesUtil {
 		return skewedSeries;
 	}
 
+	/**
+	 * Stretches a series whose elements are at the given ascending positions. Element i of the result is
+	 * the series, interpolated linearly between positions, at positions[i] * factor + offset. The
+	 * factor must not be negative.
+	 */
+	public static double[] stretchSeries(double[] positions, double[] series, double meanValue, double factor, double offset) {
+		int length = series.length;
+		double firstPosition = positions[0];
+		double lastPosition = positions[length - 1];
+		double[] stretchedSeries = new double[length];
+		int j = 0;
+		for(int i = 0; i < length; i++) {
+			double origPosition = positions[i] * factor + offset;
+			if(!(origPosition >= firstPosition && origPosition <= lastPosition) || length < 2) {
+				stretchedSeries[i] = meanValue;
+				continue;
+			}
+			// Original positions don't decrease, so the interval search resumes where it left off.
+			while(j < length - 2 && positions[j + 1] <= origPosition) {
+				j++;
+			}
+			double span = positions[j + 1] - positions[j];
+			double k = span == 0 ? 0 : (origPosition - positions[j]) / span;
+			stretchedSeries[i] = series[j] * (1 - k) + series[j + 1] * k;
+		}
+		return stretchedSeries;
+	}
+
 }
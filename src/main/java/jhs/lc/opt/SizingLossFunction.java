@@ -7,16 +7,17 @@ public class SizingLossFunction extends AbstractLossFunction {
 	private final double massDevFraction;
 	private final double mass;
 	
-	public SizingLossFunction(SolutionSampler sampler, double[] fluxArray, double centerOfMassFraction,
+	public SizingLossFunction(SolutionSampler sampler, LightCurve lightCurve, double centerOfMassFraction,
 			double massDevFraction, double mass) {
-		super(sampler, 0.0, fluxArray);
+		super(sampler, 0.0, lightCurve);
 		this.centerOfMassFraction = centerOfMassFraction;
 		this.massDevFraction = massDevFraction;
 		this.mass = mass;
 	}
 	
-	public SizingLossFunction(SolutionSampler sampler, double[] fluxArray) {
-		super(sampler, 0.0, fluxArray);
+	public SizingLossFunction(SolutionSampler sampler, LightCurve lightCurve) {
+		super(sampler, 0.0, lightCurve);
+		double[] fluxArray = lightCurve.getFluxArray();
 		double com = LightCurve.centerOfMass(fluxArray);
 		this.centerOfMassFraction = com / (fluxArray.length - 1);
 		this.massDevFraction = LightCurve.massDeviationAsFraction(fluxArray, com);
@@ -1,5 +1,6 @@
 package jhs.lc.opt;
 
+import jhs.lc.data.LightCurve;
 import jhs.math.smoothing.GaussianSmoother;
 import jhs.math.util.MathUtil;
 
@@ -7,11 +8,11 @@ public class SmoothLossFunction extends AbstractLossFunction {
 	private final GaussianSmoother smoother;
 	private final double[] smoothTargetFluxArray;
 	
-	public SmoothLossFunction(SolutionSampler sampler, double[] fluxArray, double sdFraction) {
-		super(sampler, 0, fluxArray);
-		double xSD = sdFraction * fluxArray.length;
+	public SmoothLossFunction(SolutionSampler sampler, LightCurve lightCurve, double sdFraction) {
+		super(sampler, 0, lightCurve);
+		double xSD = sdFraction * lightCurve.size();
 		this.smoother = new GaussianSmoother(xSD, 0.001);
-		this.smoothTargetFluxArray = this.smoother.smooth(fluxArray);
+		this.smoothTargetFluxArray = this.smoother.smooth(lightCurve.getFluxArray());
 	}
 	
 	@Override
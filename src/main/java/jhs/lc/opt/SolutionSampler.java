@@ -1,12 +1,14 @@
 package jhs.lc.opt;
 
-import java.util.Arrays;
-import java.util.Objects;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Logger;
 
 import org.apache.commons.math.FunctionEvaluationException;
+import org.apache.commons.math.MathException;
 
+import jhs.lc.data.LightCurve;
 import jhs.lc.geom.ParametricTransitFunctionSource;
 import jhs.lc.geom.TransitFunction;
 import jhs.lc.sims.ImageElementInfo;
@@ -22,6 +24,7 @@ public class SolutionSampler {
 	private static final double NPF = 20.0;
 	private static final double PRECISION = 1E-6;
 	private static final double OR_LAMBDA = 0.03;
+	private static final double FLUX_CHANGE_TOLERANCE = 1E-12;
 	
 	private static final double MAX_LOGIT = 15.0;
 	private static final double LOGIT_FACTOR = 3.0;
@@ -50,6 +53,20 @@ public class SolutionSampler {
 		this.opacitySource = opacitySource;
 	}
 
+	/**
+	 * Creates a sampler that maps parameters the same way, shares this sampler's random number generator
+	 * and peak fraction, but models flux with a different source, such as one with a coarser image.
+	 */
+	public SolutionSampler withFluxSource(SimulatedFluxSource fluxSource) {
+		SolutionSampler sampler = new SolutionSampler(this.random, fluxSource, this.opacitySource, this.minOrbitRadius, this.maxOrbitRadius);
+		sampler.peakFraction = this.peakFraction;
+		return sampler;
+	}
+
+	public final SimulatedFluxSource getFluxSource() {
+		return fluxSource;
+	}
+
 	public Random getRandom() {
 		return random;
 	}
@@ -75,12 +92,19 @@ public class SolutionSampler {
 	}
 	
 	public final double[] solutionAsParameters(Solution solution) {
+		return this.toParameters(solution.getOpacityFunctionParameters(), solution.getOrbitRadius());
+	}
+
+	/**
+	 * Converts opacity function parameters and an orbit radius, such as those saved in the results
+	 * of a previous fit, into optimizer parameters.
+	 */
+	public final double[] toParameters(double[] solParameters, double orbitRadius) {
 		ParametricTransitFunctionSource source = this.opacitySource;
 		int np = this.getNumParameters();
 		int snp = source.getNumParameters();
-		double[] solParameters = solution.getOpacityFunctionParameters();
 		if(solParameters.length != snp) {
-			throw new IllegalStateException();
+			throw new IllegalStateException("Expected " + snp + " opacity function parameters, but got " + solParameters.length + ".");
 		}
 		double[] parameters = new double[np];
 		for(int i = 0; i < snp; i++) {
@@ -89,16 +113,15 @@ public class SolutionSampler {
 		}
 		if(parameters.length > solParameters.length) {
 			int extraIndex = solParameters.length;
-			parameters[extraIndex++] = this.getOrbitRadiusChangeParameter(solution);
+			parameters[extraIndex++] = this.getOrbitRadiusChangeParameter(orbitRadius);
 		}
 		return parameters;
 	}
 	
-	private double getOrbitRadiusChangeParameter(Solution solution) {
+	private double getOrbitRadiusChangeParameter(double orbitRadius) {
 		if(!this.hasOrbitRadiusParameter()) {
 			return 0;
 		}
-		double orbitRadius = solution.getOrbitRadius();
 		double p = (orbitRadius - this.minOrbitRadius) / (this.maxOrbitRadius - this.minOrbitRadius);
 		if(Double.isNaN(p) || Double.isInfinite(p)) {
 			throw new IllegalStateException("orbitRadius: " + orbitRadius);
@@ -123,13 +146,40 @@ public class SolutionSampler {
 	}
 	
 	public final Solution parametersAsSolution(double[] optimizerParameters) {
+		return this.parametersAsSolution(optimizerParameters, false);
+	}
+
+	/**
+	 * Produces a solution that can serve as the base of {@link #parametersAsSolution(double[], Solution)}.
+	 */
+	public final Solution parametersAsBase(double[] optimizerParameters) {
+		return this.parametersAsSolution(optimizerParameters, true);
+	}
+
+	private Solution parametersAsSolution(double[] optimizerParameters, boolean asBase) {
 		if(optimizerParameters.length != this.getNumParameters()) {
 			throw new IllegalStateException();
 		}
 		double[] osParameters = this.opacitySourceParameters(optimizerParameters);
 		TransitFunction of = this.opacitySource.getTransitFunction(osParameters);
 		double orbitRadius = this.getOrbitRadius(optimizerParameters);
-		SimulatedFlux modeledFlux = this.fluxSource.produceModeledFlux(this.peakFraction, of, orbitRadius);
+		SimulatedFluxSource fluxSource = this.fluxSource;
+		SimulatedFlux modeledFlux = asBase ? fluxSource.produceBaseFlux(this.peakFraction, of, orbitRadius) : fluxSource.produceModeledFlux(this.peakFraction, of, orbitRadius);
+		return new Solution(fluxSource, of, orbitRadius, peakFraction, osParameters, modeledFlux);
+	}
+
+	/**
+	 * Produces a solution for parameters close to those of a base solution, letting the flux source
+	 * reuse the base solution's modeled flux where the transit image did not change.
+	 */
+	public final Solution parametersAsSolution(double[] optimizerParameters, Solution base) {
+		if(optimizerParameters.length != this.getNumParameters()) {
+			throw new IllegalStateException();
+		}
+		double[] osParameters = this.opacitySourceParameters(optimizerParameters);
+		TransitFunction of = this.opacitySource.getTransitFunction(osParameters);
+		double orbitRadius = this.getOrbitRadius(optimizerParameters);
+		SimulatedFlux modeledFlux = this.fluxSource.produceModeledFlux(this.peakFraction, of, orbitRadius, base.produceModeledFlux());
 		return new Solution(this.fluxSource, of, orbitRadius, peakFraction, osParameters, modeledFlux);
 	}
 	
@@ -173,19 +223,31 @@ public class SolutionSampler {
 	}
 	
 	public double[] minimalChangeThreshold(double[] optimizerParameters, double epsilon) {
+		return this.minimalChangeThreshold(optimizerParameters, epsilon, null);
+	}
+
+	/**
+	 * Finds, for each parameter, the displacement below which the modeled flux does not change.
+	 * @param executor Executor the per-parameter searches are spread across, or null to search serially.
+	 */
+	public double[] minimalChangeThreshold(double[] optimizerParameters, double epsilon, ExecutorService executor) {
 		if(optimizerParameters.length == 0) {
 			throw new IllegalArgumentException("Zero parameters.");
 		}
 		ImageState baseImageInfo = this.imageState(optimizerParameters);
 		double[] baseVector = new double[optimizerParameters.length];
-		DisplacementInfo[] dinfos = new DisplacementInfo[optimizerParameters.length];
+		List<DisplacementInfo> dinfoList;
+		try {
+			dinfoList = ParallelTasks.map(executor, optimizerParameters.length, i -> this.varDisplacementInfo(baseImageInfo, optimizerParameters, i, epsilon));
+		} catch(MathException me) {
+			throw new IllegalStateException(me);
+		}
+		DisplacementInfo[] dinfos = dinfoList.toArray(new DisplacementInfo[optimizerParameters.length]);
 		int orci = this.getOrbitRadiusChangeParamIndex();
 		double sumDiscrete = 0;
 		int numDiscrete = 0;
 		for(int i = 0; i < optimizerParameters.length; i++) {
-			DisplacementInfo dinfo;
-			dinfo = this.varDisplacementInfo(baseImageInfo, optimizerParameters, i, epsilon);
-			dinfos[i] = dinfo;			
+			DisplacementInfo dinfo = dinfos[i];
 			baseVector[i] = dinfo.noChangeRange;
 			if(dinfo.apparentVariableType == VariableType.DISCRETE && i != orci) {
 				numDiscrete++;
@@ -208,6 +270,24 @@ public class SolutionSampler {
 		return baseVector;
 	}
 	
+	/**
+	 * Finds the parameters whose displacement in either direction, up to about a thousand times
+	 * epsilon, leaves the modeled flux unchanged.
+	 * @param executor Executor the per-parameter searches are spread across, or null to search serially.
+	 */
+	public NoEffectDetector.Detection noEffectParameters(double[] optimizerParameters, double epsilon, ExecutorService executor) throws MathException {
+		ImageState baseImageInfo = this.imageState(optimizerParameters);
+		List<DisplacementInfo> dinfoList = ParallelTasks.map(executor, optimizerParameters.length, i -> this.varDisplacementInfo(baseImageInfo, optimizerParameters, i, epsilon));
+		boolean[] noEffect = new boolean[optimizerParameters.length];
+		int numEvaluations = 1;
+		for(int i = 0; i < noEffect.length; i++) {
+			DisplacementInfo dinfo = dinfoList.get(i);
+			noEffect[i] = dinfo.apparentVariableType == VariableType.NO_EFFECT;
+			numEvaluations += dinfo.numEvaluations;
+		}
+		return new NoEffectDetector.Detection(noEffect, numEvaluations);
+	}
+
 	private DisplacementInfo varDisplacementInfo(ImageState baseImageState, double[] optimizerParameters, int varIndex, double epsilon) {
 		double[] vector = ArrayUtil.repeat(0.0, optimizerParameters.length);
 		vector[varIndex] = +1.0;
@@ -222,7 +302,7 @@ public class SolutionSampler {
 		if(apparentVarType == VariableType.BINARY) {
 			totalDisp *= 0.5;
 		}
-		return new DisplacementInfo(totalDisp, apparentVarType);
+		return new DisplacementInfo(totalDisp, apparentVarType, posDispInfo.numEvaluations + negDispInfo.numEvaluations);
 	}
 	
 	private DisplacementInfo vectorDisplacementInfo(ImageState baseImageState, double[] optimizerParameters, double[] vector, double epsilon) {
@@ -231,10 +311,12 @@ public class SolutionSampler {
 		boolean foundUnchanged = false;
 		boolean foundChanged = false;
 		double multiplier = 1.0;
+		int numEvaluations = 0;
 		for(int i = 0; i < MAX_DISP_ITERATIONS; i++) {
 			if(Math.abs(upperBound - lowerBound) <= PRECISION) {
 				break;
 			}
+			numEvaluations++;
 			double factor;
 			if(Double.isInfinite(upperBound)) {
 				factor = lowerBound + epsilon * multiplier;
@@ -264,27 +346,27 @@ public class SolutionSampler {
 			apparentVarType = VariableType.DISCRETE;
 		}		
 		double noChangeRange = Double.isInfinite(upperBound) ? 0 : (lowerBound + upperBound) / 2.0;
- 		return new DisplacementInfo(noChangeRange, apparentVarType);
+ 		return new DisplacementInfo(noChangeRange, apparentVarType, numEvaluations);
 	}
 	
 	private boolean changed(ImageState baseImageState, double[] optimizerParameters) {
-		ImageState newImageState = this.imageState(optimizerParameters);
-		return !Objects.equals(baseImageState, newImageState);
+		// With the base flux, the flux source only needs to simulate the pixels that changed.
+		// Fluxes computed that way may differ from the base flux by rounding alone.
+		Solution solution = this.parametersAsSolution(optimizerParameters, baseImageState.solution);
+		double maxDiffSq = MathUtil.maxSquaredDiff(baseImageState.fluxArray, solution.produceModeledFlux().getFluxArray());
+		return maxDiffSq > FLUX_CHANGE_TOLERANCE * FLUX_CHANGE_TOLERANCE;
 	}
 
 	private ImageState imageState(double[] optimizerParameters) {
-		Solution solution = this.parametersAsSolution(optimizerParameters);
-		TransitFunction bf = solution.getBrightnessFunction();
-		double orbitRadius = this.getOrbitRadius(optimizerParameters);
-		SimulatedFlux simFlux = this.fluxSource.produceModeledFlux(peakFraction, bf, orbitRadius);
-		return new ImageState(simFlux.getFluxArray());
+		return new ImageState(this.parametersAsBase(optimizerParameters));
 	}
 
-	public EvaluationInfo getEvaluationInfo(double[] fluxArray, Solution solution) throws FunctionEvaluationException {
+	public EvaluationInfo getEvaluationInfo(LightCurve lightCurve, Solution solution) throws FunctionEvaluationException {
 		SimulatedFlux sf = solution.produceModeledFlux();
 		double[] modeledFlux = sf.getFluxArray();
+		double[] fluxArray = lightCurve.getFluxArray();
 		double w0 = 1, w1 = 0, w2 = 0;
-		PrimaryLossFunction matcher = new PrimaryLossFunction(this, fluxArray, w0, w1, w2);
+		PrimaryLossFunction matcher = new PrimaryLossFunction(this, lightCurve, w0, w1, w2);
 		double mse = MathUtil.euclideanDistanceSquared(fluxArray, modeledFlux) / fluxArray.length;
 		double rmse = Math.sqrt(mse);
 		double loss = matcher.baseLoss(modeledFlux);
@@ -298,11 +380,13 @@ public class SolutionSampler {
 	private static class DisplacementInfo {
 		private final double noChangeRange;
 		private final VariableType apparentVariableType;
+		private final int numEvaluations;
 		
-		public DisplacementInfo(double noChangeRange, VariableType apparentVariableType) {
+		public DisplacementInfo(double noChangeRange, VariableType apparentVariableType, int numEvaluations) {
 			super();
 			this.noChangeRange = noChangeRange;
 			this.apparentVariableType = apparentVariableType;
+			this.numEvaluations = numEvaluations;
 		}
 
 		@Override
@@ -312,33 +396,13 @@ public class SolutionSampler {
 	}
 	
 	private static class ImageState {
+		private final Solution solution;
 		private final double[] fluxArray;
 		
-		public ImageState(double[] fluxArray) {
+		public ImageState(Solution solution) {
 			super();
-			this.fluxArray = fluxArray;
-		}
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + Arrays.hashCode(fluxArray);
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null)
-				return false;
-			if (getClass() != obj.getClass())
-				return false;
-			ImageState other = (ImageState) obj;
-			if (!Arrays.equals(fluxArray, other.fluxArray))
-				return false;
-			return true;
+			this.solution = solution;
+			this.fluxArray = solution.produceModeledFlux().getFluxArray();
 		}
 	}
 }
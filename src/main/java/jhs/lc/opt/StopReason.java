@@ -0,0 +1,8 @@
+package jhs.lc.opt;
+
+/**
+ * Why a global optimizer stopped iterating.
+ */
+public enum StopReason {
+	MAX_ITERATIONS, CONVERGED, STALLED, BOUNDS_FLOOR, MAX_EVALUATIONS, TIME_LIMIT, CANCELLED;
+}
@@ -7,19 +7,31 @@ public class WeightedLossFunction extends AbstractLossFunction {
 	private final double[] targetFluxArray;
 	private final double[] weights;
 	
-	public WeightedLossFunction(SolutionSampler sampler, double[] targetFluxArray, WeightType weightType, double wlf) {
-		super(sampler, 1.0, targetFluxArray);
+	/**
+	 * The light curve's weights, if any, multiply the trend weights.
+	 */
+	public WeightedLossFunction(SolutionSampler sampler, LightCurve lightCurve, WeightType weightType, double wlf) {
+		super(sampler, 1.0, lightCurve);
+		double[] targetFluxArray = lightCurve.getFluxArray();
+		double[] sampleWeights = lightCurve.getWeights();
 		this.targetFluxArray = targetFluxArray;
+		double[] weights;
 		switch(weightType) {
 		case TREND:
-			this.weights = MathUtil.abs(trendProfile(targetFluxArray, wlf));
+			weights = MathUtil.abs(trendProfile(targetFluxArray, wlf));
 			break;
 		case TREND_CHANGE:
-			this.weights = MathUtil.abs(trendProfile(trendProfile(targetFluxArray, wlf), wlf));
+			weights = MathUtil.abs(trendProfile(trendProfile(targetFluxArray, wlf), wlf));
 			break;
 		default:
 			throw new IllegalArgumentException("weightType: " + weightType);
 		}
+		if(sampleWeights != null) {
+			for(int i = 0; i < weights.length; i++) {
+				weights[i] *= sampleWeights[i];
+			}
+		}
+		this.weights = weights;
 	}
 
 	private static double[] trendProfile(double[] fluxArray, double wlf) {
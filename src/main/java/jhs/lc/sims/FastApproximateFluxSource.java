@@ -1,7 +1,9 @@
 package jhs.lc.sims;
 
 import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import jhs.lc.geom.TransitFunction;
 import jhs.math.util.ArrayUtil;
@@ -46,46 +48,177 @@ public class FastApproximateFluxSource implements SimulatedFluxSource {
 
 	@Override
 	public final SimulatedFlux produceModeledFlux(double peakFraction, TransitFunction brightnessFunction, double orbitRadius) {
-		double[] timestamps = this.timestamps;
-		int length = timestamps.length;
-		double[] fluxArray = new double[length];
+		return this.simulate(peakFraction, brightnessFunction, orbitRadius, false);
+	}
+
+	@Override
+	public final SimulatedFlux produceBaseFlux(double peakFraction, TransitFunction brightnessFunction, double orbitRadius) {
+		return this.simulate(peakFraction, brightnessFunction, orbitRadius, true);
+	}
+
+	private SimulatedFlux simulate(double peakFraction, TransitFunction brightnessFunction, double orbitRadius, boolean keepRaster) {
 		Rectangle2D boundingBox = brightnessFunction.getBoundingBox();
 		if(boundingBox.isEmpty()) {
+			double[] fluxArray = new double[this.timestamps.length];
 			Arrays.fill(fluxArray, 1.0);
 			return new SimulatedFlux(fluxArray);
 		}
-		
-		Sphere star = new SolidSphere(1.0, this.ldParams);
-
 		double yoffset = -orbitRadius * Math.sin(this.inclineAngle);		
-
 		ImageElementInfo imageElementInfo = ImageElementInfo.createImageFrameElements(brightnessFunction, this.frameWidthPixels, this.frameHeightPixels, yoffset, boundingBox);
 		ImageElement[] elements = imageElementInfo.elements;
+		return this.simulate(peakFraction, orbitRadius, boundingBox, yoffset, elements, keepRaster ? this.rasterize(elements) : null);
+	}
+
+	/**
+	 * Simulates the flux of the given image elements. If the brightness raster of the elements is
+	 * given, it is kept with the flux so the flux can serve as a base.
+	 */
+	private SimulatedFlux simulate(double peakFraction, double orbitRadius, Rectangle2D boundingBox, double yoffset, ImageElement[] elements, double[] brightness) {
+		double[] timestamps = this.timestamps;
+		double[] fluxArray = new double[timestamps.length];
+		Sphere star = new SolidSphere(1.0, this.ldParams);
 
 		double baseFlux = this.estimateBaseFlux(star, boundingBox);
 		Arrays.fill(fluxArray, baseFlux);
 		
-		double startTimestamp = timestamps[0];
-		double endTimestamp = timestamps[length - 1];
-		double timeSpan = endTimestamp - startTimestamp;
-		double cycleFraction = timeSpan / this.orbitalPeriod;
-				
-		double angularRange = Math.PI * 2 * cycleFraction;
-		double startAngle = -angularRange * peakFraction;
-		double timeToAngleFactor = angularRange / timeSpan;
+		double startAngle = this.startAngle(peakFraction);
+		double timeToAngleFactor = this.timeToAngleFactor();
 
 		double[] displacedImageXArray = this.getDisplacedImageXArray(timestamps, boundingBox.getX(), orbitRadius, startAngle, timeToAngleFactor);
 		
 		int ne = elements.length;
 		for(int i = 0; i < ne; i++) {
 			ImageElement element = elements[i];
-			this.alterFluxArray(fluxArray, star, timestamps, displacedImageXArray, boundingBox, element, orbitRadius, yoffset, startAngle, timeToAngleFactor);
+			this.alterFluxArray(fluxArray, star, timestamps, displacedImageXArray, boundingBox, element, orbitRadius, yoffset, startAngle, timeToAngleFactor, false);
 		}
 		
+		FluxRaster raster = brightness == null ? null : new FluxRaster(peakFraction, orbitRadius, boundingBox, brightness, fluxArray.clone(), baseFlux, displacedImageXArray);
 		this.normalizeFluxArray(fluxArray, baseFlux);
 
+		return new SimulatedFlux(fluxArray, raster);
+	}
+
+	@Override
+	public final boolean isIncremental() {
+		return true;
+	}
+
+	/**
+	 * Computes the flux by removing the contribution of the pixels that changed relative to the
+	 * base image and adding their new contribution. It falls back to a full simulation if the
+	 * base flux was not produced by {@link #produceBaseFlux} with the same orbit radius, peak fraction
+	 * and bounding box, or if too many pixels changed. Incremental fluxes cannot serve as a base, so
+	 * rounding errors do not accumulate. The base image's pixels are kept with the base flux, so only
+	 * the new image is rasterized, and only once even if a full simulation turns out to be cheaper.
+	 */
+	@Override
+	public final SimulatedFlux produceModeledFlux(double peakFraction, TransitFunction brightnessFunction, double orbitRadius, SimulatedFlux base) {
+		FluxRaster baseRaster = base == null ? null : base.raster;
+		Rectangle2D boundingBox = brightnessFunction.getBoundingBox();
+		if(baseRaster == null || boundingBox.isEmpty() || !baseRaster.hasGeometry(peakFraction, orbitRadius, boundingBox)) {
+			return this.produceModeledFlux(peakFraction, brightnessFunction, orbitRadius);
+		}
+		int widthPixels = this.frameWidthPixels;
+		int heightPixels = this.frameHeightPixels;
+		double yoffset = -orbitRadius * Math.sin(this.inclineAngle);		
+		double[] baseBrightness = baseRaster.brightness;
+		double[] newBrightness = ImageElementInfo.rasterize(brightnessFunction, widthPixels, heightPixels, yoffset, boundingBox);
+		int numPixels = newBrightness.length;
+		int[] changedPixels = new int[numPixels];
+		int numChanged = 0;
+		int numElements = 0;
+		for(int k = 0; k < numPixels; k++) {
+			if(!Double.isNaN(newBrightness[k])) {
+				numElements++;
+			}
+			if(Double.doubleToLongBits(baseBrightness[k]) != Double.doubleToLongBits(newBrightness[k])) {
+				changedPixels[numChanged++] = k;
+			}
+		}
+		// A changed pixel may cost two passes over the timestamps, one to remove and one to add.
+		if(numChanged * 2 >= numElements) {
+			return this.simulate(peakFraction, orbitRadius, boundingBox, yoffset, this.toElements(newBrightness, boundingBox), null);
+		}
+
+		Sphere star = new SolidSphere(1.0, this.ldParams);
+		double[] timestamps = this.timestamps;
+		double[] fluxArray = baseRaster.unnormalizedFlux.clone();
+		double startAngle = this.startAngle(peakFraction);
+		double timeToAngleFactor = this.timeToAngleFactor();
+		double[] displacedImageXArray = baseRaster.displacedImageXArray;
+		double xcw = boundingBox.getWidth() / widthPixels;
+		double ycw = boundingBox.getHeight() / heightPixels;
+		for(int ci = 0; ci < numChanged; ci++) {
+			int k = changedPixels[ci];
+			int c = k / heightPixels;
+			int r = k % heightPixels;
+			double x = boundingBox.getX() + (c + 0.5) * xcw;
+			double y = boundingBox.getY() + (r + 0.5) * ycw;
+			if(!Double.isNaN(baseBrightness[k])) {
+				ImageElement oldElement = new ImageElement(x, y, c, r, baseBrightness[k]);
+				this.alterFluxArray(fluxArray, star, timestamps, displacedImageXArray, boundingBox, oldElement, orbitRadius, yoffset, startAngle, timeToAngleFactor, true);
+			}
+			if(!Double.isNaN(newBrightness[k])) {
+				ImageElement newElement = new ImageElement(x, y, c, r, newBrightness[k]);
+				this.alterFluxArray(fluxArray, star, timestamps, displacedImageXArray, boundingBox, newElement, orbitRadius, yoffset, startAngle, timeToAngleFactor, false);
+			}
+		}
+		this.normalizeFluxArray(fluxArray, baseRaster.baseFlux);
 		return new SimulatedFlux(fluxArray);
 	}
+
+	/**
+	 * Gets the brightness of each pixel in the layout of {@link ImageElementInfo#rasterize}, from the
+	 * image elements of a full simulation.
+	 */
+	private double[] rasterize(ImageElement[] elements) {
+		int heightPixels = this.frameHeightPixels;
+		double[] raster = new double[this.frameWidthPixels * heightPixels];
+		Arrays.fill(raster, Double.NaN);
+		for(ImageElement element : elements) {
+			raster[element.colIdx * heightPixels + element.rowIdx] = element.brightness;
+		}
+		return raster;
+	}
+
+	/**
+	 * Gets the image elements of a raster, in the order {@link ImageElementInfo#createImageFrameElements} produces them.
+	 */
+	private ImageElement[] toElements(double[] raster, Rectangle2D boundingBox) {
+		int widthPixels = this.frameWidthPixels;
+		int heightPixels = this.frameHeightPixels;
+		double xcw = boundingBox.getWidth() / widthPixels;
+		double ycw = boundingBox.getHeight() / heightPixels;
+		List<ImageElement> elementList = new ArrayList<>();
+		for(int c = 0; c < widthPixels; c++) {
+			double x = boundingBox.getX() + (c + 0.5) * xcw;
+			for(int r = 0; r < heightPixels; r++) {
+				double b = raster[c * heightPixels + r];
+				if(!Double.isNaN(b)) {
+					double y = boundingBox.getY() + (r + 0.5) * ycw;
+					elementList.add(new ImageElement(x, y, c, r, b));
+				}
+			}
+		}
+		return elementList.toArray(new ImageElement[elementList.size()]);
+	}
+
+	private double timeToAngleFactor() {
+		double[] timestamps = this.timestamps;
+		double timeSpan = timestamps[timestamps.length - 1] - timestamps[0];
+		return this.angularRange(timeSpan) / timeSpan;
+	}
+
+	private double startAngle(double peakFraction) {
+		double[] timestamps = this.timestamps;
+		double timeSpan = timestamps[timestamps.length - 1] - timestamps[0];
+		return -this.angularRange(timeSpan) * peakFraction;
+	}
+
+	private double angularRange(double timeSpan) {
+		double cycleFraction = timeSpan / this.orbitalPeriod;
+		return Math.PI * 2 * cycleFraction;
+	}
 	
 	private double[] getDisplacedImageXArray(double[] timestamps, double imageX, double orbitRadius, double startAngle, double timeToAngleFactor) {
 		double startTimestamp = timestamps[0];
@@ -108,7 +241,7 @@ public class FastApproximateFluxSource implements SimulatedFluxSource {
 		}
 	}
 	
-	private void alterFluxArray(double[] fluxArray, Sphere star, double[] timestamps, double[] displacedImageXArray, Rectangle2D imageBounds, ImageElement element, double orbitRadius, double yoffset, double startAngle, double timeToAngleFactor) {
+	private void alterFluxArray(double[] fluxArray, Sphere star, double[] timestamps, double[] displacedImageXArray, Rectangle2D imageBounds, ImageElement element, double orbitRadius, double yoffset, double startAngle, double timeToAngleFactor, boolean remove) {
 		int length = timestamps.length;
 		double startTimestamp = timestamps[0];
 		double imageX = imageBounds.getX();
@@ -158,7 +291,12 @@ public class FastApproximateFluxSource implements SimulatedFluxSource {
 			} else { // elementBrightness is NaN
 				diff = 0;
 			}
-			fluxArray[i] += diff;
+			if(remove) {
+				fluxArray[i] -= diff;
+			}
+			else {
+				fluxArray[i] += diff;
+			}
 		}
 	}
 	
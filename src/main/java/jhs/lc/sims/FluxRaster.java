@@ -0,0 +1,34 @@
+package jhs.lc.sims;
+
+import java.awt.geom.Rectangle2D;
+
+/**
+ * State kept with a fully simulated flux, so that a flux source can later compute the flux
+ * of a similar image from the pixels that differ.
+ */
+final class FluxRaster {
+	final double peakFraction;
+	final double orbitRadius;
+	final Rectangle2D boundingBox;
+	final double[] brightness;
+	final double[] unnormalizedFlux;
+	final double baseFlux;
+	final double[] displacedImageXArray;
+
+	FluxRaster(double peakFraction, double orbitRadius, Rectangle2D boundingBox, double[] brightness, double[] unnormalizedFlux, double baseFlux, double[] displacedImageXArray) {
+		this.peakFraction = peakFraction;
+		this.orbitRadius = orbitRadius;
+		this.boundingBox = boundingBox;
+		this.brightness = brightness;
+		this.unnormalizedFlux = unnormalizedFlux;
+		this.baseFlux = baseFlux;
+		this.displacedImageXArray = displacedImageXArray;
+	}
+
+	/**
+	 * Tells whether an image with the given geometry is rasterized onto the same pixel grid and moves along the same path.
+	 */
+	boolean hasGeometry(double peakFraction, double orbitRadius, Rectangle2D boundingBox) {
+		return this.peakFraction == peakFraction && this.orbitRadius == orbitRadius && this.boundingBox.equals(boundingBox);
+	}
+}
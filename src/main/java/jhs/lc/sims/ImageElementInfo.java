@@ -55,7 +55,7 @@ public final class ImageElementInfo {
 				//int cpr = (int) ((y - fromY) * ycpf);
 				double b = brightnessFunction.fluxOrTransmittance(x, y, 1.0);
 				double yInStar = y + yoffset;
-				if(b > 0 || (b <= 0 && b > -1.0 && yInStar <= 1.0 && yInStar >= -1.0)) { // also, not NaN
+				if(isImageElement(b, yInStar)) {
 					//clusteringPosition[cpr * CP_BOX_LENGTH + cpc] += (b + 1.0);
 					elementList.add(new ImageElement(x, y, c, r, b));
 					if(b > 0) {
@@ -81,6 +81,32 @@ public final class ImageElementInfo {
 		return new ImageElementInfo(totalPositiveFlux, elements, clusteringPosition);
 	}
 	
+	private static boolean isImageElement(double brightness, double yInStar) {
+		double b = brightness;
+		return b > 0 || (b <= 0 && b > -1.0 && yInStar <= 1.0 && yInStar >= -1.0); // also, not NaN
+	}
+
+	/**
+	 * Gets the brightness of each pixel of the simulated image, indexed by column * heightInPixels + row,
+	 * with NaN for pixels that would not be image elements.
+	 */
+	static double[] rasterize(TransitFunction brightnessFunction, int withInPixels, int heightInPixels, double yoffset, Rectangle2D boundingBox) {
+		double fromX = boundingBox.getX();
+		double fromY = boundingBox.getY();
+		double xcw = boundingBox.getWidth() / withInPixels;
+		double ycw = boundingBox.getHeight() / heightInPixels;
+		double[] raster = new double[withInPixels * heightInPixels];
+		for(int c = 0; c < withInPixels; c++) {
+			double x = fromX + (c + 0.5) * xcw;
+			for(int r = 0; r < heightInPixels; r++) {
+				double y = fromY + (r + 0.5)  * ycw;
+				double b = brightnessFunction.fluxOrTransmittance(x, y, 1.0);
+				raster[c * heightInPixels + r] = isImageElement(b, y + yoffset) ? b : Double.NaN;
+			}
+		}
+		return raster;
+	}
+
 	private static double[] getClusteringPosition(ImageElement[] elements, double minX, double minY, double maxX, double maxY) {
 		double[] position = new double[CP_BOX_NPIXELS];
 		if(elements.length == 0) {
@@ -4,9 +4,15 @@ import java.util.Arrays;
 
 public class SimulatedFlux {
 	private final double[] fluxArray;
+	final FluxRaster raster;
 	
 	public SimulatedFlux(double[] fluxArray) {
+		this(fluxArray, null);
+	}
+
+	SimulatedFlux(double[] fluxArray, FluxRaster raster) {
 		this.fluxArray = fluxArray;
+		this.raster = raster;
 	}
 
 	public double[] getFluxArray() {
@@ -4,6 +4,30 @@ import jhs.lc.geom.TransitFunction;
 
 public interface SimulatedFluxSource {
 	public SimulatedFlux produceModeledFlux(double peakFraction, TransitFunction brightnessFunction, double orbitRadius);
+
+	/**
+	 * Tells whether the source computes fluxes from a base flux faster than from scratch.
+	 */
+	public default boolean isIncremental() {
+		return false;
+	}
+
+	/**
+	 * Produces a flux that can serve as the base of {@link #produceModeledFlux(double, TransitFunction, double, SimulatedFlux)}.
+	 * Incremental sources keep the state they need with it, which plain fluxes do without.
+	 */
+	public default SimulatedFlux produceBaseFlux(double peakFraction, TransitFunction brightnessFunction, double orbitRadius) {
+		return this.produceModeledFlux(peakFraction, brightnessFunction, orbitRadius);
+	}
+
+	/**
+	 * Produces the flux of a brightness function expected to differ only slightly from the one
+	 * that produced the base flux. Sources may then compute only the contribution of the image
+	 * pixels that changed. The result is the same as that of a full simulation up to rounding.
+	 */
+	public default SimulatedFlux produceModeledFlux(double peakFraction, TransitFunction brightnessFunction, double orbitRadius, SimulatedFlux base) {
+		return this.produceModeledFlux(peakFraction, brightnessFunction, orbitRadius);
+	}
 	/*
 	public ImageElementInfo createImageElementInfo(TransitFunction brightnessFunction, double orbitRadius);
 	public double numPixelsInTimeSpanArc(TransitFunction brightnessFunction, double orbitRadius);
@@ -0,0 +1,197 @@
+package jhs.lc.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jhs.lc.opt.StopReason;
+
+import org.apache.commons.cli.CommandLine;
+
+/**
+ * Fits every light curve listed by the -batch-dir or -batch-manifest option, each into its
+ * own subdirectory of the -batch-out directory, and writes a summary row per light curve.
+ */
+final class BatchRunner {
+	private static final Logger logger = Logger.getLogger(BatchRunner.class.getName());
+	static final String SUMMARY_FILE_NAME = "summary.csv";
+	private static final String[] EXCLUDED_OPTIONS = { "i", "o", "or", "oi", "video", "ocb", "owpz", "ocz", "checkpoint", "resume", "islands" };
+
+	private final List<File> inputFiles;
+	private final File outDir;
+	private final int numThreads;
+
+	BatchRunner(CommandLine cmdLine, int numThreads) throws IOException {
+		for(String option : EXCLUDED_OPTIONS) {
+			if(cmdLine.hasOption(option)) {
+				throw new IllegalStateException("Option -" + option + " cannot be used in batch mode.");
+			}
+		}
+		String outDirPath = cmdLine.getOptionValue("batch-out");
+		if(outDirPath == null) {
+			throw new IllegalStateException("Option -batch-out is required in batch mode.");
+		}
+		if(numThreads < 1) {
+			throw new IllegalStateException("Option -batch-threads must be at least 1.");
+		}
+		this.inputFiles = getInputFiles(cmdLine);
+		this.outDir = new File(outDirPath);
+		this.numThreads = numThreads;
+	}
+
+	static boolean isBatch(CommandLine cmdLine) {
+		return cmdLine.hasOption("batch-dir") || cmdLine.hasOption("batch-manifest");
+	}
+
+	void run(ItemFitter fitter) throws Exception {
+		File outDir = this.outDir;
+		if(!outDir.isDirectory() && !outDir.mkdirs()) {
+			throw new IllegalStateException("Unable to create batch output directory " + outDir + ".");
+		}
+		List<File> inputFiles = this.inputFiles;
+		if(logger.isLoggable(Level.INFO)) {
+			logger.info("Fitting " + inputFiles.size() + " light curves on " + this.numThreads + " threads.");
+		}
+		File summaryFile = new File(outDir, SUMMARY_FILE_NAME);
+		AtomicInteger numFailed = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(this.numThreads);
+		try(PrintWriter summary = new PrintWriter(summaryFile)) {
+			summary.println("Input,Output,Status,Loss,Rmse,StopReason,ElapsedSeconds,Error");
+			summary.flush();
+			CompletionService<String> completionService = new ExecutorCompletionService<>(executor);
+			Set<String> outNames = new HashSet<>();
+			for(File inputFile : inputFiles) {
+				File curveOutDir = new File(outDir, uniqueName(outNames, baseName(inputFile)));
+				completionService.submit(() -> fitItem(fitter, inputFile, curveOutDir, numFailed));
+			}
+			// Rows are written as fits finish, so the summary is usable even if the batch is interrupted.
+			for(int i = 0; i < inputFiles.size(); i++) {
+				summary.println(completionService.take().get());
+				summary.flush();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		System.out.println("Fitted " + (inputFiles.size() - numFailed.get()) + " of " + inputFiles.size() + " light curves. Wrote summary to " + summaryFile);
+	}
+
+	/**
+	 * Fits one light curve of a batch and produces its summary row. Failures are logged and
+	 * reported in the row, so that the rest of the batch continues.
+	 */
+	private static String fitItem(ItemFitter fitter, File inputFile, File outDir, AtomicInteger numFailed) {
+		long time1 = System.currentTimeMillis();
+		try {
+			if(!outDir.isDirectory() && !outDir.mkdirs()) {
+				throw new IOException("Unable to create output directory " + outDir + ".");
+			}
+			ItemResult result = fitter.fit(inputFile, outDir);
+			return csvRow(inputFile.getPath(), outDir.getPath(), "OK", String.valueOf(result.loss), String.valueOf(result.rmse), String.valueOf(result.stopReason), String.valueOf(result.elapsedSeconds), "");
+		} catch(Throwable err) {
+			// Errors such as OutOfMemoryError are also confined to the light curve that raised them.
+			logger.log(Level.WARNING, "Unable to fit " + inputFile + ".", err);
+			numFailed.incrementAndGet();
+			double elapsedSeconds = (System.currentTimeMillis() - time1) / 1000.0;
+			return csvRow(inputFile.getPath(), outDir.getPath(), "FAILED", "", "", "", String.valueOf(elapsedSeconds), String.valueOf(err));
+		}
+	}
+
+	private static List<File> getInputFiles(CommandLine cmdLine) throws IOException {
+		String dirPath = cmdLine.getOptionValue("batch-dir");
+		String manifestPath = cmdLine.getOptionValue("batch-manifest");
+		if(dirPath != null && manifestPath != null) {
+			throw new IllegalStateException("Options -batch-dir and -batch-manifest cannot be used together.");
+		}
+		List<File> files = new ArrayList<>();
+		if(dirPath != null) {
+			File[] dirFiles = new File(dirPath).listFiles(f -> f.isFile() && !f.isHidden());
+			if(dirFiles == null) {
+				throw new IllegalStateException("Not a directory: " + dirPath);
+			}
+			Arrays.sort(dirFiles);
+			files.addAll(Arrays.asList(dirFiles));
+		}
+		else {
+			File manifestFile = new File(manifestPath);
+			File baseDir = manifestFile.getAbsoluteFile().getParentFile();
+			for(String line : Files.readAllLines(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+				String path = line.trim();
+				if(path.isEmpty() || path.startsWith("#")) {
+					continue;
+				}
+				File file = new File(path);
+				files.add(file.isAbsolute() ? file : new File(baseDir, path));
+			}
+		}
+		if(files.isEmpty()) {
+			throw new IllegalStateException("No light curve files to fit in batch mode.");
+		}
+		return files;
+	}
+
+	private static String baseName(File file) {
+		String name = file.getName();
+		int dotIndex = name.lastIndexOf('.');
+		return dotIndex <= 0 ? name : name.substring(0, dotIndex);
+	}
+
+	private static String uniqueName(Set<String> names, String name) {
+		String uniqueName = name;
+		for(int i = 2; !names.add(uniqueName); i++) {
+			uniqueName = name + "-" + i;
+		}
+		return uniqueName;
+	}
+
+	private static String csvRow(String ... values) {
+		StringBuilder row = new StringBuilder();
+		for(int i = 0; i < values.length; i++) {
+			if(i != 0) {
+				row.append(',');
+			}
+			String value = values[i];
+			if(value.indexOf(',') != -1 || value.indexOf('"') != -1 || value.indexOf('\n') != -1) {
+				row.append('"').append(value.replace("\"", "\"\"").replace('\n', ' ')).append('"');
+			}
+			else {
+				row.append(value);
+			}
+		}
+		return row.toString();
+	}
+
+	/**
+	 * Fits the light curve of an input file and writes the fit's outputs to a directory.
+	 */
+	interface ItemFitter {
+		ItemResult fit(File inputFile, File outDir) throws Exception;
+	}
+
+	static final class ItemResult {
+		private final double loss;
+		private final double rmse;
+		private final StopReason stopReason;
+		private final double elapsedSeconds;
+
+		ItemResult(double loss, double rmse, StopReason stopReason, double elapsedSeconds) {
+			this.loss = loss;
+			this.rmse = rmse;
+			this.stopReason = stopReason;
+			this.elapsedSeconds = elapsedSeconds;
+		}
+	}
+}
@@ -8,8 +8,6 @@ import java.util.logging.Logger;
 
 import jhs.lc.data.DataSet;
 import jhs.lc.data.LightCurve;
-import jhs.lc.data.LightCurvePoint;
-import jhs.math.util.MathUtil;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.HelpFormatter;
@@ -33,9 +31,9 @@ public class EstimateTransitProperties extends AbstractTool {
 			throw new IllegalStateException("A CSV input file with light curve data is required. Use option -i.");
 		}
 		File inputFile = new File(inputFilePath);
-		LightCurvePoint[] lightCurve = DataSet.load(inputFile);
-		double[] timestamps = LightCurvePoint.timestamps(lightCurve);
-		double[] fluxArray = LightCurvePoint.fluxArray(lightCurve);
+		LightCurve lightCurve = DataSet.load(inputFile);
+		double[] timestamps = lightCurve.getTimestamps();
+		double[] fluxArray = lightCurve.getFluxArray();
 		int windowLength = getOptionInt(cmdLine, "wl", DEFAULT_WL);
 		double[] trendChangeProfile = LightCurve.trendChangeProfile(fluxArray, windowLength);
 		String outputFilePath = cmdLine.getOptionValue("o");
@@ -54,15 +52,9 @@ public class EstimateTransitProperties extends AbstractTool {
 	}
 	
 	private double estimateTransitTime(double[] timestamps, double[] fluxArray, double[] trendChangeProfile) {
-		int minFluxIndex = MathUtil.minIndex(fluxArray);
-		if(trendChangeProfile[minFluxIndex] <= 0) {
-			throw new IllegalStateException("Tool expects trend change to be positive at transit peak.");
-		}
-		int idx1 = indexOfFirstNegative(trendChangeProfile, minFluxIndex, -1);
-		int idx2 = indexOfFirstNegative(trendChangeProfile, minFluxIndex, +1);
-		if(idx1 == -1 || idx2 == -1) {
-			throw new IllegalStateException("Light curve does not contain negative flux trend changes both before and after transit peak.");
-		}
+		int[] transitRange = LightCurve.transitIndexRange(fluxArray, trendChangeProfile);
+		int idx1 = transitRange[0];
+		int idx2 = transitRange[1];
 		double time1 = interpolateTime(timestamps, trendChangeProfile, idx1, idx1 + 1);
 		double time2 = interpolateTime(timestamps, trendChangeProfile, idx2 - 1, idx2);
 		return time2 - time1;
@@ -77,27 +69,14 @@ public class EstimateTransitProperties extends AbstractTool {
 		return t2 * zi + t1 * (1 - zi);
 	}
 	
-	private int indexOfFirstNegative(double[] trendChangeProfile, int startIndex, int increment) {
-		int index = startIndex;
-		for(;;) {
-			if(index < 0 || index >= trendChangeProfile.length) {
-				return -1;
-			}
-			if(trendChangeProfile[index] < 0) {
-				return index;
-			}
-			index += increment;
-		}
-	}
-	
-	private void writeData(LightCurvePoint[] lightCurve, double[] trendChangeProfile, String outFilePath) throws IOException {
-		double[] timestamps = LightCurvePoint.timestamps(lightCurve);
-		double[] obsFluxArray = LightCurvePoint.fluxArray(lightCurve);
+	private void writeData(LightCurve lightCurve, double[] trendChangeProfile, String outFilePath) throws IOException {
+		double[] timestamps = lightCurve.getTimestamps();
+		double[] obsFluxArray = lightCurve.getFluxArray();
 		File file = new File(outFilePath);
 		PrintWriter out = new PrintWriter(file);
 		try {
 			out.println("Timestamp,Flux,TrendChange");
-			for(int i = 0; i < lightCurve.length; i++) {
+			for(int i = 0; i < timestamps.length; i++) {
 				out.println(timestamps[i] + "," + obsFluxArray[i] + "," + trendChangeProfile[i]);
 			}
 		} finally {
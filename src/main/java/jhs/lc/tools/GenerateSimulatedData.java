@@ -15,6 +15,7 @@ import java.util.logging.Logger;
 import javax.imageio.ImageIO;
 import javax.media.protocol.FileTypeDescriptor;
 
+import jhs.lc.data.ColumnarLightCurveFile;
 import jhs.lc.geom.TransitFunction;
 import jhs.lc.geom.LimbDarkeningParams;
 import jhs.lc.geom.RotationAngleSphereFactory;
@@ -63,21 +64,30 @@ public class GenerateSimulatedData extends AbstractTool {
 		double noiseFraction = simSpec.getNoiseFraction();
 		double noiseSd = Math.log(1.0 + noiseFraction);
 		String csvFileName = cmdLine.getOptionValue("o");
-		if(csvFileName != null) {
+		String columnarFileName = cmdLine.getOptionValue("ob");
+		if(csvFileName != null || columnarFileName != null) {
 			double peakTimespanFraction = 0.5;
 			double[] fluxArray = sim.produceModeledFlux(timestamps, peakTimespanFraction, width, height);
-			File outFile = new File(csvFileName);
-			PrintWriter out = new PrintWriter(outFile);
-			out.println("Timestamp,Flux"); 
-			for(int i = 0; i < timestamps.length; i++) {
-				double normFluxPN = fluxArray[i];
-				if(noiseSd != 0) {
-					normFluxPN *= Math.exp(random.nextGaussian() * noiseSd);
+			if(noiseSd != 0) {
+				for(int i = 0; i < fluxArray.length; i++) {
+					fluxArray[i] *= Math.exp(random.nextGaussian() * noiseSd);
 				}
-				out.println(timestamps[i] + "," + normFluxPN);
 			}
-			out.close();
-			System.out.println("Wrote " + outFile);		
+			if(csvFileName != null) {
+				File outFile = new File(csvFileName);
+				PrintWriter out = new PrintWriter(outFile);
+				out.println("Timestamp,Flux"); 
+				for(int i = 0; i < timestamps.length; i++) {
+					out.println(timestamps[i] + "," + fluxArray[i]);
+				}
+				out.close();
+				System.out.println("Wrote " + outFile);
+			}
+			if(columnarFileName != null) {
+				File outFile = new File(columnarFileName);
+				ColumnarLightCurveFile.write(outFile, timestamps, fluxArray);
+				System.out.println("Wrote " + outFile);
+			}
 		}
 		/*
 		String transitImageFileName = cmdLine.getOptionValue("oi");
@@ -218,6 +228,10 @@ public class GenerateSimulatedData extends AbstractTool {
 				.hasArg()
 				.withDescription("Sets name of CSV file where light curve data will be written.")
 				.create("o");
+		Option outColumnarOption = OptionBuilder.withArgName("lcb-file")
+				.hasArg()
+				.withDescription("Sets name of binary columnar file where light curve data will be written.")
+				.create("ob");
 		/*
 		Option outImageOption = OptionBuilder.withArgName("png-file")
 				.hasArg()
@@ -239,6 +253,7 @@ public class GenerateSimulatedData extends AbstractTool {
 		Options options = new Options();
 		options.addOption(helpOption);
 		options.addOption(outCsvOption);
+		options.addOption(outColumnarOption);
 		options.addOption(outVideoOption);
 		//options.addOption(outImageOption);
 		options.addOption(seedOption);
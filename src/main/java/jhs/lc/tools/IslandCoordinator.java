@@ -0,0 +1,156 @@
+package jhs.lc.tools;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import jhs.lc.data.LightCurve;
+import jhs.lc.opt.FitterPortfolio;
+import jhs.lc.opt.IslandClient;
+import jhs.lc.opt.IslandHub;
+import jhs.lc.opt.LightCurveFitter;
+import jhs.lc.opt.OptimizerType;
+import jhs.lc.opt.Solution;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+
+/**
+ * Runs the island model of the -islands option. The coordinating process starts each island
+ * as a worker process of this tool, and worker processes connect back to the coordinator's hub.
+ */
+final class IslandCoordinator {
+	private static final Logger logger = Logger.getLogger(IslandCoordinator.class.getName());
+	private static final long RESULT_TIMEOUT_MILLIS = 10000;
+	private static final String[] WORKER_EXCLUDED_OPTIONS = { "islands", "island-worker", "seed", "o", "or", "oi", "video", "ocb" };
+
+	private final CommandLine cmdLine;
+	private final int migrationInterval;
+	private final int numMigrants;
+
+	IslandCoordinator(CommandLine cmdLine, int migrationInterval, int numMigrants) {
+		if(migrationInterval < 1) {
+			throw new IllegalStateException("Option -migration-interval must be at least 1.");
+		}
+		if(numMigrants < 0) {
+			throw new IllegalStateException("Option -migrants must not be negative.");
+		}
+		this.cmdLine = cmdLine;
+		this.migrationInterval = migrationInterval;
+		this.numMigrants = numMigrants;
+	}
+
+	/**
+	 * Connects the fitter to the coordinator's hub if this process is an island worker, or returns null.
+	 */
+	IslandClient connectWorker(LightCurveFitter fitter) throws IOException {
+		String workerText = this.cmdLine.getOptionValue("island-worker");
+		if(workerText == null) {
+			return null;
+		}
+		String[] parts = workerText.split(":");
+		int port, index;
+		try {
+			if(parts.length != 2) {
+				throw new NumberFormatException();
+			}
+			port = Integer.parseInt(parts[0]);
+			index = Integer.parseInt(parts[1]);
+		} catch(NumberFormatException nfe) {
+			throw new IllegalStateException("Invalid -island-worker value: " + workerText + ".");
+		}
+		IslandClient client = IslandClient.connect(port, index, this.migrationInterval, this.numMigrants);
+		fitter.setMigration(client);
+		return client;
+	}
+
+	/**
+	 * Runs each island in a worker process with its own seed, and returns the result of the
+	 * island whose solution has the lowest loss. The given fitter is not run; it converts
+	 * the best island's parameters into a solution.
+	 */
+	FitterPortfolio.SeedResult solve(LightCurveFitter fitter, LightCurve lightCurve, int numIslands, long seed) throws IOException, InterruptedException {
+		OptimizerType optimizerType = fitter.getOptimizerType();
+		if(optimizerType != OptimizerType.CGSO && optimizerType != OptimizerType.CESO) {
+			throw new IllegalStateException("Option -islands requires the cgso or ceso optimizer.");
+		}
+		long time1 = System.currentTimeMillis();
+		List<IslandHub.IslandResult> results;
+		try(IslandHub hub = new IslandHub(numIslands)) {
+			List<Process> processes = new ArrayList<>(numIslands);
+			try {
+				for(int k = 0; k < numIslands; k++) {
+					List<String> command = this.getWorkerCommand(seed + k, hub.getPort(), k);
+					processes.add(new ProcessBuilder(command).inheritIO().start());
+				}
+				for(int k = 0; k < numIslands; k++) {
+					int exitCode = processes.get(k).waitFor();
+					if(exitCode != 0) {
+						logger.warning("Island " + k + " exited with code " + exitCode + ".");
+					}
+				}
+			} finally {
+				for(Process process : processes) {
+					process.destroy();
+				}
+			}
+			results = hub.awaitResults(RESULT_TIMEOUT_MILLIS);
+		}
+		IslandHub.IslandResult best = null;
+		for(int k = 0; k < numIslands; k++) {
+			IslandHub.IslandResult result = results.get(k);
+			if(result == null) {
+				logger.info("Island result " + k + ": none.");
+				continue;
+			}
+			logger.info("Island result " + k + ": loss=" + result.getLoss() + ", stopReason=" + result.getStopReason() + ".");
+			if(best == null || result.getLoss() < best.getLoss()) {
+				best = result;
+			}
+		}
+		if(best == null) {
+			throw new IllegalStateException("No island reported a result.");
+		}
+		logger.info("Best island result: " + best.getIndex() + ".");
+		Solution solution = fitter.parametersAsSolution(lightCurve, best.getParameters());
+		return new FitterPortfolio.SeedResult(0, solution, best.getLoss(), best.getStopReason(), (System.currentTimeMillis() - time1) / 1000.0);
+	}
+
+	/**
+	 * Builds the command of an island worker: this tool in a JVM with the same arguments, without
+	 * the options that write outputs, with the island's seed, and connected to the hub.
+	 */
+	private List<String> getWorkerCommand(long seed, int port, int index) {
+		CommandLine cmdLine = this.cmdLine;
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(SolveLightCurve.class.getName());
+		Set<String> excluded = new HashSet<>(Arrays.asList(WORKER_EXCLUDED_OPTIONS));
+		for(Option option : cmdLine.getOptions()) {
+			String name = option.getOpt() != null ? option.getOpt() : option.getLongOpt();
+			if(excluded.contains(name)) {
+				continue;
+			}
+			command.add("-" + name);
+			String[] values = option.getValues();
+			if(values != null) {
+				command.addAll(Arrays.asList(values));
+			}
+		}
+		command.add("-seed");
+		command.add(String.valueOf(seed));
+		command.add("-island-worker");
+		command.add(port + ":" + index);
+		command.addAll(Arrays.asList(cmdLine.getArgs()));
+		return command;
+	}
+}
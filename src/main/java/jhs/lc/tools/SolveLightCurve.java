@@ -8,10 +8,15 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
@@ -20,18 +25,28 @@ import java.util.zip.ZipOutputStream;
 import javax.imageio.ImageIO;
 import javax.media.protocol.FileTypeDescriptor;
 
+import jhs.lc.data.BoxLeastSquares;
+import jhs.lc.data.CadenceBinner;
+import jhs.lc.data.ColumnarLightCurveFile;
 import jhs.lc.data.DataSet;
 import jhs.lc.data.LightCurve;
-import jhs.lc.data.LightCurvePoint;
+import jhs.lc.data.PhaseFolder;
 import jhs.lc.geom.LimbDarkeningParams;
 import jhs.lc.geom.ParametricTransitFunctionSource;
 import jhs.lc.jmf.BufferedImageVideoProducer;
+import jhs.lc.opt.Checkpointer;
+import jhs.lc.opt.CmaEsOptimizer;
+import jhs.lc.opt.FitterPortfolio;
+import jhs.lc.opt.IslandClient;
 import jhs.lc.opt.LightCurveFitter;
 import jhs.lc.opt.EvaluationInfo;
+import jhs.lc.opt.KnnSurrogate;
 import jhs.lc.opt.LightCurveMatchingFeatureSource;
+import jhs.lc.opt.OptimizerType;
 import jhs.lc.opt.PrimaryLossFunction;
 import jhs.lc.opt.Solution;
 import jhs.lc.opt.SolutionSampler;
+import jhs.lc.opt.StopReason;
 import jhs.lc.sims.AngleUnsupportedException;
 import jhs.lc.sims.AngularFluxSource;
 import jhs.lc.sims.FastApproximateFluxSource;
@@ -43,6 +58,7 @@ import jhs.lc.tools.inputs.OptResultsSpec;
 import jhs.lc.tools.inputs.OptSpec;
 import jhs.lc.tools.inputs.SolutionSpec;
 import jhs.lc.tools.inputs.SpecMapper;
+import jhs.math.util.CheckpointableRandom;
 import jhs.math.util.ListUtil;
 import jhs.math.util.MathUtil;
 
@@ -62,7 +78,25 @@ public class SolveLightCurve extends AbstractTool {
 	private static final int DEF_MAX_AGD_ITERATIONS = 50;	
 	private static final int DEF_NUM_CLUSTERS = 10;
 	private static final int DEF_NPPC = 10;
+	private static final int DEF_CONSOLIDATION_ITERATIONS = 50;
+	private static final double DEF_STALL_TOLERANCE = 1E-4;
+	private static final int DEF_CHECKPOINT_INTERVAL = 10;
+	private static final double DEF_CMAES_SIGMA = 0.5;
+	private static final int DEF_SURROGATE_NEIGHBORS = 8;
 	private static final int DEF_TEST_DEPICT_NUM_PIXELS = 40000;
+	private static final int DEF_FOLD_BINS = 500;
+	private static final double FOLD_PERIOD_TOLERANCE = 0.01;
+	private static final double DEF_BLS_MIN_PERIOD = 0.5;
+	private static final int DEF_BLS_PERIODS = 5000;
+	private static final int DEF_BLS_BINS = 400;
+	private static final double BLS_WINDOW_DURATIONS = 3.0;
+
+	private static final double DEF_SEED_MARGIN = 0.25;
+	private static final int DEF_SEED_CHECK_INTERVAL = 20;
+	private static final String[] SEEDS_EXCLUDED_OPTIONS = { "owpz", "ocz", "checkpoint", "resume" };
+	private static final double DEF_INIT_SPREAD = 0.1;
+	private static final int DEF_MIGRATION_INTERVAL = 10;
+	private static final int DEF_NUM_MIGRANTS = 2;
 
 	private static final double DEF_VIDEO_DURATION = 60;
 	private static final double DEF_LCWF = 7.0 / 9.0; 	
@@ -70,6 +104,11 @@ public class SolveLightCurve extends AbstractTool {
 	private void run(CommandLine cmdLine) throws Exception {
 		String[] args = cmdLine.getArgs();
 		this.configureLoggingLevel(cmdLine, logger);
+		String columnarFilePath = cmdLine.getOptionValue("ocb");
+		if(args.length == 0 && columnarFilePath != null) {
+			this.writeColumnarInput(this.loadInput(cmdLine), columnarFilePath);
+			return;
+		}
 		if(args.length != 1) {
 			logger.info("run(): Command line arguments: " + Arrays.toString(args));
 			throw new IllegalArgumentException("One command line argument is required: The optimization specification JSON file.");
@@ -77,25 +116,100 @@ public class SolveLightCurve extends AbstractTool {
 		String specFileName = args[0];
 		logger.info("run(): Specification file: " + specFileName);
 		File specFile = new File(specFileName);
+		if(BatchRunner.isBatch(cmdLine)) {
+			BatchRunner batchRunner = new BatchRunner(cmdLine, this.getOptionInt(cmdLine, "batch-threads", 1));
+			batchRunner.run((inputFile, outDir) -> this.fitBatchItem(cmdLine, specFile, inputFile, outDir));
+			return;
+		}
+		LightCurve inputLightCurve = this.loadInput(cmdLine);
+		if(columnarFilePath != null) {
+			this.writeColumnarInput(inputLightCurve, columnarFilePath);
+		}
+		Fit fit = this.fit(cmdLine, specFile, inputLightCurve);
+		LightCurve lightCurve = fit.lightCurve;
+		OptSpec optSpec = fit.optSpec;
+		Solution solution = fit.solution;
+		double[] timestamps = lightCurve.getTimestamps();
+
+		String outFilePath = cmdLine.getOptionValue("o");
+		if(outFilePath != null) {
+			this.writeData(lightCurve, solution, outFilePath);
+		}
+
+		String resultsFilePath = cmdLine.getOptionValue("or");
+		if(resultsFilePath != null) {
+			this.writeResults(resultsFilePath, optSpec, fit.sampler, lightCurve, solution, fit.elapsedSeconds, fit.stopReason, fit.surrogate);
+		}		
+
+		String transitImageFileName = cmdLine.getOptionValue("oi");
+		if(transitImageFileName != null) {
+			int depictionNumPixels = this.getOptionInt(cmdLine, "oinp", DEF_OUT_NUM_PIXELS);
+			this.writeTransitImageFile(transitImageFileName, timestamps, solution, depictionNumPixels);
+		}		
+
+		String videoFileName = cmdLine.getOptionValue("video");
+		if(videoFileName != null) {
+			String timeCaption = cmdLine.getOptionValue("tcaption");
+			if(timeCaption == null) {
+				timeCaption = "Day";
+			}
+			double videoDuration = this.getOptionDouble(cmdLine, "vd", DEF_VIDEO_DURATION);
+			if(videoDuration <= 0) {
+				throw new IllegalStateException("Invalid video duration: " + videoDuration + ".");
+			}
+			double lightCurveViewWidthFraction = getOptionDouble(cmdLine, "lcwf", DEF_LCWF);
+			this.writeVideo(videoFileName, timeCaption, videoDuration, timestamps, solution, optSpec, fit.ldParams, lightCurveViewWidthFraction);
+		}
+	}
+
+	/**
+	 * Prepares the input light curve and fits a model to it. The specification is parsed
+	 * for each fit because the transit search may change it.
+	 */
+	private Fit fit(CommandLine cmdLine, File specFile, LightCurve lightCurve) throws Exception {
 		OptSpec optSpec = SpecMapper.parseOptSpec(specFile);
 		this.validateSpec(optSpec);
-		String inputFileText = cmdLine.getOptionValue("i");
-		if(inputFileText == null) {
-			throw new IllegalStateException("A CSV input file with light curve data is required. Use option -i.");
+		if(cmdLine.hasOption("bls")) {
+			lightCurve = this.searchAndFoldInput(cmdLine, optSpec, lightCurve);
+		}
+		else {
+			lightCurve = this.foldInput(cmdLine, optSpec, lightCurve);
 		}
-		File inputFile = new File(inputFileText);
-		LightCurvePoint[] lightCurve = DataSet.load(inputFile);
-		double[] fluxArray = LightCurvePoint.fluxArray(lightCurve);
-		double[] timestamps = LightCurvePoint.timestamps(lightCurve);
+		lightCurve = this.binInput(cmdLine, lightCurve);
+		double[] fluxArray = lightCurve.getFluxArray();
+		double[] timestamps = lightCurve.getTimestamps();
 		String seedText = cmdLine.getOptionValue("seed");
 		long seed = seedText == null ? 201707081111L : Long.parseLong(seedText);
-		Random random = new Random(seed * 7 - 11);
+		int numSeeds = this.getOptionInt(cmdLine, "seeds", 1);
+		if(numSeeds < 1) {
+			throw new IllegalStateException("Option -seeds must be at least 1.");
+		}
+		if(numSeeds > 1) {
+			for(String option : SEEDS_EXCLUDED_OPTIONS) {
+				if(cmdLine.hasOption(option)) {
+					throw new IllegalStateException("Option -" + option + " cannot be used with -seeds greater than 1.");
+				}
+			}
+		}
+		int numIslands = this.getOptionInt(cmdLine, "islands", 1);
+		if(numIslands < 1) {
+			throw new IllegalStateException("Option -islands must be at least 1.");
+		}
+		if(numIslands > 1) {
+			if(numSeeds > 1) {
+				throw new IllegalStateException("Options -islands and -seeds cannot be combined.");
+			}
+			for(String option : SEEDS_EXCLUDED_OPTIONS) {
+				if(cmdLine.hasOption(option)) {
+					throw new IllegalStateException("Option -" + option + " cannot be used with -islands greater than 1.");
+				}
+			}
+		}
 		
 		//double minIndex = LimbDarkeningParams.minIndex(fluxArray);
 		//double peakFraction = (minIndex + 0.5) / fluxArray.length;
 		//logger.info("Transit peak estimated to occur at index " + minIndex + " of the flux sequence, whose length is " + fluxArray.length + ".");
 		LimbDarkeningParams ldParams = optSpec.getLimbDarkeningParams() == null ? LimbDarkeningParams.SUN : new LimbDarkeningParams(optSpec.getLimbDarkeningParams());
-		SolutionSampler sampler = this.getSampler(random, timestamps, fluxArray, ldParams, optSpec, cmdLine, specFile);
 		int numClusters = this.getOptionInt(cmdLine, "nc", DEF_NUM_CLUSTERS);
 		int numParticlesPerCluster = this.getOptionInt(cmdLine, "nppc", DEF_NPPC);
 		int numClusteringIterations = this.getOptionInt(cmdLine, "noi", DEF_MAX_ITERATIONS);
@@ -104,46 +218,162 @@ public class SolveLightCurve extends AbstractTool {
 		String warmUpDepictionsPath = cmdLine.getOptionValue("owpz");
 		String clusteringDepictionsPath = cmdLine.getOptionValue("ocz");
 		
-		logger.info("Number of optimization parameters: " + sampler.getNumParameters() + ".");
+		OptResultsSpec initialResults = null;
+		String initFromPath = cmdLine.getOptionValue("init-from");
+		if(initFromPath != null) {
+			initialResults = SpecMapper.parseOptResultsSpec(new File(initFromPath));
+			if(initialResults.getParameters() == null) {
+				throw new IllegalStateException("Results file " + initFromPath + " has no parameters.");
+			}
+		}
+		double initialSpread = this.getOptionDouble(cmdLine, "init-spread", DEF_INIT_SPREAD);
+		if(!(initialSpread > 0)) {
+			throw new IllegalStateException("Option -init-spread must be positive.");
+		}
+		
+		List<SolutionSampler> samplers = new ArrayList<>(numSeeds);
+		List<LightCurveFitter> fitters = new ArrayList<>(numSeeds);
+		for(int k = 0; k < numSeeds; k++) {
+			Random random = new CheckpointableRandom((seed + k) * 7 - 11);
+			SolutionSampler sampler = this.getSampler(random, timestamps, fluxArray, ldParams, optSpec, cmdLine, specFile);
+			String logPrefix = numSeeds == 1 ? "" : "Seed " + (seed + k) + ": ";
+			LightCurveFitter fitter = this.createFitter(cmdLine, optSpec, lightCurve, sampler, numClusters, numParticlesPerCluster, numClusteringIterations, numGradientDescentIterations, warmUpDepictionsPath, clusteringDepictionsPath, logPrefix);
+			fitter.setCoarseSamplers(this.createCoarseSamplers(cmdLine, optSpec, timestamps, ldParams, sampler));
+			if(initialResults != null) {
+				this.configureWarmStart(fitter, initialResults, initialSpread, initFromPath);
+			}
+			samplers.add(sampler);
+			fitters.add(fitter);
+		}
+		
+		logger.info("Number of optimization parameters: " + samplers.get(0).getNumParameters() + ".");
 		logger.info("Particles per cluster: " + numParticlesPerCluster + ".");
 		logger.info("Max iterations: " + numClusteringIterations + ".");
 		logger.info("Initial orbit radius: " + optSpec.getOrbitRadius());
 		long time1 = System.currentTimeMillis();
-		Solution solution = this.solve(optSpec, lightCurve, sampler, numClusters, numParticlesPerCluster, numClusteringIterations, numGradientDescentIterations, warmUpDepictionsPath, clusteringDepictionsPath);		
+		IslandCoordinator islandCoordinator = numIslands > 1 || cmdLine.hasOption("island-worker") ? this.createIslandCoordinator(cmdLine) : null;
+		IslandClient islandClient = islandCoordinator == null ? null : islandCoordinator.connectWorker(fitters.get(0));
+		FitterPortfolio.SeedResult best;
+		try {
+			best = numIslands > 1 ? islandCoordinator.solve(fitters.get(0), lightCurve, numIslands, seed) : this.solve(cmdLine, fitters, lightCurve);
+			if(islandClient != null) {
+				islandClient.sendResult(fitters.get(0), lightCurve, best.getSolution());
+			}
+		} finally {
+			if(islandClient != null) {
+				islandClient.close();
+			}
+		}
 		long time2 = System.currentTimeMillis();
 		double elapsedSeconds = (time2 - time1) / 1000.0;
+		LightCurveFitter fitter = fitters.get(best.getIndex());
+		SolutionSampler sampler = samplers.get(best.getIndex());
+		Solution solution = best.getSolution();
 		
 		logger.info("Elapsed: " + elapsedSeconds + " seconds.");
+		logger.info("Stop reason: " + best.getStopReason() + ".");
+		KnnSurrogate surrogate = fitter.getSurrogate();
+		if(surrogate != null) {
+			logger.info("Surrogate skipped " + surrogate.getNumScreenedOut() + " of " + surrogate.getNumCandidates() + " candidate evaluations.");
+		}
+		return new Fit(optSpec, lightCurve, ldParams, sampler, solution, elapsedSeconds, best.getStopReason(), surrogate);
+	}
 
-		String outFilePath = cmdLine.getOptionValue("o");
-		if(outFilePath != null) {
-			this.writeData(lightCurve, solution, outFilePath);
+	/**
+	 * Fits one light curve of a batch and writes its data and results files to the output directory.
+	 */
+	private BatchRunner.ItemResult fitBatchItem(CommandLine cmdLine, File specFile, File inputFile, File outDir) throws Exception {
+		Fit fit = this.fit(cmdLine, specFile, DataSet.load(inputFile));
+		LightCurve lightCurve = fit.lightCurve;
+		this.writeData(lightCurve, fit.solution, new File(outDir, "fit.csv").getPath());
+		this.writeResults(new File(outDir, "results.json").getPath(), fit.optSpec, fit.sampler, lightCurve, fit.solution, fit.elapsedSeconds, fit.stopReason, fit.surrogate);
+		EvaluationInfo ei = fit.sampler.getEvaluationInfo(lightCurve, fit.solution);
+		return new BatchRunner.ItemResult(ei.getLoss(), ei.getRmse(), fit.stopReason, fit.elapsedSeconds);
+	}
+
+	private LightCurve loadInput(CommandLine cmdLine) throws IOException {
+		String inputFileText = cmdLine.getOptionValue("i");
+		if(inputFileText == null) {
+			throw new IllegalStateException("An input file with light curve data is required. Use option -i.");
 		}
+		return DataSet.load(new File(inputFileText));
+	}
 
-		String resultsFilePath = cmdLine.getOptionValue("or");
-		if(resultsFilePath != null) {
-			this.writeResults(resultsFilePath, optSpec, sampler, lightCurve, solution, fluxArray, elapsedSeconds);
-		}		
+	private LightCurve searchAndFoldInput(CommandLine cmdLine, OptSpec optSpec, LightCurve lightCurve) {
+		if(cmdLine.hasOption("fold-period")) {
+			throw new IllegalStateException("Options -bls and -fold-period cannot be used together.");
+		}
+		double timeSpan = lightCurve.getEndTimestamp() - lightCurve.getStartTimestamp();
+		double minPeriod = this.getOptionDouble(cmdLine, "bls-min-period", DEF_BLS_MIN_PERIOD);
+		double maxPeriod = this.getOptionDouble(cmdLine, "bls-max-period", timeSpan / 2);
+		int numPeriods = this.getOptionInt(cmdLine, "bls-periods", DEF_BLS_PERIODS);
+		int numBins = this.getOptionInt(cmdLine, "bls-bins", DEF_BLS_BINS);
+		BoxLeastSquares bls = new BoxLeastSquares(minPeriod, maxPeriod, numPeriods, numBins);
+		ForkJoinPool pool = new ForkJoinPool(this.getNumThreads(cmdLine));
+		BoxLeastSquares.Result result;
+		try {
+			result = bls.search(lightCurve, pool);
+		} finally {
+			pool.shutdown();
+		}
+		if(logger.isLoggable(Level.INFO)) {
+			logger.info("Transit search found epoch " + result.getEpoch() + ", duration " + result.getDuration() + " and depth " + result.getDepth() + ".");
+			logger.info("Setting orbit period to " + result.getPeriod() + " from transit search; spec had " + optSpec.getOrbitPeriod() + ".");
+		}
+		optSpec.setOrbitPeriod(result.getPeriod());
+		double windowWidth = Math.min(PhaseFolder.defaultWindowWidth(result.getPeriod()), result.getDuration() * BLS_WINDOW_DURATIONS);
+		windowWidth = this.getOptionDouble(cmdLine, "fold-window", windowWidth);
+		int foldBins = this.getOptionInt(cmdLine, "fold-bins", DEF_FOLD_BINS);
+		PhaseFolder folder = new PhaseFolder(result.getPeriod(), result.getEpoch(), windowWidth, foldBins);
+		LightCurve folded = folder.fold(lightCurve);
+		if(logger.isLoggable(Level.INFO)) {
+			logger.info("Folded " + lightCurve.size() + " input points into " + folded.size() + " phase bins over a window of width " + windowWidth + ".");
+		}
+		return folded;
+	}
 
-		String transitImageFileName = cmdLine.getOptionValue("oi");
-		if(transitImageFileName != null) {
-			int depictionNumPixels = this.getOptionInt(cmdLine, "oinp", DEF_OUT_NUM_PIXELS);
-			this.writeTransitImageFile(transitImageFileName, timestamps, solution, depictionNumPixels);
-		}		
+	private LightCurve foldInput(CommandLine cmdLine, OptSpec optSpec, LightCurve lightCurve) {
+		Double foldPeriod = this.getOptionDouble(cmdLine, "fold-period", null);
+		if(foldPeriod == null) {
+			return lightCurve;
+		}
+		double orbitPeriod = optSpec.getOrbitPeriod();
+		if(Math.abs(orbitPeriod - foldPeriod) > foldPeriod * FOLD_PERIOD_TOLERANCE) {
+			logger.warning("The orbitPeriod of the specification, " + orbitPeriod + ", differs from the folding period, " + foldPeriod + ". The folded transit will be fitted with the specification's period.");
+		}
+		Double foldEpoch = this.getOptionDouble(cmdLine, "fold-epoch", null);
+		if(foldEpoch == null) {
+			throw new IllegalStateException("Option -fold-epoch is required when -fold-period is given.");
+		}
+		double windowWidth = this.getOptionDouble(cmdLine, "fold-window", PhaseFolder.defaultWindowWidth(foldPeriod));
+		int numBins = this.getOptionInt(cmdLine, "fold-bins", DEF_FOLD_BINS);
+		PhaseFolder folder = new PhaseFolder(foldPeriod, foldEpoch, windowWidth, numBins);
+		LightCurve folded = folder.fold(lightCurve);
+		if(logger.isLoggable(Level.INFO)) {
+			logger.info("Folded " + lightCurve.size() + " input points into " + folded.size() + " phase bins over a window of width " + windowWidth + ".");
+		}
+		return folded;
+	}
 
-		String videoFileName = cmdLine.getOptionValue("video");
-		if(videoFileName != null) {
-			String timeCaption = cmdLine.getOptionValue("tcaption");
-			if(timeCaption == null) {
-				timeCaption = "Day";
-			}
-			double videoDuration = this.getOptionDouble(cmdLine, "vd", DEF_VIDEO_DURATION);
-			if(videoDuration <= 0) {
-				throw new IllegalStateException("Invalid video duration: " + videoDuration + ".");
-			}
-			double lightCurveViewWidthFraction = getOptionDouble(cmdLine, "lcwf", DEF_LCWF);
-			this.writeVideo(videoFileName, timeCaption, videoDuration, timestamps, solution, optSpec, ldParams, lightCurveViewWidthFraction);
+	private LightCurve binInput(CommandLine cmdLine, LightCurve lightCurve) {
+		Double coarseBinWidth = this.getOptionDouble(cmdLine, "bin-coarse", null);
+		if(coarseBinWidth == null) {
+			return lightCurve;
+		}
+		double fineBinWidth = this.getOptionDouble(cmdLine, "bin-fine", 0.0);
+		CadenceBinner binner = new CadenceBinner(fineBinWidth, coarseBinWidth);
+		double[] fineWindow = binner.fineWindow(lightCurve);
+		LightCurve binned = binner.bin(lightCurve, fineWindow[0], fineWindow[1]);
+		if(logger.isLoggable(Level.INFO)) {
+			logger.info("Binned " + lightCurve.size() + " input points into " + binned.size() + "; fine bins used in [" + fineWindow[0] + ", " + fineWindow[1] + "].");
 		}
+		return binned;
+	}
+
+	private void writeColumnarInput(LightCurve lightCurve, String columnarFilePath) throws IOException {
+		File outFile = new File(columnarFilePath);
+		DataSet.writeColumnar(outFile, lightCurve);
+		System.out.println("Wrote " + outFile);
 	}
 	
 	private void writeTransitImageFile(String imageFileName, double[] timestamps, Solution solution, int depictionNumPixels) throws IOException {
@@ -165,12 +395,12 @@ public class SolveLightCurve extends AbstractTool {
         System.out.println("Wrote " + outFile);		
 	}
 		
-	private Solution solve(OptSpec optSpec, LightCurvePoint[] lightCurve, SolutionSampler sampler, int numClusters, int numParticlesPerCluster, int numClusteringIterations, int numGradientDescentIterations, String warmUpDepictionsPath, String clusteringDepictionsPath) throws MathException {
+	private LightCurveFitter createFitter(CommandLine cmdLine, OptSpec optSpec, LightCurve lightCurve, SolutionSampler sampler, int numClusters, int numParticlesPerCluster, int numClusteringIterations, int numGradientDescentIterations, String warmUpDepictionsPath, String clusteringDepictionsPath, String logPrefix) {
 		LightCurveFitter fitter = new LightCurveFitter(sampler, numClusters, numParticlesPerCluster) {
 			@Override
 			protected void informProgress(String stage, int iteration, double error) {
 				if(logger.isLoggable(Level.INFO)) {
-					logger.info("[" + stage + "] Iteration " + iteration + ": error=" + error);
+					logger.info(logPrefix + "[" + stage + "] Iteration " + iteration + ": error=" + error);
 				}
 			}
 
@@ -191,16 +421,161 @@ public class SolveLightCurve extends AbstractTool {
 		
 		fitter.setMaxClusteringIterations(numClusteringIterations);
 		fitter.setMaxGradientDescentIterations(numGradientDescentIterations);
-				
-		Solution solution = fitter.optimize(lightCurve);
-		return solution;
+		this.configureOptimizer(cmdLine, fitter);
+		this.configureCheckpoints(cmdLine, fitter);
+		return fitter;
+	}
+
+	private void configureCheckpoints(CommandLine cmdLine, LightCurveFitter fitter) {
+		String checkpointPath = cmdLine.getOptionValue("checkpoint");
+		if(checkpointPath == null) {
+			if(cmdLine.hasOption("resume")) {
+				throw new IllegalStateException("Option -resume requires -checkpoint.");
+			}
+			return;
+		}
+		int interval = this.getOptionInt(cmdLine, "checkpoint-interval", DEF_CHECKPOINT_INTERVAL);
+		if(interval < 1) {
+			throw new IllegalStateException("Option -checkpoint-interval must be at least 1.");
+		}
+		File checkpointFile = new File(checkpointPath);
+		fitter.setCheckpointer(new Checkpointer(checkpointFile, interval));
+		if(cmdLine.hasOption("resume")) {
+			if(!checkpointFile.exists()) {
+				logger.info("Checkpoint " + checkpointFile + " does not exist yet. Starting a new optimization.");
+				return;
+			}
+			Checkpointer.Checkpoint checkpoint;
+			try {
+				checkpoint = Checkpointer.read(checkpointFile);
+			} catch(IOException ioe) {
+				throw new IllegalStateException("Unable to read checkpoint " + checkpointFile + ".", ioe);
+			}
+			logger.info("Resuming " + checkpoint.getStage() + " stage from checkpoint " + checkpointFile + ".");
+			fitter.setResumeFrom(checkpoint);
+		}
+	}
+
+	private int getNumThreads(CommandLine cmdLine) {
+		int numThreads = this.getOptionInt(cmdLine, "threads", 1);
+		if(numThreads < 1) {
+			throw new IllegalStateException("Option -threads must be at least 1.");
+		}
+		return numThreads;
+	}
+
+	/**
+	 * Runs the fitters, concurrently as a portfolio if there are several, and returns the result of the best one.
+	 */
+	private FitterPortfolio.SeedResult solve(CommandLine cmdLine, List<LightCurveFitter> fitters, LightCurve lightCurve) throws MathException {
+		int numThreads = this.getNumThreads(cmdLine);
+		ExecutorService executor = numThreads == 1 ? null : Executors.newFixedThreadPool(numThreads);
+		try {
+			for(LightCurveFitter fitter : fitters) {
+				fitter.setExecutor(executor);
+			}
+			if(fitters.size() == 1) {
+				LightCurveFitter fitter = fitters.get(0);
+				long time1 = System.currentTimeMillis();
+				Solution solution = fitter.optimize(lightCurve);
+				return new FitterPortfolio.SeedResult(0, solution, Double.NaN, fitter.getStopReason(), (System.currentTimeMillis() - time1) / 1000.0);
+			}
+			double margin = this.getOptionDouble(cmdLine, "seed-margin", DEF_SEED_MARGIN);
+			int checkInterval = this.getOptionInt(cmdLine, "seed-check-interval", DEF_SEED_CHECK_INTERVAL);
+			if(!(margin >= 0)) {
+				throw new IllegalStateException("Option -seed-margin must not be negative.");
+			}
+			if(checkInterval < 1) {
+				throw new IllegalStateException("Option -seed-check-interval must be at least 1.");
+			}
+			FitterPortfolio portfolio = new FitterPortfolio(fitters, margin, checkInterval);
+			portfolio.optimize(lightCurve);
+			FitterPortfolio.SeedResult best = null;
+			for(FitterPortfolio.SeedResult result : portfolio.getResults()) {
+				logger.info("Seed result " + result.getIndex() + ": loss=" + result.getLoss() + ", stopReason=" + result.getStopReason() + ", elapsed=" + result.getElapsedSeconds() + " seconds.");
+				if(fitters.get(result.getIndex()) == portfolio.getBestFitter()) {
+					best = result;
+				}
+			}
+			logger.info("Best seed result: " + best.getIndex() + ".");
+			return best;
+		} finally {
+			if(executor != null) {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	private void configureWarmStart(LightCurveFitter fitter, OptResultsSpec initialResults, double initialSpread, String initFromPath) {
+		if(fitter.getOptimizerType() == OptimizerType.DPSO) {
+			throw new IllegalStateException("Option -init-from is not supported by the dpso optimizer.");
+		}
+		double[] initialParameters;
+		try {
+			initialParameters = fitter.getSampler().toParameters(initialResults.getParameters(), initialResults.getOrbitRadius());
+		} catch(IllegalStateException ise) {
+			throw new IllegalStateException("Results file " + initFromPath + " does not match the optimization specification: " + ise.getMessage(), ise);
+		}
+		fitter.setInitialParameters(initialParameters);
+		fitter.setInitialSpread(initialSpread);
+	}
+
+	private IslandCoordinator createIslandCoordinator(CommandLine cmdLine) {
+		int migrationInterval = this.getOptionInt(cmdLine, "migration-interval", DEF_MIGRATION_INTERVAL);
+		int numMigrants = this.getOptionInt(cmdLine, "migrants", DEF_NUM_MIGRANTS);
+		return new IslandCoordinator(cmdLine, migrationInterval, numMigrants);
+	}
+
+	private void configureOptimizer(CommandLine cmdLine, LightCurveFitter fitter) {
+		String optimizerText = cmdLine.getOptionValue("optimizer");
+		OptimizerType optimizerType;
+		try {
+			optimizerType = optimizerText == null ? OptimizerType.CGSO : OptimizerType.parse(optimizerText);
+		} catch(IllegalArgumentException iae) {
+			throw new IllegalStateException(iae.getMessage() + ". Possible values are cgso, ceso, dpso and cmaes.");
+		}
+		String restartsText = cmdLine.getOptionValue("cmaes-restarts");
+		if(restartsText != null) {
+			try {
+				fitter.setRestartStrategy(CmaEsOptimizer.RestartStrategy.parse(restartsText));
+			} catch(IllegalArgumentException iae) {
+				throw new IllegalStateException(iae.getMessage() + ". Possible values are none, ipop and bipop.");
+			}
+		}
+		fitter.setInitialSigma(this.getOptionDouble(cmdLine, "cmaes-sigma", DEF_CMAES_SIGMA));
+		fitter.setOptimizerType(optimizerType);
+		fitter.setPopulationSize(this.getOptionInt(cmdLine, "population", 0));
+		fitter.setPhi(this.getOptionDouble(cmdLine, "phi", null));
+		fitter.setOmega(this.getOptionDouble(cmdLine, "omega", null));
+		fitter.setMaxConsolidationIterations(this.getOptionInt(cmdLine, "nci", DEF_CONSOLIDATION_ITERATIONS));
+		fitter.setAsynchronousSwarm(cmdLine.hasOption("async"));
+		fitter.setStallWindow(this.getOptionInt(cmdLine, "stall-window", 0));
+		fitter.setStallTolerance(this.getOptionDouble(cmdLine, "stall-tolerance", DEF_STALL_TOLERANCE));
+		fitter.setMinBoundsSd(this.getOptionDouble(cmdLine, "min-bounds-sd", 0.0));
+		fitter.setMaxEvaluations(this.getOptionInt(cmdLine, "max-evals", 0));
+		fitter.setMaxSeconds(this.getOptionDouble(cmdLine, "max-seconds", 0.0));
+		int freezeInterval = this.getOptionInt(cmdLine, "freeze-interval", 0);
+		if(freezeInterval < 0) {
+			throw new IllegalStateException("Option -freeze-interval cannot be negative.");
+		}
+		fitter.setFreezeInterval(freezeInterval);
+		fitter.setSensitivityWeighted(cmdLine.hasOption("agd-weighted"));
+		double surrogateFraction = this.getOptionDouble(cmdLine, "surrogate-fraction", 0.0);
+		if(surrogateFraction < 0 || surrogateFraction > 1) {
+			throw new IllegalStateException("Option -surrogate-fraction must be between 0 and 1.");
+		}
+		fitter.setSurrogateFraction(surrogateFraction);
+		fitter.setSurrogateNeighbors(this.getOptionInt(cmdLine, "surrogate-neighbors", DEF_SURROGATE_NEIGHBORS));
+		if(logger.isLoggable(Level.INFO)) {
+			logger.info("Optimizer: " + optimizerType + ".");
+		}
 	}
 	
-	private void dumpModelDepictionsToZipFile(OptSpec optSpec, SolutionSampler sampler, LightCurvePoint[] lightCurve, List<RealPointValuePair> pointValues, String zipFilePath) {
+	private void dumpModelDepictionsToZipFile(OptSpec optSpec, SolutionSampler sampler, LightCurve lightCurve, List<RealPointValuePair> pointValues, String zipFilePath) {
 		if(logger.isLoggable(Level.INFO)) {
 			logger.info("Dumping " + pointValues.size() + " transit model depictions to " + zipFilePath);
 		}
-		double[] targetFluxArray = LightCurvePoint.fluxArray(lightCurve);
+		double[] targetFluxArray = lightCurve.getFluxArray();
 		LightCurveMatchingFeatureSource fs = new LightCurveMatchingFeatureSource(targetFluxArray);
 		try {
 			try(OutputStream out = new FileOutputStream(zipFilePath)) {
@@ -244,8 +619,8 @@ public class SolveLightCurve extends AbstractTool {
 		}		
 	}
 	
-	private void writeResults(String resultsFilePath, OptSpec optSpec, SolutionSampler sampler, LightCurvePoint[] lightCurve, Solution solution, double[] fluxArray, double elapsedSeconds) throws Exception {
-		EvaluationInfo ei = sampler.getEvaluationInfo(fluxArray, solution);
+	private void writeResults(String resultsFilePath, OptSpec optSpec, SolutionSampler sampler, LightCurve lightCurve, Solution solution, double elapsedSeconds, StopReason stopReason, KnnSurrogate surrogate) throws Exception {
+		EvaluationInfo ei = sampler.getEvaluationInfo(lightCurve, solution);
 		double[] ofParameters = solution.getOpacityFunctionParameters();
 		double paramStdev = MathUtil.standardDev(ofParameters, 0);
 		if(logger.isLoggable(Level.INFO)) {
@@ -263,6 +638,11 @@ public class SolveLightCurve extends AbstractTool {
 		spec.setParamStandardDev(paramStdev);
 		spec.setMethod(optSpec.getMethod());
 		spec.setTransitFunctionAsText(solution.getBrightnessFunction().toString());
+		spec.setStopReason(stopReason);
+		if(surrogate != null) {
+			spec.setSurrogateCandidates(surrogate.getNumCandidates());
+			spec.setSurrogateScreenedOut(surrogate.getNumScreenedOut());
+		}
 		File resultsFile = new File(resultsFilePath);
 		SpecMapper.writeObject(resultsFile, spec);
 		System.out.println("Wrote solution info to " + resultsFile);
@@ -280,8 +660,9 @@ public class SolveLightCurve extends AbstractTool {
 		}
 	}
 
-	private void writeData(LightCurvePoint[] lightCurve, Solution solution, String outFilePath) throws IOException {
-		double[] obsFluxArray = LightCurvePoint.fluxArray(lightCurve);
+	private void writeData(LightCurve lightCurve, Solution solution, String outFilePath) throws IOException {
+		double[] timestamps = lightCurve.getTimestamps();
+		double[] obsFluxArray = lightCurve.getFluxArray();
 		double[] modeledFlux = solution.produceModeledFlux().getFluxArray();
 		double[] obsTrendChangeProfile = PrimaryLossFunction.trendChangeProfile(obsFluxArray);
 		double[] modeledTrendChangeProfile = PrimaryLossFunction.trendChangeProfile(modeledFlux);
@@ -289,9 +670,8 @@ public class SolveLightCurve extends AbstractTool {
 		PrintWriter out = new PrintWriter(file);
 		try {
 			out.println("Timestamp,Flux,ModeledFlux,TCPFlux,TCPModeledFlux");
-			for(int i = 0; i < lightCurve.length; i++) {
-				LightCurvePoint p = lightCurve[i];
-				out.println(p.getTimestamp() + "," + obsFluxArray[i] + "," + modeledFlux[i] + "," + obsTrendChangeProfile[i] + "," + modeledTrendChangeProfile[i]);
+			for(int i = 0; i < timestamps.length; i++) {
+				out.println(timestamps[i] + "," + obsFluxArray[i] + "," + modeledFlux[i] + "," + obsTrendChangeProfile[i] + "," + modeledTrendChangeProfile[i]);
 			}
 		} finally {
 			out.close();
@@ -325,6 +705,42 @@ public class SolveLightCurve extends AbstractTool {
 		return ss;
 	}
 	
+	private List<SolutionSampler> createCoarseSamplers(CommandLine cmdLine, OptSpec optSpec, double[] timestamps, LimbDarkeningParams ldParams, SolutionSampler sampler) {
+		String scheduleText = cmdLine.getOptionValue("resolution-schedule");
+		if(scheduleText == null) {
+			return Collections.emptyList();
+		}
+		int widthPixels = optSpec.getWidthPixels();
+		int heightPixels = optSpec.getHeightPixels();
+		List<SolutionSampler> samplers = new ArrayList<>();
+		int previousDivisor = Integer.MAX_VALUE;
+		for(String divisorText : scheduleText.split(",")) {
+			int divisor;
+			try {
+				divisor = Integer.parseInt(divisorText.trim());
+			} catch(NumberFormatException nfe) {
+				throw new IllegalStateException("Invalid -resolution-schedule divisor: " + divisorText);
+			}
+			if(divisor <= 1 || divisor >= previousDivisor) {
+				throw new IllegalStateException("Option -resolution-schedule requires decreasing divisors greater than 1, such as 4,2.");
+			}
+			previousDivisor = divisor;
+			int stageWidth = Math.max(1, widthPixels / divisor);
+			int stageHeight = Math.max(1, heightPixels / divisor);
+			SimulatedFluxSource fluxSource;
+			try {
+				fluxSource = new FastApproximateFluxSource(timestamps, ldParams, optSpec.getInclineAngle(), optSpec.getOrbitPeriod(), stageWidth, stageHeight);
+			} catch(AngleUnsupportedException au) {
+				throw new IllegalStateException("Cannot handle a rotation of " + au.getValue() + " radians with the 'ptransit' flux source of -resolution-schedule.");
+			}
+			if(logger.isLoggable(Level.INFO)) {
+				logger.info("Resolution stage " + samplers.size() + ": " + stageWidth + "x" + stageHeight + " pixels.");
+			}
+			samplers.add(sampler.withFluxSource(fluxSource));
+		}
+		return samplers;
+	}
+
 	private SimulatedFluxSource getFluxSource(CommandLine cmdLine, OptSpec optSpec, double[] timestamps, LimbDarkeningParams ldParams, File context) {
 		double inclineAngle = optSpec.getInclineAngle();
 		double orbitalPeriod = optSpec.getOrbitPeriod();
@@ -377,7 +793,7 @@ public class SolveLightCurve extends AbstractTool {
 	
 	protected static void printHelp(Options options) {
 		HelpFormatter formatter = new HelpFormatter();
-		formatter.printHelp("lc-opt [options] -i <lightcurve>.csv <opt-spec>.json", options);
+		formatter.printHelp("lc-opt [options] -i <lightcurve>.csv|.lcb <opt-spec>.json", options);
 	}
 
 	@SuppressWarnings("static-access")
@@ -389,18 +805,117 @@ public class SolveLightCurve extends AbstractTool {
 				.hasArg()
 				.withDescription("Sets seed for random number generation.")
 				.create("seed");
+		Option seedsOption = OptionBuilder.withArgName("n")
+				.hasArg()
+				.withDescription("Runs the given number of fits with consecutive seeds concurrently, sharing the -threads evaluation pool, and keeps the solution with the lowest loss. Default is 1.")
+				.create("seeds");
+		Option seedMarginOption = OptionBuilder.withArgName("fraction")
+				.hasArg()
+				.withDescription("Cancels a -seeds fit whose error is worse than the leading fit's by more than the given relative margin at a check iteration. Default is " + DEF_SEED_MARGIN + ".")
+				.withLongOpt("seed-margin")
+				.create();
+		Option seedCheckIntervalOption = OptionBuilder.withArgName("n")
+				.hasArg()
+				.withDescription("Sets the number of iterations between comparisons of -seeds fits. Default is " + DEF_SEED_CHECK_INTERVAL + ".")
+				.withLongOpt("seed-check-interval")
+				.create();
+		Option initFromOption = OptionBuilder.withArgName("file")
+				.hasArg()
+				.withDescription("Starts the cgso, ceso or cmaes optimizer around the parameters and orbit radius of a results file written by -or with the same kind of specification. With -noi 0, the global optimizer is skipped and gradient descent starts from those parameters.")
+				.withLongOpt("init-from")
+				.create();
+		Option initSpreadOption = OptionBuilder.withArgName("sd")
+				.hasArg()
+				.withDescription("Sets the standard deviation, in optimizer parameter units, of the starting points around the -init-from parameters. Default is " + DEF_INIT_SPREAD + ".")
+				.withLongOpt("init-spread")
+				.create();
+		Option islandsOption = OptionBuilder.withArgName("n")
+				.hasArg()
+				.withDescription("Runs the cgso or ceso optimizer as an island model in the given number of worker processes on this host, with consecutive seeds, and keeps the solution with the lowest loss. Each worker uses -threads evaluation threads and the JVM options of this process. Default is 1, which runs in this process.")
+				.create("islands");
+		Option migrationIntervalOption = OptionBuilder.withArgName("n")
+				.hasArg()
+				.withDescription("Sets the number of iterations between migrations of -islands workers. Default is " + DEF_MIGRATION_INTERVAL + ".")
+				.withLongOpt("migration-interval")
+				.create();
+		Option migrantsOption = OptionBuilder.withArgName("n")
+				.hasArg()
+				.withDescription("Sets the number of best particles an -islands worker sends to the next island at each migration. Default is " + DEF_NUM_MIGRANTS + ".")
+				.create("migrants");
+		Option islandWorkerOption = OptionBuilder.withArgName("port:index")
+				.hasArg()
+				.withDescription("Runs this process as an -islands worker. Used internally.")
+				.withLongOpt("island-worker")
+				.create();
 		Option timeUnitOption = OptionBuilder.withArgName("unit")
 				.hasArg()
 				.withDescription("Video caption of timestamp. Default is 'Day'.")
 				.create("tcaption");
-		Option inCsvOption = OptionBuilder.withArgName("csv-file")
+		Option inCsvOption = OptionBuilder.withArgName("file")
 				.hasArg()
-				.withDescription("Sets path of CSV file where input light curve data is read from.")
+				.withDescription("Sets path of CSV, binary columnar (" + ColumnarLightCurveFile.EXTENSION + ") or Kepler/TESS FITS file where input light curve data is read from. The format is detected automatically.")
 				.create("i");
+		Option outColumnarOption = OptionBuilder.withArgName("lcb-file")
+				.hasArg()
+				.withDescription("Sets path of binary columnar file where the input light curve is written. If no specification file is given, the tool only converts the input.")
+				.create("ocb");
 		Option outCsvOption = OptionBuilder.withArgName("csv-file")
 				.hasArg()
 				.withDescription("Sets path of CSV file where estimated light curve data will be written.")
 				.create("o");
+		Option foldPeriodOption = OptionBuilder.withArgName("period")
+				.hasArg()
+				.withDescription("Enables phase folding of the input light curve on the given period. Requires -fold-epoch.")
+				.withLongOpt("fold-period")
+				.create();
+		Option foldEpochOption = OptionBuilder.withArgName("timestamp")
+				.hasArg()
+				.withDescription("Sets the timestamp of the midpoint of any one transit, used in phase folding.")
+				.withLongOpt("fold-epoch")
+				.create();
+		Option foldWindowOption = OptionBuilder.withArgName("width")
+				.hasArg()
+				.withDescription("Sets the width of the folded window around the transit midpoint. Default is 90% of the widest window the flux sources support, " + PhaseFolder.MAX_WINDOW_ANGLE + " radians of orbit.")
+				.withLongOpt("fold-window")
+				.create();
+		Option foldBinsOption = OptionBuilder.withArgName("n")
+				.hasArg()
+				.withDescription("Sets the number of phase bins in the folded window. Default is " + DEF_FOLD_BINS + ".")
+				.withLongOpt("fold-bins")
+				.create();
+		Option blsOption = OptionBuilder
+				.withDescription("Runs a Box-Least-Squares transit search on the input light curve, sets the orbit period from its result, and folds the light curve on the detected period and epoch. The fold window defaults to " + BLS_WINDOW_DURATIONS + " times the detected transit duration.")
+				.create("bls");
+		Option blsMinPeriodOption = OptionBuilder.withArgName("period")
+				.hasArg()
+				.withDescription("Sets the shortest period searched by -bls. Default is " + DEF_BLS_MIN_PERIOD + ".")
+				.withLongOpt("bls-min-period")
+				.create();
+		Option blsMaxPeriodOption = OptionBuilder.withArgName("period")
+				.hasArg()
+				.withDescription("Sets the longest period searched by -bls. Default is half the time span of the light curve.")
+				.withLongOpt("bls-max-period")
+				.create();
+		Option blsPeriodsOption = OptionBuilder.withArgName("n")
+				.hasArg()
+				.withDescription("Sets the number of trial periods searched by -bls. Default is " + DEF_BLS_PERIODS + ".")
+				.withLongOpt("bls-periods")
+				.create();
+		Option blsBinsOption = OptionBuilder.withArgName("n")
+				.hasArg()
+				.withDescription("Sets the number of phase bins used by -bls. Default is " + DEF_BLS_BINS + ".")
+				.withLongOpt("bls-bins")
+				.create();
+		Option binCoarseOption = OptionBuilder.withArgName("width")
+				.hasArg()
+				.withDescription("Enables adaptive binning of the input light curve, using bins of the given timestamp width outside the detected transit window.")
+				.withLongOpt("bin-coarse")
+				.create();
+		Option binFineOption = OptionBuilder.withArgName("width")
+				.hasArg()
+				.withDescription("Sets the width of bins within the detected transit window when -bin-coarse is given. Default is 0, which leaves those points unbinned.")
+				.withLongOpt("bin-fine")
+				.create();
 		Option outResultsOption = OptionBuilder.withArgName("json-file")
 				.hasArg()
 				.withDescription("Sets path of JSON file where model properties will be written.")
@@ -433,6 +948,124 @@ public class SolveLightCurve extends AbstractTool {
 				.hasArg()
 				.withDescription("Sets the optimizer's population size per cluster. Default is " + DEF_NPPC + ".")
 				.create("nppc");
+		Option optimizerOption = OptionBuilder.withArgName("type")
+				.hasArg()
+				.withDescription("Sets the global optimizer that runs before gradient descent. Possible values are cgso (clustered grid search, the default), ceso (clustered evolutionary swarm), dpso (diversified particle swarm) and cmaes (covariance matrix adaptation evolution strategy).")
+				.create("optimizer");
+		Option threadsOption = OptionBuilder.withArgName("n")
+				.hasArg()
+				.withDescription("Sets the number of threads the global optimizer evaluates candidate solutions on, also used by the transit search. Default is 1.")
+				.create("threads");
+		Option populationOption = OptionBuilder.withArgName("n")
+				.hasArg()
+				.withDescription("Sets the population size of the ceso and dpso optimizers, and the initial number of offspring per generation of the cmaes optimizer. Default is the number of clusters times the population size per cluster, or 4 + 3 ln(n) for cmaes.")
+				.create("population");
+		Option phiOption = OptionBuilder.withArgName("number")
+				.hasArg()
+				.withDescription("Sets the attraction factor of the ceso and dpso optimizers.")
+				.create("phi");
+		Option omegaOption = OptionBuilder.withArgName("number")
+				.hasArg()
+				.withDescription("Sets the inertia factor of the ceso and dpso optimizers.")
+				.create("omega");
+		Option nciOption = OptionBuilder.withArgName("n")
+				.hasArg()
+				.withDescription("Sets the number of consolidation iterations of the ceso optimizer. Default is " + DEF_CONSOLIDATION_ITERATIONS + ".")
+				.create("nci");
+		Option cmaesRestartsOption = OptionBuilder.withArgName("strategy")
+				.hasArg()
+				.withDescription("Sets the restart strategy of the cmaes optimizer. Possible values are none, ipop and bipop. Default is ipop.")
+				.withLongOpt("cmaes-restarts")
+				.create();
+		Option cmaesSigmaOption = OptionBuilder.withArgName("sd")
+				.hasArg()
+				.withDescription("Sets the initial step size of the cmaes optimizer. Default is " + DEF_CMAES_SIGMA + ".")
+				.withLongOpt("cmaes-sigma")
+				.create();
+		Option asyncOption = OptionBuilder
+				.withDescription("Makes the dpso optimizer move each particle as soon as its evaluation finishes, instead of in lockstep iterations. Only has an effect with -threads greater than 1. Results are not reproducible.")
+				.create("async");
+		Option stallWindowOption = OptionBuilder.withArgName("n")
+				.hasArg()
+				.withDescription("Stops the cgso optimizer when its best loss improves by a relative amount smaller than -stall-tolerance over the given number of iterations. Default is 0, which disables stall detection.")
+				.withLongOpt("stall-window")
+				.create();
+		Option stallToleranceOption = OptionBuilder.withArgName("fraction")
+				.hasArg()
+				.withDescription("Sets the relative improvement required over -stall-window iterations. Default is " + DEF_STALL_TOLERANCE + ".")
+				.withLongOpt("stall-tolerance")
+				.create();
+		Option freezeIntervalOption = OptionBuilder.withArgName("n")
+				.hasArg()
+				.withDescription("Checks every n iterations which parameters have no effect on flux at the best point, and leaves them out of the cgso, ceso and gradient descent subspaces until the next check. Default is 0, which disables freezing.")
+				.withLongOpt("freeze-interval")
+				.create();
+		Option agdWeightedOption = OptionBuilder
+				.withDescription("Makes gradient descent probe parameters that recently changed the loss the most more often, while still probing every parameter now and then. Tends to need fewer evaluations when few parameters matter.")
+				.withLongOpt("agd-weighted")
+				.create();
+		Option minBoundsSdOption = OptionBuilder.withArgName("sd")
+				.hasArg()
+				.withDescription("Stops the cgso optimizer when its sampling standard deviation falls below the given value. Default is 0, which disables the floor.")
+				.withLongOpt("min-bounds-sd")
+				.create();
+		Option maxEvalsOption = OptionBuilder.withArgName("n")
+				.hasArg()
+				.withDescription("Sets the maximum number of loss evaluations of the cgso and cmaes optimizers. Default is 0, which means unlimited.")
+				.withLongOpt("max-evals")
+				.create();
+		Option maxSecondsOption = OptionBuilder.withArgName("seconds")
+				.hasArg()
+				.withDescription("Sets the wall-clock budget of the cgso optimizer in seconds. Gradient descent still runs afterwards. Default is 0, which means unlimited.")
+				.withLongOpt("max-seconds")
+				.create();
+		Option surrogateFractionOption = OptionBuilder.withArgName("fraction")
+				.hasArg()
+				.withDescription("Makes the cgso and ceso optimizers pre-screen candidates with a k-nearest-neighbor surrogate of the loss, and evaluate only the given fraction with the lowest predicted loss. Default is 0, which disables the surrogate.")
+				.withLongOpt("surrogate-fraction")
+				.create();
+		Option surrogateNeighborsOption = OptionBuilder.withArgName("k")
+				.hasArg()
+				.withDescription("Sets the number of neighbors the surrogate's predictions are based on. Default is " + DEF_SURROGATE_NEIGHBORS + ".")
+				.withLongOpt("surrogate-neighbors")
+				.create();
+		Option resolutionScheduleOption = OptionBuilder.withArgName("divisors")
+				.hasArg()
+				.withDescription("Sets a coarse-to-fine resolution schedule as comma-separated, decreasing divisors of the image width and height, such as 4,2. The global optimizer runs at the first resolution with the ptransit flux source, gradient descent continues at each following one, and the final gradient descent runs at full resolution.")
+				.withLongOpt("resolution-schedule")
+				.create();
+		Option checkpointOption = OptionBuilder.withArgName("file")
+				.hasArg()
+				.withDescription("Sets the file the cgso, ceso and agd optimizers periodically write their state to. Results of a resumed run match those of an uninterrupted run with the same seed and options.")
+				.create("checkpoint");
+		Option checkpointIntervalOption = OptionBuilder.withArgName("n")
+				.hasArg()
+				.withDescription("Sets the number of iterations between checkpoints. Default is " + DEF_CHECKPOINT_INTERVAL + ".")
+				.withLongOpt("checkpoint-interval")
+				.create();
+		Option resumeOption = OptionBuilder
+				.withDescription("Continues the optimization from the -checkpoint file, if it exists. The seed and options must be the same as those of the interrupted run.")
+				.create("resume");
+		Option batchDirOption = OptionBuilder.withArgName("dir")
+				.hasArg()
+				.withDescription("Fits every light curve file in the given directory in a single process, instead of the -i file. Requires -batch-out.")
+				.withLongOpt("batch-dir")
+				.create();
+		Option batchManifestOption = OptionBuilder.withArgName("file")
+				.hasArg()
+				.withDescription("Fits the light curve files listed in the given text file, one path per line, in a single process. Relative paths are resolved against the manifest's directory, and lines starting with # are ignored. Requires -batch-out.")
+				.withLongOpt("batch-manifest")
+				.create();
+		Option batchOutOption = OptionBuilder.withArgName("dir")
+				.hasArg()
+				.withDescription("Sets the batch output directory. Each light curve gets a subdirectory named after its file, with fit.csv and results.json, and " + BatchRunner.SUMMARY_FILE_NAME + " lists the loss, RMSE, stop reason and time of every fit.")
+				.withLongOpt("batch-out")
+				.create();
+		Option batchThreadsOption = OptionBuilder.withArgName("n")
+				.hasArg()
+				.withDescription("Sets the number of light curves fitted concurrently in batch mode. Each fit also uses -threads threads. Default is 1.")
+				.withLongOpt("batch-threads")
+				.create();
 		Option logOption = OptionBuilder.withArgName("level")
 				.hasArg()
 				.withDescription("Sets the java.util.logging level.")
@@ -458,6 +1091,18 @@ public class SolveLightCurve extends AbstractTool {
 		options.addOption(helpOption);
 		options.addOption(inCsvOption);
 		options.addOption(outCsvOption);
+		options.addOption(outColumnarOption);
+		options.addOption(foldPeriodOption);
+		options.addOption(foldEpochOption);
+		options.addOption(foldWindowOption);
+		options.addOption(foldBinsOption);
+		options.addOption(blsOption);
+		options.addOption(blsMinPeriodOption);
+		options.addOption(blsMaxPeriodOption);
+		options.addOption(blsPeriodsOption);
+		options.addOption(blsBinsOption);
+		options.addOption(binCoarseOption);
+		options.addOption(binFineOption);
 		options.addOption(outResultsOption);
 		options.addOption(outImageOption);
 		options.addOption(oinpOption);
@@ -469,6 +1114,41 @@ public class SolveLightCurve extends AbstractTool {
 		options.addOption(ncOption);
 		options.addOption(nppcOption);
 		options.addOption(nagdOption);
+		options.addOption(optimizerOption);
+		options.addOption(threadsOption);
+		options.addOption(seedsOption);
+		options.addOption(seedMarginOption);
+		options.addOption(seedCheckIntervalOption);
+		options.addOption(initFromOption);
+		options.addOption(initSpreadOption);
+		options.addOption(islandsOption);
+		options.addOption(migrationIntervalOption);
+		options.addOption(migrantsOption);
+		options.addOption(islandWorkerOption);
+		options.addOption(populationOption);
+		options.addOption(phiOption);
+		options.addOption(omegaOption);
+		options.addOption(nciOption);
+		options.addOption(asyncOption);
+		options.addOption(cmaesRestartsOption);
+		options.addOption(cmaesSigmaOption);
+		options.addOption(stallWindowOption);
+		options.addOption(stallToleranceOption);
+		options.addOption(minBoundsSdOption);
+		options.addOption(freezeIntervalOption);
+		options.addOption(agdWeightedOption);
+		options.addOption(maxEvalsOption);
+		options.addOption(maxSecondsOption);
+		options.addOption(surrogateFractionOption);
+		options.addOption(surrogateNeighborsOption);
+		options.addOption(resolutionScheduleOption);
+		options.addOption(checkpointOption);
+		options.addOption(checkpointIntervalOption);
+		options.addOption(resumeOption);
+		options.addOption(batchDirOption);
+		options.addOption(batchManifestOption);
+		options.addOption(batchOutOption);
+		options.addOption(batchThreadsOption);
 		options.addOption(angOption);		
 		options.addOption(videoDurationOption);
 		options.addOption(owpzOption);
@@ -476,4 +1156,26 @@ public class SolveLightCurve extends AbstractTool {
 
 		return options;
 	}
+
+	private static final class Fit {
+		private final OptSpec optSpec;
+		private final LightCurve lightCurve;
+		private final LimbDarkeningParams ldParams;
+		private final SolutionSampler sampler;
+		private final Solution solution;
+		private final double elapsedSeconds;
+		private final StopReason stopReason;
+		private final KnnSurrogate surrogate;
+
+		public Fit(OptSpec optSpec, LightCurve lightCurve, LimbDarkeningParams ldParams, SolutionSampler sampler, Solution solution, double elapsedSeconds, StopReason stopReason, KnnSurrogate surrogate) {
+			this.optSpec = optSpec;
+			this.lightCurve = lightCurve;
+			this.ldParams = ldParams;
+			this.sampler = sampler;
+			this.solution = solution;
+			this.elapsedSeconds = elapsedSeconds;
+			this.stopReason = stopReason;
+			this.surrogate = surrogate;
+		}
+	}
 }
@@ -1,5 +1,7 @@
 package jhs.lc.tools.inputs;
 
+import jhs.lc.opt.StopReason;
+
 public class OptResultsSpec {
 	private double orbitRadius;
 	private double rmse;
@@ -8,6 +10,39 @@ public class OptResultsSpec {
 	private double[] parameters;
 	private AbstractOptMethod method;
 	private String transitFunctionAsText;
+	private StopReason stopReason;
+	private long surrogateCandidates;
+	private long surrogateScreenedOut;
+
+	public final StopReason getStopReason() {
+		return stopReason;
+	}
+
+	public final void setStopReason(StopReason stopReason) {
+		this.stopReason = stopReason;
+	}
+
+	public final long getSurrogateCandidates() {
+		return surrogateCandidates;
+	}
+
+	/**
+	 * Sets the number of candidates the surrogate of the global optimizer screened. Zero if there was no surrogate.
+	 */
+	public final void setSurrogateCandidates(long surrogateCandidates) {
+		this.surrogateCandidates = surrogateCandidates;
+	}
+
+	public final long getSurrogateScreenedOut() {
+		return surrogateScreenedOut;
+	}
+
+	/**
+	 * Sets the number of candidates the surrogate of the global optimizer spared from evaluation.
+	 */
+	public final void setSurrogateScreenedOut(long surrogateScreenedOut) {
+		this.surrogateScreenedOut = surrogateScreenedOut;
+	}
 
 	public final String getTransitFunctionAsText() {
 		return transitFunctionAsText;
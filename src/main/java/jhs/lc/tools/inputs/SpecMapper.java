@@ -36,6 +36,11 @@ public class SpecMapper {
 		return mapper.readValue(inFile, OptSpec.class);
 	}
 	
+	public static OptResultsSpec parseOptResultsSpec(File inFile) throws JsonMappingException, JsonParseException, IOException {
+		ObjectMapper mapper = getObjectMapper();
+		return mapper.readValue(inFile, OptResultsSpec.class);
+	}
+	
 	public static void writeObject(File outFile, Object spec) throws JsonMappingException, JsonGenerationException, IOException {
 		ObjectMapper mapper = getObjectMapper();
 		mapper.writerWithDefaultPrettyPrinter().writeValue(outFile, spec);		
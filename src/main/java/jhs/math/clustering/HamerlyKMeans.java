@@ -0,0 +1,374 @@
+package jhs.math.clustering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * K-means over points stored row-major in a flat array. Hamerly's bounds (an upper bound
+ * on the distance to the assigned centroid, a lower bound on the distance to the second
+ * closest one, and half the distance from each centroid to its nearest neighbor) let most
+ * points skip the scan over all centroids once assignments settle.
+ */
+public class HamerlyKMeans {
+	private static final int MIN_POINTS_PER_TASK = 256;
+
+	private final Random random;
+	private final int k;
+	private final int maxIterations;
+	private ExecutorService executor;
+
+	public HamerlyKMeans(Random random, int k, int maxIterations) {
+		if(k < 1) {
+			throw new IllegalArgumentException("k: " + k);
+		}
+		this.random = random;
+		this.k = k;
+		this.maxIterations = maxIterations;
+	}
+
+	public final int getK() {
+		return k;
+	}
+
+	public final ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Sets the executor that point assignment is split across. Results do not depend on it.
+	 * Null runs serially.
+	 */
+	public final void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Clusters the points using k-means++ seeding.
+	 */
+	public Result cluster(double[] points, int dimension) {
+		double[] centroids = seedPlusPlus(this.random, points, dimension, this.k);
+		return this.cluster(points, dimension, centroids);
+	}
+
+	/**
+	 * Clusters the points starting from the given centroids, which are not modified.
+	 */
+	public Result cluster(double[] points, int dimension, double[] initialCentroids) {
+		int k = this.k;
+		if(points.length % dimension != 0) {
+			throw new IllegalArgumentException("Points array length " + points.length + " is not a multiple of dimension " + dimension + ".");
+		}
+		if(initialCentroids.length != k * dimension) {
+			throw new IllegalArgumentException("Expected " + k + " initial centroids of dimension " + dimension + ".");
+		}
+		int n = points.length / dimension;
+		double[] centroids = initialCentroids.clone();
+		int[] assignments = new int[n];
+		double[] upper = new double[n];
+		double[] lower = new double[n];
+		double[] halfMinSeparations = new double[k];
+		double[] sums = new double[k * dimension];
+		int[] counts = new int[k];
+		double[] movements = new double[k];
+		this.forEachRange(n, (from, to) -> {
+			fullScan(points, dimension, centroids, k, assignments, upper, lower, from, to);
+			return 0;
+		});
+		int iteration = 0;
+		while(iteration < this.maxIterations) {
+			iteration++;
+			moveCentroids(points, dimension, centroids, k, assignments, sums, counts, movements);
+			updateBounds(movements, assignments, upper, lower);
+			updateHalfMinSeparations(centroids, dimension, k, halfMinSeparations);
+			int changes = this.forEachRange(n, (from, to) -> assign(points, dimension, centroids, k, halfMinSeparations, assignments, upper, lower, from, to));
+			if(changes == 0) {
+				break;
+			}
+		}
+		int[] sizes = new int[k];
+		double wcss = 0;
+		for(int i = 0; i < n; i++) {
+			int a = assignments[i];
+			sizes[a]++;
+			wcss += distanceSquared(points, i * dimension, centroids, a * dimension, dimension);
+		}
+		return new Result(centroids, assignments, sizes, wcss, iteration);
+	}
+
+	/**
+	 * Picks k centroids from the points with k-means++ seeding.
+	 */
+	public static double[] seedPlusPlus(Random random, double[] points, int dimension, int k) {
+		int n = points.length / dimension;
+		if(n < k) {
+			throw new IllegalArgumentException("Cannot seed " + k + " centroids from " + n + " points.");
+		}
+		double[] centroids = new double[k * dimension];
+		double[] minDistancesSq = new double[n];
+		int first = random.nextInt(n);
+		System.arraycopy(points, first * dimension, centroids, 0, dimension);
+		double total = 0;
+		for(int i = 0; i < n; i++) {
+			minDistancesSq[i] = distanceSquared(points, i * dimension, centroids, 0, dimension);
+			total += minDistancesSq[i];
+		}
+		for(int c = 1; c < k; c++) {
+			int chosen;
+			if(total <= 0) {
+				chosen = random.nextInt(n);
+			}
+			else {
+				double target = random.nextDouble() * total;
+				chosen = n - 1;
+				double cumulative = 0;
+				for(int i = 0; i < n; i++) {
+					cumulative += minDistancesSq[i];
+					if(cumulative > target) {
+						chosen = i;
+						break;
+					}
+				}
+			}
+			int offset = c * dimension;
+			System.arraycopy(points, chosen * dimension, centroids, offset, dimension);
+			total = 0;
+			for(int i = 0; i < n; i++) {
+				double dSq = distanceSquared(points, i * dimension, centroids, offset, dimension);
+				if(dSq < minDistancesSq[i]) {
+					minDistancesSq[i] = dSq;
+				}
+				total += minDistancesSq[i];
+			}
+		}
+		return centroids;
+	}
+
+	private int forEachRange(int n, RangeTask task) {
+		ExecutorService executor = this.executor;
+		if(executor == null || n < MIN_POINTS_PER_TASK * 2) {
+			return task.run(0, n);
+		}
+		int numTasks = Math.min(n / MIN_POINTS_PER_TASK, Runtime.getRuntime().availableProcessors() * 4);
+		List<Callable<Integer>> callables = new ArrayList<>(numTasks);
+		for(int t = 0; t < numTasks; t++) {
+			int from = (int) ((long) n * t / numTasks);
+			int to = (int) ((long) n * (t + 1) / numTasks);
+			callables.add(() -> task.run(from, to));
+		}
+		int sum = 0;
+		try {
+			for(Future<Integer> future : executor.invokeAll(callables)) {
+				sum += future.get();
+			}
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while assigning points.", ie);
+		} catch(ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if(cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+		return sum;
+	}
+
+	private static void fullScan(double[] points, int dimension, double[] centroids, int k, int[] assignments, double[] upper, double[] lower, int from, int to) {
+		for(int i = from; i < to; i++) {
+			scan(points, dimension, centroids, k, assignments, upper, lower, i);
+		}
+	}
+
+	private static int assign(double[] points, int dimension, double[] centroids, int k, double[] halfMinSeparations, int[] assignments, double[] upper, double[] lower, int from, int to) {
+		int changes = 0;
+		for(int i = from; i < to; i++) {
+			int a = assignments[i];
+			double bound = Math.max(halfMinSeparations[a], lower[i]);
+			if(upper[i] <= bound) {
+				continue;
+			}
+			upper[i] = Math.sqrt(distanceSquared(points, i * dimension, centroids, a * dimension, dimension));
+			if(upper[i] <= bound) {
+				continue;
+			}
+			if(scan(points, dimension, centroids, k, assignments, upper, lower, i) != a) {
+				changes++;
+			}
+		}
+		return changes;
+	}
+
+	private static int scan(double[] points, int dimension, double[] centroids, int k, int[] assignments, double[] upper, double[] lower, int i) {
+		int pointOffset = i * dimension;
+		int best = 0;
+		double bestDistanceSq = Double.POSITIVE_INFINITY;
+		double secondDistanceSq = Double.POSITIVE_INFINITY;
+		for(int c = 0; c < k; c++) {
+			double dSq = distanceSquared(points, pointOffset, centroids, c * dimension, dimension);
+			if(dSq < bestDistanceSq) {
+				secondDistanceSq = bestDistanceSq;
+				bestDistanceSq = dSq;
+				best = c;
+			}
+			else if(dSq < secondDistanceSq) {
+				secondDistanceSq = dSq;
+			}
+		}
+		assignments[i] = best;
+		upper[i] = Math.sqrt(bestDistanceSq);
+		lower[i] = Math.sqrt(secondDistanceSq);
+		return best;
+	}
+
+	private static void moveCentroids(double[] points, int dimension, double[] centroids, int k, int[] assignments, double[] sums, int[] counts, double[] movements) {
+		Arrays.fill(sums, 0);
+		Arrays.fill(counts, 0);
+		int n = assignments.length;
+		for(int i = 0; i < n; i++) {
+			int a = assignments[i];
+			counts[a]++;
+			int sumOffset = a * dimension;
+			int pointOffset = i * dimension;
+			for(int d = 0; d < dimension; d++) {
+				sums[sumOffset + d] += points[pointOffset + d];
+			}
+		}
+		for(int c = 0; c < k; c++) {
+			int count = counts[c];
+			if(count == 0) {
+				// Empty clusters keep their position.
+				movements[c] = 0;
+				continue;
+			}
+			int offset = c * dimension;
+			double movementSq = 0;
+			for(int d = 0; d < dimension; d++) {
+				double newValue = sums[offset + d] / count;
+				double diff = newValue - centroids[offset + d];
+				movementSq += diff * diff;
+				centroids[offset + d] = newValue;
+			}
+			movements[c] = Math.sqrt(movementSq);
+		}
+	}
+
+	private static void updateBounds(double[] movements, int[] assignments, double[] upper, double[] lower) {
+		int k = movements.length;
+		int maxIndex = 0;
+		for(int c = 1; c < k; c++) {
+			if(movements[c] > movements[maxIndex]) {
+				maxIndex = c;
+			}
+		}
+		double secondMax = 0;
+		for(int c = 0; c < k; c++) {
+			if(c != maxIndex && movements[c] > secondMax) {
+				secondMax = movements[c];
+			}
+		}
+		double max = movements[maxIndex];
+		int n = assignments.length;
+		for(int i = 0; i < n; i++) {
+			int a = assignments[i];
+			upper[i] += movements[a];
+			lower[i] -= a == maxIndex ? secondMax : max;
+		}
+	}
+
+	private static void updateHalfMinSeparations(double[] centroids, int dimension, int k, double[] halfMinSeparations) {
+		Arrays.fill(halfMinSeparations, Double.POSITIVE_INFINITY);
+		for(int c1 = 0; c1 < k; c1++) {
+			for(int c2 = c1 + 1; c2 < k; c2++) {
+				double half = Math.sqrt(distanceSquared(centroids, c1 * dimension, centroids, c2 * dimension, dimension)) / 2;
+				if(half < halfMinSeparations[c1]) {
+					halfMinSeparations[c1] = half;
+				}
+				if(half < halfMinSeparations[c2]) {
+					halfMinSeparations[c2] = half;
+				}
+			}
+		}
+	}
+
+	private static double distanceSquared(double[] array1, int offset1, double[] array2, int offset2, int dimension) {
+		double sum = 0;
+		for(int d = 0; d < dimension; d++) {
+			double diff = array1[offset1 + d] - array2[offset2 + d];
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	private interface RangeTask {
+		int run(int from, int to);
+	}
+
+	public static final class Result {
+		private final double[] centroids;
+		private final int[] assignments;
+		private final int[] clusterSizes;
+		private final double wcss;
+		private final int numIterations;
+
+		public Result(double[] centroids, int[] assignments, int[] clusterSizes, double wcss, int numIterations) {
+			this.centroids = centroids;
+			this.assignments = assignments;
+			this.clusterSizes = clusterSizes;
+			this.wcss = wcss;
+			this.numIterations = numIterations;
+		}
+
+		/**
+		 * Gets the centroids, stored row-major.
+		 */
+		public final double[] getCentroids() {
+			return centroids;
+		}
+
+		/**
+		 * Gets the cluster index of each point.
+		 */
+		public final int[] getAssignments() {
+			return assignments;
+		}
+
+		public final int[] getClusterSizes() {
+			return clusterSizes;
+		}
+
+		public final double getWcss() {
+			return wcss;
+		}
+
+		public final int getNumIterations() {
+			return numIterations;
+		}
+
+		/**
+		 * Gets the indexes of the points in each cluster, in point order.
+		 */
+		public final int[][] getMembers() {
+			int k = this.clusterSizes.length;
+			int[][] members = new int[k][];
+			for(int c = 0; c < k; c++) {
+				members[c] = new int[this.clusterSizes[c]];
+			}
+			int[] filled = new int[k];
+			int[] assignments = this.assignments;
+			for(int i = 0; i < assignments.length; i++) {
+				int a = assignments[i];
+				members[a][filled[a]++] = i;
+			}
+			return members;
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package jhs.math.clustering;
+
+import java.util.Arrays;
+
+/**
+ * Static k-d tree over points stored row-major in a flat array. Points can be removed
+ * and restored, and nearest-neighbor queries only return points that are present.
+ * Ties in distance are broken by the lower point index.
+ */
+public class KdTree {
+	private final double[] points;
+	private final int dimension;
+	private final int size;
+	private final int[] order;
+	private final int[] positions;
+	private final int[] splitDimensions;
+	private final int[] presentCounts;
+	private final boolean[] removed;
+	private int numPresent;
+
+	public KdTree(double[] points, int dimension) {
+		if(points.length % dimension != 0) {
+			throw new IllegalArgumentException("Points array length " + points.length + " is not a multiple of dimension " + dimension + ".");
+		}
+		int n = points.length / dimension;
+		this.points = points;
+		this.dimension = dimension;
+		this.size = n;
+		this.order = new int[n];
+		for(int i = 0; i < n; i++) {
+			this.order[i] = i;
+		}
+		this.splitDimensions = new int[n];
+		this.presentCounts = new int[n];
+		this.removed = new boolean[n];
+		this.build(0, n);
+		this.positions = new int[n];
+		for(int p = 0; p < n; p++) {
+			this.positions[this.order[p]] = p;
+		}
+		this.numPresent = n;
+	}
+
+	public final int size() {
+		return this.size;
+	}
+
+	public final int getNumPresent() {
+		return this.numPresent;
+	}
+
+	public final boolean isRemoved(int index) {
+		return this.removed[index];
+	}
+
+	public void remove(int index) {
+		if(!this.removed[index]) {
+			this.removed[index] = true;
+			this.numPresent--;
+			this.updateCounts(this.positions[index], -1);
+		}
+	}
+
+	public void restore(int index) {
+		if(this.removed[index]) {
+			this.removed[index] = false;
+			this.numPresent++;
+			this.updateCounts(this.positions[index], +1);
+		}
+	}
+
+	/**
+	 * Gets the index of the present point closest to the query point, or -1 if there are none.
+	 */
+	public int nearest(double[] query) {
+		if(query.length != this.dimension) {
+			throw new IllegalArgumentException("Query dimension: " + query.length);
+		}
+		Nearest result = new Nearest();
+		this.nearest(query, 0, this.size, result);
+		return result.index;
+	}
+
+	private void nearest(double[] query, int lo, int hi, Nearest result) {
+		if(lo >= hi) {
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		if(this.presentCounts[mid] == 0) {
+			return;
+		}
+		int index = this.order[mid];
+		int offset = index * this.dimension;
+		if(!this.removed[index]) {
+			double dSq = 0;
+			for(int d = 0; d < this.dimension; d++) {
+				double diff = query[d] - this.points[offset + d];
+				dSq += diff * diff;
+			}
+			if(dSq < result.distanceSq || (dSq == result.distanceSq && index < result.index)) {
+				result.distanceSq = dSq;
+				result.index = index;
+			}
+		}
+		int splitDimension = this.splitDimensions[mid];
+		double planeDiff = query[splitDimension] - this.points[offset + splitDimension];
+		boolean leftFirst = planeDiff <= 0;
+		if(leftFirst) {
+			this.nearest(query, lo, mid, result);
+		}
+		else {
+			this.nearest(query, mid + 1, hi, result);
+		}
+		if(planeDiff * planeDiff <= result.distanceSq) {
+			if(leftFirst) {
+				this.nearest(query, mid + 1, hi, result);
+			}
+			else {
+				this.nearest(query, lo, mid, result);
+			}
+		}
+	}
+
+	private void updateCounts(int position, int delta) {
+		int lo = 0, hi = this.size;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			this.presentCounts[mid] += delta;
+			if(position == mid) {
+				return;
+			}
+			if(position < mid) {
+				hi = mid;
+			}
+			else {
+				lo = mid + 1;
+			}
+		}
+		throw new IllegalStateException("Position not found: " + position);
+	}
+
+	private void build(int lo, int hi) {
+		if(lo >= hi) {
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		int splitDimension = this.widestDimension(lo, hi);
+		this.select(lo, hi - 1, mid, splitDimension);
+		this.splitDimensions[mid] = splitDimension;
+		this.presentCounts[mid] = hi - lo;
+		this.build(lo, mid);
+		this.build(mid + 1, hi);
+	}
+
+	private int widestDimension(int lo, int hi) {
+		int dimension = this.dimension;
+		double[] min = new double[dimension];
+		double[] max = new double[dimension];
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		for(int p = lo; p < hi; p++) {
+			int offset = this.order[p] * dimension;
+			for(int d = 0; d < dimension; d++) {
+				double value = this.points[offset + d];
+				if(value < min[d]) {
+					min[d] = value;
+				}
+				if(value > max[d]) {
+					max[d] = value;
+				}
+			}
+		}
+		int widest = 0;
+		for(int d = 1; d < dimension; d++) {
+			if(max[d] - min[d] > max[widest] - min[widest]) {
+				widest = d;
+			}
+		}
+		return widest;
+	}
+
+	/**
+	 * Partially sorts order[left..right] so that position k holds the element it would hold if sorted by the given coordinate.
+	 */
+	private void select(int left, int right, int k, int d) {
+		int[] order = this.order;
+		while(right > left) {
+			int pivotPosition = (left + right) >>> 1;
+			double pivotValue = this.coordinate(order[pivotPosition], d);
+			swap(order, pivotPosition, right);
+			int store = left;
+			for(int p = left; p < right; p++) {
+				if(this.coordinate(order[p], d) < pivotValue) {
+					swap(order, p, store++);
+				}
+			}
+			swap(order, store, right);
+			if(store == k) {
+				return;
+			}
+			if(k < store) {
+				right = store - 1;
+			}
+			else {
+				left = store + 1;
+			}
+		}
+	}
+
+	private double coordinate(int index, int d) {
+		return this.points[index * this.dimension + d];
+	}
+
+	private static void swap(int[] array, int i, int j) {
+		int temp = array[i];
+		array[i] = array[j];
+		array[j] = temp;
+	}
+
+	private static final class Nearest {
+		private int index = -1;
+		private double distanceSq = Double.POSITIVE_INFINITY;
+	}
+}
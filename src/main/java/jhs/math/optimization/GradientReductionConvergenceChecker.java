@@ -21,6 +21,22 @@ public class GradientReductionConvergenceChecker implements RealConvergenceCheck
 		this.ratioThreshold = ratioThreshold;
 	}
 
+	public final double getGradientRunningAverage() {
+		return gradientRunningAverage;
+	}
+
+	public final RealPointValuePair getFirstPointValue() {
+		return firstPointValue;
+	}
+
+	/**
+	 * Restores the state of a checker, such as one saved in a checkpoint.
+	 */
+	public void restore(RealPointValuePair firstPointValue, double gradientRunningAverage) {
+		this.firstPointValue = firstPointValue;
+		this.gradientRunningAverage = gradientRunningAverage;
+	}
+
 	public boolean converged(int iteration, RealPointValuePair oldPointValue, RealPointValuePair newPointValue) {
 		RealPointValuePair fpv = this.firstPointValue;
 		if(iteration <= 0 || fpv == null) {
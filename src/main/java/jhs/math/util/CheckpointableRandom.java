@@ -0,0 +1,69 @@
+package jhs.math.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Produces the same sequence as java.util.Random for a given seed, but its state can be
+ * written out and restored, so a resumed computation draws exactly the numbers it would
+ * have drawn without interruption.
+ */
+public class CheckpointableRandom extends Random {
+	private static final long serialVersionUID = 1L;
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	private static final long ADDEND = 0xBL;
+	private static final long MASK = (1L << 48) - 1;
+
+	// No field initializers: the Random constructor calls setSeed() before they would run.
+	private long state;
+	private double nextNextGaussian;
+	private boolean haveNextNextGaussian;
+
+	public CheckpointableRandom(long seed) {
+		super(seed);
+	}
+
+	@Override
+	public synchronized void setSeed(long seed) {
+		this.state = (seed ^ MULTIPLIER) & MASK;
+		this.haveNextNextGaussian = false;
+	}
+
+	@Override
+	protected synchronized int next(int bits) {
+		this.state = (this.state * MULTIPLIER + ADDEND) & MASK;
+		return (int) (this.state >>> (48 - bits));
+	}
+
+	@Override
+	public synchronized double nextGaussian() {
+		if(this.haveNextNextGaussian) {
+			this.haveNextNextGaussian = false;
+			return this.nextNextGaussian;
+		}
+		double v1, v2, s;
+		do {
+			v1 = 2 * this.nextDouble() - 1;
+			v2 = 2 * this.nextDouble() - 1;
+			s = v1 * v1 + v2 * v2;
+		} while(s >= 1 || s == 0);
+		double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+		this.nextNextGaussian = v2 * multiplier;
+		this.haveNextNextGaussian = true;
+		return v1 * multiplier;
+	}
+
+	public synchronized void writeState(DataOutput out) throws IOException {
+		out.writeLong(this.state);
+		out.writeBoolean(this.haveNextNextGaussian);
+		out.writeDouble(this.nextNextGaussian);
+	}
+
+	public synchronized void readState(DataInput in) throws IOException {
+		this.state = in.readLong();
+		this.haveNextNextGaussian = in.readBoolean();
+		this.nextNextGaussian = in.readDouble();
+	}
+}
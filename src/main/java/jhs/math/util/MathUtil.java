@@ -548,6 +548,19 @@ public class MathUtil {
 		return euclideanDistanceSquared(vector1, 0, vector1.length, vector2, 0) / vector1.length;
 	}
 
+	public static double weightedMse(double[] vector1, double[] vector2, double[] weights) {
+		int length = vector1.length;
+		double sum = 0;
+		double weightSum = 0;
+		for(int i = 0; i < length; i++) {
+			double diff = vector1[i] - vector2[i];
+			double weight = weights[i];
+			sum += diff * diff * weight;
+			weightSum += weight;
+		}
+		return weightSum == 0 ? 0 : sum / weightSum;
+	}
+
 	public static double euclideanDistance(double[] point1, double[] point2) {
 		return Math.sqrt(euclideanDistanceSquared(point1, point2));
 	}
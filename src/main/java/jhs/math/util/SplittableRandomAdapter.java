@@ -0,0 +1,63 @@
+package jhs.math.util;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Exposes a SplittableRandom stream through the Random API, so code written against
+ * Random can draw from independent per-task streams. Instances are not thread safe.
+ */
+public class SplittableRandomAdapter extends Random {
+	private static final long serialVersionUID = 1L;
+	private final SplittableRandom source;
+
+	public SplittableRandomAdapter(SplittableRandom source) {
+		this.source = source;
+	}
+
+	public SplittableRandomAdapter(long seed) {
+		this(new SplittableRandom(seed));
+	}
+
+	public final SplittableRandomAdapter split() {
+		return new SplittableRandomAdapter(this.source.split());
+	}
+
+	@Override
+	public synchronized void setSeed(long seed) {
+		// Called by the Random constructor before the source is set.
+		if(this.source != null) {
+			throw new UnsupportedOperationException("Cannot reseed a SplittableRandom stream.");
+		}
+	}
+
+	@Override
+	protected int next(int bits) {
+		return this.source.nextInt() >>> (32 - bits);
+	}
+
+	@Override
+	public int nextInt() {
+		return this.source.nextInt();
+	}
+
+	@Override
+	public int nextInt(int bound) {
+		return this.source.nextInt(bound);
+	}
+
+	@Override
+	public long nextLong() {
+		return this.source.nextLong();
+	}
+
+	@Override
+	public boolean nextBoolean() {
+		return this.source.nextBoolean();
+	}
+
+	@Override
+	public double nextDouble() {
+		return this.source.nextDouble();
+	}
+}
@@ -0,0 +1,56 @@
+package jhs.lc.data;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestBoxLeastSquares {
+	@Test
+	public void testFindsInjectedTransit() {
+		Random random = new Random(11);
+		double period = 7.3;
+		double epoch = 2.1;
+		double duration = 0.3;
+		int n = 20000;
+		double[] timestamps = new double[n];
+		double[] fluxArray = new double[n];
+		for(int i = 0; i < n; i++) {
+			double t = i * 0.005;
+			timestamps[i] = t;
+			double offset = t - epoch - period * Math.floor((t - epoch) / period + 0.5);
+			double dip = Math.abs(offset) < duration / 2 ? 0.005 : 0;
+			fluxArray[i] = 1.0 - dip + random.nextGaussian() * 0.002;
+		}
+		BoxLeastSquares bls = new BoxLeastSquares(2.0, 20.0, 3000, 300);
+		BoxLeastSquares.Result result = bls.search(LightCurve.create(timestamps, fluxArray));
+		assertEquals(period, result.getPeriod(), 0.01);
+		double epochOffset = result.getEpoch() - epoch - period * Math.floor((result.getEpoch() - epoch) / period + 0.5);
+		assertEquals(0, epochOffset, 0.05);
+		assertEquals(duration, result.getDuration(), 0.1);
+		assertEquals(0.005, result.getDepth(), 0.001);
+		assertEquals(3000, result.getPowers().length);
+	}
+
+	@Test
+	public void testEpochOfTransitAcrossPhaseZero() {
+		double period = 5.0;
+		double epoch = 0.05;
+		double duration = 0.4;
+		int n = 10000;
+		double[] timestamps = new double[n];
+		double[] fluxArray = new double[n];
+		for(int i = 0; i < n; i++) {
+			double t = i * 0.002;
+			timestamps[i] = t;
+			double offset = t - epoch - period * Math.floor((t - epoch) / period + 0.5);
+			fluxArray[i] = Math.abs(offset) < duration / 2 ? 0.99 : 1.0;
+		}
+		BoxLeastSquares bls = new BoxLeastSquares(4.0, 6.0, 201, 200);
+		BoxLeastSquares.Result result = bls.search(LightCurve.create(timestamps, fluxArray));
+		assertEquals(period, result.getPeriod(), 0.01);
+		assertTrue(result.getEpoch() >= timestamps[0] && result.getEpoch() < timestamps[0] + result.getPeriod());
+		assertEquals(epoch, result.getEpoch(), 0.05);
+	}
+}
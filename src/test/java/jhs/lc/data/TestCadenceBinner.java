@@ -0,0 +1,56 @@
+package jhs.lc.data;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestCadenceBinner {
+	@Test
+	public void testAdaptiveBinning() {
+		int n = 3000;
+		double[] timestamps = new double[n];
+		double[] fluxArray = new double[n];
+		for(int i = 0; i < n; i++) {
+			double t = i * 0.01;
+			timestamps[i] = t;
+			double x = (t - 15.0) / 1.5;
+			fluxArray[i] = Math.abs(x) < 1 ? 1.0 - 0.01 * Math.sqrt(1 - x * x) : 1.0;
+		}
+		LightCurve lightCurve = LightCurve.create(timestamps, fluxArray);
+		CadenceBinner binner = new CadenceBinner(0.02, 0.5);
+		double[] window = binner.fineWindow(lightCurve);
+		assertTrue(window[0] < 13.5 && window[0] > 10.0);
+		assertTrue(window[1] > 16.5 && window[1] < 20.0);
+		LightCurve binned = binner.bin(lightCurve);
+		assertTrue(binned.isWeighted());
+		assertTrue(binned.size() < n / 3);
+		double weightSum = 0;
+		for(double weight : binned.getWeights()) {
+			weightSum += weight;
+		}
+		assertEquals(n, weightSum, 1E-9);
+		assertEquals(2.0, binned.getWeight(binned.lowerIndex(15.0)), 0);
+		assertEquals(50.0, binned.getWeight(0), 0);
+		assertEquals(0.245, binned.getTimestamp(0), 1E-9);
+	}
+
+	@Test
+	public void testCenterOfMassSurvivesBinning() {
+		int n = 3000;
+		double[] timestamps = new double[n];
+		double[] fluxArray = new double[n];
+		for(int i = 0; i < n; i++) {
+			double t = i * 0.01;
+			timestamps[i] = t;
+			double x = (t - 21.0) / 1.5;
+			fluxArray[i] = Math.abs(x) < 1 ? 1.0 - 0.01 * Math.sqrt(1 - x * x) : 1.0;
+		}
+		LightCurve lightCurve = LightCurve.create(timestamps, fluxArray);
+		LightCurve binned = new CadenceBinner(0.02, 0.5).bin(lightCurve);
+		double expected = 21.0 / 29.99;
+		assertEquals(expected, lightCurve.centerOfMassAsFraction(), 1E-3);
+		assertEquals(expected, binned.centerOfMassAsFraction(), 1E-3);
+		// Sample indexes misplace the transit, since bins are finer around it.
+		assertTrue(Math.abs(LightCurve.centerOfMassAsFraction(binned.getFluxArray()) - expected) > 0.05);
+	}
+}
@@ -0,0 +1,74 @@
+package jhs.lc.data;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestColumnarLightCurveFile {
+	@Test
+	public void testRoundTrip() throws Exception {
+		Random random = new Random(31);
+		int n = 1000;
+		double[] timestamps = new double[n];
+		double[] fluxArray = new double[n];
+		for(int i = 0; i < n; i++) {
+			timestamps[i] = 100.0 + i * 0.02;
+			fluxArray[i] = 1.0 - random.nextDouble() * 0.01;
+		}
+		File file = File.createTempFile("test-lc", ColumnarLightCurveFile.EXTENSION);
+		try {
+			ColumnarLightCurveFile.write(file, timestamps, fluxArray);
+			assertEquals(32 + n * 16, file.length());
+			assertTrue(ColumnarLightCurveFile.isColumnarFile(file));
+			ColumnarLightCurveFile columnarFile = ColumnarLightCurveFile.read(file);
+			assertTrue(columnarFile.isSorted());
+			assertArrayEquals(timestamps, columnarFile.getTimestamps(), 0);
+			assertArrayEquals(fluxArray, columnarFile.getFluxArray(), 0);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testFormatDetection() throws Exception {
+		File csvFile = File.createTempFile("test-lc", ".csv");
+		File columnarFile = File.createTempFile("test-lc", ColumnarLightCurveFile.EXTENSION);
+		try {
+			try(PrintWriter out = new PrintWriter(csvFile)) {
+				out.println("Timestamp,Flux");
+				out.println("2.0,0.98");
+				out.println("1.0,0.99");
+				out.println("3.0,1.0");
+			}
+			assertFalse(ColumnarLightCurveFile.isColumnarFile(csvFile));
+			LightCurve csvLightCurve = DataSet.load(csvFile);
+			DataSet.writeColumnar(columnarFile, csvLightCurve);
+			LightCurve columnarLightCurve = DataSet.load(columnarFile);
+			assertEquals(3, columnarLightCurve.size());
+			assertArrayEquals(csvLightCurve.getTimestamps(), columnarLightCurve.getTimestamps(), 0);
+			assertArrayEquals(csvLightCurve.getFluxArray(), columnarLightCurve.getFluxArray(), 0);
+			assertEquals(1.0, columnarLightCurve.getTimestamp(0), 0);
+		} finally {
+			csvFile.delete();
+			columnarFile.delete();
+		}
+	}
+
+	@Test
+	public void testUnsortedFileIsSortedOnLoad() throws Exception {
+		File file = File.createTempFile("test-lc", ColumnarLightCurveFile.EXTENSION);
+		try {
+			ColumnarLightCurveFile.write(file, new double[] { 2.0, 1.0, 3.0 }, new double[] { 0.98, 0.99, 1.0 });
+			assertFalse(ColumnarLightCurveFile.read(file).isSorted());
+			LightCurve lightCurve = DataSet.load(file);
+			assertArrayEquals(new double[] { 1.0, 2.0, 3.0 }, lightCurve.getTimestamps(), 0);
+			assertArrayEquals(new double[] { 0.99, 0.98, 1.0 }, lightCurve.getFluxArray(), 0);
+		} finally {
+			file.delete();
+		}
+	}
+}
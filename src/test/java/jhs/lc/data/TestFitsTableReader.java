@@ -0,0 +1,84 @@
+package jhs.lc.data;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class TestFitsTableReader {
+	@Test
+	public void testReadBinaryTable() throws Exception {
+		int n = 5000;
+		File file = File.createTempFile("test-lc", ".fits");
+		try {
+			try(DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+				writeHeader(out, new String[] {
+					"SIMPLE  =                    T",
+					"BITPIX  =                    8",
+					"NAXIS   =                    0",
+					"EXTEND  =                    T",
+				});
+				writeHeader(out, new String[] {
+					"XTENSION= 'BINTABLE'           / binary table extension",
+					"BITPIX  =                    8",
+					"NAXIS   =                    2",
+					"NAXIS1  =                   20",
+					"NAXIS2  = " + String.format("%20d", n),
+					"PCOUNT  =                    0",
+					"GCOUNT  =                    1",
+					"TFIELDS =                    4",
+					"TTYPE1  = 'TIME    '",
+					"TFORM1  = 'D       '",
+					"TTYPE2  = 'SAP_FLUX'",
+					"TFORM2  = 'E       '",
+					"TTYPE3  = 'PDCSAP_FLUX'",
+					"TFORM3  = 'E       '",
+					"TTYPE4  = 'QUALITY '",
+					"TFORM4  = '1J      '",
+				});
+				for(int i = 0; i < n; i++) {
+					out.writeDouble(1000.0 + i * 0.02);
+					out.writeFloat(-1.0f);
+					out.writeFloat(i % 10 == 3 ? Float.NaN : 2000.0f);
+					out.writeInt(i % 10 == 7 ? 128 : 0);
+				}
+				pad(out, n * 20);
+			}
+			assertTrue(FitsTableReader.isFitsFile(file));
+			assertFalse(ColumnarLightCurveFile.isColumnarFile(file));
+			LightCurve lightCurve = DataSet.load(file);
+			assertEquals(n - n / 5, lightCurve.size());
+			assertEquals(1000.0, lightCurve.getStartTimestamp(), 0);
+			assertEquals(1000.0 + 0.02 * 4, lightCurve.getTimestamp(3), 1E-12);
+			for(double flux : lightCurve.getFluxArray()) {
+				assertEquals(1.0, flux, 0);
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static void writeHeader(DataOutputStream out, String[] cards) throws IOException {
+		for(String card : cards) {
+			out.write(String.format("%-80s", card).getBytes(StandardCharsets.US_ASCII));
+		}
+		out.write(String.format("%-80s", "END").getBytes(StandardCharsets.US_ASCII));
+		int length = (cards.length + 1) * 80;
+		int padding = (2880 - length % 2880) % 2880;
+		for(int i = 0; i < padding; i++) {
+			out.write(' ');
+		}
+	}
+
+	private static void pad(DataOutputStream out, int length) throws IOException {
+		int padding = (2880 - length % 2880) % 2880;
+		for(int i = 0; i < padding; i++) {
+			out.write(0);
+		}
+	}
+}
@@ -1,10 +1,73 @@
 package jhs.lc.data;
 
 import static org.junit.Assert.*;
+import java.util.Arrays;
 import java.util.Random;
 import org.junit.Test;
 
 public class TestLightCurve {
+	@Test
+	public void testCreateSortsColumns() {
+		double[] timestamps = { 3.0, 1.0, 2.0 };
+		double[] fluxArray = { 0.97, 0.99, 0.98 };
+		LightCurve lightCurve = LightCurve.create(timestamps, fluxArray);
+		assertEquals(3, lightCurve.size());
+		assertArrayEquals(new double[] { 1.0, 2.0, 3.0 }, lightCurve.getTimestamps(), 0);
+		assertArrayEquals(new double[] { 0.99, 0.98, 0.97 }, lightCurve.getFluxArray(), 0);
+	}
+
+	@Test
+	public void testColumnsAreCopies() {
+		LightCurve lightCurve = LightCurve.create(new double[] { 1.0, 2.0, 3.0 }, new double[] { 0.99, 0.98, 0.97 }, new double[] { 1, 2, 3 });
+		lightCurve.getTimestamps()[0] = 10.0;
+		lightCurve.getFluxArray()[0] = 0.5;
+		lightCurve.getWeights()[0] = 7;
+		assertEquals(1.0, lightCurve.getTimestamp(0), 0);
+		assertEquals(0.99, lightCurve.getFlux(0), 0);
+		assertEquals(1.0, lightCurve.getWeight(0), 0);
+	}
+
+	@Test
+	public void testWindowAndSlice() {
+		Random random = new Random(7);
+		int n = 200;
+		double[] timestamps = new double[n];
+		double[] fluxArray = new double[n];
+		for(int i = 0; i < n; i++) {
+			timestamps[i] = 10.0 + i * 0.5;
+			fluxArray[i] = 1.0 - random.nextDouble() * 0.01;
+		}
+		LightCurve lightCurve = LightCurve.create(timestamps, fluxArray);
+		LightCurve window = lightCurve.window(20.0, 30.0);
+		assertEquals(20, window.size());
+		assertEquals(20.0, window.getStartTimestamp(), 0);
+		assertEquals(29.5, window.getEndTimestamp(), 0);
+		assertEquals(fluxArray[20], window.getFlux(0), 0);
+		LightCurve slice = window.slice(5, 10);
+		assertEquals(5, slice.size());
+		assertEquals(22.5, slice.getTimestamp(0), 0);
+		assertArrayEquals(Arrays.copyOfRange(fluxArray, 25, 30), slice.getFluxArray(), 0);
+		assertEquals(0, lightCurve.window(0, 5).size());
+		assertEquals(n, lightCurve.window(0, 1000).size());
+	}
+
+	@Test
+	public void testCenterOfMassWithNonUniformCadence() {
+		// Dense cadence in the first half of the time span, sparse cadence in the second half.
+		int n = 551;
+		double[] timestamps = new double[n];
+		double[] fluxArray = new double[n];
+		for(int i = 0; i < n; i++) {
+			double t = i < 500 ? i * 0.001 : 0.5 + (i - 500) * 0.01;
+			timestamps[i] = t;
+			double x = (t - 0.7) / 0.05;
+			fluxArray[i] = Math.abs(x) < 1 ? 1.0 - 0.01 * (1 - x * x) : 1.0;
+		}
+		LightCurve lightCurve = LightCurve.create(timestamps, fluxArray);
+		assertEquals(0.7, lightCurve.centerOfMassAsFraction(), 1E-9);
+		assertTrue(LightCurve.centerOfMassAsFraction(fluxArray) > 0.9);
+	}
+
 	private double[] produceSynthetic(int length, LtType type, double depth, double fromFraction, double toFraction) {
 		if(toFraction < fromFraction) {
 			throw new IllegalArgumentException();
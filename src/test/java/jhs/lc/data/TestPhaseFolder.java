@@ -0,0 +1,44 @@
+package jhs.lc.data;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestPhaseFolder {
+	@Test
+	public void testFoldStacksEpochs() {
+		Random random = new Random(5);
+		double period = 40.0;
+		double epoch = 13.0;
+		int n = 100000;
+		double[] timestamps = new double[n];
+		double[] fluxArray = new double[n];
+		for(int i = 0; i < n; i++) {
+			double t = i * 0.01;
+			timestamps[i] = t;
+			double offset = t - epoch - period * Math.floor((t - epoch) / period + 0.5);
+			double dip = Math.abs(offset) < 0.5 ? 0.01 : 0;
+			fluxArray[i] = 1.0 - dip + random.nextGaussian() * 0.001;
+		}
+		double windowWidth = PhaseFolder.defaultWindowWidth(period);
+		PhaseFolder folder = new PhaseFolder(period, epoch, windowWidth, 100);
+		LightCurve folded = folder.fold(LightCurve.create(timestamps, fluxArray));
+		assertEquals(100, folded.size());
+		assertTrue(folded.isWeighted());
+		assertEquals(epoch - windowWidth / 2, folded.getStartTimestamp(), windowWidth / 100);
+		assertEquals(epoch + windowWidth / 2, folded.getEndTimestamp(), windowWidth / 100);
+		int mid = folded.lowerIndex(epoch);
+		assertEquals(0.99, folded.getFlux(mid), 0.001);
+		assertEquals(1.0, folded.getFlux(0), 0.001);
+		// Each bin stacks 25 to 50 points with noise SD 0.001.
+		double weight = folded.getWeight(mid);
+		assertTrue(weight > 1.5E7 && weight < 1E8);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWindowBeyondAngularLimit() {
+		new PhaseFolder(10.0, 0, PhaseFolder.maxWindowWidth(10.0) * 1.01, 100);
+	}
+}
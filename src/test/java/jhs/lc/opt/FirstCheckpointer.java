@@ -0,0 +1,22 @@
+package jhs.lc.opt;
+
+import java.io.File;
+
+/**
+ * Keeps only the first checkpoint, so tests can resume from the middle of a run.
+ */
+class FirstCheckpointer extends Checkpointer {
+	private boolean written = false;
+
+	public FirstCheckpointer(File file, int interval) {
+		super(file, interval);
+	}
+
+	@Override
+	public void write(String stage, StateWriter writer) {
+		if(!this.written) {
+			this.written = true;
+			super.write(stage, writer);
+		}
+	}
+}
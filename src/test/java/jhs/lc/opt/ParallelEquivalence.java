@@ -0,0 +1,33 @@
+package jhs.lc.opt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.math.optimization.RealPointValuePair;
+
+/**
+ * Checks that an optimization gives exactly the same result on a thread pool as it does serially.
+ */
+final class ParallelEquivalence {
+	private ParallelEquivalence() {
+	}
+
+	static void assertParallelMatchesSerial(ExecutorOptimization optimization) throws Exception {
+		RealPointValuePair serial = optimization.optimize(null);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			RealPointValuePair parallel = optimization.optimize(executor);
+			assertArrayEquals(serial.getPointRef(), parallel.getPointRef(), 0);
+			assertEquals(serial.getValue(), parallel.getValue(), 0);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	interface ExecutorOptimization {
+		RealPointValuePair optimize(ExecutorService executor) throws Exception;
+	}
+}
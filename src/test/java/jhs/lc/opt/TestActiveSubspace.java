@@ -0,0 +1,62 @@
+package jhs.lc.opt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestActiveSubspace {
+	@Test
+	public void testFrozenParametersExcluded() throws Exception {
+		int[] checks = new int[1];
+		NoEffectDetector detector = point -> {
+			checks[0]++;
+			return new NoEffectDetector.Detection(new boolean[] { false, true, false, true, false }, 7);
+		};
+		ActiveSubspace subspace = new ActiveSubspace(detector, 5);
+		Random random = new Random(3);
+		assertEquals(5, subspace.create(5, 5, random).length);
+		assertEquals(0, subspace.update(3, new double[5]));
+		assertEquals(0, checks[0]);
+		assertEquals(7, subspace.update(5, new double[5]));
+		assertEquals(1, checks[0]);
+		assertEquals(2, subspace.getNumFrozen(5));
+		for(int k = 0; k < 50; k++) {
+			int[] vars = subspace.create(5, 2, random);
+			assertEquals(2, vars.length);
+			for(int var : vars) {
+				assertNotEquals(1, var);
+				assertNotEquals(3, var);
+			}
+		}
+		assertEquals(3, subspace.create(5, 4, random).length);
+	}
+
+	@Test
+	public void testWeightedSubspaces() throws Exception {
+		ActiveSubspace subspace = new ActiveSubspace(null, 0);
+		Random random = new Random(5);
+		double[] weights = { 0.01, 0.01, 0.96, 0.01, 0.01 };
+		int count = 0;
+		for(int k = 0; k < 200; k++) {
+			int[] vars = subspace.create(5, 2, random, weights);
+			assertEquals(2, vars.length);
+			assertNotEquals(vars[0], vars[1]);
+			if(vars[0] == 2 || vars[1] == 2) {
+				count++;
+			}
+		}
+		assertTrue(count > 190);
+	}
+
+	@Test
+	public void testPlateauSamplesAllParameters() throws Exception {
+		ActiveSubspace subspace = new ActiveSubspace(point -> new NoEffectDetector.Detection(new boolean[] { true, true, true }, 7), 1);
+		subspace.update(0, new double[3]);
+		assertEquals(0, subspace.getNumFrozen(3));
+		assertEquals(3, subspace.create(3, 3, new Random(1)).length);
+	}
+}
@@ -0,0 +1,64 @@
+package jhs.lc.opt;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import jhs.math.util.ArrayUtil;
+
+import org.apache.commons.math.analysis.MultivariateRealFunction;
+import org.junit.Test;
+
+public class TestApproximateGradientDescentOptimizer {
+	@Test
+	public void testSensitivityWeightingReachesTargetInFewerEvaluations() throws Exception {
+		long uniform = 0, weighted = 0;
+		for(int seed = 0; seed < 10; seed++) {
+			uniform += this.evaluationsToTarget(false, 5001 + seed);
+			weighted += this.evaluationsToTarget(true, 5001 + seed);
+		}
+		assertTrue(weighted < uniform / 2);
+	}
+
+	private long evaluationsToTarget(boolean sensitivityWeighted, long seed) throws Exception {
+		int vectorLength = 20;
+		FewSensitiveParameters errorFunction = new FewSensitiveParameters(3, 1E-4);
+		ApproximateGradientDescentOptimizer optimizer = new ApproximateGradientDescentOptimizer(new Random(seed));
+		optimizer.setSensitivityWeighted(sensitivityWeighted);
+		optimizer.setMaxIterations(3000);
+		optimizer.setConvergenceChecker((iteration, previous, current) -> false);
+		optimizer.optimize(errorFunction, new double[vectorLength], ArrayUtil.repeat(0.01, vectorLength));
+		assertTrue(errorFunction.evaluationsToTarget > 0);
+		return errorFunction.evaluationsToTarget;
+	}
+
+	/**
+	 * Quadratic where only the first few parameters have a sizable effect. Records the number
+	 * of evaluations it took to first reach a target value.
+	 */
+	private static class FewSensitiveParameters implements MultivariateRealFunction {
+		private final int numSensitive;
+		private final double target;
+		private long numEvaluations = 0;
+		private long evaluationsToTarget = -1;
+
+		public FewSensitiveParameters(int numSensitive, double target) {
+			this.numSensitive = numSensitive;
+			this.target = target;
+		}
+
+		@Override
+		public double value(double[] point) {
+			double sum = 0;
+			for(int i = 0; i < point.length; i++) {
+				double diff = point[i] - 0.5;
+				sum += (i < this.numSensitive ? 1.0 : 1E-4) * diff * diff;
+			}
+			this.numEvaluations++;
+			if(sum <= this.target && this.evaluationsToTarget < 0) {
+				this.evaluationsToTarget = this.numEvaluations;
+			}
+			return sum;
+		}
+	}
+}
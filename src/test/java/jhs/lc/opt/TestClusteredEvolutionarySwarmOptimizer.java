@@ -1,12 +1,16 @@
 package jhs.lc.opt;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
 
 import jhs.math.util.ArrayUtil;
+import jhs.math.util.CheckpointableRandom;
 import jhs.math.util.MathUtil;
 
 import org.apache.commons.math.FunctionEvaluationException;
@@ -70,6 +74,106 @@ public class TestClusteredEvolutionarySwarmOptimizer {
 		assertEquals(0, distanceSq, 0.01);
 	}
 
+	@Test
+	public void testParallelMatchesSerial() throws Exception {
+		ParallelEquivalence.assertParallelMatchesSerial(executor -> this.optimizeWithExecutor(executor, new CustomErrorFunction(), 3));
+	}
+
+	@Test
+	public void testResumeMatchesUninterrupted() throws Exception {
+		File file = File.createTempFile("ceso", ".checkpoint");
+		file.deleteOnExit();
+		CustomErrorFunction errorFunction = new CustomErrorFunction();
+		ClusteredEvolutionarySwarmOptimizer optimizer = this.createResumableOptimizer(new CheckpointableRandom(33 + 1002));
+		optimizer.setCheckpointer(new FirstCheckpointer(file, 12));
+		RealPointValuePair uninterrupted = optimizer.optimize(3, errorFunction, errorFunction);
+
+		Checkpointer.Checkpoint checkpoint = Checkpointer.read(file);
+		assertEquals(ClusteredEvolutionarySwarmOptimizer.CHECKPOINT_STAGE, checkpoint.getStage());
+		ClusteredEvolutionarySwarmOptimizer resumed = this.createResumableOptimizer(new CheckpointableRandom(1));
+		RealPointValuePair result = resumed.resume(checkpoint.openState(), errorFunction, errorFunction);
+		assertArrayEquals(uninterrupted.getPointRef(), result.getPointRef(), 0);
+		assertEquals(uninterrupted.getValue(), result.getValue(), 0);
+	}
+
+	@Test
+	public void testResumeWithFrozenParametersMatchesUninterrupted() throws Exception {
+		File file = File.createTempFile("ceso", ".checkpoint");
+		file.deleteOnExit();
+		CustomErrorFunction errorFunction = new CustomErrorFunction();
+		ClusteredEvolutionarySwarmOptimizer optimizer = this.createFreezingOptimizer(new CheckpointableRandom(35 + 1002));
+		optimizer.setCheckpointer(new FirstCheckpointer(file, 12));
+		RealPointValuePair uninterrupted = optimizer.optimize(3, errorFunction, errorFunction);
+
+		ClusteredEvolutionarySwarmOptimizer resumed = this.createFreezingOptimizer(new CheckpointableRandom(1));
+		RealPointValuePair result = resumed.resume(Checkpointer.read(file).openState(), errorFunction, errorFunction);
+		assertArrayEquals(uninterrupted.getPointRef(), result.getPointRef(), 0);
+		assertEquals(uninterrupted.getValue(), result.getValue(), 0);
+	}
+
+	@Test
+	public void testResumeWithSurrogateMatchesUninterrupted() throws Exception {
+		File file = File.createTempFile("ceso", ".checkpoint");
+		file.deleteOnExit();
+		CustomErrorFunction errorFunction = new CustomErrorFunction();
+		KnnSurrogate surrogate = new KnnSurrogate(8, 1000, 0.5);
+		ClusteredEvolutionarySwarmOptimizer optimizer = this.createResumableOptimizer(new CheckpointableRandom(36 + 1002));
+		optimizer.setSurrogate(surrogate);
+		optimizer.setCheckpointer(new FirstCheckpointer(file, 12));
+		RealPointValuePair uninterrupted = optimizer.optimize(3, errorFunction, errorFunction);
+
+		KnnSurrogate resumedSurrogate = new KnnSurrogate(8, 1000, 0.5);
+		ClusteredEvolutionarySwarmOptimizer resumed = this.createResumableOptimizer(new CheckpointableRandom(1));
+		resumed.setSurrogate(resumedSurrogate);
+		RealPointValuePair result = resumed.resume(Checkpointer.read(file).openState(), errorFunction, errorFunction);
+		assertArrayEquals(uninterrupted.getPointRef(), result.getPointRef(), 0);
+		assertEquals(uninterrupted.getValue(), result.getValue(), 0);
+		assertEquals(surrogate.getNumScreenedOut(), resumedSurrogate.getNumScreenedOut());
+	}
+
+	private ClusteredEvolutionarySwarmOptimizer createFreezingOptimizer(Random random) {
+		ClusteredEvolutionarySwarmOptimizer optimizer = this.createResumableOptimizer(random);
+		// Freezes a parameter that depends on the best point.
+		optimizer.setNoEffectDetector(point -> {
+			boolean[] noEffect = new boolean[point.length];
+			noEffect[Math.floorMod((int) Math.floor(point[0] * 10), point.length)] = true;
+			return new NoEffectDetector.Detection(noEffect, 10);
+		});
+		optimizer.setFreezeInterval(5);
+		return optimizer;
+	}
+
+	@Test
+	public void testSurrogateScreensParticles() throws Exception {
+		CustomErrorFunction errorFunction = new CustomErrorFunction();
+		KnnSurrogate surrogate = new KnnSurrogate(8, 1000, 0.5);
+		ClusteredEvolutionarySwarmOptimizer optimizer = this.createResumableOptimizer(new Random(34 + 1002));
+		optimizer.setSurrogate(surrogate);
+		optimizer.optimize(3, errorFunction, errorFunction);
+		assertEquals(0, surrogate.getNumCandidates() % 16);
+		assertTrue(surrogate.getNumScreenedOut() > 0);
+		assertTrue(surrogate.getNumScreenedOut() <= surrogate.getNumCandidates() / 2);
+	}
+
+	private ClusteredEvolutionarySwarmOptimizer createResumableOptimizer(Random random) {
+		ClusteredEvolutionarySwarmOptimizer optimizer = new ClusteredEvolutionarySwarmOptimizer(random, 16);
+		optimizer.setInitialPoolSize(200);
+		optimizer.setMaxStartIterations(3);
+		optimizer.setMaxIterationsWithClustering(30);
+		optimizer.setMaxConsolidationIterations(10);
+		return optimizer;
+	}
+
+	private RealPointValuePair optimizeWithExecutor(ExecutorService executor, ClusteredEvaluator errorFunction, int vectorLength) throws Exception {
+		ClusteredEvolutionarySwarmOptimizer optimizer = new ClusteredEvolutionarySwarmOptimizer(new Random(31 + 1002), 16);
+		optimizer.setExecutor(executor);
+		optimizer.setInitialPoolSize(200);
+		optimizer.setMaxStartIterations(3);
+		optimizer.setMaxIterationsWithClustering(30);
+		optimizer.setMaxConsolidationIterations(10);
+		return optimizer.optimize(vectorLength, errorFunction, errorFunction);
+	}
+
 	private RealPointValuePair randomSearch(CustomErrorFunction function, Random random, int vectorLength) throws Exception {
 		int n = 200;
 		double minError = Double.POSITIVE_INFINITY;
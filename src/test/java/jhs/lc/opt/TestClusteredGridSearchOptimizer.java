@@ -1,13 +1,17 @@
 package jhs.lc.opt;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
 
 import jhs.lc.opt.ClusteredGridSearchOptimizer.Phase;
 import jhs.math.util.ArrayUtil;
+import jhs.math.util.CheckpointableRandom;
 import jhs.math.util.MathUtil;
 
 import org.apache.commons.math.FunctionEvaluationException;
@@ -36,6 +40,151 @@ public class TestClusteredGridSearchOptimizer {
 		assertTrue(result.getValue() < rsr.getValue());
 	}
 
+	@Test
+	public void testParallelMatchesSerial() throws Exception {
+		ParallelEquivalence.assertParallelMatchesSerial(executor -> this.optimizeWithExecutor(executor, new CustomErrorFunction(), 3));
+	}
+
+	@Test
+	public void testStopsWhenStalled() throws Exception {
+		ClusteredGridSearchOptimizer optimizer = new ClusteredGridSearchOptimizer(new Random(2045 + 1001), 5, 8);
+		optimizer.setMaxIterations(2000);
+		optimizer.setStallWindow(20);
+		optimizer.setStallTolerance(1E-6);
+		optimizer.optimize(3, new CustomErrorFunction());
+		assertEquals(StopReason.STALLED, optimizer.getStopReason());
+		assertTrue(optimizer.getNumEvaluations() < 5L * 7 * 2000);
+	}
+
+	@Test
+	public void testStopsAtMaxEvaluations() throws Exception {
+		ClusteredGridSearchOptimizer optimizer = new ClusteredGridSearchOptimizer(new Random(2046 + 1001), 5, 8);
+		optimizer.setMaxIterations(200);
+		optimizer.setMaxEvaluations(1000);
+		optimizer.optimize(3, new CustomErrorFunction());
+		assertEquals(StopReason.MAX_EVALUATIONS, optimizer.getStopReason());
+		assertTrue(optimizer.getNumEvaluations() <= 1000);
+		assertTrue(optimizer.getNumEvaluations() > 1000 - 5 * 7);
+	}
+
+	@Test
+	public void testResumeMatchesUninterrupted() throws Exception {
+		File file = File.createTempFile("cgso", ".checkpoint");
+		file.deleteOnExit();
+		CustomErrorFunction errorFunction = new CustomErrorFunction();
+		ClusteredGridSearchOptimizer optimizer = new ClusteredGridSearchOptimizer(new CheckpointableRandom(2047 + 1001), 5, 8);
+		optimizer.setMaxIterations(40);
+		optimizer.setCheckpointer(new FirstCheckpointer(file, 15));
+		RealPointValuePair uninterrupted = optimizer.optimize(3, errorFunction);
+
+		Checkpointer.Checkpoint checkpoint = Checkpointer.read(file);
+		assertEquals(ClusteredGridSearchOptimizer.CHECKPOINT_STAGE, checkpoint.getStage());
+		ClusteredGridSearchOptimizer resumed = new ClusteredGridSearchOptimizer(new CheckpointableRandom(1), 5, 8);
+		resumed.setMaxIterations(40);
+		RealPointValuePair result = resumed.resume(checkpoint.openState(), errorFunction);
+		assertArrayEquals(uninterrupted.getPointRef(), result.getPointRef(), 0);
+		assertEquals(uninterrupted.getValue(), result.getValue(), 0);
+		assertEquals(optimizer.getNumEvaluations(), resumed.getNumEvaluations());
+	}
+
+	@Test
+	public void testResumeWithFrozenParametersMatchesUninterrupted() throws Exception {
+		File file = File.createTempFile("cgso", ".checkpoint");
+		file.deleteOnExit();
+		CustomErrorFunction errorFunction = new CustomErrorFunction();
+		ClusteredGridSearchOptimizer optimizer = this.createFreezingOptimizer(new CheckpointableRandom(2051 + 1001));
+		optimizer.setCheckpointer(new FirstCheckpointer(file, 15));
+		RealPointValuePair uninterrupted = optimizer.optimize(3, errorFunction);
+
+		ClusteredGridSearchOptimizer resumed = this.createFreezingOptimizer(new CheckpointableRandom(1));
+		RealPointValuePair result = resumed.resume(Checkpointer.read(file).openState(), errorFunction);
+		assertArrayEquals(uninterrupted.getPointRef(), result.getPointRef(), 0);
+		assertEquals(uninterrupted.getValue(), result.getValue(), 0);
+		assertEquals(optimizer.getNumEvaluations(), resumed.getNumEvaluations());
+	}
+
+	private ClusteredGridSearchOptimizer createFreezingOptimizer(Random random) {
+		ClusteredGridSearchOptimizer optimizer = new ClusteredGridSearchOptimizer(random, 5, 8);
+		optimizer.setMaxIterations(40);
+		// Freezes a parameter that depends on the best point, at a cost of 10 evaluations per check.
+		optimizer.setNoEffectDetector(point -> {
+			boolean[] noEffect = new boolean[point.length];
+			noEffect[Math.floorMod((int) Math.floor(point[0] * 10), point.length)] = true;
+			return new NoEffectDetector.Detection(noEffect, 10);
+		});
+		optimizer.setFreezeInterval(4);
+		return optimizer;
+	}
+
+	@Test
+	public void testResumeWithSurrogateMatchesUninterrupted() throws Exception {
+		File file = File.createTempFile("cgso", ".checkpoint");
+		file.deleteOnExit();
+		CustomErrorFunction errorFunction = new CustomErrorFunction();
+		KnnSurrogate surrogate = new KnnSurrogate(8, 1000, 0.5);
+		ClusteredGridSearchOptimizer optimizer = new ClusteredGridSearchOptimizer(new CheckpointableRandom(2052 + 1001), 5, 8);
+		optimizer.setMaxIterations(40);
+		optimizer.setSurrogate(surrogate);
+		optimizer.setCheckpointer(new FirstCheckpointer(file, 15));
+		RealPointValuePair uninterrupted = optimizer.optimize(3, errorFunction);
+
+		KnnSurrogate resumedSurrogate = new KnnSurrogate(8, 1000, 0.5);
+		ClusteredGridSearchOptimizer resumed = new ClusteredGridSearchOptimizer(new CheckpointableRandom(1), 5, 8);
+		resumed.setMaxIterations(40);
+		resumed.setSurrogate(resumedSurrogate);
+		RealPointValuePair result = resumed.resume(Checkpointer.read(file).openState(), errorFunction);
+		assertArrayEquals(uninterrupted.getPointRef(), result.getPointRef(), 0);
+		assertEquals(uninterrupted.getValue(), result.getValue(), 0);
+		assertEquals(optimizer.getNumEvaluations(), resumed.getNumEvaluations());
+		assertEquals(surrogate.getNumScreenedOut(), resumedSurrogate.getNumScreenedOut());
+	}
+
+	@Test
+	public void testSurrogateAtEvaluationBudget() throws Exception {
+		long budget = 3000;
+		ClusteredGridSearchOptimizer plain = new ClusteredGridSearchOptimizer(new Random(2048 + 1001), 5, 8);
+		plain.setMaxIterations(1000);
+		plain.setMaxEvaluations(budget);
+		RealPointValuePair plainResult = plain.optimize(3, new CustomErrorFunction());
+
+		KnnSurrogate surrogate = new KnnSurrogate(8, 1000, 0.5);
+		ClusteredGridSearchOptimizer screened = new ClusteredGridSearchOptimizer(new Random(2048 + 1001), 5, 8);
+		screened.setMaxIterations(1000);
+		screened.setMaxEvaluations(budget);
+		screened.setSurrogate(surrogate);
+		RealPointValuePair screenedResult = screened.optimize(3, new CustomErrorFunction());
+		assertTrue(screened.getNumEvaluations() <= budget);
+		assertTrue(screenedResult.getValue() <= plainResult.getValue());
+		assertTrue(surrogate.getNumScreenedOut() > 0);
+		assertEquals(surrogate.getNumCandidates() - surrogate.getNumScreenedOut() + 5 * 20, screened.getNumEvaluations());
+	}
+
+	@Test
+	public void testWarmStartFromPriorResult() throws Exception {
+		ClusteredGridSearchOptimizer prior = new ClusteredGridSearchOptimizer(new Random(2049 + 1001), 5, 8);
+		prior.setMaxIterations(100);
+		RealPointValuePair priorResult = prior.optimize(3, new CustomErrorFunction());
+
+		ClusteredGridSearchOptimizer cold = new ClusteredGridSearchOptimizer(new Random(2050 + 1001), 5, 8);
+		cold.setMaxIterations(5);
+		RealPointValuePair coldResult = cold.optimize(3, new CustomErrorFunction());
+
+		ClusteredGridSearchOptimizer warm = new ClusteredGridSearchOptimizer(new Random(2050 + 1001), 5, 8);
+		warm.setMaxIterations(5);
+		warm.setInitialPoint(priorResult.getPoint());
+		warm.setInitialSpread(0.05);
+		RealPointValuePair warmResult = warm.optimize(3, new CustomErrorFunction());
+		assertTrue(warmResult.getValue() <= priorResult.getValue());
+		assertTrue(warmResult.getValue() < coldResult.getValue());
+	}
+
+	private RealPointValuePair optimizeWithExecutor(ExecutorService executor, ClusteredEvaluator errorFunction, int vectorLength) throws Exception {
+		ClusteredGridSearchOptimizer optimizer = new ClusteredGridSearchOptimizer(new Random(2043 + 1001), 5, 8);
+		optimizer.setExecutor(executor);
+		optimizer.setMaxIterations(40);
+		return optimizer.optimize(vectorLength, errorFunction);
+	}
+
 	private RealPointValuePair randomSearch(CustomErrorFunction function, Random random, int vectorLength) throws Exception {
 		int n = 200;
 		double minError = Double.POSITIVE_INFINITY;
@@ -5,6 +5,8 @@ import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import jhs.math.util.ArrayUtil;
 import jhs.math.util.MathUtil;
@@ -66,6 +68,33 @@ public class TestClusteredParticleSwarmOptimizer {
 		assertEquals(0, distanceSq, 0.01);
 	}
 
+	@Test
+	public void testParallelMatchesSerial() throws Exception {
+		ParallelEquivalence.assertParallelMatchesSerial(executor -> this.optimizeWithExecutor(executor, false, new CustomErrorFunction(), 3));
+	}
+
+	@Test
+	public void testAsynchronousOptimization() throws Exception {
+		int vectorLength = 3;
+		CustomErrorFunction errorFunction = new CustomErrorFunction();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			RealPointValuePair result = this.optimizeWithExecutor(executor, true, errorFunction, vectorLength);
+			RealPointValuePair rsr = this.randomSearch(errorFunction, new Random(2044), vectorLength);
+			assertTrue(result.getValue() < rsr.getValue());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private RealPointValuePair optimizeWithExecutor(ExecutorService executor, boolean asynchronous, ClusteredEvaluator errorFunction, int vectorLength) throws Exception {
+		DiversifiedParticleSwarmOptimizer optimizer = new DiversifiedParticleSwarmOptimizer(new Random(2043 + 1001), 20);
+		optimizer.setExecutor(executor);
+		optimizer.setAsynchronous(asynchronous);
+		optimizer.setMaxIterations(100);
+		return optimizer.optimize(vectorLength, errorFunction);
+	}
+
 	private RealPointValuePair randomSearch(CustomErrorFunction function, Random random, int vectorLength) throws Exception {
 		int n = 200;
 		double minError = Double.POSITIVE_INFINITY;
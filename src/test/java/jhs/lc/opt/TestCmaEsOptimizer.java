@@ -0,0 +1,191 @@
+package jhs.lc.opt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jhs.math.util.ArrayUtil;
+import jhs.math.util.MathUtil;
+
+import org.apache.commons.math.FunctionEvaluationException;
+import org.apache.commons.math.optimization.RealPointValuePair;
+import org.junit.Test;
+
+public class TestCmaEsOptimizer {
+	@Test
+	public void testIllConditionedQuadratic() throws Exception {
+		Random random = new Random(3001);
+		RotatedEllipsoid errorFunction = new RotatedEllipsoid(random, 10, 1E4, Double.NEGATIVE_INFINITY);
+		CmaEsOptimizer optimizer = new CmaEsOptimizer(random);
+		optimizer.setMaxIterations(3000);
+		optimizer.setFunctionTolerance(1E-14);
+		RealPointValuePair result = optimizer.optimize(10, errorFunction);
+		assertEquals(StopReason.CONVERGED, optimizer.getStopReason());
+		assertEquals(0, result.getValue(), 1E-10);
+		assertArrayEquals(errorFunction.minimum, result.getPointRef(), 1E-4);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPopulationSizeOfOneIsRejected() {
+		CmaEsOptimizer optimizer = new CmaEsOptimizer(new Random(3003));
+		optimizer.setPopulationSize(0);
+		optimizer.setPopulationSize(2);
+		optimizer.setPopulationSize(1);
+	}
+
+	@Test
+	public void testMultiMinimaWithRestarts() throws Exception {
+		Random random = new Random(3002);
+		CustomErrorFunction errorFunction = new CustomErrorFunction();
+		CmaEsOptimizer optimizer = new CmaEsOptimizer(random);
+		optimizer.setMaxIterations(2000);
+		optimizer.setRestartStrategy(CmaEsOptimizer.RestartStrategy.BIPOP);
+		RealPointValuePair rsr = this.randomSearch(errorFunction, random, 3, 2000);
+		RealPointValuePair result = optimizer.optimize(3, errorFunction);
+		assertTrue(result.getValue() < rsr.getValue());
+	}
+
+	@Test
+	public void testFewerEvaluationsToTargetThanGridSearch() throws Exception {
+		int vectorLength = 10;
+		double target = 1E-3;
+		RotatedEllipsoid cmaesFunction = new RotatedEllipsoid(new Random(3003), vectorLength, 100, target);
+		CmaEsOptimizer cmaes = new CmaEsOptimizer(new Random(3004));
+		cmaes.setMaxEvaluations(50000);
+		cmaes.optimize(vectorLength, cmaesFunction);
+
+		RotatedEllipsoid cgsoFunction = new RotatedEllipsoid(new Random(3003), vectorLength, 100, target);
+		ClusteredGridSearchOptimizer cgso = new ClusteredGridSearchOptimizer(new Random(3004), 5, 8);
+		cgso.setMaxIterations(5000);
+		cgso.setMaxEvaluations(50000);
+		cgso.optimize(vectorLength, cgsoFunction);
+
+		assertTrue(cmaesFunction.getEvaluationsToTarget() > 0);
+		assertTrue(cgsoFunction.getEvaluationsToTarget() > 0);
+		assertTrue(cmaesFunction.getEvaluationsToTarget() < cgsoFunction.getEvaluationsToTarget());
+	}
+
+	@Test
+	public void testParallelMatchesSerial() throws Exception {
+		ParallelEquivalence.assertParallelMatchesSerial(executor -> this.optimizeWithExecutor(executor, new CustomErrorFunction()));
+	}
+
+	private RealPointValuePair optimizeWithExecutor(ExecutorService executor, ClusteredEvaluator errorFunction) throws Exception {
+		CmaEsOptimizer optimizer = new CmaEsOptimizer(new Random(3005));
+		optimizer.setExecutor(executor);
+		optimizer.setMaxIterations(200);
+		optimizer.setRestartStrategy(CmaEsOptimizer.RestartStrategy.IPOP);
+		return optimizer.optimize(3, errorFunction);
+	}
+
+	private RealPointValuePair randomSearch(CustomErrorFunction function, Random random, int vectorLength, int n) throws Exception {
+		double minError = Double.POSITIVE_INFINITY;
+		double[] bestPoint = null;
+		for(int i = 0; i < n; i++) {
+			double[] point = MathUtil.sampleGaussian(random, 1.0, vectorLength);
+			double error = function.value(point);
+			if(error < minError) {
+				minError = error;
+				bestPoint = point;
+			}
+		}
+		return new RealPointValuePair(bestPoint, minError);
+	}
+
+	/**
+	 * Quadratic with a random minimum and axis scales spanning the given condition number,
+	 * in a coordinate system rotated by a random orthogonal matrix. Records the number of
+	 * evaluations it took to first reach a target value.
+	 */
+	private static class RotatedEllipsoid implements ClusteredEvaluator {
+		private final double[] minimum;
+		private final double[][] rotation;
+		private final double[] scales;
+		private final double target;
+		private final AtomicLong numEvaluations = new AtomicLong();
+		private final AtomicLong evaluationsToTarget = new AtomicLong(-1);
+
+		public RotatedEllipsoid(Random random, int n, double condition, double target) {
+			this.minimum = MathUtil.sampleGaussian(random, 1.0, n);
+			this.rotation = randomRotation(random, n);
+			this.scales = new double[n];
+			for(int i = 0; i < n; i++) {
+				this.scales[i] = Math.pow(condition, n == 1 ? 0 : (double) i / (n - 1));
+			}
+			this.target = target;
+		}
+
+		private static double[][] randomRotation(Random random, int n) {
+			double[][] q = new double[n][];
+			for(int i = 0; i < n; i++) {
+				double[] v = MathUtil.sampleGaussian(random, 1.0, n);
+				for(int j = 0; j < i; j++) {
+					double dot = MathUtil.dotProduct(v, q[j]);
+					for(int k = 0; k < n; k++) {
+						v[k] -= dot * q[j][k];
+					}
+				}
+				double norm = Math.sqrt(MathUtil.dotProduct(v, v));
+				for(int k = 0; k < n; k++) {
+					v[k] /= norm;
+				}
+				q[i] = v;
+			}
+			return q;
+		}
+
+		public final long getEvaluationsToTarget() {
+			return this.evaluationsToTarget.get();
+		}
+
+		@Override
+		public ClusteredParamEvaluation evaluate(double[] params) throws FunctionEvaluationException, IllegalArgumentException {
+			int n = params.length;
+			double[] diff = MathUtil.subtract(params, this.minimum);
+			double sum = 0;
+			for(int i = 0; i < n; i++) {
+				double projection = MathUtil.dotProduct(this.rotation[i], diff);
+				sum += this.scales[i] * projection * projection;
+			}
+			long count = this.numEvaluations.incrementAndGet();
+			if(sum <= this.target) {
+				this.evaluationsToTarget.compareAndSet(-1, count);
+			}
+			return new ClusteredParamEvaluation(sum, params);
+		}
+
+		@Override
+		public double[] recommendEpsilon(double[] params) {
+			return ArrayUtil.repeat(0.01, params.length);
+		}
+	}
+
+	private static class CustomErrorFunction implements ClusteredEvaluator {
+		@Override
+		public ClusteredParamEvaluation evaluate(double[] params) throws FunctionEvaluationException, IllegalArgumentException {
+			return new ClusteredParamEvaluation(this.value(params), params);
+		}
+
+		public final double value(double[] point) throws FunctionEvaluationException, IllegalArgumentException {
+			double x = point[0];
+			double y = point[1];
+			double z = point[2];
+			return
+				1.5 * Math.sin(x * 4 * Math.PI + 0.3) +
+				1.4 * Math.sin(y * 3 * Math.PI + 0.4) +
+				1.3 * Math.sin(z * 2 * Math.PI + 0.5) +
+				MathUtil.square(x - 0.7) * 0.1 +
+				MathUtil.square(y + 0.8) * 0.2 +
+				MathUtil.square(z - 0.9) * 0.3;
+		}
+
+		@Override
+		public double[] recommendEpsilon(double[] params) {
+			return ArrayUtil.repeat(1.0, params.length);
+		}
+	}
+}
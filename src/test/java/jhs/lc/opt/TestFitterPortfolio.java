@@ -0,0 +1,65 @@
+package jhs.lc.opt;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import jhs.lc.geom.ParametricTransitFunctionSource;
+import jhs.lc.geom.TransitFunction;
+import jhs.lc.sims.SimulatedFluxSource;
+
+import org.junit.Test;
+
+public class TestFitterPortfolio {
+	@Test
+	public void testLaggingFitsCancelled() {
+		List<LightCurveFitter> fitters = new ArrayList<>();
+		for(int i = 0; i < 3; i++) {
+			SimulatedFluxSource fluxSource = (peakFraction, brightnessFunction, orbitRadius) -> null;
+			ParametricTransitFunctionSource opacitySource = new ParametricTransitFunctionSource() {
+				@Override
+				public double getParameterScale(int paramIndex) {
+					return 1.0;
+				}
+
+				@Override
+				public int getNumParameters() {
+					return 2;
+				}
+
+				@Override
+				public TransitFunction getTransitFunction(double[] parameters) {
+					return null;
+				}
+			};
+			SolutionSampler sampler = new SolutionSampler(new Random(i), fluxSource, opacitySource, 100, 100);
+			fitters.add(new LightCurveFitter(sampler, 2, 2));
+		}
+		FitterPortfolio portfolio = new FitterPortfolio(fitters, 0.5, 10);
+
+		// Only check iterations are compared.
+		portfolio.informProgress(0, "cgso-clustering", 5, 1.0);
+		portfolio.informProgress(2, "cgso-clustering", 5, 100.0);
+		assertFalse(fitters.get(2).isCancelled());
+
+		portfolio.informProgress(0, "cgso-clustering", 10, 1.0);
+		portfolio.informProgress(1, "cgso-clustering", 10, 1.4);
+		portfolio.informProgress(2, "cgso-clustering", 10, 2.0);
+		assertFalse(fitters.get(0).isCancelled());
+		assertFalse(fitters.get(1).isCancelled());
+		assertTrue(fitters.get(2).isCancelled());
+
+		// A fit that reports late is compared with the errors already reported at the same iteration.
+		portfolio.informProgress(1, "cgso-clustering", 20, 1.0);
+		portfolio.informProgress(0, "cgso-clustering", 20, 3.0);
+		assertTrue(fitters.get(0).isCancelled());
+		assertFalse(fitters.get(1).isCancelled());
+
+		// Errors of different stages are not compared.
+		portfolio.informProgress(1, "agd", 20, 50.0);
+		assertFalse(fitters.get(1).isCancelled());
+	}
+}
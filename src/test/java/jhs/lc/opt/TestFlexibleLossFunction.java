@@ -0,0 +1,95 @@
+package jhs.lc.opt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import jhs.lc.data.LightCurve;
+
+import org.junit.Test;
+
+public class TestFlexibleLossFunction {
+	@Test
+	public void testBoundedBaseLoss() {
+		Random random = new Random(4201);
+		int length = 400;
+		double[] targetFlux = transitFlux(length, 180, 40, 0.02);
+		double[] weights = new double[length];
+		for(int i = 0; i < length; i++) {
+			weights[i] = 0.5 + random.nextDouble();
+		}
+		this.testBoundedBaseLossImpl(random, new FlexibleLossFunction(null, uniformLightCurve(targetFlux, null), 0.3, 0.5), length);
+		this.testBoundedBaseLossImpl(random, new FlexibleLossFunction(null, uniformLightCurve(targetFlux, weights), 0.1, 0), length);
+		this.testBoundedBaseLossImpl(random, new FlexibleLossFunction(null, uniformLightCurve(targetFlux, null), 0.5, 1.0), length);
+	}
+
+	private void testBoundedBaseLossImpl(Random random, FlexibleLossFunction lossFunction, int length) {
+		int numAborted = 0;
+		for(int t = 0; t < 50; t++) {
+			double[] testFlux = transitFlux(length, 100 + random.nextInt(200), 10 + random.nextInt(60), random.nextDouble() * 0.04);
+			double loss = lossFunction.baseLoss(testFlux);
+			double threshold = loss * (0.5 + random.nextDouble());
+			double bounded = lossFunction.baseLoss(testFlux, threshold);
+			if(bounded < threshold) {
+				assertEquals(loss, bounded, 0);
+			}
+			else {
+				assertTrue(bounded <= loss * (1 + 1E-12));
+				if(bounded != loss) {
+					numAborted++;
+				}
+			}
+			assertEquals(loss, lossFunction.baseLoss(testFlux, Double.POSITIVE_INFINITY), 0);
+		}
+		assertTrue(numAborted > 0);
+	}
+
+	@Test
+	public void testNonUniformCadence() {
+		// Fine bins from time 10 to 12 and coarse bins of 5 cadences elsewhere, as after adaptive binning.
+		int length = 300;
+		double[] timestamps = new double[length];
+		double[] weights = new double[length];
+		for(int i = 0; i < length; i++) {
+			timestamps[i] = i < 100 ? i * 0.1 : i < 200 ? 10.0 + (i - 100) * 0.02 : 12.0 + (i - 200) * 0.1;
+			weights[i] = i >= 100 && i < 200 ? 1 : 5;
+		}
+		// The transit straddles the change of cadence.
+		double[] targetFlux = transitFlux(timestamps, 10.0, 0.6, 0.02);
+		double[] shiftedFlux = transitFlux(timestamps, 10.3, 0.6, 0.02);
+		FlexibleLossFunction timeLoss = new FlexibleLossFunction(null, LightCurve.create(timestamps, targetFlux, weights), 0, 1.0);
+		// The same samples, as if they had a uniform cadence.
+		FlexibleLossFunction indexLoss = new FlexibleLossFunction(null, uniformLightCurve(targetFlux, weights), 0, 1.0);
+		// The flexible match undoes a shift in time much better if positions are times.
+		double timeMse = Math.expm1(timeLoss.baseLoss(shiftedFlux));
+		double indexMse = Math.expm1(indexLoss.baseLoss(shiftedFlux));
+		assertTrue(timeMse * 20 < indexMse);
+	}
+
+	private static LightCurve uniformLightCurve(double[] fluxArray, double[] weights) {
+		double[] timestamps = new double[fluxArray.length];
+		for(int i = 0; i < timestamps.length; i++) {
+			timestamps[i] = i;
+		}
+		return LightCurve.create(timestamps, fluxArray, weights);
+	}
+
+	private static double[] transitFlux(double[] timestamps, double center, double halfWidth, double depth) {
+		double[] flux = new double[timestamps.length];
+		for(int i = 0; i < timestamps.length; i++) {
+			double x = (timestamps[i] - center) / halfWidth;
+			flux[i] = Math.abs(x) < 1 ? 1.0 - depth * (1 - x * x) : 1.0;
+		}
+		return flux;
+	}
+
+	private static double[] transitFlux(int length, int center, int halfWidth, double depth) {
+		double[] flux = new double[length];
+		for(int i = 0; i < length; i++) {
+			double x = (double) (i - center) / halfWidth;
+			flux[i] = Math.abs(x) < 1 ? 1.0 - depth * (1 - x * x) : 1.0;
+		}
+		return flux;
+	}
+}
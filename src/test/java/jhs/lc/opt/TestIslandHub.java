@@ -0,0 +1,40 @@
+package jhs.lc.opt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.math.optimization.RealPointValuePair;
+import org.junit.Test;
+
+public class TestIslandHub {
+	@Test
+	public void testRingExchange() throws Exception {
+		try(IslandHub hub = new IslandHub(3)) {
+			IslandClient client0 = IslandClient.connect(hub.getPort(), 0, 5, 1);
+			IslandClient client1 = IslandClient.connect(hub.getPort(), 1, 5, 1);
+			IslandClient client2 = IslandClient.connect(hub.getPort(), 2, 5, 1);
+			// Island 2 has not sent emigrants yet.
+			assertEquals(0, client0.exchange(4, points(new double[] { 0.0, 0.5 })).size());
+			List<double[]> immigrants1 = client1.exchange(4, points(new double[] { 1.0, 1.5 }));
+			assertEquals(1, immigrants1.size());
+			assertArrayEquals(new double[] { 0.0, 0.5 }, immigrants1.get(0), 0);
+			client2.exchange(4, points(new double[] { 2.0, 2.5 }));
+			List<double[]> immigrants0 = client0.exchange(9, points(new double[] { 0.0, 0.25 }));
+			assertArrayEquals(new double[] { 2.0, 2.5 }, immigrants0.get(0), 0);
+			client0.close();
+			client1.close();
+			client2.close();
+			List<IslandHub.IslandResult> results = hub.awaitResults(5000);
+			assertEquals(3, results.size());
+			assertNull(results.get(0));
+		}
+	}
+
+	private static List<RealPointValuePair> points(double[] point) {
+		return Arrays.asList(new RealPointValuePair(point, point[0]));
+	}
+}
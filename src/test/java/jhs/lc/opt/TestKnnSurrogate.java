@@ -0,0 +1,50 @@
+package jhs.lc.opt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestKnnSurrogate {
+	@Test
+	public void testPredictsArchivedValues() {
+		KnnSurrogate surrogate = new KnnSurrogate(2, 10, 0.5);
+		surrogate.add(new double[] { 0, 0 }, 1.0);
+		surrogate.add(new double[] { 1, 0 }, 3.0);
+		surrogate.add(new double[] { 5, 5 }, 100.0);
+		assertEquals(1.0, surrogate.predict(new double[] { 0, 0 }), 1E-6);
+		assertEquals(2.0, surrogate.predict(new double[] { 0.5, 0 }), 1E-9);
+	}
+
+	@Test
+	public void testSelectsLowestPredictions() {
+		KnnSurrogate surrogate = new KnnSurrogate(1, 100, 0.25);
+		double[][] candidates = new double[8][];
+		for(int i = 0; i < 8; i++) {
+			candidates[i] = new double[] { 7 - i };
+		}
+		assertFalse(surrogate.isReady());
+		assertEquals(8, surrogate.select(candidates, 0, 8).length);
+		for(int i = 0; i < 8; i++) {
+			surrogate.add(new double[] { i }, i * i);
+		}
+		assertTrue(surrogate.isReady());
+		assertArrayEquals(new int[] { 6, 7 }, surrogate.select(candidates, 0, 8));
+		assertArrayEquals(new int[] { 4 }, surrogate.select(candidates, 2, 5));
+		assertEquals(8 + 8 + 3, surrogate.getNumCandidates());
+		assertEquals(6 + 2, surrogate.getNumScreenedOut());
+	}
+
+	@Test
+	public void testKeepsMostRecentEvaluations() {
+		KnnSurrogate surrogate = new KnnSurrogate(1, 2, 1.0);
+		surrogate.add(new double[] { 0 }, 1.0);
+		surrogate.add(new double[] { 1 }, 2.0);
+		surrogate.add(new double[] { 2 }, 3.0);
+		surrogate.add(new double[] { 3 }, Double.NaN);
+		assertEquals(2, surrogate.size());
+		assertEquals(2.0, surrogate.predict(new double[] { 0 }), 0);
+	}
+}
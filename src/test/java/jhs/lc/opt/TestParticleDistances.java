@@ -0,0 +1,42 @@
+package jhs.lc.opt;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import jhs.math.util.ArrayUtil;
+
+public class TestParticleDistances {
+	@Test
+	public void testRanksMatchSortedDistances() {
+		Random random = new Random(23);
+		int n = 300, dimension = 8;
+		double[][] points = new double[n][dimension];
+		for(int i = 0; i < n; i++) {
+			for(int d = 0; d < dimension; d++) {
+				points[i][d] = random.nextInt(4);
+			}
+		}
+		int[] fullSpace = ArrayUtil.indexIdentity(dimension);
+		int[] subspace = { 5, 1, 2 };
+		ParticleDistances matrixDistances = new ParticleDistances(points, dimension);
+		ParticleDistances subspaceDistances = new ParticleDistances(points, 3);
+		for(int pivot = 0; pivot < n; pivot += 7) {
+			assertArrayEquals(expectedRanks(points, pivot, fullSpace), matrixDistances.ranks(pivot, fullSpace));
+			assertArrayEquals(expectedRanks(points, pivot, subspace), subspaceDistances.ranks(pivot, subspace));
+		}
+	}
+
+	private static int[] expectedRanks(double[][] points, int pivot, int[] subspace) {
+		double[] distances = new double[points.length];
+		for(int i = 0; i < points.length; i++) {
+			for(int v : subspace) {
+				double diff = points[i][v] - points[pivot][v];
+				distances[i] += diff * diff;
+			}
+		}
+		return ArrayUtil.ranks(distances);
+	}
+}
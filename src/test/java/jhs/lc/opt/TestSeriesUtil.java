@@ -48,6 +48,33 @@ public class TestSeriesUtil {
 		}
 	}
 
+	@Test
+	public void testStretchSeriesWithPositions() {
+		Random random = new Random(19);
+		int length = 100;
+		double[] positions = new double[length];
+		double[] indexes = new double[length];
+		double[] series = new double[length];
+		double position = 0;
+		for(int i = 0; i < length; i++) {
+			position += 0.1 + random.nextDouble();
+			positions[i] = position;
+			indexes[i] = i;
+			series[i] = 2.0 * position + 1.0;
+		}
+		// Linear interpolation between non-uniform positions recovers a linear series.
+		double factor = 0.8;
+		double offset = 5.0;
+		double[] stretched = SeriesUtil.stretchSeries(positions, series, -1.0, factor, offset);
+		for(int i = 0; i < length; i++) {
+			double origPosition = positions[i] * factor + offset;
+			double expected = origPosition < positions[0] || origPosition > positions[length - 1] ? -1.0 : 2.0 * origPosition + 1.0;
+			assertEquals(expected, stretched[i], 1E-9);
+		}
+		// Index positions match the index-based stretch.
+		assertArrayEquals(SeriesUtil.stretchSeries(series, -1.0, 0.7, 3.3), SeriesUtil.stretchSeries(indexes, series, -1.0, 0.7, 3.3), 1E-12);
+	}
+
 	private final double[] series(Random random, int length) {
 		double[] series = new double[length];
 		double portion = 0.3 + 0.6 * random.nextDouble();
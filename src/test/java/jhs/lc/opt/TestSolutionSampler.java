@@ -3,12 +3,19 @@ package jhs.lc.opt;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.awt.geom.Rectangle2D;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import jhs.lc.geom.LimbDarkeningParams;
 import jhs.lc.geom.TransitFunction;
 import jhs.lc.geom.ParametricTransitFunctionSource;
+import jhs.lc.sims.AngularSimulation;
+import jhs.lc.sims.FastApproximateFluxSource;
 import jhs.lc.sims.ImageElementInfo;
 import jhs.lc.sims.SimulatedFlux;
 import jhs.lc.sims.SimulatedFluxSource;
@@ -61,6 +68,90 @@ public class TestSolutionSampler {
 		}
 	}
 	
+	@Test
+	public void testWithFluxSource() {
+		Random random = new Random(17);
+		SimulatedFluxSource fluxSource = (peakFraction, brightnessFunction, orbitRadius) -> null;
+		SimulatedFluxSource coarseFluxSource = (peakFraction, brightnessFunction, orbitRadius) -> null;
+		SolutionSampler sampler = new SolutionSampler(random, fluxSource, this.getOpacitySource(), 90, 110);
+		sampler.setPeakFraction(0.3);
+		SolutionSampler coarseSampler = sampler.withFluxSource(coarseFluxSource);
+		assertSame(random, coarseSampler.getRandom());
+		assertSame(coarseFluxSource, coarseSampler.getFluxSource());
+		assertEquals(0.3, coarseSampler.getPeakFraction(), 0);
+		assertEquals(sampler.getNumParameters(), coarseSampler.getNumParameters());
+		double[] parameters = new double[sampler.getNumParameters()];
+		for(int i = 0; i < parameters.length; i++) {
+			parameters[i] = random.nextGaussian();
+		}
+		Solution coarseSolution = coarseSampler.parametersAsSolution(parameters);
+		assertArrayEquals(parameters, sampler.solutionAsParameters(coarseSolution), 0.0001);
+	}
+
+	@Test
+	public void testParallelMinimalChangeThreshold() throws Exception {
+		double[] timestamps = AngularSimulation.timestamps(-1.0, +1.0, 41);
+		SimulatedFluxSource fluxSource = new FastApproximateFluxSource(timestamps, new LimbDarkeningParams(0.9, -0.2, 0.1), 0, 200.0, 40, 40);
+		ParametricTransitFunctionSource discSource = new ParametricTransitFunctionSource() {
+			@Override
+			public double getParameterScale(int paramIndex) {
+				return 0.1;
+			}
+			
+			@Override
+			public int getNumParameters() {
+				return 3;
+			}
+			
+			@Override
+			public TransitFunction getTransitFunction(double[] parameters) {
+				return new DiscTransitFunction(0.5 + parameters[0], parameters[1] - 0.5, parameters[2] - 0.2);
+			}
+		};
+		SolutionSampler sampler = new SolutionSampler(new Random(19), fluxSource, discSource, 100, 100);
+		double[] parameters = { 0.3, -0.2, 0.1 };
+		double[] serial = sampler.minimalChangeThreshold(parameters, 0.003);
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			assertArrayEquals(serial, sampler.minimalChangeThreshold(parameters, 0.003, executor), 0);
+		} finally {
+			executor.shutdown();
+		}
+		for(double threshold : serial) {
+			assertTrue(threshold > 0);
+		}
+	}
+	
+	private static class DiscTransitFunction implements TransitFunction {
+		private static final long serialVersionUID = 1L;
+		private final double radius, innerBrightness, outerBrightness;
+
+		public DiscTransitFunction(double radius, double innerBrightness, double outerBrightness) {
+			this.radius = radius;
+			this.innerBrightness = innerBrightness;
+			this.outerBrightness = outerBrightness;
+		}
+
+		@Override
+		public Rectangle2D getBoundingBox() {
+			return new Rectangle2D.Double(-1, -1, 2, 2);
+		}
+
+		@Override
+		public double fluxOrTransmittance(double x, double y, double z) {
+			double d = Math.sqrt(x * x + y * y);
+			if(d >= this.radius) {
+				return Double.NaN;
+			}
+			return d < this.radius * 0.5 ? this.innerBrightness : this.outerBrightness;
+		}
+
+		@Override
+		public double getExtraOptimizerError() {
+			return 0;
+		}
+	}
+
 	private ParametricTransitFunctionSource getOpacitySource() {
 		return new ParametricTransitFunctionSource() {			
 			@Override
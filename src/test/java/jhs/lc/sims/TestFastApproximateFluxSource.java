@@ -2,6 +2,8 @@ package jhs.lc.sims;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.awt.geom.Rectangle2D;
@@ -128,6 +130,112 @@ public class TestFastApproximateFluxSource {
 		assertArrayEquals(ArrayUtil.repeat(1.0, timestamps.length), fastFluxSource.produceModeledFlux(peakFraction, brightnessSource, orbitRadius).getFluxArray(), 0.0001);
 	}	
 	
+	@Test
+	public void testIncrementalFlux() {
+		double orbitRadius = 200.0;
+		double orbitalPeriod = 200.0;
+		double viewportAngle = Math.atan(1.0 / orbitRadius) * 2;
+		double timeSpan = orbitalPeriod * viewportAngle / Math.PI;
+		double[] timestamps = AngularSimulation.timestamps(-timeSpan / 2, +timeSpan / 2, 51);
+		SimulatedFluxSource fluxSource = this.getFluxSource(false, timestamps, orbitalPeriod, 0.002);
+		assertTrue(fluxSource.isIncremental());
+		double peakFraction = 0.45;
+		assertNull(fluxSource.produceModeledFlux(peakFraction, ringedDisc(0.20, -0.6), orbitRadius).raster);
+		SimulatedFlux base = fluxSource.produceBaseFlux(peakFraction, ringedDisc(0.20, -0.6), orbitRadius);
+		assertNotNull(base.raster);
+
+		// Only pixels around the inner boundary change.
+		TransitFunction changed = ringedDisc(0.22, -0.6);
+		SimulatedFlux incremental = fluxSource.produceModeledFlux(peakFraction, changed, orbitRadius, base);
+		assertNull(incremental.raster);
+		double[] expected = fluxSource.produceModeledFlux(peakFraction, changed, orbitRadius).getFluxArray();
+		assertArrayEquals(expected, incremental.getFluxArray(), 1E-12);
+		
+		// Different geometry, so a full simulation is done.
+		SimulatedFlux moved = fluxSource.produceModeledFlux(peakFraction + 0.01, changed, orbitRadius, base);
+		assertNull(moved.raster);
+		assertArrayEquals(fluxSource.produceModeledFlux(peakFraction + 0.01, changed, orbitRadius).getFluxArray(), moved.getFluxArray(), 0);
+		
+		// Increments are not chained.
+		SimulatedFlux fromIncremental = fluxSource.produceModeledFlux(peakFraction, ringedDisc(0.20, -0.6), orbitRadius, incremental);
+		assertArrayEquals(base.getFluxArray(), fromIncremental.getFluxArray(), 0);
+	}
+	
+	@Test
+	public void testIncrementalFluxRasterizesOnlyNewImage() {
+		double orbitRadius = 200.0;
+		double orbitalPeriod = 200.0;
+		double viewportAngle = Math.atan(1.0 / orbitRadius) * 2;
+		double timeSpan = orbitalPeriod * viewportAngle / Math.PI;
+		double[] timestamps = AngularSimulation.timestamps(-timeSpan / 2, +timeSpan / 2, 51);
+		SimulatedFluxSource fluxSource = this.getFluxSource(false, timestamps, orbitalPeriod, 0.002);
+		double peakFraction = 0.45;
+		int numPixels = 100 * 100;
+		int[] baseCalls = new int[1];
+		SimulatedFlux base = fluxSource.produceBaseFlux(peakFraction, counting(ringedDisc(0.20, -0.6), baseCalls), orbitRadius);
+		assertEquals(numPixels, baseCalls[0]);
+		baseCalls[0] = 0;
+
+		int[] changedCalls = new int[1];
+		fluxSource.produceModeledFlux(peakFraction, counting(ringedDisc(0.205, -0.6), changedCalls), orbitRadius, base);
+		assertEquals(0, baseCalls[0]);
+		assertEquals(numPixels, changedCalls[0]);
+
+		// Most pixels change, so a full simulation is done, from the same raster.
+		int[] replacedCalls = new int[1];
+		TransitFunction replaced = ringedDisc(0.45, 0.3);
+		SimulatedFlux fallback = fluxSource.produceModeledFlux(peakFraction, counting(replaced, replacedCalls), orbitRadius, base);
+		assertEquals(numPixels, replacedCalls[0]);
+		assertArrayEquals(fluxSource.produceModeledFlux(peakFraction, replaced, orbitRadius).getFluxArray(), fallback.getFluxArray(), 0);
+	}
+	
+	private static TransitFunction counting(TransitFunction function, int[] calls) {
+		return new TransitFunction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public Rectangle2D getBoundingBox() {
+				return function.getBoundingBox();
+			}
+
+			@Override
+			public double fluxOrTransmittance(double x, double y, double z) {
+				calls[0]++;
+				return function.fluxOrTransmittance(x, y, z);
+			}
+
+			@Override
+			public final double getExtraOptimizerError() {
+				return 0;
+			}
+		};
+	}
+	
+	private static TransitFunction ringedDisc(double innerRadius, double innerBrightness) {
+		return new TransitFunction() {			
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public Rectangle2D getBoundingBox() {
+				return new Rectangle2D.Double(-0.5, -0.5, 1.0, 1.0);
+			}
+			
+			@Override
+			public double fluxOrTransmittance(double x, double y, double z) {
+				double d = Math.sqrt(x * x + y * y);
+				if(d >= 0.5) {
+					return Double.NaN;
+				}
+				return d < innerRadius ? innerBrightness : -0.1;
+			}
+			
+			@Override
+			public final double getExtraOptimizerError() {
+				return 0;
+			}
+		};
+	}
+	
 	@Test
 	public void testTimestampIndexBounds() {
 		Random random = new Random(2);
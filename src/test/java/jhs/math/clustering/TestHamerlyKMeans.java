@@ -0,0 +1,96 @@
+package jhs.math.clustering;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class TestHamerlyKMeans {
+	@Test
+	public void testMatchesLloyd() {
+		Random random = new Random(3);
+		int n = 3000, dimension = 4, k = 12;
+		double[] points = randomBlobs(random, n, dimension, k);
+		double[] initialCentroids = HamerlyKMeans.seedPlusPlus(random, points, dimension, k);
+		HamerlyKMeans kmeans = new HamerlyKMeans(random, k, 100);
+		HamerlyKMeans.Result result = kmeans.cluster(points, dimension, initialCentroids);
+		int[] expected = lloyd(points, dimension, initialCentroids.clone(), k, result.getNumIterations());
+		assertArrayEquals(expected, result.getAssignments());
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		kmeans.setExecutor(executor);
+		HamerlyKMeans.Result parallelResult = kmeans.cluster(points, dimension, initialCentroids);
+		executor.shutdown();
+		assertArrayEquals(result.getAssignments(), parallelResult.getAssignments());
+		assertEquals(result.getWcss(), parallelResult.getWcss(), 1E-9);
+	}
+
+	@Test
+	public void testSeparatesBlobs() {
+		Random random = new Random(9);
+		int n = 600, dimension = 2, k = 3;
+		double[] points = randomBlobs(random, n, dimension, k);
+		HamerlyKMeans.Result result = new HamerlyKMeans(random, k, 50).cluster(points, dimension);
+		int[][] members = result.getMembers();
+		assertEquals(k, members.length);
+		for(int[] cluster : members) {
+			assertEquals(n / k, cluster.length);
+			int blob = cluster[0] % k;
+			for(int i : cluster) {
+				assertEquals(blob, i % k);
+			}
+		}
+	}
+
+	private static double[] randomBlobs(Random random, int n, int dimension, int numBlobs) {
+		double[] points = new double[n * dimension];
+		for(int i = 0; i < n; i++) {
+			int blob = i % numBlobs;
+			for(int d = 0; d < dimension; d++) {
+				points[i * dimension + d] = blob * 10.0 * (d + 1) + random.nextGaussian();
+			}
+		}
+		return points;
+	}
+
+	private static int[] lloyd(double[] points, int dimension, double[] centroids, int k, int numIterations) {
+		int n = points.length / dimension;
+		int[] assignments = new int[n];
+		for(int iteration = 0; iteration <= numIterations; iteration++) {
+			if(iteration > 0) {
+				double[] sums = new double[k * dimension];
+				int[] counts = new int[k];
+				for(int i = 0; i < n; i++) {
+					counts[assignments[i]]++;
+					for(int d = 0; d < dimension; d++) {
+						sums[assignments[i] * dimension + d] += points[i * dimension + d];
+					}
+				}
+				for(int c = 0; c < k; c++) {
+					if(counts[c] > 0) {
+						for(int d = 0; d < dimension; d++) {
+							centroids[c * dimension + d] = sums[c * dimension + d] / counts[c];
+						}
+					}
+				}
+			}
+			for(int i = 0; i < n; i++) {
+				double best = Double.POSITIVE_INFINITY;
+				for(int c = 0; c < k; c++) {
+					double dSq = 0;
+					for(int d = 0; d < dimension; d++) {
+						double diff = points[i * dimension + d] - centroids[c * dimension + d];
+						dSq += diff * diff;
+					}
+					if(dSq < best) {
+						best = dSq;
+						assignments[i] = c;
+					}
+				}
+			}
+		}
+		return assignments;
+	}
+}
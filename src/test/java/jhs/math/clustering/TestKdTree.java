@@ -0,0 +1,62 @@
+package jhs.math.clustering;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestKdTree {
+	@Test
+	public void testNearestWithRemovals() {
+		Random random = new Random(17);
+		int n = 2000, dimension = 6;
+		double[] points = new double[n * dimension];
+		for(int i = 0; i < points.length; i++) {
+			// Coarse values produce distance ties.
+			points[i] = random.nextInt(5);
+		}
+		KdTree tree = new KdTree(points, dimension);
+		boolean[] removed = new boolean[n];
+		double[] query = new double[dimension];
+		for(int t = 0; t < 3000; t++) {
+			int index = random.nextInt(n);
+			if(random.nextBoolean()) {
+				tree.remove(index);
+				removed[index] = true;
+			}
+			else {
+				tree.restore(index);
+				removed[index] = false;
+			}
+			for(int d = 0; d < dimension; d++) {
+				query[d] = random.nextInt(5) + random.nextDouble() * 0.1;
+			}
+			assertEquals(bruteForceNearest(points, dimension, removed, query), tree.nearest(query));
+		}
+		for(int i = 0; i < n; i++) {
+			tree.remove(i);
+		}
+		assertEquals(0, tree.getNumPresent());
+		assertEquals(-1, tree.nearest(query));
+	}
+
+	private static int bruteForceNearest(double[] points, int dimension, boolean[] removed, double[] query) {
+		int best = -1;
+		double bestDistanceSq = Double.POSITIVE_INFINITY;
+		for(int i = 0; i < removed.length; i++) {
+			if(!removed[i]) {
+				double dSq = 0;
+				for(int d = 0; d < dimension; d++) {
+					double diff = query[d] - points[i * dimension + d];
+					dSq += diff * diff;
+				}
+				if(dSq < bestDistanceSq) {
+					bestDistanceSq = dSq;
+					best = i;
+				}
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,47 @@
+package jhs.math.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestCheckpointableRandom {
+	@Test
+	public void testMatchesRandom() {
+		Random expected = new Random(1234567L);
+		Random actual = new CheckpointableRandom(1234567L);
+		for(int i = 0; i < 1000; i++) {
+			assertEquals(expected.nextInt(), actual.nextInt());
+			assertEquals(expected.nextInt(97), actual.nextInt(97));
+			assertEquals(expected.nextLong(), actual.nextLong());
+			assertEquals(expected.nextDouble(), actual.nextDouble(), 0);
+			assertEquals(expected.nextGaussian(), actual.nextGaussian(), 0);
+		}
+		expected.setSeed(99);
+		actual.setSeed(99);
+		assertEquals(expected.nextGaussian(), actual.nextGaussian(), 0);
+	}
+
+	@Test
+	public void testRestoredStateContinuesSequence() throws Exception {
+		CheckpointableRandom random = new CheckpointableRandom(31);
+		for(int i = 0; i < 100; i++) {
+			random.nextDouble();
+		}
+		// Leaves a pending Gaussian, which must survive the round trip.
+		random.nextGaussian();
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		random.writeState(new DataOutputStream(buffer));
+		CheckpointableRandom restored = new CheckpointableRandom(0);
+		restored.readState(new DataInputStream(new ByteArrayInputStream(buffer.toByteArray())));
+		for(int i = 0; i < 100; i++) {
+			assertEquals(random.nextGaussian(), restored.nextGaussian(), 0);
+			assertEquals(random.nextLong(), restored.nextLong());
+		}
+	}
+}